@@ -0,0 +1,490 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.calculator;
+
+import java.io.Serializable;
+
+import com.pb.common.math.MathUtil;
+
+/**
+ * Compiled form of a parsed Expression.  Expression.compile() turns the
+ * postfix token stack into a tree of nodes, one class per operator, so
+ * evaluating an expression is a chain of direct calls instead of a walk
+ * over expStack[] with a switch on every token.  Constant sub-expressions
+ * are folded when the tree is built.
+ *
+ * Operands are evaluated right to left, the same order used by
+ * Expression.solve(), so results (including PUT/GET side effects) are
+ * identical to the interpreter.
+ *
+ * @see Expression#compile(CompiledVariableFactory)
+ */
+public abstract class CompiledExpression implements Constants, Serializable {
+
+    private static final long serialVersionUID = -2165092873316251465L;
+
+    protected CompiledExpression() {
+    }
+
+    /**
+     * Evaluate the expression.
+     */
+    public abstract double solve();
+
+    /**
+     * @return true if the value of this node never changes
+     */
+    public boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * @return the node used for a numeric constant
+     */
+    public static CompiledExpression number(double value) {
+        return new Number(value);
+    }
+
+    /**
+     * Create the node for an operator code defined in Constants.  Arguments are
+     * passed in the order they appear in the expression.
+     */
+    static CompiledExpression operator(int op, CompiledExpression[] args, Expression owner) {
+
+        CompiledExpression node = null;
+
+        switch (op) {
+        case LN: node = new Ln(args[0]); break;
+        case EXP: node = new Exp(args[0]); break;
+        case ABS: node = new Abs(args[0]); break;
+        case SIGN: node = new Sign(args[0]); break;
+        case INT: node = new Int(args[0]); break;
+        case SQRT: node = new Sqrt(args[0]); break;
+
+        //put() and get() share the value stack of the expression that owns them
+        case PUT:
+        case GET:
+            return new ValueStack(op, args[0], owner);
+
+        case ADDITION:
+            node = args[1].isConstant() ? new AddConst(args[0], args[1].solve()) : new Add(args[0], args[1]);
+            break;
+        case SUBTRACTION:
+            node = args[1].isConstant() ? new AddConst(args[0], -args[1].solve()) : new Subtract(args[0], args[1]);
+            break;
+        case MULTIPLICATION:
+            node = args[1].isConstant() ? new MultiplyConst(args[0], args[1].solve())
+                 : args[0].isConstant() ? new MultiplyConst(args[1], args[0].solve())
+                 : new Multiply(args[0], args[1]);
+            break;
+        case DIVISION: node = new Divide(args[0], args[1]); break;
+        case MODULUS: node = new Modulus(args[0], args[1]); break;
+        case POWER: node = new Power(args[0], args[1]); break;
+        case MAX: node = new Max(args[0], args[1]); break;
+        case MIN: node = new Min(args[0], args[1]); break;
+        case GREATER:
+            node = args[1].isConstant() ? new GreaterConst(args[0], args[1].solve()) : new Greater(args[0], args[1]);
+            break;
+        case LESS:
+            node = args[1].isConstant() ? new LessConst(args[0], args[1].solve()) : new Less(args[0], args[1]);
+            break;
+        case EQUAL:
+            node = args[1].isConstant() ? new EqualConst(args[0], args[1].solve()) : new Equal(args[0], args[1]);
+            break;
+        case NOT_EQUAL:
+            node = args[1].isConstant() ? new NotEqualConst(args[0], args[1].solve()) : new NotEqual(args[0], args[1]);
+            break;
+        case GREATER_EQUAL:
+            node = args[1].isConstant() ? new GreaterEqualConst(args[0], args[1].solve()) : new GreaterEqual(args[0], args[1]);
+            break;
+        case LESS_EQUAL:
+            node = args[1].isConstant() ? new LessEqualConst(args[0], args[1].solve()) : new LessEqual(args[0], args[1]);
+            break;
+
+        case IF: node = new If(args[0], args[1], args[2]); break;
+
+        default:
+            throw new RuntimeException("compile, function = " + op + " not found ");
+        }
+
+        //Fold operators whose arguments are all constant
+        for (CompiledExpression arg : args) {
+            if (! arg.isConstant())
+                return node;
+        }
+        return new Number(node.solve());
+    }
+
+    /**
+     * @return the number of arguments taken by an operator code
+     */
+    static int numberOfArguments(int op) {
+        if (op > THREE_ARGS)
+            return 3;
+        else if (op > TWO_ARGS)
+            return 2;
+        else
+            return 1;
+    }
+
+
+    // ------------------------ Leaf Nodes ------------------------
+
+    static final class Number extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final double value;
+
+        Number(double value) {
+            this.value = value;
+        }
+
+        public double solve() {
+            return value;
+        }
+
+        public boolean isConstant() {
+            return true;
+        }
+    }
+
+    /**
+     * Default leaf nodes which go through the VariableTable interface.
+     */
+    static final class VariableTableFactory implements CompiledVariableFactory, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final VariableTable vtable;
+
+        VariableTableFactory(VariableTable vtable) {
+            this.vtable = vtable;
+        }
+
+        public CompiledExpression variable(int variableIndex) {
+            return new Variable(vtable, variableIndex);
+        }
+
+        public CompiledExpression arrayLookup(int variableIndex, CompiledExpression arrayIndex) {
+            return new ArrayLookup(vtable, variableIndex, arrayIndex);
+        }
+
+        public CompiledExpression assignment(int variableIndex, CompiledExpression value) {
+            return new Assignment(vtable, variableIndex, value);
+        }
+    }
+
+    static final class Variable extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final VariableTable vtable;
+        private final int index;
+
+        Variable(VariableTable vtable, int index) {
+            this.vtable = vtable;
+            this.index = index;
+        }
+
+        public double solve() {
+            return vtable.getValueForIndex(index);
+        }
+    }
+
+    static final class ArrayLookup extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final VariableTable vtable;
+        private final int index;
+        private final CompiledExpression arrayIndex;
+
+        ArrayLookup(VariableTable vtable, int index, CompiledExpression arrayIndex) {
+            this.vtable = vtable;
+            this.index = index;
+            this.arrayIndex = arrayIndex;
+        }
+
+        public double solve() {
+            return vtable.getValueForIndex(index, (int) arrayIndex.solve());
+        }
+    }
+
+    static final class Assignment extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final VariableTable vtable;
+        private final int index;
+        private final CompiledExpression value;
+
+        Assignment(VariableTable vtable, int index, CompiledExpression value) {
+            this.vtable = vtable;
+            this.index = index;
+            this.value = value;
+        }
+
+        public double solve() {
+            double answer = value.solve();
+            vtable.setValue(index, answer);
+            return answer;
+        }
+    }
+
+
+    // ------------------------ One Argument ------------------------
+
+    static final class Ln extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        Ln(CompiledExpression a) { this.a = a; }
+        public double solve() { return MathUtil.log(a.solve()); }
+    }
+
+    static final class Exp extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        Exp(CompiledExpression a) { this.a = a; }
+        public double solve() { return Math.pow(Math.E, a.solve()); }
+    }
+
+    static final class Abs extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        Abs(CompiledExpression a) { this.a = a; }
+        public double solve() { return Math.abs(a.solve()); }
+    }
+
+    static final class Sign extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        Sign(CompiledExpression a) { this.a = a; }
+        public double solve() {
+            double d1 = a.solve();
+            if (d1 < 0)
+                return -1;
+            else if (d1 == 0)
+                return 0;
+            else
+                return 1;
+        }
+    }
+
+    static final class Int extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        Int(CompiledExpression a) { this.a = a; }
+        public double solve() { return Math.floor(a.solve()); }
+    }
+
+    static final class Sqrt extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        Sqrt(CompiledExpression a) { this.a = a; }
+        public double solve() { return Math.sqrt(a.solve()); }
+    }
+
+    static final class ValueStack extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final int op;
+        private final CompiledExpression a;
+        private final Expression owner;
+
+        ValueStack(int op, CompiledExpression a, Expression owner) {
+            this.op = op;
+            this.a = a;
+            this.owner = owner;
+        }
+
+        public double solve() {
+            return owner.calculate1(op, a.solve());
+        }
+    }
+
+
+    // ------------------------ Two Arguments ------------------------
+
+    static final class Add extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Add(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() + d2; }
+    }
+
+    static final class AddConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        AddConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() + c; }
+    }
+
+    static final class Subtract extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Subtract(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() - d2; }
+    }
+
+    static final class Multiply extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Multiply(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() * d2; }
+    }
+
+    static final class MultiplyConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        MultiplyConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() * c; }
+    }
+
+    static final class Divide extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Divide(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() / d2; }
+    }
+
+    static final class Modulus extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Modulus(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() % d2; }
+    }
+
+    static final class Power extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Power(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return Math.pow(a.solve(), d2); }
+    }
+
+    static final class Max extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Max(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return Math.max(a.solve(), d2); }
+    }
+
+    static final class Min extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Min(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return Math.min(a.solve(), d2); }
+    }
+
+    static final class Greater extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Greater(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() > d2 ? 1 : 0; }
+    }
+
+    static final class GreaterConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        GreaterConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() > c ? 1 : 0; }
+    }
+
+    static final class Less extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Less(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() < d2 ? 1 : 0; }
+    }
+
+    static final class LessConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        LessConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() < c ? 1 : 0; }
+    }
+
+    static final class Equal extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        Equal(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() == d2 ? 1 : 0; }
+    }
+
+    static final class EqualConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        EqualConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() == c ? 1 : 0; }
+    }
+
+    static final class NotEqual extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        NotEqual(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() != d2 ? 1 : 0; }
+    }
+
+    static final class NotEqualConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        NotEqualConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() != c ? 1 : 0; }
+    }
+
+    static final class GreaterEqual extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        GreaterEqual(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() >= d2 ? 1 : 0; }
+    }
+
+    static final class GreaterEqualConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        GreaterEqualConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() >= c ? 1 : 0; }
+    }
+
+    static final class LessEqual extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b;
+        LessEqual(CompiledExpression a, CompiledExpression b) { this.a = a; this.b = b; }
+        public double solve() { double d2 = b.solve(); return a.solve() <= d2 ? 1 : 0; }
+    }
+
+    static final class LessEqualConst extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a;
+        private final double c;
+        LessEqualConst(CompiledExpression a, double c) { this.a = a; this.c = c; }
+        public double solve() { return a.solve() <= c ? 1 : 0; }
+    }
+
+
+    // ------------------------ Three Arguments ------------------------
+
+    static final class If extends CompiledExpression {
+        private static final long serialVersionUID = 1L;
+        private final CompiledExpression a, b, c;
+        If(CompiledExpression a, CompiledExpression b, CompiledExpression c) { this.a = a; this.b = b; this.c = c; }
+
+        //all three arguments are evaluated, as in the interpreter
+        public double solve() {
+            double d3 = c.solve();
+            double d2 = b.solve();
+            return a.solve() > 0 ? d2 : d3;
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.calculator;
+
+/**
+ * Call back interface used by Expression.compile() to create the leaf nodes
+ * of a compiled expression.  A variable table that knows the type of each of
+ * its variables can return nodes which read the value directly instead of
+ * going through getValueForIndex().
+ *
+ * @see CompiledExpression
+ */
+public interface CompiledVariableFactory {
+
+    /**
+     * Called to create a node that returns the value of an indexed variable
+     */
+    public CompiledExpression variable(int variableIndex);
+
+    /**
+     * Called to create a node that returns the value of an indexed, arrayed
+     * variable e.g. IVT[PERIOD]
+     */
+    public CompiledExpression arrayLookup(int variableIndex, CompiledExpression arrayIndex);
+
+    /**
+     * Called to create a node that stores the result of an expression in
+     * an assignment variable, for example a=b+c
+     */
+    public CompiledExpression assignment(int variableIndex, CompiledExpression value);
+
+}
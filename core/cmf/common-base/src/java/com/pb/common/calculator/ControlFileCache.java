@@ -0,0 +1,282 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.calculator;
+
+import com.pb.common.util.ResourceUtil;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the model sheets read from UEC control files by ControlFileReader.
+ *
+ * The cache is used when the environment passed to the ControlFileReader has a UEC.Cache.Directory entry.  A sheet
+ * read from a workbook is kept in memory, so other threads reading the same sheet don't open the workbook again,
+ * and is written to a file in the cache directory, so later runs and other nodes sharing the directory don't either.
+ *
+ * Entries are keyed by a SHA-1 hash of the workbook contents, the model and data sheet numbers and the environment
+ * (with any system property overrides), so an entry is no longer used once the workbook or the properties change.
+ * Stale files are left in the directory and can be deleted at any time.
+ */
+public class ControlFileCache {
+
+    public static final String PROPERTY_CACHE_DIRECTORY = "UEC.Cache.Directory";
+
+    private static final String FILE_EXTENSION = ".uec";
+
+    // bump when the cached classes change in a way that the serialized form doesn't reflect
+    private static final int CACHE_VERSION = 1;
+
+    private static Logger logger = Logger.getLogger(ControlFileCache.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // serialized Entries by key
+    private static final ConcurrentHashMap<String, byte[]> memoryCache = new ConcurrentHashMap<String, byte[]>();
+
+    // one lock for each key, so threads reading the same sheet at the same time wait for the first one to read it
+    private static final ConcurrentHashMap<String, Object> keyLocks = new ConcurrentHashMap<String, Object>();
+
+    // workbook content hash by path, modification time and length, so each workbook is hashed once
+    private static final ConcurrentHashMap<String, String> fileHashes = new ConcurrentHashMap<String, String>();
+
+
+    /**
+     * The parsed contents of a control file sheet.
+     */
+    static class Entries implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        ModelHeader header;
+        ModelEntry[] modelEntries;
+        ModelAlternative[] alternatives;
+        int[][] nestedAlternatives;
+        double[][] nestingCoefficients;
+        DataEntry[] tableEntries;
+        DataEntry[] matrixEntries;
+        float[][] coefficients;
+    }
+
+
+    private ControlFileCache() {
+    }
+
+
+    /**
+     * @return the cache directory named in the environment, or null if the cache isn't used.
+     */
+    static File getCacheDirectory(HashMap<String, String> env) {
+        if (env == null)
+            return null;
+        String dirName = env.get(PROPERTY_CACHE_DIRECTORY);
+        if (dirName == null || dirName.trim().length() == 0)
+            return null;
+        return new File(dirName.trim());
+    }
+
+    /**
+     * @return the cache key for a sheet of a control file.
+     */
+    static String getKey(File file, HashMap<String, String> env, int modelSheet, int dataSheet) {
+
+        MessageDigest digest = newDigest();
+        update(digest, "version=" + CACHE_VERSION);
+        update(digest, "file=" + getFileHash(file));
+        update(digest, "modelSheet=" + modelSheet);
+        update(digest, "dataSheet=" + dataSheet);
+
+        // sorted, with the same system property overrides that ControlFileReader applies
+        Map<String, String> sortedEnv = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : env.entrySet())
+            sortedEnv.put(entry.getKey(), ResourceUtil.checkSystemProperties(entry.getKey(), entry.getValue()));
+        for (Map.Entry<String, String> entry : sortedEnv.entrySet())
+            update(digest, entry.getKey() + "=" + entry.getValue());
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the object to synchronize on while getting or reading and putting the entries for a key.
+     */
+    static Object getLock(String key) {
+        Object lock = keyLocks.get(key);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = keyLocks.putIfAbsent(key, newLock);
+            if (lock == null)
+                lock = newLock;
+        }
+        return lock;
+    }
+
+    /**
+     * @return the cached entries for a key, or null if the sheet has to be read from the workbook.
+     */
+    static Entries get(String key, File cacheDirectory) {
+
+        byte[] bytes = memoryCache.get(key);
+        if (bytes == null) {
+            File cacheFile = new File(cacheDirectory, key + FILE_EXTENSION);
+            if (!cacheFile.isFile())
+                return null;
+            try {
+                bytes = readFile(cacheFile);
+            }
+            catch (IOException e) {
+                logger.warn("could not read UEC cache file " + cacheFile + ", the workbook will be read instead.", e);
+                return null;
+            }
+            memoryCache.putIfAbsent(key, bytes);
+        }
+
+        try {
+            // each caller gets its own copy, since the UECs may change the arrays
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            Entries entries = (Entries) in.readObject();
+            in.close();
+            return entries;
+        }
+        catch (Exception e) {
+            logger.warn("could not read UEC cache entry " + key + ", the workbook will be read instead.", e);
+            memoryCache.remove(key, bytes);
+            return null;
+        }
+    }
+
+    /**
+     * Keep the entries read from a workbook in memory and in the cache directory.
+     */
+    static void put(String key, File cacheDirectory, Entries entries) {
+
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(byteStream);
+            out.writeObject(entries);
+            out.close();
+            bytes = byteStream.toByteArray();
+        }
+        catch (IOException e) {
+            logger.warn("could not serialize UEC cache entry " + key + ".", e);
+            return;
+        }
+
+        // only the first thread to read the sheet writes the file
+        if (memoryCache.putIfAbsent(key, bytes) != null)
+            return;
+
+        File cacheFile = new File(cacheDirectory, key + FILE_EXTENSION);
+        if (cacheFile.isFile())
+            return;
+
+        // write to a temporary file and rename it, so other nodes sharing the directory never read a partial file
+        File tempFile = null;
+        try {
+            cacheDirectory.mkdirs();
+            tempFile = File.createTempFile(key, ".tmp", cacheDirectory);
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(bytes);
+            }
+            finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(cacheFile))
+                tempFile.delete();
+        }
+        catch (IOException e) {
+            logger.warn("could not write UEC cache file " + cacheFile + ".", e);
+            if (tempFile != null)
+                tempFile.delete();
+        }
+    }
+
+
+    private static String getFileHash(File file) {
+        String fileKey = file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length();
+        String hash = fileHashes.get(fileKey);
+        if (hash == null) {
+            try {
+                MessageDigest digest = newDigest();
+                digest.update(readFile(file));
+                hash = toHex(digest.digest());
+            }
+            catch (IOException e) {
+                logger.error("could not read UEC control file " + file + ".", e);
+                throw new RuntimeException(e);
+            }
+            fileHashes.put(fileKey, hash);
+        }
+        return hash;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(UTF8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+}
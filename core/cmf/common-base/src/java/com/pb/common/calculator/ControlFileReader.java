@@ -92,6 +92,43 @@ public class ControlFileReader implements Serializable {
 
         printEnvironmentVariables();
 
+        File cacheDirectory = ControlFileCache.getCacheDirectory(env);
+        if (cacheDirectory == null) {
+            readControlFile();
+        }
+        else {
+            String cacheKey = ControlFileCache.getKey(file, env, modelSheet, dataSheet);
+            synchronized (ControlFileCache.getLock(cacheKey)) {
+                ControlFileCache.Entries entries = ControlFileCache.get(cacheKey, cacheDirectory);
+                if (entries != null) {
+                    setEntries(entries);
+                    if (logger.isDebugEnabled())
+                        logger.debug("read sheet " + modelSheet + " of " + file + " from UEC cache entry " + cacheKey);
+                }
+                else {
+                    readControlFile();
+                    ControlFileCache.put(cacheKey, cacheDirectory, getEntries());
+                }
+            }
+        }
+
+        if ( logger.isDebugEnabled()) {
+            for (int r=0; r < tableEntries.length; r++) {
+                logger.debug("entry: "+tableEntries[r]);
+            }
+            for (int r=0; r < matrixEntries.length; r++) {
+                logger.debug("entry: "+matrixEntries[r]);
+            }
+        }
+
+    }
+
+
+    /**
+     * Read the model and data sheets from the workbook.
+     */
+    private void readControlFile() {
+
         try {
             WorkbookSettings ws = new WorkbookSettings();
             ws.setGCDisabled( true );
@@ -121,16 +158,31 @@ public class ControlFileReader implements Serializable {
         for (int r=0; r < matrixList.size(); r++) {
             matrixEntries[r] = (DataEntry) matrixList.get(r);
         }
+    }
 
-        if ( logger.isDebugEnabled()) {
-            for (int r=0; r < tableEntries.length; r++) {
-                logger.debug("entry: "+tableEntries[r]);
-            }
-            for (int r=0; r < matrixEntries.length; r++) {
-                logger.debug("entry: "+matrixEntries[r]);
-            }
-        }
 
+    private ControlFileCache.Entries getEntries() {
+        ControlFileCache.Entries entries = new ControlFileCache.Entries();
+        entries.header = header;
+        entries.modelEntries = modelEntries;
+        entries.alternatives = alternatives;
+        entries.nestedAlternatives = nestedAlternatives;
+        entries.nestingCoefficients = nestingCoefficients;
+        entries.tableEntries = tableEntries;
+        entries.matrixEntries = matrixEntries;
+        entries.coefficients = coefficients;
+        return entries;
+    }
+
+    private void setEntries(ControlFileCache.Entries entries) {
+        header = entries.header;
+        modelEntries = entries.modelEntries;
+        alternatives = entries.alternatives;
+        nestedAlternatives = entries.nestedAlternatives;
+        nestingCoefficients = entries.nestingCoefficients;
+        tableEntries = entries.tableEntries;
+        matrixEntries = entries.matrixEntries;
+        coefficients = entries.coefficients;
     }
 
 
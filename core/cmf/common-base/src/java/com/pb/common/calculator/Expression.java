@@ -482,6 +482,85 @@ public class Expression implements Constants, Serializable {
         return answer;
     }
 
+    /**
+     * Compile the parsed expression into a tree of CompiledExpression nodes.
+     * Must be called after parse().  Leaf nodes are created by the factory;
+     * if the factory is null, leaf nodes use the VariableTable this expression
+     * was created with.
+     *
+     * @param factory creates variable, array lookup and assignment nodes
+     * @return compiled form of this expression
+     */
+    public CompiledExpression compile(CompiledVariableFactory factory) {
+
+        if (error) {
+            throw new RuntimeException("cannot compile expression, " + prog);
+        }
+
+        if (factory == null) {
+            factory = new CompiledExpression.VariableTableFactory(vtable);
+        }
+
+        //Operand stack - variables are kept as an index until they are used
+        //since an ARRAY lookup needs the variable index rather than its value
+        CompiledExpression[] nodes = new CompiledExpression[expindex + 1];
+        int[] varIndex = new int[expindex + 1];
+        int top = 0;
+
+        for (int j = 0; j <= expindex; j++) {
+
+            switch (tokenType[j]) {
+            case NUMBER:
+                nodes[top] = CompiledExpression.number(expStack[j]);
+                varIndex[top++] = -1;
+                break;
+
+            case VARIABLE:
+                nodes[top] = null;
+                varIndex[top++] = (int) expStack[j];
+                break;
+
+            case DELIMITER:
+                int op = (int) expStack[j];
+
+                if (op == ARRAY_LOOKUP) {
+                    CompiledExpression index = compiledOperand(nodes, varIndex, top - 1, factory);
+                    nodes[top - 2] = factory.arrayLookup(varIndex[top - 2], index);
+                    varIndex[top - 2] = -1;
+                    top--;
+                }
+                else {
+                    int nArgs = CompiledExpression.numberOfArguments(op);
+                    CompiledExpression[] args = new CompiledExpression[nArgs];
+                    for (int k = 0; k < nArgs; k++) {
+                        args[k] = compiledOperand(nodes, varIndex, top - nArgs + k, factory);
+                    }
+                    top -= nArgs;
+                    nodes[top] = CompiledExpression.operator(op, args, this);
+                    varIndex[top++] = -1;
+                }
+                break;
+            }
+        }
+
+        CompiledExpression root = compiledOperand(nodes, varIndex, 0, factory);
+
+        if (result_index >= 0) {
+            root = factory.assignment(result_index, root);
+        }
+
+        return root;
+    }
+
+    private CompiledExpression compiledOperand(CompiledExpression[] nodes, int[] varIndex,
+            int position, CompiledVariableFactory factory) {
+
+        if (nodes[position] == null) {
+            nodes[position] = factory.variable(varIndex[position]);
+        }
+        return nodes[position];
+    }
+
     protected double solve1() {
 
         double d3;
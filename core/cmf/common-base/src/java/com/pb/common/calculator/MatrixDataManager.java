@@ -51,6 +51,9 @@ public class MatrixDataManager implements Serializable {
     private MatrixDataServerIf mDataServer;
     private static MatrixDataManager instance = new MatrixDataManager();
 
+    //If set, matrices from mDataServer are fetched a row at a time into this cache
+    private transient MatrixRowCache mRowCache;
+
     //Holds references to each matrix object (excluding matrices in a matrix collection)
     private Matrix[] mValues = new Matrix[0];
 
@@ -97,6 +100,29 @@ public class MatrixDataManager implements Serializable {
         this.mDataServer = mds;
     }
 
+    /**
+     * Fetch matrices (other than those in matrix collections) from the matrix data server a row at a time,
+     * keeping the rows for at most maxOrigins origins in memory, instead of transferring whole matrices.
+     * Must be called after setMatrixDataServerObject() and before matrices are read.
+     * @param maxOrigins is the number of origins for which rows are cached, or 0 to transfer whole matrices.
+     */
+    synchronized public void setMatrixRowCacheSize( int maxOrigins ) {
+        if ( maxOrigins > 0 && mDataServer != null ) {
+            mRowCache = new MatrixRowCache( mDataServer, maxOrigins );
+            logger.info( "matrices will be fetched from the matrix data server by row, for up to " + maxOrigins + " origins." );
+        }
+        else {
+            mRowCache = null;
+        }
+    }
+
+    /**
+     * @return the row cache statistics, or an empty string if matrices are not fetched by row.
+     */
+    public String getMatrixRowCacheStatistics() {
+        return mRowCache == null ? "" : mRowCache.getStatistics();
+    }
+
 
     /** Returns an instance to the singleton.
      */
@@ -111,6 +137,9 @@ public class MatrixDataManager implements Serializable {
         mValues = new Matrix[0];
         mEntryList.clear();
 
+        if (mRowCache != null)
+            mRowCache.clear();
+
         mArrayMappingToIndex.clear();
         mArrayNameLookup.clear();
 
@@ -246,7 +275,7 @@ public class MatrixDataManager implements Serializable {
             String name = matrixEntry.name;
             Matrix matrix = null;
             try {
-                matrix = getMatrix(matrixEntry);
+                matrix = getMatrixForRowAccess(matrixEntry);
             }
             catch (Exception e) {
                 logger.fatal("Exception caught trying to getMatrix(" + name + "): ",e);
@@ -610,12 +639,14 @@ public class MatrixDataManager implements Serializable {
      * get the Matrix object whose location is identified in the DataEntry object.
      * if an instance of MatrixDataServerIf has been set, it will get the Matrix object
      * from a server object using an RMI or xml-rpc based method, for example.  Otherwise readMatrix() is called.
+     * Mapped matrices are always read in this process, since they are shared through the operating system
+     * rather than copied from the server.
      * @param matrixEntry is the DataEntry object that describes the specifics of the matrix data table
      * @return a Matrix object.
      */
     protected Matrix getMatrix(DataEntry matrixEntry) {
 
-        if ( mDataServer == null ) {
+        if ( mDataServer == null || matrixEntry.format.equalsIgnoreCase("mapped") ) {
             return readMatrix( matrixEntry );
         }
         else {
@@ -629,6 +660,24 @@ public class MatrixDataManager implements Serializable {
     }
 
 
+    /**
+     * get a Matrix object for cell and row lookups.  if a row cache has been set, the Matrix
+     * holds only the rows in the cache, otherwise getMatrix() is called.
+     */
+    private Matrix getMatrixForRowAccess(DataEntry matrixEntry) {
+
+        if ( mRowCache == null || matrixEntry.format.equalsIgnoreCase("mapped") ) {
+            return getMatrix( matrixEntry );
+        }
+        else {
+            mMatrixNames.add(matrixEntry.name);
+            mEntryList.add(matrixEntry);
+            return mRowCache.createMatrix( matrixEntry );
+        }
+
+    }
+
+
     /*
      * Read a matrix.
      *
@@ -666,9 +715,15 @@ public class MatrixDataManager implements Serializable {
         } else if (matrixEntry.format.equalsIgnoreCase("tpplus32")) { // TODO: remove once 32bit reader DLL is no longer supported
            MatrixReader mr = MatrixReader.createReader(MatrixType.TPPLUS32, new File(fileName));
            matrix = mr.readMatrix(matrixEntry.matrixName); 
+        } else if (matrixEntry.format.equalsIgnoreCase("tpplusjava")) {
+            MatrixReader mr = MatrixReader.createReader(MatrixType.TPPLUSJAVA, new File(fileName));
+            matrix = mr.readMatrix(matrixEntry.matrixName);
         } else if (matrixEntry.format.equalsIgnoreCase("transcad")) {
             MatrixReader mr = MatrixReader.createReader(MatrixType.TRANSCAD, new File(fileName));
             matrix = mr.readMatrix(matrixEntry.matrixName);
+        } else if (matrixEntry.format.equalsIgnoreCase("mapped")) {
+            MatrixReader mr = MatrixReader.createReader(MatrixType.MAPPED, new File(fileName));
+            matrix = mr.readMatrix(matrixEntry.matrixName);
         } else {
             throw new RuntimeException("unsupported matrix type: " + matrixEntry.format);
         }
@@ -862,6 +917,44 @@ public class MatrixDataManager implements Serializable {
         }
     }
 
+    /**
+     * Returns a hash of the values for an origin in every matrix and matrix collection held,
+     * e.g. to find the origins whose matrix values changed since an earlier model run.
+     *
+     * @param origIndex
+     * @param destIndices  the destinations to include
+     * @return hash of the origin's matrix values
+     */
+    public long getRowFingerprint(int origIndex, int[] destIndices) {
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (Matrix m : mValues) {
+            hash = fingerprint(hash, m.getName().hashCode());
+            for (int dest : destIndices)
+                hash = fingerprint(hash, Float.floatToIntBits(m.getValueAt(origIndex, dest)));
+        }
+
+        for (MatrixCollection mc : mGroupValues) {
+            ArrayList<String> names = new ArrayList<String>();
+            for (Object name : mc.getHashMap().keySet())
+                names.add((String) name);
+            java.util.Collections.sort(names);
+            for (String name : names) {
+                hash = fingerprint(hash, name.hashCode());
+                for (int dest : destIndices)
+                    hash = fingerprint(hash, Float.floatToIntBits(mc.getValue(origIndex, dest, name)));
+            }
+        }
+
+        return hash;
+    }
+
+    private static long fingerprint(long hash, int value) {
+        hash = (hash ^ value) * 0x100000001b3L;
+        return hash ^ (hash >>> 29);
+    }
+
     /**
      * Log the values in the matrix for the originTaz and destTaz
      * @param origTaz
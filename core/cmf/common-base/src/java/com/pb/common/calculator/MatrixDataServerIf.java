@@ -16,10 +16,34 @@ public interface MatrixDataServerIf {
     public void start32BitMatrixIoServer( MatrixType mType );
     public void stop32BitMatrixIoServer();
     public Matrix getMatrix( DataEntry matrixEntry );
+
+    /**
+     * @return the external row numbers and external column numbers of a matrix, without its values.
+     */
+    public int[][] getMatrixExternalNumbers( DataEntry matrixEntry );
+
+    /**
+     * Return a block of rows from several matrices in one call.
+     *
+     * @param matrixEntries the matrices to read rows from.
+     * @param externalRows external row numbers, e.g. origin zones.
+     * @return rows[m][r] holds the values of row externalRows[r] of matrixEntries[m].
+     */
+    public float[][][] getMatrixRows( DataEntry[] matrixEntries, int[] externalRows );
+
+    /**
+     * Return a block of columns from several matrices in one call.
+     *
+     * @param matrixEntries the matrices to read columns from.
+     * @param externalColumns external column numbers, e.g. destination zones.
+     * @return columns[m][c] holds the values of column externalColumns[c] of matrixEntries[m], by internal row.
+     */
+    public float[][][] getMatrixColumns( DataEntry[] matrixEntries, int[] externalColumns );
     
     public String testRemote( String remoteObjectName );
     public String testRemote();
     public void clear();
+    public String getCacheStatistics();
     public void writeMatrixFile(String fileName, Matrix[] m);
 }
 
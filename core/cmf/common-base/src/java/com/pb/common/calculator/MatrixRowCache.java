@@ -0,0 +1,283 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.calculator;
+
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+
+import com.pb.common.matrix.Matrix;
+
+/**
+ * Client side cache of matrix rows fetched from a MatrixDataServerIf.  Matrices
+ * created by the cache hold no values; the first lookup of a matrix for an
+ * origin fetches that matrix's row for the origin, so only the rows of the
+ * matrices a model actually uses are transferred.  Lookups keyed on the
+ * destination, e.g. the skims for the return half of a tour looked up with
+ * the tour origin as the column, would need a row for every destination, so
+ * when the column zone is an origin the cache already holds, the matrix's
+ * column for that zone is fetched and cached under it instead.
+ *
+ * The rows and columns of at most maxOrigins zones are kept.  A zone is
+ * marked as referenced when it is looked up, which only writes to the cache
+ * the first time after the mark was cleared, and when another zone has to be
+ * fetched the cache sweeps the zones in turn, clearing the marks and evicting
+ * the first zone not referenced since the previous sweep.
+ *
+ * Lookups of cached rows do not lock.  Fetching and eviction synchronize on
+ * the cache.
+ *
+ * @see RowCachedMatrix
+ */
+public class MatrixRowCache {
+
+    protected transient Logger logger = Logger.getLogger("com.pb.common.calculator");
+
+    private final MatrixDataServerIf dataServer;
+    private final int maxOrigins;
+
+    private final ArrayList<RowCachedMatrix> matrices = new ArrayList<RowCachedMatrix>();
+
+    //External numbers of the zones with cached rows or columns, whether each zone is resident, and whether
+    //it has been looked up since the eviction sweep last passed it
+    private final ArrayList<Integer> residentZones = new ArrayList<Integer>();
+    private volatile boolean[] resident = new boolean[0];
+    private volatile boolean[] referenced = new boolean[0];
+    private int sweepIndex;
+
+    //Statistics
+    private long originsFetched;
+    private long rowsFetched;
+    private long columnsFetched;
+    private long remoteCalls;
+    private long evictions;
+
+
+    /**
+     * @param dataServer the server the rows are fetched from.
+     * @param maxOrigins the number of zones for which rows and columns are kept.
+     */
+    public MatrixRowCache(MatrixDataServerIf dataServer, int maxOrigins) {
+        this.dataServer = dataServer;
+        this.maxOrigins = maxOrigins;
+    }
+
+
+    /**
+     * Create a matrix whose rows are fetched through this cache.
+     *
+     * @param matrixEntry describes the matrix on the server.
+     * @return a matrix with the dimensions and external numbers of the server's matrix.
+     */
+    public synchronized RowCachedMatrix createMatrix(DataEntry matrixEntry) {
+        int[][] externalNumbers = dataServer.getMatrixExternalNumbers(matrixEntry);
+        RowCachedMatrix m = new RowCachedMatrix(matrixEntry, externalNumbers[0], externalNumbers[1], this);
+        matrices.add(m);
+
+        int maxZone = 0;
+        for (int[] numbers : externalNumbers) {
+            for (int i = 1; i < numbers.length; i++)
+                maxZone = Math.max(maxZone, numbers[i]);
+        }
+        if (maxZone >= resident.length) {
+            boolean[] newResident = new boolean[maxZone + 1];
+            boolean[] newReferenced = new boolean[maxZone + 1];
+            System.arraycopy(resident, 0, newResident, 0, resident.length);
+            System.arraycopy(referenced, 0, newReferenced, 0, referenced.length);
+            referenced = newReferenced;
+            resident = newResident;
+        }
+
+        return m;
+    }
+
+
+    /**
+     * Record a lookup of a cached row or column.  The mark is only written if
+     * it is clear, so repeated lookups of a zone don't write shared memory.
+     */
+    void reference(int zone) {
+        boolean[] marks = referenced;
+        if (! marks[zone])
+            marks[zone] = true;
+    }
+
+
+    /**
+     * @return true if rows or columns are cached for a zone.
+     */
+    boolean isResident(int zone) {
+        boolean[] flags = resident;
+        return zone < flags.length && flags[zone];
+    }
+
+
+    /**
+     * Return a row of a matrix, fetching just that row if it is not cached.
+     */
+    synchronized float[] fetchRow(RowCachedMatrix matrix, int externalRow) {
+        float[] row = matrix.getCachedRow(externalRow);
+        if (row == null) {
+            makeResident(new int[] { externalRow });
+            row = dataServer.getMatrixRows(new DataEntry[] { matrix.getDataEntry() }, new int[] { externalRow })[0][0];
+            remoteCalls++;
+            rowsFetched++;
+            matrix.setCachedRow(externalRow, row);
+        }
+        referenced[externalRow] = true;
+        return row;
+    }
+
+
+    /**
+     * Return a column of a matrix, fetching just that column if it is not cached.
+     */
+    synchronized float[] fetchColumn(RowCachedMatrix matrix, int externalColumn) {
+        float[] column = matrix.getCachedColumn(externalColumn);
+        if (column == null) {
+            makeResident(new int[] { externalColumn });
+            column = dataServer.getMatrixColumns(new DataEntry[] { matrix.getDataEntry() }, new int[] { externalColumn })[0][0];
+            remoteCalls++;
+            columnsFetched++;
+            matrix.setCachedColumn(externalColumn, column);
+        }
+        referenced[externalColumn] = true;
+        return column;
+    }
+
+
+    /**
+     * Fetch the rows of every registered matrix for a set of origins in one
+     * remote call, e.g. before processing a block of origins whose skims
+     * are all needed.  Only the first maxOrigins origins are fetched.
+     *
+     * @param externalRows external origin numbers.
+     */
+    public synchronized void prefetchRows(int[] externalRows) {
+        int n = Math.min(externalRows.length, maxOrigins);
+        int[] origins = new int[n];
+        System.arraycopy(externalRows, 0, origins, 0, n);
+
+        //Rows are fetched for the matrices which have all of the origins and don't have them all cached yet
+        ArrayList<RowCachedMatrix> fetchMatrices = new ArrayList<RowCachedMatrix>();
+        for (RowCachedMatrix m : matrices) {
+            boolean hasAll = true;
+            boolean cachedAll = true;
+            for (int origin : origins) {
+                if (! m.hasRow(origin))
+                    hasAll = false;
+                else if (m.getCachedRow(origin) == null)
+                    cachedAll = false;
+            }
+            if (hasAll && ! cachedAll)
+                fetchMatrices.add(m);
+        }
+
+        makeResident(origins);
+
+        if (fetchMatrices.isEmpty())
+            return;
+
+        DataEntry[] entries = new DataEntry[fetchMatrices.size()];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = fetchMatrices.get(i).getDataEntry();
+
+        float[][][] rows = dataServer.getMatrixRows(entries, origins);
+        remoteCalls++;
+
+        for (int i = 0; i < entries.length; i++) {
+            for (int r = 0; r < origins.length; r++) {
+                fetchMatrices.get(i).setCachedRow(origins[r], rows[i][r]);
+                rowsFetched++;
+            }
+        }
+    }
+
+
+    private void makeResident(int[] zones) {
+        for (int zone : zones) {
+            if (! resident[zone]) {
+                while (residentZones.size() >= maxOrigins)
+                    evict(zones);
+                residentZones.add(zone);
+                resident[zone] = true;
+                originsFetched++;
+            }
+            referenced[zone] = true;
+        }
+    }
+
+
+    private void evict(int[] keep) {
+        //Sweep the resident zones, giving those referenced since the last pass another chance
+        while (true) {
+            if (sweepIndex >= residentZones.size())
+                sweepIndex = 0;
+            int zone = residentZones.get(sweepIndex);
+            if (referenced[zone] || contains(keep, zone)) {
+                referenced[zone] = false;
+                sweepIndex++;
+                continue;
+            }
+
+            residentZones.remove(sweepIndex);
+            resident[zone] = false;
+            for (RowCachedMatrix m : matrices)
+                m.clearCached(zone);
+            evictions++;
+            return;
+        }
+    }
+
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value)
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Remove all matrices and cached rows and columns.
+     */
+    public synchronized void clear() {
+        matrices.clear();
+        for (int zone : residentZones)
+            resident[zone] = false;
+        residentZones.clear();
+    }
+
+
+    /**
+     * @return the complete matrix from the server.
+     */
+    Matrix getMatrix(DataEntry matrixEntry) {
+        return dataServer.getMatrix(matrixEntry);
+    }
+
+
+    /**
+     * @return a summary of the cache counters.
+     */
+    public synchronized String getStatistics() {
+        return String.format("matrix row cache: matrices=%d, zones cached=%d of %d, zones fetched=%d, rows fetched=%d, columns fetched=%d, remote calls=%d, evictions=%d",
+            matrices.size(), residentZones.size(), maxOrigins, originsFetched, rowsFetched, columnsFetched, remoteCalls, evictions);
+    }
+
+}
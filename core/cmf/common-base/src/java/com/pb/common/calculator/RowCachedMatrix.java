@@ -0,0 +1,372 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.calculator;
+
+import java.io.ObjectStreamException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import com.pb.common.matrix.ColumnVector;
+import com.pb.common.matrix.Matrix;
+import com.pb.common.matrix.MatrixException;
+import com.pb.common.matrix.RowVector;
+
+/**
+ * A read-only matrix held on a MatrixDataServerIf, of which only the rows
+ * and columns in the MatrixRowCache are in memory.  Cell lookups use the
+ * cached row or column, fetching the column if the column zone is one the
+ * cache holds and otherwise the row.  Row lookups use the cached row,
+ * fetching it from the server if necessary.  Whole-matrix operations
+ * (totals, arithmetic, statistics) fetch the complete matrix from the server,
+ * and the setters throw UnsupportedOperationException.
+ *
+ * @see MatrixRowCache
+ */
+public class RowCachedMatrix extends Matrix {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DataEntry matrixEntry;
+    private final transient MatrixRowCache rowCache;
+
+    //Cached rows, indexed by internal row number - null if not cached
+    private final transient AtomicReferenceArray<float[]> rows;
+
+    //Cached columns, indexed by internal column number, each with values by internal row number - null if not cached
+    private final transient AtomicReferenceArray<float[]> columns;
+
+
+    RowCachedMatrix(DataEntry matrixEntry, int[] externalRowNumbers, int[] externalColumnNumbers, MatrixRowCache rowCache) {
+        this.matrixEntry = matrixEntry;
+        this.rowCache = rowCache;
+        this.name = matrixEntry.name;
+        this.nRows = externalRowNumbers.length - 1;
+        this.nCols = externalColumnNumbers.length - 1;
+        this.rows = new AtomicReferenceArray<float[]>(nRows);
+        this.columns = new AtomicReferenceArray<float[]>(nCols);
+
+        setExternalNumbers(externalRowNumbers, externalColumnNumbers);
+    }
+
+
+    DataEntry getDataEntry() {
+        return matrixEntry;
+    }
+
+    boolean hasRow(int externalRow) {
+        return externalRow < internalRowNumbers.length && internalRowNumbers[externalRow] >= 0;
+    }
+
+    float[] getCachedRow(int externalRow) {
+        return rows.get(internalRowNumbers[externalRow]);
+    }
+
+    void setCachedRow(int externalRow, float[] row) {
+        rows.set(internalRowNumbers[externalRow], row);
+    }
+
+    boolean hasColumn(int externalColumn) {
+        return externalColumn < internalColumnNumbers.length && internalColumnNumbers[externalColumn] >= 0;
+    }
+
+    float[] getCachedColumn(int externalColumn) {
+        return columns.get(internalColumnNumbers[externalColumn]);
+    }
+
+    void setCachedColumn(int externalColumn, float[] column) {
+        columns.set(internalColumnNumbers[externalColumn], column);
+    }
+
+    /**
+     * Drop the row and column cached for a zone.
+     */
+    void clearCached(int zone) {
+        if (hasRow(zone))
+            setCachedRow(zone, null);
+        if (hasColumn(zone))
+            setCachedColumn(zone, null);
+    }
+
+    private float[] getCachedOrFetchedRow(int externalRow) {
+        int r = internalRowNumbers[externalRow];
+        if ((r < 0) || (r >= nRows)) {
+            throw new MatrixException(MatrixException.INVALID_INDEX +", "+r);
+        }
+
+        float[] row = rows.get(r);
+        if (row == null)
+            return rowCache.fetchRow(this, externalRow);
+
+        rowCache.reference(externalRow);
+        return row;
+    }
+
+    /**
+     * @return the complete matrix, fetched from the server.
+     */
+    public Matrix toMatrix() {
+        Matrix m = rowCache.getMatrix(matrixEntry);
+        m.setName(name);
+        return m;
+    }
+
+
+    //------------------------ Getters ------------------------
+
+    @Override
+    public float getValueAt(int itaz, int jtaz) throws MatrixException {
+        int r = internalRowNumbers[itaz];
+        int c = internalColumnNumbers[jtaz];
+        if ((r < 0) || (r >= nRows) || (c < 0) || (c >= nCols)) {
+            throw new MatrixException(MatrixException.INVALID_INDEX +" itaz="+itaz+
+                    ";  jtaz="+jtaz+", row="+r+", col="+c);
+        }
+
+        float[] row = rows.get(r);
+        if (row != null) {
+            rowCache.reference(itaz);
+            return row[c];
+        }
+
+        float[] column = columns.get(c);
+        if (column != null) {
+            rowCache.reference(jtaz);
+            return column[r];
+        }
+
+        //A lookup by destination of a zone the cache holds as an origin is keyed on that zone
+        if (rowCache.isResident(jtaz))
+            return rowCache.fetchColumn(this, jtaz)[r];
+
+        return rowCache.fetchRow(this, itaz)[c];
+    }
+
+    @Override
+    public RowVector getRow(int row) throws MatrixException {
+        RowVector rv = new RowVector(nCols);
+        getRow(row, rv.getValues()[0]);
+        return rv;
+    }
+
+    @Override
+    public void getRow(int row, float[] rowBuffer) throws MatrixException {
+        if (rowBuffer.length != nCols) {
+            throw new MatrixException(MatrixException.INVALID_DIMENSIONS);
+        }
+        System.arraycopy(getCachedOrFetchedRow(row), 0, rowBuffer, 0, nCols);
+    }
+
+    @Override
+    public float getRowSum(int row) throws MatrixException {
+        float sum = 0.0f;
+        for (float value : getCachedOrFetchedRow(row)) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public ColumnVector getColumn(int col) throws MatrixException {
+        return toMatrix().getColumn(col);
+    }
+
+    @Override
+    public void getColumn(int col, float[] colBuffer) throws MatrixException {
+        toMatrix().getColumn(col, colBuffer);
+    }
+
+    @Override
+    public float getColumnMin(int col) throws MatrixException {
+        return toMatrix().getColumnMin(col);
+    }
+
+    @Override
+    public float getColumnSum(int col) throws MatrixException {
+        return toMatrix().getColumnSum(col);
+    }
+
+    /**
+     * Returns the values of the complete matrix fetched from the server.
+     */
+    @Override
+    public float[][] getValues() {
+        return toMatrix().getValues();
+    }
+
+    @Override
+    public float[][] copyValues2D() {
+        return toMatrix().getValues();
+    }
+
+    @Override
+    public double getSum() {
+        return toMatrix().getSum();
+    }
+
+    @Override
+    public float getMax() {
+        return toMatrix().getMax();
+    }
+
+    @Override
+    public float getMin() {
+        return toMatrix().getMin();
+    }
+
+    @Override
+    public int getZeroCount() {
+        return toMatrix().getZeroCount();
+    }
+
+    @Override
+    public ColumnVector getRowTotals() {
+        return toMatrix().getRowTotals();
+    }
+
+    @Override
+    public void getRowTotals(double[] rowTotals) throws MatrixException {
+        toMatrix().getRowTotals(rowTotals);
+    }
+
+    @Override
+    public RowVector getColumnTotals() {
+        return toMatrix().getColumnTotals();
+    }
+
+    @Override
+    public void getColumnTotals(double[] columnTotals) throws MatrixException {
+        toMatrix().getColumnTotals(columnTotals);
+    }
+
+    //------------------------ Operations ------------------------
+
+    @Override
+    public Matrix getTranspose() {
+        return toMatrix().getTranspose();
+    }
+
+    @Override
+    public Matrix add(Matrix m) throws MatrixException {
+        return toMatrix().add(m);
+    }
+
+    @Override
+    public Matrix subtract(Matrix m) throws MatrixException {
+        return toMatrix().subtract(m);
+    }
+
+    @Override
+    public Matrix multiply(float k) {
+        return toMatrix().multiply(k);
+    }
+
+    @Override
+    public Matrix multiply(Matrix m) throws MatrixException {
+        return toMatrix().multiply(m);
+    }
+
+    @Override
+    public ColumnVector multiply(ColumnVector cv) throws MatrixException {
+        return toMatrix().multiply(cv);
+    }
+
+    @Override
+    public RowVector multiply(RowVector rv) throws MatrixException {
+        return toMatrix().multiply(rv);
+    }
+
+    @Override
+    public Object clone() {
+        return toMatrix();
+    }
+
+    @Override
+    public void logMatrixStatsToInfo() {
+        toMatrix().logMatrixStatsToInfo();
+    }
+
+    @Override
+    public void logMatrixStatsToInfo(Logger myLogger) {
+        toMatrix().logMatrixStatsToInfo(myLogger);
+    }
+
+    @Override
+    public void logMatrixStatsToConsole() {
+        toMatrix().logMatrixStatsToConsole();
+    }
+
+    //------------------------ Setters ------------------------
+
+    @Override
+    public void setValueAt(int itaz, int jtaz, float value) throws MatrixException {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setDoubleValueAt(int itaz, int jtaz, double value, float negativeInfinityValue, float positiveInfinityValue) throws MatrixException {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void addToValueAt(int itaz, int jtaz, float additionalValue) throws MatrixException {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    protected void setValues(float values[][]) {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setRow(RowVector rv, int row) throws MatrixException {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setRow(float[] rowValues, int row) throws MatrixException {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setColumn(ColumnVector cv, int col) throws MatrixException {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void fill(float value) {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void scale(float value) {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setIntrazonalToHalfNearestNeighbor() {
+        throw new UnsupportedOperationException("row cached matrix " + name + " is read-only");
+    }
+
+    /**
+     * The cache can't be serialized, so send the complete matrix instead.
+     */
+    protected Object writeReplace() throws ObjectStreamException {
+        return toMatrix();
+    }
+
+}
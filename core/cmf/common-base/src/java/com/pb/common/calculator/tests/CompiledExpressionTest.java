@@ -0,0 +1,163 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.calculator.tests;
+
+import com.pb.common.calculator.CompiledExpression;
+import com.pb.common.calculator.Expression;
+import com.pb.common.calculator.VariableTable;
+
+/**
+ * Checks that compiled expressions return the same answers as the
+ * interpreter and compares the time taken by each.  The timed expressions
+ * are typical of the terms on a tour mode choice UEC sheet.
+ */
+public class CompiledExpressionTest implements VariableTable {
+
+    private static final String[] VARIABLES = { "ivt", "wait", "walk", "cost", "autos", "drivers", "income", "period", "result" };
+
+    private static final String[] EXPRESSIONS = {
+        "10+(-10+30)+10",
+        "2*ln(exp(2.5))+1",
+        "-0.25*walk + -0.50*ivt",
+        "1<2 * 4+1^2+3",
+        "5<=5 * 5",
+        "int(-8.9) * 2",
+        "if( min(0,1), 1, 2)",
+        "abs(1-ivt)+sign(wait-3)+sqrt(walk)",
+        "(autos==0)*(drivers>0)",
+        "(autos<drivers)*(autos>0)",
+        "(autos>=drivers)*min(cost/income,10)",
+        "max(ivt,wait) % 7 + cost/100",
+        "exp(-0.05*ivt) != 1",
+        "result=ivt*2+wait",
+        "-0.0220*ivt + -0.0440*wait + -0.0440*walk + -0.0030*cost/(income/1000)",
+        "if(autos==0,-2.5,0) + if(autos<drivers,-0.5,0) + (period==3)*0.25"
+    };
+
+    private double[] values = new double[VARIABLES.length];
+
+    public static void main(String[] args) {
+        CompiledExpressionTest test = new CompiledExpressionTest();
+        test.compareAnswers();
+        test.compareTimes(args.length > 0 ? Integer.parseInt(args[0]) : 2000000);
+    }
+
+    public void compareAnswers() {
+
+        int failed = 0;
+        for (String exp : EXPRESSIONS) {
+            Expression interpreted = new Expression(exp, this);
+            interpreted.parse();
+            Expression compiledFrom = new Expression(exp, this);
+            compiledFrom.parse();
+            CompiledExpression compiled = compiledFrom.compile(null);
+
+            for (int i = 0; i < 25; i++) {
+                setValues(i);
+                double a1 = interpreted.solve();
+                double r1 = values[8];
+                double a2 = compiled.solve();
+                double r2 = values[8];
+                if (Double.doubleToLongBits(a1) != Double.doubleToLongBits(a2) || r1 != r2) {
+                    System.out.println("FAILED: " + exp + ", interpreted=" + a1 + ", compiled=" + a2);
+                    failed++;
+                    break;
+                }
+            }
+        }
+        System.out.println(failed == 0 ? "All compiled answers match." : failed + " expressions failed.");
+    }
+
+    public void compareTimes(int iterations) {
+
+        Expression[] interpreted = new Expression[EXPRESSIONS.length];
+        CompiledExpression[] compiled = new CompiledExpression[EXPRESSIONS.length];
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            interpreted[i] = new Expression(EXPRESSIONS[i], this);
+            interpreted[i].parse();
+            Expression e = new Expression(EXPRESSIONS[i], this);
+            e.parse();
+            compiled[i] = e.compile(null);
+        }
+
+        //Run each twice so the second timing is after JIT warm-up
+        for (int pass = 0; pass < 2; pass++) {
+            double sum = 0;
+            long start = System.nanoTime();
+            for (int n = 0; n < iterations; n++) {
+                setValues(n);
+                for (int i = 0; i < interpreted.length; i++)
+                    sum += interpreted[i].solve();
+            }
+            long interpretedTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int n = 0; n < iterations; n++) {
+                setValues(n);
+                for (int i = 0; i < compiled.length; i++)
+                    sum -= compiled[i].solve();
+            }
+            long compiledTime = System.nanoTime() - start;
+
+            System.out.println(String.format("pass %d: interpreted = %d ms, compiled = %d ms, speedup = %.2f, check = %.4f",
+                    pass + 1, interpretedTime / 1000000, compiledTime / 1000000,
+                    (double) interpretedTime / compiledTime, sum));
+        }
+    }
+
+    private void setValues(int n) {
+        values[0] = 5 + n % 40;
+        values[1] = 1 + n % 11;
+        values[2] = n % 17;
+        values[3] = 100 + n % 300;
+        values[4] = n % 4;
+        values[5] = 1 + n % 3;
+        values[6] = 20000 + 1000 * (n % 90);
+        values[7] = 1 + n % 5;
+    }
+
+    //------------------------ Variable Table Methods ------------------------
+
+    public final int getIndexValue(String s) {
+        for (int i = 0; i < VARIABLES.length; i++) {
+            if (VARIABLES[i].equals(s))
+                return i;
+        }
+        return -1;
+    }
+
+    public final int getAssignmentIndexValue(String s) {
+        return getIndexValue(s);
+    }
+
+    public final double getValueForIndex(int i) {
+        return values[i];
+    }
+
+    public final double getValueForIndex(int variableIndex, int arrayIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    public final void setValue(String name, double value) {
+        values[getIndexValue(name)] = value;
+    }
+
+    public final void setValue(int variableIndex, double variableValue) {
+        values[variableIndex] = variableValue;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.calculator.tests;
+
+import com.pb.common.calculator.ControlFileCache;
+import com.pb.common.calculator.ControlFileReader;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Test cases for the ControlFileCache class.  Reads a sheet of the control file named on the command line with
+ * and without the cache and checks that the entries are the same.
+ *
+ * usage: ControlFileCacheTest controlFile [modelSheet] [dataSheet]
+ */
+public class ControlFileCacheTest {
+
+    private final File controlFile;
+    private final int modelSheet;
+    private final int dataSheet;
+    private final File cacheDirectory;
+
+    public ControlFileCacheTest(File controlFile, int modelSheet, int dataSheet) throws Exception {
+        this.controlFile = controlFile;
+        this.modelSheet = modelSheet;
+        this.dataSheet = dataSheet;
+        cacheDirectory = File.createTempFile("uecCache", "");
+        cacheDirectory.delete();
+        cacheDirectory.mkdirs();
+    }
+
+    public void testCachedEntries() {
+        ControlFileReader uncached = new ControlFileReader(controlFile, new HashMap<String, String>(), modelSheet, dataSheet);
+
+        long start = System.currentTimeMillis();
+        ControlFileReader first = new ControlFileReader(controlFile, getEnv("1"), modelSheet, dataSheet);
+        long firstTime = System.currentTimeMillis() - start;
+        check(countCacheFiles() == 1, "one cache file written, found " + countCacheFiles());
+
+        start = System.currentTimeMillis();
+        ControlFileReader second = new ControlFileReader(controlFile, getEnv("1"), modelSheet, dataSheet);
+        long secondTime = System.currentTimeMillis() - start;
+        check(countCacheFiles() == 1, "no cache file written for a cache hit");
+
+        checkSame(uncached, first);
+        checkSame(uncached, second);
+        check(first.getModelEntries() != second.getModelEntries(), "each reader gets its own copy of the entries");
+        System.out.println("read from workbook " + firstTime + " ms, from cache " + secondTime + " ms");
+
+        // a change to the environment is a different entry
+        new ControlFileReader(controlFile, getEnv("2"), modelSheet, dataSheet);
+        check(countCacheFiles() == 2, "a new cache file written when the environment changes");
+    }
+
+    private HashMap<String, String> getEnv(String value) {
+        HashMap<String, String> env = new HashMap<String, String>();
+        env.put(ControlFileCache.PROPERTY_CACHE_DIRECTORY, cacheDirectory.getAbsolutePath());
+        env.put("ControlFileCacheTest.Value", value);
+        return env;
+    }
+
+    private int countCacheFiles() {
+        int count = 0;
+        for (File f : cacheDirectory.listFiles())
+            if (f.getName().endsWith(".uec"))
+                count++;
+        return count;
+    }
+
+    private void checkSame(ControlFileReader expected, ControlFileReader actual) {
+        check(expected.getHeader().toString().equals(actual.getHeader().toString()), "header");
+        check(toStrings(expected.getModelEntries()).equals(toStrings(actual.getModelEntries())), "model entries");
+        check(toStrings(expected.getAlternatives()).equals(toStrings(actual.getAlternatives())), "alternatives");
+        check(toStrings(expected.getTableEntries()).equals(toStrings(actual.getTableEntries())), "table entries");
+        check(toStrings(expected.getMatrixEntries()).equals(toStrings(actual.getMatrixEntries())), "matrix entries");
+        check(Arrays.deepEquals(expected.getCoefficients(), actual.getCoefficients()), "coefficients");
+        check(Arrays.deepEquals(expected.getNestedAlternatives(), actual.getNestedAlternatives()), "nested alternatives");
+        check(Arrays.deepEquals(expected.getNestingCoefficients(), actual.getNestingCoefficients()), "nesting coefficients");
+    }
+
+    private static String toStrings(Object[] values) {
+        return Arrays.toString(values);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new RuntimeException("failed: " + message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int modelSheet = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int dataSheet = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        ControlFileCacheTest test = new ControlFileCacheTest(new File(args[0]), modelSheet, dataSheet);
+        test.testCachedEntries();
+        System.out.println("ControlFileCacheTest passed");
+    }
+}
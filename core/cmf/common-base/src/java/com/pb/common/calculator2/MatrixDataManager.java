@@ -435,6 +435,9 @@ public class MatrixDataManager implements Serializable {
         } else if (matrixEntry.format.equalsIgnoreCase("tpplus")) {
             MatrixReader mr = MatrixReader.createReader(MatrixType.TPPLUS, new File(fileName));
             matrix = mr.readMatrix(matrixEntry.matrixName);
+        } else if (matrixEntry.format.equalsIgnoreCase("tpplusjava")) {
+            MatrixReader mr = MatrixReader.createReader(MatrixType.TPPLUSJAVA, new File(fileName));
+            matrix = mr.readMatrix(matrixEntry.matrixName);
         } else if (matrixEntry.format.equalsIgnoreCase("transcad")) {
         	MatrixReader mr = MatrixReader.createReader(MatrixType.TRANSCAD, new File(fileName));
             matrix = mr.readMatrix(matrixEntry.matrixName);
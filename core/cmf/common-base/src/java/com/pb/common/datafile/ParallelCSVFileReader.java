@@ -0,0 +1,584 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.datafile;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates a TableDataSet from a CSV file by memory mapping the file and parsing line aligned chunks of it in
+ * parallel.
+ *
+ * Fields are split the same way OLD_CSVFileReader splits them with a StringTokenizer: any character in the
+ * delimiter set ends a field, and empty fields are skipped.  Column types are taken from the first data line, or
+ * from the formats passed by the caller, and only the columns asked for are parsed.  Numbers are parsed without
+ * creating a String for each field and give the same float values as Float.parseFloat().
+ *
+ * Lines with no fields are skipped, where OLD_CSVFileReader leaves an empty row, and a line with too few fields
+ * or a field in a NUMBER column that isn't a number is reported as an error.
+ */
+public class ParallelCSVFileReader extends TableDataFileReader implements DataTypes {
+
+    private static final long serialVersionUID = 1L;
+
+    protected static transient Logger logger = Logger.getLogger("com.pb.common.datafile");
+
+    // chunks are kept below this size so each one can be mapped on its own
+    private static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i=1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10.0;
+    }
+
+    //Can be set by caller
+    private String delimSet = ",\t\n\r\f\"";
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private boolean[] isDelimiter;
+    private final Charset charset = Charset.defaultCharset();
+
+
+    public ParallelCSVFileReader () {
+        setDelimSet(delimSet);
+    }
+
+    /**
+     * Sets the characters that separate fields.  Each must be an ASCII character.
+     *
+     * @param delimSet
+     */
+    public void setDelimSet(String delimSet) {
+        boolean[] flags = new boolean[256];
+        for (int i=0; i < delimSet.length(); i++) {
+            char c = delimSet.charAt(i);
+            if (c > 127)
+                throw new RuntimeException("ParallelCSVFileReader delimiters must be ASCII characters, found " + c);
+            flags[c] = true;
+        }
+        flags['\n'] = true;
+        this.delimSet = delimSet;
+        this.isDelimiter = flags;
+    }
+
+    /**
+     * @return the delimiter set in use
+     */
+    public String getDelimSet() {
+        return delimSet;
+    }
+
+    /**
+     * Sets the number of threads used to parse the file.  Defaults to the number of processors.
+     *
+     * @param threads number of threads, at least 1
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+
+    public TableDataSet readFile(File file) throws IOException {
+        return readFile(file, true);
+    }
+
+    public TableDataSet readFile(File file, boolean columnLabelsPresent) throws IOException {
+        return readFile(file, columnLabelsPresent, null);
+    }
+
+    /**
+     * Loads a CSV file into a table data class.
+     *
+     * @param file  name of file to read
+     * @param columnsToRead list of column labels that should be read - all other
+     *                      columns will be dropped from the table data set
+     * @throws IOException
+     */
+    public TableDataSet readFile(File file, String[] columnsToRead) throws IOException {
+        return readFile(file, true, columnsToRead);
+    }
+
+    /**
+     * Loads a CSV file into a table data class.
+     *
+     * @param file  name of file to read
+     * @param columnLabelsPresent  determines whether first line is treated
+     *                              as column titles
+     * @param columnsToRead list of column labels that should be read - all other
+     *                      columns will be dropped from the table data set
+     * @throws IOException
+     */
+    public TableDataSet readFile(File file, boolean columnLabelsPresent, String[] columnsToRead) throws IOException {
+        if ((columnsToRead != null) && (columnLabelsPresent == false)) {
+            throw new RuntimeException("Column lables provided as filter but there are no column labels in CSV file");
+        }
+        return read(file, columnLabelsPresent, columnsToRead, null);
+    }
+
+    /**
+     * Reads the csv file with a String[] of formats (NUMBER or STRING) for all the columns in the file,
+     * where column headings must be present on the first line.
+     */
+    public TableDataSet readFileWithFormats(File file, String[] columnFormats) throws IOException {
+        return read(file, true, null, columnFormats);
+    }
+
+    public TableDataSet readTable(String tableName) throws IOException {
+        File fileName = new File (getMyDirectory().getPath() + File.separator + tableName + ".csv");
+        return readFile(fileName);
+    }
+
+    public void close() {
+    }
+
+
+    private TableDataSet read(File file, boolean columnLabelsPresent, String[] columnsToRead, String[] columnFormats)
+            throws IOException {
+
+        logger.debug("Opening file: " + file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ExecutorService pool = null;
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+
+            // the column labels, and the file columns to read
+            long dataStart = 0;
+            List<String> labels = new ArrayList<String>();
+            boolean[] readColumnFlag = null;
+            if (columnLabelsPresent) {
+                long headerEnd = findLineEnd(channel, 0, size);
+                if (headerEnd == 0 && size == 0)
+                    throw new IOException("Error: file looks like it's empty");
+                List<String> tokens = tokenize(channel, 0, headerEnd);
+                readColumnFlag = new boolean[tokens.size()];
+                for (int c=0; c < tokens.size(); c++) {
+                    String label = tokens.get(c);
+                    boolean read = columnsToRead == null;
+                    for (int j=0; !read && j < columnsToRead.length; j++)
+                        read = columnsToRead[j].equalsIgnoreCase(label);
+                    if (read) {
+                        readColumnFlag[c] = true;
+                        labels.add(label);
+                    }
+                }
+                if (labels.size() == 0) {
+                    logger.error("No columns read when reading file " + file);
+                    throw new RuntimeException("No columns read when reading file " + file);
+                }
+                dataStart = Math.min(size, headerEnd + 1);
+            }
+
+            long[] chunkStarts = findChunks(channel, dataStart, size);
+            int nChunks = chunkStarts.length - 1;
+            pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, nChunks)));
+
+            // first pass counts the lines in each chunk, so every chunk knows the row its lines start at
+            List<Callable<Integer>> counts = new ArrayList<Callable<Integer>>(nChunks);
+            for (int i=0; i < nChunks; i++)
+                counts.add(new LineCounter(channel, chunkStarts[i], chunkStarts[i+1]));
+            int[] firstRow = new int[nChunks + 1];
+            List<Future<Integer>> countResults = pool.invokeAll(counts);
+            for (int i=0; i < nChunks; i++)
+                firstRow[i+1] = firstRow[i] + getResult(countResults.get(i), file);
+            int rowCount = firstRow[nChunks];
+            logger.debug("number of lines in file: " + rowCount);
+
+            // column types from the first data line, or the formats given by the caller
+            List<String> firstLine = rowCount == 0 ? new ArrayList<String>() : tokenize(channel, findFirstLine(channel, dataStart, size), size);
+            int fileColumns = readColumnFlag != null ? readColumnFlag.length : firstLine.size();
+            if (readColumnFlag == null) {
+                readColumnFlag = new boolean[fileColumns];
+                for (int c=0; c < fileColumns; c++) {
+                    readColumnFlag[c] = true;
+                    labels.add("column_" + (c+1));
+                }
+            }
+
+            int[] columnType = new int[fileColumns];
+            Object[] columnData = new Object[fileColumns];
+            int[] dataColumn = new int[fileColumns];
+            int c2 = 0;
+            for (int c=0; c < fileColumns; c++) {
+                dataColumn[c] = -1;
+                if (!readColumnFlag[c])
+                    continue;
+                if (columnFormats != null)
+                    columnType[c] = columnFormats[c].equals("NUMBER") ? NUMBER : STRING;
+                else if (rowCount == 0)
+                    columnType[c] = STRING;
+                else
+                    columnType[c] = c < firstLine.size() && isNumber(firstLine.get(c)) ? NUMBER : STRING;
+                columnData[c] = columnType[c] == NUMBER ? new float[rowCount] : new String[rowCount];
+                dataColumn[c] = c2++;
+            }
+
+            // second pass parses each chunk into its rows of the column arrays
+            List<Callable<Integer>> parsers = new ArrayList<Callable<Integer>>(nChunks);
+            for (int i=0; i < nChunks; i++)
+                parsers.add(new ChunkParser(file, channel, chunkStarts[i], chunkStarts[i+1], firstRow[i], fileColumns,
+                        readColumnFlag, columnType, columnData));
+            for (Future<Integer> result : pool.invokeAll(parsers))
+                getResult(result, file);
+
+            TableDataSet table = new TableDataSet();
+            for (int c=0; c < fileColumns; c++) {
+                if (readColumnFlag[c])
+                    table.appendColumn(columnData[c], labels.get(dataColumn[c]));
+            }
+            table.setName(file.toString());
+            return table;
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            if (pool != null)
+                pool.shutdownNow();
+            raf.close();
+        }
+    }
+
+    private static int getResult(Future<Integer> result, File file) throws IOException {
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            logger.error("error reading file " + file, cause);
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Splits the data into chunks that start at the beginning of a line.
+     *
+     * @return the start of each chunk, followed by the end of the data
+     */
+    private long[] findChunks(FileChannel channel, long start, long end) throws IOException {
+        long length = end - start;
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, length / Math.max(1, threads * CHUNKS_PER_THREAD) + 1);
+        chunkSize = Math.min(chunkSize, MAX_CHUNK_SIZE);
+
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(start);
+        long position = start;
+        while (end - position > chunkSize) {
+            long lineEnd = findLineEnd(channel, position + chunkSize, end);
+            if (lineEnd >= end - 1)
+                break;
+            position = lineEnd + 1;
+            starts.add(position);
+        }
+
+        long[] chunkStarts = new long[starts.size() + 1];
+        for (int i=0; i < starts.size(); i++)
+            chunkStarts[i] = starts.get(i);
+        chunkStarts[starts.size()] = end;
+        return chunkStarts;
+    }
+
+    /**
+     * @return the position of the first newline at or after position, or end if there is none.
+     */
+    private static long findLineEnd(FileChannel channel, long position, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < end) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0)
+                break;
+            for (int i=0; i < n; i++) {
+                if (buffer.get(i) == '\n')
+                    return position + i;
+            }
+            position += n;
+        }
+        return end;
+    }
+
+    /**
+     * @return the start of the first line with a field, at or after position.
+     */
+    private long findFirstLine(FileChannel channel, long position, long end) throws IOException {
+        while (position < end) {
+            long lineEnd = findLineEnd(channel, position, end);
+            if (tokenize(channel, position, lineEnd).size() > 0)
+                return position;
+            position = lineEnd + 1;
+        }
+        return end;
+    }
+
+    /**
+     * Splits the line starting at position into fields.
+     */
+    private List<String> tokenize(FileChannel channel, long position, long end) throws IOException {
+        long lineEnd = findLineEnd(channel, position, end);
+        ByteBuffer line = ByteBuffer.allocate((int) (lineEnd - position));
+        while (line.hasRemaining() && channel.read(line, position + line.position()) > 0);
+
+        List<String> tokens = new ArrayList<String>();
+        byte[] bytes = line.array();
+        int i = 0;
+        while (i < bytes.length) {
+            while (i < bytes.length && isDelimiter[bytes[i] & 0xff])
+                i++;
+            int start = i;
+            while (i < bytes.length && !isDelimiter[bytes[i] & 0xff])
+                i++;
+            if (i > start)
+                tokens.add(new String(bytes, start, i - start, charset));
+        }
+        return tokens;
+    }
+
+    private static boolean isNumber(String token) {
+        try {
+            Float.parseFloat(token);
+            return true;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Counts the lines with at least one field in a chunk.
+     */
+    private class LineCounter implements Callable<Integer> {
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        LineCounter(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Integer call() throws IOException {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            boolean[] delimiter = isDelimiter;
+            int length = buffer.limit();
+            int lines = 0;
+            boolean field = false;
+            for (int i=0; i < length; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    if (field)
+                        lines++;
+                    field = false;
+                }
+                else if (!delimiter[b & 0xff]) {
+                    field = true;
+                }
+            }
+            if (field)
+                lines++;
+            return lines;
+        }
+    }
+
+
+    /**
+     * Parses the lines of a chunk into the column arrays, starting at a given row.
+     */
+    private class ChunkParser implements Callable<Integer> {
+
+        private final File file;
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final int firstRow;
+        private final int fileColumns;
+        private final boolean[] readColumnFlag;
+        private final int[] columnType;
+        private final Object[] columnData;
+
+        private MappedByteBuffer buffer;
+        private byte[] scratch = new byte[256];
+
+        ChunkParser(File file, FileChannel channel, long start, long end, int firstRow, int fileColumns,
+                    boolean[] readColumnFlag, int[] columnType, Object[] columnData) {
+            this.file = file;
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.firstRow = firstRow;
+            this.fileColumns = fileColumns;
+            this.readColumnFlag = readColumnFlag;
+            this.columnType = columnType;
+            this.columnData = columnData;
+        }
+
+        public Integer call() throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            boolean[] delimiter = isDelimiter;
+            int length = buffer.limit();
+
+            int row = firstRow;
+            int column = 0;
+            int i = 0;
+            while (i <= length) {
+                byte b = i < length ? buffer.get(i) : (byte) '\n';
+                if (b == '\n') {
+                    // end of a line
+                    if (column > 0) {
+                        if (column < fileColumns)
+                            throw new RuntimeException(column + " columns found on line " + row + ", should be at least " + fileColumns + " in file " + file);
+                        row++;
+                    }
+                    column = 0;
+                    i++;
+                }
+                else if (delimiter[b & 0xff]) {
+                    i++;
+                }
+                else {
+                    int fieldStart = i;
+                    while (i < length && !delimiter[buffer.get(i) & 0xff])
+                        i++;
+                    if (column < fileColumns && readColumnFlag[column])
+                        setValue(column, row, fieldStart, i);
+                    column++;
+                }
+            }
+            return row - firstRow;
+        }
+
+        private void setValue(int column, int row, int fieldStart, int fieldEnd) {
+            if (columnType[column] == NUMBER) {
+                float[] values = (float[]) columnData[column];
+                try {
+                    values[row] = parseNumber(fieldStart, fieldEnd);
+                }
+                catch (NumberFormatException e) {
+                    logger.error("exception processing row number: " + row + " in file " + file, e);
+                    throw new RuntimeException("invalid number " + getString(fieldStart, fieldEnd) + " in column " + (column+1) + " of row " + row + " in file " + file, e);
+                }
+            }
+            else {
+                // same as OLD_CSVFileReader, a leading " is dropped
+                if (buffer.get(fieldStart) == '"')
+                    fieldStart++;
+                String[] values = (String[]) columnData[column];
+                values[row] = getString(fieldStart, fieldEnd);
+            }
+        }
+
+        private String getString(int fieldStart, int fieldEnd) {
+            int n = fieldEnd - fieldStart;
+            if (n > scratch.length)
+                scratch = new byte[Math.max(n, 2 * scratch.length)];
+            for (int i=0; i < n; i++)
+                scratch[i] = buffer.get(fieldStart + i);
+            return new String(scratch, 0, n, charset);
+        }
+
+        /**
+         * Parses plain decimal numbers directly from the buffer, and anything else (exponents, very long numbers
+         * and values that could round differently) with Float.parseFloat().
+         */
+        private float parseNumber(int fieldStart, int fieldEnd) {
+            int i = fieldStart;
+            boolean negative = false;
+            byte b = buffer.get(i);
+            if (b == '-') {
+                negative = true;
+                i++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int scale = 0;
+            boolean point = false;
+            boolean anyDigit = false;
+            for (; i < fieldEnd; i++) {
+                b = buffer.get(i);
+                if (b >= '0' && b <= '9') {
+                    anyDigit = true;
+                    if (mantissa != 0 || b != '0')
+                        digits++;
+                    if (digits > 15)
+                        return parseSlow(fieldStart, fieldEnd);
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (point)
+                        scale++;
+                }
+                else if (b == '.' && !point) {
+                    point = true;
+                }
+                else {
+                    return parseSlow(fieldStart, fieldEnd);
+                }
+            }
+            if (!anyDigit || scale >= POWERS_OF_TEN.length)
+                return parseSlow(fieldStart, fieldEnd);
+
+            float value;
+            if (scale == 0) {
+                value = (float) mantissa;
+            }
+            else {
+                double d = mantissa / POWERS_OF_TEN[scale];
+                value = (float) d;
+                // rounding to double and then to float can differ from rounding once when d is next to the
+                // midpoint between two floats
+                if ((double) value != d) {
+                    float other = d > value ? Math.nextUp(value) : Math.nextAfter(value, Double.NEGATIVE_INFINITY);
+                    double midpoint = ((double) value + (double) other) / 2;
+                    if (Math.abs(d - midpoint) <= Math.ulp(d))
+                        return parseSlow(fieldStart, fieldEnd);
+                }
+            }
+            return negative ? -value : value;
+        }
+
+        private float parseSlow(int fieldStart, int fieldEnd) {
+            return Float.parseFloat(getString(fieldStart, fieldEnd));
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.datafile.tests;
+
+import com.pb.common.datafile.OLD_CSVFileReader;
+import com.pb.common.datafile.ParallelCSVFileReader;
+import com.pb.common.datafile.TableDataSet;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests the ParallelCSVFileReader class against OLD_CSVFileReader.  Reads a generated file, or the file named on
+ * the command line, with both readers and checks that the tables are the same.
+ *
+ * usage: ParallelCSVFileReaderTest [csvFile]
+ */
+public class ParallelCSVFileReaderTest {
+
+    public static void testSameAsOldReader(File file, String[] columnsToRead, int threads) throws IOException {
+
+        long start = System.currentTimeMillis();
+        OLD_CSVFileReader oldReader = new OLD_CSVFileReader();
+        TableDataSet expected = columnsToRead == null ? oldReader.readFile(file) : oldReader.readFile(file, columnsToRead);
+        long oldTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        ParallelCSVFileReader reader = new ParallelCSVFileReader();
+        reader.setThreads(threads);
+        TableDataSet actual = columnsToRead == null ? reader.readFile(file) : reader.readFile(file, columnsToRead);
+        long newTime = System.currentTimeMillis() - start;
+
+        checkSame(expected, actual);
+        System.out.println(String.format("%s, %d rows, %d columns, %d threads: OLD_CSVFileReader %d ms, ParallelCSVFileReader %d ms",
+                file.getName(), actual.getRowCount(), actual.getColumnCount(), threads, oldTime, newTime));
+    }
+
+    private static void checkSame(TableDataSet expected, TableDataSet actual) {
+        check(expected.getRowCount() == actual.getRowCount(), "row count " + expected.getRowCount() + " " + actual.getRowCount());
+        check(expected.getColumnCount() == actual.getColumnCount(), "column count");
+        check(Arrays.equals(expected.getColumnLabels(), actual.getColumnLabels()), "column labels");
+        for (int c=1; c <= expected.getColumnCount(); c++) {
+            check(expected.getColumnType()[c-1] == actual.getColumnType()[c-1], "type of column " + c);
+            if (expected.getColumnType()[c-1] == TableDataSet.STRING) {
+                check(Arrays.equals(expected.getColumnAsString(c), actual.getColumnAsString(c)), "values of column " + c);
+            }
+            else {
+                float[] e = expected.getColumnAsFloat(c);
+                float[] a = actual.getColumnAsFloat(c);
+                for (int r=0; r < e.length; r++)
+                    check(Float.floatToIntBits(e[r]) == Float.floatToIntBits(a[r]), "value " + a[r] + " at row " + (r+1) + " of column " + c + ", expected " + e[r]);
+            }
+        }
+    }
+
+    private static File writeTestFile(int rows) throws IOException {
+        File file = File.createTempFile("parallelCsv", ".csv");
+        file.deleteOnExit();
+        Random random = new Random(1);
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.println("hh_id,taz,income,name,value,small,big,exponent");
+        for (int r=0; r < rows; r++) {
+            out.print((r+1) + "," + random.nextInt(1475) + "," + random.nextInt(250000) + ",\"name " + random.nextInt(100) + "\",");
+            out.print(random.nextFloat() * 1000 + "," + random.nextDouble() / 1000 + "," + random.nextLong() + "," + random.nextGaussian() * 1e-10);
+            out.print(r % 3 == 0 ? "\r\n" : "\n");
+        }
+        out.close();
+        return file;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new RuntimeException("failed: " + message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File file = args.length > 0 ? new File(args[0]) : writeTestFile(200000);
+        testSameAsOldReader(file, null, 1);
+        testSameAsOldReader(file, null, 4);
+        if (args.length == 0)
+            testSameAsOldReader(file, new String[] { "TAZ", "name", "small" }, 4);
+        System.out.println("ParallelCSVFileReaderTest passed");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.http;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.pb.common.util.Metrics;
+import com.pb.common.util.MetricsSnapshot;
+
+/**
+ * MiniHTTPD that serves the Metrics of this JVM while a model runs:
+ * <ul>
+ * <li> /metrics.json and /metrics.csv - the current cumulative values recorded in this JVM </li>
+ * <li> /published.json and /published.csv - the last values passed to publish(), e.g. the
+ *      totals by node collected from the tasks of the last model step </li>
+ * </ul>
+ * Anything else is not found - files are not served.
+ */
+public class MetricsHTTPD extends MiniHTTPD {
+
+    private final String nodeName;
+    private volatile TreeMap<String, MetricsSnapshot> published = new TreeMap<String, MetricsSnapshot>();
+
+
+    /**
+     * @param port port to listen on.
+     * @param nodeName name the metrics of this JVM are listed under.
+     */
+    public MetricsHTTPD(int port, String nodeName) throws IOException {
+        super(port, ".");
+        this.nodeName = nodeName;
+    }
+
+
+    /**
+     * Replace the metrics served as /published.json and /published.csv.
+     */
+    public void publish(TreeMap<String, MetricsSnapshot> snapshotsByNode) {
+        published = new TreeMap<String, MetricsSnapshot>(snapshotsByNode);
+    }
+
+
+    public Response serve(String uri, String method, Properties header, Properties params) {
+        if (uri.equals("/metrics.json") || uri.equals("/metrics.csv")) {
+            TreeMap<String, MetricsSnapshot> local = new TreeMap<String, MetricsSnapshot>();
+            local.put(nodeName, Metrics.snapshot());
+            return metricsResponse(uri, local);
+        }
+        else if (uri.equals("/published.json") || uri.equals("/published.csv")) {
+            return metricsResponse(uri, published);
+        }
+        return new Response(HTTP_NOTFOUND, MIME_PLAINTEXT, "Not found: " + uri + ", use /metrics.json, /metrics.csv, /published.json or /published.csv");
+    }
+
+    private Response metricsResponse(String uri, TreeMap<String, MetricsSnapshot> snapshotsByNode) {
+        if (uri.endsWith(".json"))
+            return new Response(HTTP_OK, "application/json", MetricsSnapshot.toJson(snapshotsByNode));
+        return new Response(HTTP_OK, MIME_PLAINTEXT, MetricsSnapshot.toCsv(snapshotsByNode));
+    }
+
+}
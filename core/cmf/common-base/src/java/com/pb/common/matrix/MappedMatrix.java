@@ -0,0 +1,379 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.matrix;
+
+import java.io.ObjectStreamException;
+import java.nio.FloatBuffer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A read-only matrix whose values are read directly from a memory-mapped
+ * file written by MappedMatrixWriter.  The values are not copied into the
+ * Java heap, so any number of JVMs on one host that map the same file share
+ * a single copy of the data through the operating system's page cache.
+ *
+ * Cell and row access read the mapped buffer.  Whole-matrix operations
+ * (totals, arithmetic, statistics) work on an in-heap copy made by toMatrix(),
+ * and the setters throw UnsupportedOperationException.  A MappedMatrix is
+ * serialized as an ordinary Matrix.
+ *
+ * @see MappedMatrixReader
+ * @see MappedMatrixWriter
+ */
+public class MappedMatrix extends Matrix {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient FloatBuffer data;
+
+
+    /**
+     * @param name the name of the matrix
+     * @param description a description for the matrix
+     * @param rowCount the number of rows
+     * @param colCount the number of columns
+     * @param data mapped values, row major, rowCount*colCount long
+     */
+    public MappedMatrix(String name, String description, int rowCount, int colCount, FloatBuffer data) {
+        this.name = name;
+        this.description = description;
+        this.nRows = rowCount;
+        this.nCols = colCount;
+        this.data = data;
+
+        if (data.capacity() != rowCount * colCount)
+            throw new MatrixException(MatrixException.INVALID_DIMENSIONS + ", " + name);
+
+        initExternalNumbers();
+    }
+
+
+    /**
+     * @return an in-heap copy of this matrix.
+     */
+    public Matrix toMatrix() {
+        Matrix m = new Matrix(name, description, copyValues2D());
+        m.setExternalNumbers(externalRowNumbers, externalColumnNumbers);
+        return m;
+    }
+
+
+    //------------------------ Getters ------------------------
+
+    @Override
+    public float getValueAt(int itaz, int jtaz) throws MatrixException {
+        int r = internalRowNumbers[itaz];
+        int c = internalColumnNumbers[jtaz];
+
+        if ((r < 0) || (r >= nRows) || (c < 0) || (c >= nCols)) {
+            throw new MatrixException(MatrixException.INVALID_INDEX +" itaz="+itaz+",row="+r+
+                    ";  jtaz="+jtaz+", col="+c);
+        }
+
+        return data.get(r * nCols + c);
+    }
+
+    @Override
+    public RowVector getRow(int row) throws MatrixException {
+        RowVector rv = new RowVector(nCols);
+        getRow(row, rv.values[0]);
+        return rv;
+    }
+
+    @Override
+    public void getRow(int row, float[] rowBuffer) throws MatrixException {
+        int r = getInternalRowNumber(row);
+
+        if ((r < 0) || (r >= nRows)) {
+            throw new MatrixException(MatrixException.INVALID_INDEX +", "+r);
+        }
+
+        if (rowBuffer.length != nCols) {
+            throw new MatrixException(MatrixException.INVALID_DIMENSIONS);
+        }
+
+        //Bulk copy of the row from the mapped buffer
+        FloatBuffer rowData = data.duplicate();
+        rowData.position(r * nCols);
+        rowData.get(rowBuffer, 0, nCols);
+    }
+
+    @Override
+    public float getRowSum(int row) throws MatrixException {
+        int r = getInternalRowNumber(row);
+
+        if ((r < 0) || (r >= nRows)) {
+            throw new MatrixException(MatrixException.INVALID_INDEX +", "+r);
+        }
+
+        float sum = 0.0f;
+        for (int k = r * nCols; k < (r + 1) * nCols; ++k) {
+            sum += data.get(k);
+        }
+        return sum;
+    }
+
+    @Override
+    public ColumnVector getColumn(int col) throws MatrixException {
+        int c = checkedColumn(col);
+        ColumnVector cv = new ColumnVector(nRows);
+        for (int r = 0; r < nRows; ++r) {
+            cv.values[r][0] = data.get(r * nCols + c);
+        }
+        return cv;
+    }
+
+    @Override
+    public void getColumn(int col, float[] colBuffer) throws MatrixException {
+        if (colBuffer.length != nRows) {
+            throw new MatrixException(MatrixException.INVALID_DIMENSIONS);
+        }
+
+        int c = checkedColumn(col);
+        for (int r = 0; r < nRows; ++r) {
+            colBuffer[r] = data.get(r * nCols + c);
+        }
+    }
+
+    @Override
+    public float getColumnMin(int col) throws MatrixException {
+        int c = checkedColumn(col);
+        float min = Float.MAX_VALUE;
+        for (int r = 0; r < nRows; ++r) {
+            min = Math.min(min, data.get(r * nCols + c));
+        }
+        return min;
+    }
+
+    @Override
+    public float getColumnSum(int col) throws MatrixException {
+        int c = checkedColumn(col);
+        float sum = 0.0f;
+        for (int r = 0; r < nRows; ++r) {
+            sum += data.get(r * nCols + c);
+        }
+        return sum;
+    }
+
+    private int checkedColumn(int col) {
+        int c = getInternalColumnNumber(col);
+
+        if ((c < 0) || (c >= nCols)) {
+            throw new MatrixException(MatrixException.INVALID_INDEX +", "+c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns a copy of the values - the mapped values can not be modified
+     * through the returned array.
+     */
+    @Override
+    public float[][] getValues() {
+        return copyValues2D();
+    }
+
+    @Override
+    public float[][] copyValues2D() {
+        float v[][] = new float[nRows][nCols];
+
+        FloatBuffer rowData = data.duplicate();
+        rowData.rewind();
+        for (int r = 0; r < nRows; ++r) {
+            rowData.get(v[r], 0, nCols);
+        }
+
+        return v;
+    }
+
+    @Override
+    public double getSum() {
+        double sum = 0.0;
+        for (int k = 0; k < nRows * nCols; ++k) {
+            sum += data.get(k);
+        }
+        return sum;
+    }
+
+    @Override
+    public float getMax() {
+        float max = data.get(0);
+        for (int k = 0; k < nRows * nCols; ++k) {
+            if (max < data.get(k))
+                max = data.get(k);
+        }
+        return max;
+    }
+
+    @Override
+    public float getMin() {
+        float min = data.get(0);
+        for (int k = 0; k < nRows * nCols; ++k) {
+            if (min > data.get(k))
+                min = data.get(k);
+        }
+        return min;
+    }
+
+    @Override
+    public int getZeroCount() {
+        int count = 0;
+        for (int k = 0; k < nRows * nCols; ++k) {
+            if (data.get(k) == 0)
+                count++;
+        }
+        return count;
+    }
+
+    @Override
+    public ColumnVector getRowTotals() {
+        return toMatrix().getRowTotals();
+    }
+
+    @Override
+    public void getRowTotals(double[] rowTotals) throws MatrixException {
+        toMatrix().getRowTotals(rowTotals);
+    }
+
+    @Override
+    public RowVector getColumnTotals() {
+        return toMatrix().getColumnTotals();
+    }
+
+    @Override
+    public void getColumnTotals(double[] columnTotals) throws MatrixException {
+        toMatrix().getColumnTotals(columnTotals);
+    }
+
+    //------------------------ Operations ------------------------
+
+    @Override
+    public Matrix getTranspose() {
+        return toMatrix().getTranspose();
+    }
+
+    @Override
+    public Matrix add(Matrix m) throws MatrixException {
+        return toMatrix().add(m);
+    }
+
+    @Override
+    public Matrix subtract(Matrix m) throws MatrixException {
+        return toMatrix().subtract(m);
+    }
+
+    @Override
+    public Matrix multiply(float k) {
+        return toMatrix().multiply(k);
+    }
+
+    @Override
+    public Matrix multiply(Matrix m) throws MatrixException {
+        return toMatrix().multiply(m);
+    }
+
+    @Override
+    public ColumnVector multiply(ColumnVector cv) throws MatrixException {
+        return toMatrix().multiply(cv);
+    }
+
+    @Override
+    public RowVector multiply(RowVector rv) throws MatrixException {
+        return toMatrix().multiply(rv);
+    }
+
+    @Override
+    public Object clone() {
+        return toMatrix();
+    }
+
+    @Override
+    public void logMatrixStatsToInfo() {
+        toMatrix().logMatrixStatsToInfo();
+    }
+
+    @Override
+    public void logMatrixStatsToInfo(Logger myLogger) {
+        toMatrix().logMatrixStatsToInfo(myLogger);
+    }
+
+    @Override
+    public void logMatrixStatsToConsole() {
+        toMatrix().logMatrixStatsToConsole();
+    }
+
+    //------------------------ Setters ------------------------
+
+    @Override
+    public void setValueAt(int itaz, int jtaz, float value) throws MatrixException {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setDoubleValueAt(int itaz, int jtaz, double value, float negativeInfinityValue, float positiveInfinityValue) throws MatrixException {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void addToValueAt(int itaz, int jtaz, float additionalValue) throws MatrixException {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    protected void setValues(float values[][]) {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setRow(RowVector rv, int row) throws MatrixException {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setRow(float[] rowValues, int row) throws MatrixException {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setColumn(ColumnVector cv, int col) throws MatrixException {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void fill(float value) {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void scale(float value) {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    @Override
+    public void setIntrazonalToHalfNearestNeighbor() {
+        throw new UnsupportedOperationException("mapped matrix " + name + " is read-only");
+    }
+
+    /**
+     * The mapped buffer can't be serialized, so send an in-heap copy instead.
+     */
+    protected Object writeReplace() throws ObjectStreamException {
+        return toMatrix();
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.matrix;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Implements a MatrixReader for files written by MappedMatrixWriter.  Tables
+ * are memory-mapped read-only and returned as MappedMatrix objects, so the
+ * values stay in the operating system's page cache rather than the Java heap
+ * and are shared by every process on the host that reads the same file.
+ *
+ * @see MappedMatrixWriter
+ */
+public class MappedMatrixReader extends MatrixReader {
+
+    static Logger logger = Logger.getLogger("com.pb.common.matrix");
+
+    //Store header values - used by readData()
+    private long dataOffset;
+    private int nRows;
+    private int nCols;
+    private String[] tableNames;
+    private String[] tableDescriptions;
+    private int[] externalRowNumbers;
+    private int[] externalColumnNumbers;
+
+    /**
+     * @param file represents the physical matrix file
+     */
+    public MappedMatrixReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the first table in the file.
+     */
+    public Matrix readMatrix() throws MatrixException {
+        return readMatrix("");
+    }
+
+    /**
+     * Returns the named table, or the first table if index is empty.
+     */
+    public Matrix readMatrix(String index) throws MatrixException {
+        readHeader();
+
+        int table = 0;
+        if (index != null && index.length() > 0) {
+            table = -1;
+            for (int t = 0; t < tableNames.length; t++) {
+                if (tableNames[t].equalsIgnoreCase(index)) {
+                    table = t;
+                    break;
+                }
+            }
+            if (table < 0)
+                throw new MatrixException("table " + index + " not found in " + file);
+        }
+
+        return mapTables(table, 1)[0];
+    }
+
+    /**
+     * Returns all tables in the file.
+     */
+    public Matrix[] readMatrices() throws MatrixException {
+        readHeader();
+        return mapTables(0, tableNames.length);
+    }
+
+    /**
+     * @return the names of the tables in the file.
+     */
+    public String[] getTableNames() {
+        readHeader();
+        return tableNames.clone();
+    }
+
+    private void readHeader() {
+        DataInputStream din = null;
+        try {
+            din = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            int magic = din.readInt();
+            int version = din.readInt();
+            if (magic != MappedMatrixWriter.MAGIC || version != MappedMatrixWriter.VERSION)
+                throw new MatrixException(MatrixException.ERROR_READING_FILE + ", not a version "
+                        + MappedMatrixWriter.VERSION + " mapped matrix file: " + file);
+
+            dataOffset = din.readLong();
+            nRows = din.readInt();
+            nCols = din.readInt();
+            int nTables = din.readInt();
+
+            externalRowNumbers = new int[din.readInt()];
+            for (int i = 1; i < externalRowNumbers.length; i++)
+                externalRowNumbers[i] = din.readInt();
+            externalColumnNumbers = new int[din.readInt()];
+            for (int i = 1; i < externalColumnNumbers.length; i++)
+                externalColumnNumbers[i] = din.readInt();
+
+            tableNames = new String[nTables];
+            tableDescriptions = new String[nTables];
+            for (int t = 0; t < nTables; t++) {
+                tableNames[t] = din.readUTF();
+                tableDescriptions[t] = din.readUTF();
+            }
+        }
+        catch (IOException e) {
+            throw new MatrixException(e, MatrixException.ERROR_READING_FILE + ", " + file);
+        }
+        finally {
+            if (din != null) {
+                try {
+                    din.close();
+                }
+                catch (IOException e) {
+                    logger.warn("error closing " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Map count tables starting at table first.  The mappings remain valid
+     * after the file is closed.
+     */
+    private Matrix[] mapTables(int first, int count) {
+        long tableBytes = (long) nRows * nCols * MappedMatrixWriter.WORDSIZE;
+        long tableSize = MappedMatrixWriter.roundUpToPage(tableBytes);
+
+        Matrix[] m = new Matrix[count];
+        RandomAccessFile randFile = null;
+        try {
+            randFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randFile.getChannel();
+
+            for (int i = 0; i < count; i++) {
+                int t = first + i;
+                long position = dataOffset + t * tableSize;
+                if (position + tableBytes > channel.size())
+                    throw new MatrixException(MatrixException.ERROR_READING_FILE + ", " + file + " is truncated");
+
+                m[i] = new MappedMatrix(tableNames[t], tableDescriptions[t], nRows, nCols,
+                        channel.map(FileChannel.MapMode.READ_ONLY, position, tableBytes)
+                               .order(MappedMatrixWriter.DATA_BYTE_ORDER).asFloatBuffer());
+                m[i].setExternalNumbers(externalRowNumbers, externalColumnNumbers);
+            }
+        }
+        catch (IOException e) {
+            throw new MatrixException(e, MatrixException.ERROR_READING_FILE + ", " + file);
+        }
+        finally {
+            if (randFile != null) {
+                try {
+                    randFile.close();
+                }
+                catch (IOException e) {
+                    logger.warn("error closing " + file, e);
+                }
+            }
+        }
+
+        return m;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.matrix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Implements a MatrixWriter to write one or more tables to a mapped matrix
+ * file, the flat binary format read by MappedMatrixReader.
+ *
+ * File layout:
+ * <pre>
+ *   header (big-endian, as written by DataOutputStream)
+ *     int     MAGIC
+ *     int     VERSION
+ *     long    offset of the first table
+ *     int     nRows, nCols, nTables
+ *     int     external row number count, then external row numbers [1..]
+ *     int     external column number count, then external column numbers [1..]
+ *     UTF     name, description of each table
+ *   table data, starting on a PAGE_SIZE boundary
+ *     nRows*nCols floats per table, row major, little-endian, each table
+ *     padded to a multiple of PAGE_SIZE
+ * </pre>
+ * All tables in a file share the same dimensions and external numbers.
+ *
+ * @see MappedMatrixReader
+ */
+public class MappedMatrixWriter extends MatrixWriter {
+
+    static Logger logger = Logger.getLogger("com.pb.common.matrix");
+
+    public static final int MAGIC     = 0x4D4D4154;  // "MMAT"
+    public static final int VERSION   = 1;
+    public static final int WORDSIZE  = 4;
+    public static final int PAGE_SIZE = 4096;
+    public static final ByteOrder DATA_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+
+    /**
+     * @param file represents the physical matrix file
+     */
+    public MappedMatrixWriter(File file) {
+        this.file = file;
+    }
+
+    public void writeMatrix(Matrix m) throws MatrixException {
+        writeMatrices(new String[] { m.getName() }, new Matrix[] { m });
+    }
+
+    public void writeMatrix(String index, Matrix m) throws MatrixException {
+        writeMatrices(new String[] { index.length() > 0 ? index : m.getName() }, new Matrix[] { m });
+    }
+
+    /**
+     * Writes all tables to the file, overwriting the file if it exists.
+     *
+     * @param maxTables the table names, used to find a table when the file is read
+     * @param m the tables, all with the same dimensions and external numbers
+     */
+    public void writeMatrices(String[] maxTables, Matrix[] m) throws MatrixException {
+
+        if (m.length == 0)
+            throw new MatrixException("no matrices to write to " + file);
+
+        int nRows = m[0].getRowCount();
+        int nCols = m[0].getColumnCount();
+        for (int t = 1; t < m.length; t++) {
+            if (m[t].getRowCount() != nRows || m[t].getColumnCount() != nCols)
+                throw new MatrixException(MatrixException.INVALID_DIMENSIONS + ", " + m[t].getName());
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        RandomAccessFile randFile = null;
+        try {
+            randFile = new RandomAccessFile(file, "rw");
+            randFile.setLength(0L);
+
+            byte[] header = createHeader(maxTables, m);
+            long dataOffset = roundUpToPage(header.length);
+            long tableSize = roundUpToPage((long) nRows * nCols * WORDSIZE);
+
+            randFile.write(header);
+
+            //Write data values out one row at a time
+            FileChannel channel = randFile.getChannel();
+            ByteBuffer rowBuffer = ByteBuffer.allocate(nCols * WORDSIZE).order(DATA_BYTE_ORDER);
+            float[] row = new float[nCols];
+            for (int t = 0; t < m.length; t++) {
+                long position = dataOffset + t * tableSize;
+                int[] externalRows = m[t].getExternalRowNumbers();
+                for (int r = 0; r < nRows; r++) {
+                    m[t].getRow(externalRows[r + 1], row);
+                    rowBuffer.clear();
+                    rowBuffer.asFloatBuffer().put(row);
+                    while (rowBuffer.hasRemaining())
+                        position += channel.write(rowBuffer, position);
+                }
+            }
+
+            randFile.setLength(dataOffset + m.length * tableSize);
+        }
+        catch (IOException e) {
+            throw new MatrixException(e, MatrixException.ERROR_WRITING_FILE);
+        }
+        finally {
+            if (randFile != null) {
+                try {
+                    randFile.close();
+                }
+                catch (IOException e) {
+                    throw new MatrixException(e, MatrixException.ERROR_WRITING_FILE);
+                }
+            }
+        }
+
+        long finishTime = System.currentTimeMillis();
+        logger.debug("MappedMatrixWriter wrote " + m.length + " tables to " + file + " in " + (finishTime - startTime) + " ms");
+    }
+
+    private byte[] createHeader(String[] maxTables, Matrix[] m) throws IOException {
+
+        Matrix first = m[0];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(baos);
+
+        //The data offset is written as a placeholder, the header length is known after writing the rest
+        dout.writeInt(MAGIC);
+        dout.writeInt(VERSION);
+        dout.writeLong(0L);
+        dout.writeInt(first.getRowCount());
+        dout.writeInt(first.getColumnCount());
+        dout.writeInt(m.length);
+
+        dout.writeInt(first.externalRowNumbers.length);
+        for (int i = 1; i < first.externalRowNumbers.length; i++)
+            dout.writeInt(first.externalRowNumbers[i]);
+        dout.writeInt(first.externalColumnNumbers.length);
+        for (int i = 1; i < first.externalColumnNumbers.length; i++)
+            dout.writeInt(first.externalColumnNumbers[i]);
+
+        for (int t = 0; t < m.length; t++) {
+            dout.writeUTF(maxTables[t]);
+            dout.writeUTF(m[t].getDescription());
+        }
+        dout.close();
+
+        byte[] header = baos.toByteArray();
+        ByteBuffer.wrap(header).putLong(8, roundUpToPage(header.length));
+        return header;
+    }
+
+    static long roundUpToPage(long length) {
+        return ((length + PAGE_SIZE - 1) / PAGE_SIZE) * PAGE_SIZE;
+    }
+
+}
@@ -82,6 +82,12 @@ public abstract class MatrixReader {
         else if  (type.equals(MatrixType.TPPLUS32)) { // TODO: remove once 32bit reader DLL is no longer supported
             reader = new TpplusMatrixReader( file );  
         }
+        else if  (type.equals(MatrixType.MAPPED)) {
+            reader = new MappedMatrixReader( file );
+        }
+        else if  (type.equals(MatrixType.TPPLUSJAVA)) {
+            reader = new TpplusJavaMatrixReader( file );
+        }
         else {
             throw new MatrixException(MatrixException.INVALID_TYPE+", "+ type);
         }
@@ -131,6 +137,12 @@ public abstract class MatrixReader {
         } else if (type.equals(MatrixType.TRANSCAD)) {
             MatrixReader mr = MatrixReader.createReader(MatrixType.TRANSCAD, file);
             matrix = mr.readMatrix(matrixName);
+        } else if (type.equals(MatrixType.MAPPED)) {
+            MatrixReader mr = MatrixReader.createReader(MatrixType.MAPPED, file);
+            matrix = mr.readMatrix(matrixName);
+        } else if (type.equals(MatrixType.TPPLUSJAVA)) {
+            MatrixReader mr = MatrixReader.createReader(MatrixType.TPPLUSJAVA, file);
+            matrix = mr.readMatrix(matrixName);
          } else {
             throw new RuntimeException("Unsupported matrix type: " + type);
         }
@@ -181,6 +193,11 @@ public abstract class MatrixReader {
         {
             type = MatrixType.TRANSCAD;
         }
+        else if (fileName.indexOf(".mmx") > 0 || fileName.indexOf(".MMX") > 0 ||
+                fileName.indexOf(".mapped") > 0 || fileName.indexOf(".MAPPED") > 0)
+        {
+            type = MatrixType.MAPPED;
+        }
         else {
             throw new RuntimeException("Could not determine type of matrix file, " + file.getAbsolutePath());
         }
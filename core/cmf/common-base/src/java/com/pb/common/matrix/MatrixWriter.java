@@ -91,6 +91,14 @@ public abstract class MatrixWriter {
         if (type.equals(MatrixType.CSV)) {
             writer = new CSVMatrixWriter( file );
         }
+        else
+        if (type.equals(MatrixType.MAPPED)) {
+            writer = new MappedMatrixWriter( file );
+        }
+        else
+        if (type.equals(MatrixType.TPPLUSJAVA)) {
+            writer = new TpplusJavaMatrixWriter( file );
+        }
         else {
             throw new MatrixException(MatrixException.INVALID_TYPE + ", " + type);
         }
@@ -0,0 +1,528 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.matrix;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Implements a MatrixReader to read Tpplus/Cube matrix files without the native VoyagerFileAccess library.
+ *
+ * A file is a header of length-prefixed records (MAT, ID, PAR, MVR and ROW) followed by one record for each
+ * row of each table, in row order with the tables of a row together.  Each row record is the row number, the
+ * table number, the length of the row data and the row data itself, which is a 3 byte descriptor and a list of
+ * tokens.  A token is a 16 bit count; if the high bit is set the next value is repeated count times, otherwise
+ * count values follow.
+ *
+ * The descriptor gives the size of the values:
+ *   80 80 80  one unsigned byte, the encoding Cube uses for rows of whole numbers from 0 to 255.
+ *   53 80 80  a little-endian IEEE single precision float.
+ *   44 80 80  a little-endian IEEE double precision float, read into the float matrix.
+ * The float and double encodings are the ones TpplusJavaMatrixWriter writes for rows that aren't whole numbers from
+ * 0 to 255.  They have not been checked against skims written by Cube, as there is neither a Cube written skim nor
+ * the native library here, so run TestTpplusJavaMatrix -native on a skim before using the TPPlusJava type for Cube
+ * files.  Rows with any other descriptor are reported as an error rather than read; use TpplusMatrixReader64 for
+ * those files.
+ *
+ * The file is streamed once for any number of tables.  readMatrices() keeps the encoded rows of every table and
+ * then decodes the tables in parallel.
+ *
+ * @see com.pb.common.matrix.TpplusJavaMatrixWriter
+ */
+public class TpplusJavaMatrixReader extends MatrixReader {
+
+    static final String RECORD_MAT = "MAT";
+    static final String RECORD_ID = "ID=";
+    static final String RECORD_PAR = "PAR";
+    static final String RECORD_MVR = "MVR";
+    static final String RECORD_ROW = "ROW";
+
+    // the row descriptor used by Cube for rows of whole numbers from 0 to 255
+    static final byte[] BYTE_ROW_DESCRIPTOR = { (byte) 0x80, (byte) 0x80, (byte) 0x80 };
+    // the row descriptors used by TpplusJavaMatrixWriter for rows of floats and doubles
+    static final byte[] FLOAT_ROW_DESCRIPTOR = { (byte) 'S', (byte) 0x80, (byte) 0x80 };
+    static final byte[] DOUBLE_ROW_DESCRIPTOR = { (byte) 'D', (byte) 0x80, (byte) 0x80 };
+
+    // table precisions recorded as S and D instead of a number of decimal places
+    public static final int PRECISION_SINGLE = -1;
+    public static final int PRECISION_DOUBLE = -2;
+
+    static final int RUN_FLAG = 0x8000;
+    static final int MAX_TOKEN_COUNT = 0x7fff;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    protected Logger logger = Logger.getLogger("com.pb.common.matrix");
+
+    private int nZones;
+    private int nTables;
+    private String[] matNames;
+    private int[] precisions;
+    private Hashtable<String, Integer> nameToTableNum;
+    private long dataOffset;
+    private int decodeThreads = Runtime.getRuntime().availableProcessors();
+
+
+    /**
+     * @param file represents the physical matrix file
+     */
+    public TpplusJavaMatrixReader(File file) {
+
+        if ( ! file.canRead() ) {
+            logger.error( "TPPLUS file: " + file.getPath() + " cannot be read." );
+            throw new MatrixException( MatrixException.FILE_NOT_FOUND + ", " + file.getPath() );
+        }
+
+        this.file = file;
+        logger.debug("Creating TpplusJavaMatrixReader for file " + file.getAbsolutePath());
+    }
+
+    /**
+     * Sets the number of threads used by readMatrices() to decode tables.  Defaults to the number of processors.
+     *
+     * @param threads number of decoding threads, at least 1
+     */
+    public void setDecodeThreads(int threads) {
+        decodeThreads = Math.max(1, threads);
+    }
+
+    public Matrix readMatrix() throws MatrixException {
+        throw new UnsupportedOperationException("Use method, readMatrix(\"table\")");
+    }
+
+    /**
+     * @return the number of individual tables in the file
+     */
+    public int getNumTables() {
+        readHeader();
+        return nTables;
+    }
+
+    /**
+     * @return the number of rows in the file
+     */
+    public int getNumRows() {
+        readHeader();
+        return nZones;
+    }
+
+    /**
+     * @return the table names, in table order
+     */
+    public String[] getMatrixNames() {
+        readHeader();
+        return matNames.clone();
+    }
+
+    /**
+     * @return the decimal precision of each table, in table order, or PRECISION_SINGLE or PRECISION_DOUBLE
+     */
+    public int[] getPrecisions() {
+        readHeader();
+        return precisions.clone();
+    }
+
+    /**
+     * Reads a matrix table from a tpplus matrix file.
+     *
+     * @param tableName The name of the table to read, or its 1-based position.
+     * @return a complete matrix
+     * @throws MatrixException
+     */
+    public Matrix readMatrix(String tableName) throws MatrixException {
+
+        readHeader();
+
+        int table;
+        if (nameToTableNum.containsKey(tableName)) {
+            table = nameToTableNum.get(tableName);
+            logger.info( Thread.currentThread().getName() + " reading tpplus matrix " + file.getPath() + " from file with table name " + tableName );
+        } else {
+            try {
+                table = Integer.parseInt(tableName);
+                logger.info( Thread.currentThread().getName() + " reading tpplus matrix " + file.getPath() + " from file at position " + table);
+            } catch (NumberFormatException e) {
+                if (nTables == 1) {
+                    table = 1;
+                    logger.info("No tpplus matrix in " + file.getPath() + " with name " + tableName
+                                + " so reading matrix 1");
+                } else {
+                    logger.error(Thread.currentThread().getName() + " ERROR attempting to read tpplus matrix " + file.getPath() + " : " + tableName);
+                    throw new MatrixException(MatrixException.INVALID_TABLE_NAME + " " + tableName);
+                }
+            }
+        }
+
+        return readMatrix(table);
+    }
+
+    /**
+     * Reads a matrix table from a tpplus matrix file.  The rows of other tables are skipped without decoding.
+     *
+     * @param table The number of the table to read (1-based).
+     * @return a complete matrix
+     * @throws MatrixException
+     */
+    public Matrix readMatrix(int table) throws MatrixException {
+
+        readHeader();
+        if (table < 1 || table > nTables) {
+            throw new MatrixException(MatrixException.INVALID_INDEX + " " + table);
+        }
+
+        byte[][][] rows = new byte[nTables][][];
+        rows[table-1] = new byte[nZones][];
+        readRows(rows);
+
+        return decodeTable(table, rows[table-1]);
+    }
+
+    /**
+     * Reads all the matrix tables from a tpplus matrix file in a single pass, and decodes them in parallel.
+     *
+     * @return an array with a complete matrix for each table
+     * @throws MatrixException
+     */
+    public Matrix[] readMatrices() throws MatrixException {
+
+        readHeader();
+
+        final byte[][][] rows = new byte[nTables][nZones][];
+        readRows(rows);
+
+        Matrix[] m = new Matrix[nTables];
+        int threads = Math.min(decodeThreads, nTables);
+        if (threads <= 1) {
+            for (int i=0; i < nTables; i++)
+                m[i] = decodeTable(i+1, rows[i]);
+            return m;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Matrix>> results = new ArrayList<Future<Matrix>>(nTables);
+            for (int i=0; i < nTables; i++) {
+                final int table = i+1;
+                results.add(pool.submit(new Callable<Matrix>() {
+                    public Matrix call() {
+                        Matrix matrix = decodeTable(table, rows[table-1]);
+                        rows[table-1] = null;
+                        return matrix;
+                    }
+                }));
+            }
+            for (int i=0; i < nTables; i++)
+                m[i] = results.get(i).get();
+        }
+        catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof MatrixException)
+                throw (MatrixException) cause;
+            logger.error("error decoding tpplus matrix " + file.getPath(), cause);
+            throw new MatrixException(cause, MatrixException.ERROR_READING_FILE + ", " + file.getPath());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        return m;
+    }
+
+
+    /**
+     * Reads the header records, once, and records where the row records start.
+     */
+    private synchronized void readHeader() {
+
+        if (matNames != null)
+            return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192));
+            long offset = 0;
+            boolean rowsFound = false;
+            while (!rowsFound) {
+                int length = readInt(in);
+                if (length < 4)
+                    throw new MatrixException(MatrixException.INVALID_FORMAT + ", header record length " + length + " in " + file.getPath());
+                byte[] content = new byte[length - 4];
+                in.readFully(content);
+                offset += length;
+
+                String[] fields = new String(content, "US-ASCII").split("\0");
+                String field = fields.length > 0 ? fields[0] : "";
+                if (field.startsWith(RECORD_PAR))
+                    parseParameters(field);
+                else if (field.startsWith(RECORD_MVR))
+                    parseTableNames(fields);
+                else if (field.startsWith(RECORD_ROW))
+                    rowsFound = true;
+            }
+            dataOffset = offset;
+        }
+        catch (EOFException e) {
+            logger.error("no row records found in tpplus matrix " + file.getPath());
+            throw new MatrixException(e, MatrixException.INVALID_FORMAT + ", " + file.getPath());
+        }
+        catch (IOException e) {
+            logger.error("error reading tpplus matrix " + file.getPath(), e);
+            throw new MatrixException(e, MatrixException.ERROR_READING_FILE + ", " + file.getPath());
+        }
+        finally {
+            close(in);
+        }
+
+        if (nZones <= 0 || nTables <= 0 || matNames == null || matNames.length != nTables) {
+            matNames = null;
+            logger.error("tpplus matrix " + file.getPath() + " has no zones, or no names for its " + nTables + " tables");
+            throw new MatrixException(MatrixException.INVALID_FORMAT + ", " + file.getPath());
+        }
+
+        nameToTableNum = new Hashtable<String, Integer>();
+        for (int i=nTables-1; i >= 0; i--)
+            nameToTableNum.put(matNames[i], i+1);
+
+        logger.debug(file.getAbsolutePath() + " has " + nZones + " zones and " + nTables + " tables");
+    }
+
+    // PAR Zones=79 M=2
+    private void parseParameters(String field) {
+        for (String token : field.trim().split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq < 0)
+                continue;
+            String key = token.substring(0, eq);
+            String value = token.substring(eq+1);
+            if (key.equalsIgnoreCase("Zones"))
+                nZones = Integer.parseInt(value);
+            else if (key.equalsIgnoreCase("M"))
+                nTables = Integer.parseInt(value);
+        }
+    }
+
+    // MVR 2, then name=precision for each table
+    private void parseTableNames(String[] fields) {
+        int count = Integer.parseInt(fields[0].substring(RECORD_MVR.length()).trim());
+        String[] names = new String[count];
+        int[] decimals = new int[count];
+        for (int i=0; i < count; i++) {
+            String field = fields[i+1];
+            int eq = field.lastIndexOf('=');
+            names[i] = eq < 0 ? field : field.substring(0, eq);
+            decimals[i] = eq < 0 ? 0 : parsePrecision(field.substring(eq+1));
+        }
+        matNames = names;
+        precisions = decimals;
+    }
+
+    // a number of decimal places, or D or S for double or single precision
+    private int parsePrecision(String value) {
+        value = value.trim();
+        if (value.equalsIgnoreCase("S"))
+            return PRECISION_SINGLE;
+        if (value.equalsIgnoreCase("D"))
+            return PRECISION_DOUBLE;
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            logger.error("invalid table precision " + value + " in tpplus matrix " + file.getPath());
+            throw new MatrixException(e, MatrixException.INVALID_FORMAT + ", " + file.getPath());
+        }
+    }
+
+    /**
+     * Streams the row records, keeping the data of the tables that have an array in rows.
+     */
+    private void readRows(byte[][][] rows) {
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            skipFully(in, dataOffset);
+
+            while (true) {
+                int lo = in.read();
+                if (lo < 0)
+                    break;
+                int row = lo | (in.readUnsignedByte() << 8);
+                int table = in.readUnsignedByte();
+                int length = readUnsignedShort(in) - 2;
+
+                if (row < 1 || row > nZones || table < 1 || table > nTables || length < 0) {
+                    logger.error(String.format("invalid row record, row=%d, table=%d, length=%d, in tpplus matrix %s", row, table, length, file.getPath()));
+                    throw new MatrixException(MatrixException.INVALID_FORMAT + ", " + file.getPath());
+                }
+
+                byte[][] tableRows = rows[table-1];
+                if (tableRows == null) {
+                    skipFully(in, length);
+                }
+                else {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    tableRows[row-1] = data;
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.error("error reading tpplus matrix " + file.getPath(), e);
+            throw new MatrixException(e, MatrixException.ERROR_READING_FILE + ", " + file.getPath());
+        }
+        finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Decodes the rows of a table.  Rows with no record in the file are left as zeros.
+     */
+    private Matrix decodeTable(int table, byte[][] tableRows) {
+
+        float[][] values = new float[nZones][];
+        for (int r=0; r < nZones; r++) {
+            values[r] = new float[nZones];
+            if (tableRows[r] != null)
+                decodeRow(tableRows[r], values[r], r+1, table);
+        }
+
+        Matrix m = new Matrix(matNames[table-1], "", values);
+        if (logger.isDebugEnabled())
+            logger.debug( "The sum of matrix[" + table + "] is " + m.getSum());
+        return m;
+    }
+
+    /**
+     * Decodes the data of a row record into values.
+     */
+    void decodeRow(byte[] data, float[] values, int row, int table) {
+
+        int width = getValueWidth(data);
+        if (width == 0) {
+            String descriptor = data.length < 3 ? "" : String.format("%02x%02x%02x", data[0], data[1], data[2]);
+            logger.error(String.format("row %d of table %d in tpplus matrix %s uses row encoding %s, which TpplusJavaMatrixReader can't read; use the TPPlus matrix type instead.",
+                    row, table, file.getPath(), descriptor));
+            throw new MatrixException(MatrixException.INVALID_FORMAT + ", " + file.getPath());
+        }
+
+        int p = BYTE_ROW_DESCRIPTOR.length;
+        int c = 0;
+        try {
+            while (p < data.length) {
+                int token = (data[p] & 0xff) | ((data[p+1] & 0xff) << 8);
+                p += 2;
+                int count = token & MAX_TOKEN_COUNT;
+                if ((token & RUN_FLAG) != 0) {
+                    float value = getValue(data, p, width);
+                    p += width;
+                    for (int i=0; i < count; i++)
+                        values[c++] = value;
+                }
+                else {
+                    for (int i=0; i < count; i++) {
+                        values[c++] = getValue(data, p, width);
+                        p += width;
+                    }
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            c = -1;
+        }
+
+        if (c != values.length || p != data.length) {
+            logger.error(String.format("row %d of table %d in tpplus matrix %s does not have %d values", row, table, file.getPath(), values.length));
+            throw new MatrixException(MatrixException.INVALID_FORMAT + ", " + file.getPath());
+        }
+    }
+
+    /**
+     * @return the number of bytes in each value of the row data, from its descriptor, or 0 if the descriptor isn't known.
+     */
+    static int getValueWidth(byte[] data) {
+        if (hasDescriptor(data, BYTE_ROW_DESCRIPTOR))
+            return 1;
+        else if (hasDescriptor(data, FLOAT_ROW_DESCRIPTOR))
+            return 4;
+        else if (hasDescriptor(data, DOUBLE_ROW_DESCRIPTOR))
+            return 8;
+        return 0;
+    }
+
+    private static boolean hasDescriptor(byte[] data, byte[] descriptor) {
+        return data.length >= descriptor.length && data[0] == descriptor[0] && data[1] == descriptor[1] && data[2] == descriptor[2];
+    }
+
+    // a value of 1, 4 or 8 bytes at p
+    private static float getValue(byte[] data, int p, int width) {
+        if (width == 1)
+            return data[p] & 0xff;
+        if (width == 4)
+            return Float.intBitsToFloat(getInt(data, p));
+        return (float) Double.longBitsToDouble((getInt(data, p) & 0xffffffffL) | ((long) getInt(data, p+4) << 32));
+    }
+
+    private static int getInt(byte[] data, int p) {
+        return (data[p] & 0xff) | ((data[p+1] & 0xff) << 8) | ((data[p+2] & 0xff) << 16) | ((data[p+3] & 0xff) << 24);
+    }
+
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readUnsignedShort(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xffff;
+    }
+
+    private static void skipFully(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.matrix;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Implements a MatrixWriter to write Tpplus/Cube matrix files without the native VoyagerFileAccess library.
+ *
+ * Rows are written with the encodings described in TpplusJavaMatrixReader, with runs of 7 or more equal values
+ * written as a single token.  A row of whole numbers from 0 to 255 is written with the byte valued encoding, the same
+ * way Cube writes it; any other row is written as floats, so values are written as they are and the decimal precision
+ * is only recorded in the header.  Tables with single or double precision (PRECISION_SINGLE or PRECISION_DOUBLE)
+ * always have float or double rows.
+ *
+ * @see com.pb.common.matrix.TpplusJavaMatrixReader
+ */
+public class TpplusJavaMatrixWriter extends MatrixWriter {
+
+    // shortest run of equal values written as a run token rather than as literal values
+    static final int MIN_RUN_LENGTH = 7;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    protected Logger logger = Logger.getLogger("com.pb.common.matrix");
+    private int precision;
+
+
+    /**
+     * @param file represents the physical matrix file
+     */
+    public TpplusJavaMatrixWriter(File file) {
+        this.file = file;
+        precision = 4;
+    }
+
+    /**
+     * Sets the decimal precision recorded for each table.
+     *
+     * @param precision decimal precision (0-9), or TpplusJavaMatrixReader.PRECISION_SINGLE or PRECISION_DOUBLE
+     */
+    public void setPrecision(int precision) {
+        if ((precision < 0 || precision > 9) && precision != TpplusJavaMatrixReader.PRECISION_SINGLE
+                && precision != TpplusJavaMatrixReader.PRECISION_DOUBLE) {
+            throw new MatrixException(MatrixException.INVALID_FORMAT + " Invalid tpplus precision " + precision + ", must be 0-9, single or double.");
+        }
+        this.precision = precision;
+    }
+
+    /**
+     * Writes a matrix to table 1 of a tpplus matrix file.
+     *
+     * @param m object
+     * @throws MatrixException
+     */
+    public void writeMatrix( Matrix m ) throws MatrixException {
+        String name = m.getName() == null || m.getName().length() == 0 ? "M1" : m.getName();
+        writeData( new Matrix[] { m }, new String[] { name } );
+    }
+
+    /**
+     * Writes a matrix to table 1 of a tpplus matrix file.
+     *
+     * @param matrixName Matrix name
+     * @param m object
+     * @throws MatrixException
+     */
+    public void writeMatrix( String matrixName, Matrix m ) throws MatrixException {
+        writeData( new Matrix[] { m }, new String[] { matrixName } );
+    }
+
+    /**
+     * Writes a list of matrices to a tpplus matrix file.
+     *
+     * @param matrixNames an array of table names to use
+     * @param m object
+     * @throws MatrixException
+     */
+    public void writeMatrices( String[] matrixNames, Matrix[] m ) throws MatrixException {
+
+        // use default table numbers as names if none were given.
+        String[] names = new String[m.length];
+        for (int i=0; i < m.length; i++) {
+            if ( matrixNames == null || matrixNames[i] == null || matrixNames[i].length() == 0 )
+                names[i] = String.format( "table%d", (i+1) );
+            else
+                names[i] = matrixNames[i];
+        }
+
+        writeData( m, names );
+    }
+
+
+    /**
+     * Writes matrices to a tpplus matrix file, a row of every table at a time.
+     */
+    private void writeData( Matrix[] m, String[] names ) throws MatrixException {
+
+        // check dimensions
+        int nRows = m[0].getRowCount();
+        int nCols = m[0].getColumnCount();
+        int nTables = m.length;
+        if (nRows != nCols) {
+            throw new MatrixException(MatrixException.INVALID_DIMENSIONS + " Matrix must be square.");
+        }
+        for (int i=0; i < nTables; i++) {
+            if (m[i].getRowCount() != nRows || m[i].getColumnCount() != nCols) {
+                throw new MatrixException(MatrixException.INVALID_DIMENSIONS + " All matrices must be same dimensions");
+            }
+        }
+        if (nRows > 0xffff || nTables > 0xff) {
+            throw new MatrixException(MatrixException.INVALID_DIMENSIONS + " A tpplus matrix has at most 65535 zones and 255 tables.");
+        }
+
+        logger.debug( "Writing to " + file.getPath() + " with " + nTables + " tables and " + nRows + " rows" );
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            writeHeader(out, nRows, names);
+
+            int[] extRow = m[0].getExternalNumbers();
+            int[] extCol = m[0].getExternalColumnNumbers();
+            float[] rowValues = new float[nCols];
+            ByteArrayOutputStream rowData = new ByteArrayOutputStream(3 * nCols + 16);
+            for (int r=0; r < nRows; r++) {
+                for (int i=0; i < nTables; i++) {
+                    for (int c=0; c < nCols; c++)
+                        rowValues[c] = m[i].getValueAt(extRow[r+1], extCol[c+1]);
+
+                    rowData.reset();
+                    encodeRow(rowValues, rowData);
+                    if (rowData.size() + 2 > 0xffff) {
+                        throw new MatrixException(MatrixException.INVALID_DIMENSIONS + " Row " + (r+1) + " of " + names[i] + " is too long for a tpplus row record.");
+                    }
+
+                    writeShort(out, r+1);
+                    out.writeByte(i+1);
+                    writeShort(out, rowData.size() + 2);
+                    rowData.writeTo(out);
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.error("error writing tpplus matrix " + file.getPath(), e);
+            throw new MatrixException(e, MatrixException.ERROR_WRITING_FILE + ", " + file.getPath());
+        }
+        finally {
+            if (out != null) {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                    logger.error("error closing tpplus matrix " + file.getPath(), e);
+                }
+            }
+        }
+    }
+
+    private void writeHeader(DataOutputStream out, int nZones, String[] names) throws IOException {
+
+        String date = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy", Locale.US).format(new Date());
+        writeRecord(out, TpplusJavaMatrixReader.RECORD_MAT + " PGM=" + getClass().getSimpleName() + " DATE=" + date + " ");
+        writeRecord(out, TpplusJavaMatrixReader.RECORD_ID);
+        writeRecord(out, TpplusJavaMatrixReader.RECORD_PAR + " Zones=" + nZones + " M=" + names.length);
+
+        String[] fields = new String[names.length + 1];
+        fields[0] = TpplusJavaMatrixReader.RECORD_MVR + " " + names.length;
+        for (int i=0; i < names.length; i++)
+            fields[i+1] = names[i].replace(' ', '_') + "=" + getPrecisionString();
+        writeRecord(out, fields);
+
+        writeRecord(out, TpplusJavaMatrixReader.RECORD_ROW);
+    }
+
+    private String getPrecisionString() {
+        if (precision == TpplusJavaMatrixReader.PRECISION_SINGLE)
+            return "S";
+        if (precision == TpplusJavaMatrixReader.PRECISION_DOUBLE)
+            return "D";
+        return String.valueOf(precision);
+    }
+
+    // a header record is its length, including the length itself, then null terminated fields
+    private static void writeRecord(DataOutputStream out, String... fields) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String field : fields) {
+            content.write(field.getBytes("US-ASCII"));
+            content.write(0);
+        }
+        out.writeInt(Integer.reverseBytes(content.size() + 4));
+        content.writeTo(out);
+    }
+
+    /**
+     * Encodes the values of a row as literal and run tokens following the row descriptor.
+     */
+    void encodeRow(float[] values, ByteArrayOutputStream data) {
+
+        byte[] descriptor;
+        if (precision == TpplusJavaMatrixReader.PRECISION_DOUBLE)
+            descriptor = TpplusJavaMatrixReader.DOUBLE_ROW_DESCRIPTOR;
+        else if (precision == TpplusJavaMatrixReader.PRECISION_SINGLE || !isByteRow(values))
+            descriptor = TpplusJavaMatrixReader.FLOAT_ROW_DESCRIPTOR;
+        else
+            descriptor = TpplusJavaMatrixReader.BYTE_ROW_DESCRIPTOR;
+        data.write(descriptor, 0, descriptor.length);
+        int width = TpplusJavaMatrixReader.getValueWidth(descriptor);
+
+        int n = values.length;
+        int literalStart = 0;
+        int i = 0;
+        while (i < n) {
+            int j = i + 1;
+            while (j < n && j - i < TpplusJavaMatrixReader.MAX_TOKEN_COUNT && values[j] == values[i])
+                j++;
+
+            if (j - i >= MIN_RUN_LENGTH) {
+                writeLiterals(values, literalStart, i, data, width);
+                writeToken(data, TpplusJavaMatrixReader.RUN_FLAG | (j - i));
+                writeValue(data, values[i], width);
+                literalStart = j;
+            }
+            i = j;
+        }
+        writeLiterals(values, literalStart, n, data, width);
+    }
+
+    private void writeLiterals(float[] values, int start, int end, ByteArrayOutputStream data, int width) {
+        while (start < end) {
+            int count = Math.min(end - start, TpplusJavaMatrixReader.MAX_TOKEN_COUNT);
+            writeToken(data, count);
+            for (int c=start; c < start + count; c++)
+                writeValue(data, values[c], width);
+            start += count;
+        }
+    }
+
+    // true if every value is a whole number from 0 to 255
+    private static boolean isByteRow(float[] values) {
+        for (float value : values) {
+            int intValue = (int) value;
+            if (intValue < 0 || intValue > 255 || value != intValue)
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeValue(ByteArrayOutputStream data, float value, int width) {
+        if (width == 1) {
+            data.write(Math.round(value));
+        }
+        else if (width == 4) {
+            writeInt(data, Float.floatToRawIntBits(value));
+        }
+        else {
+            long bits = Double.doubleToRawLongBits(value);
+            writeInt(data, (int) bits);
+            writeInt(data, (int) (bits >>> 32));
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream data, int value) {
+        data.write(value & 0xff);
+        data.write((value >>> 8) & 0xff);
+        data.write((value >>> 16) & 0xff);
+        data.write((value >>> 24) & 0xff);
+    }
+
+    private static void writeToken(ByteArrayOutputStream data, int token) {
+        data.write(token & 0xff);
+        data.write((token >>> 8) & 0xff);
+    }
+
+    private static void writeShort(DataOutputStream out, int value) throws IOException {
+        out.writeByte(value & 0xff);
+        out.writeByte((value >>> 8) & 0xff);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.matrix.tests;
+
+import com.pb.common.matrix.MappedMatrixReader;
+import com.pb.common.matrix.Matrix;
+import com.pb.common.matrix.MatrixReader;
+import com.pb.common.matrix.MatrixType;
+import com.pb.common.matrix.MatrixWriter;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+
+/**
+ * Tests the MappedMatrixWriter and MappedMatrixReader classes by writing the
+ * TestBinaryMatrix sample matrices to a mapped matrix file, reading them back
+ * and comparing every cell and row.
+ */
+public class TestMappedMatrix {
+    static Logger logger = Logger.getLogger("com.pb.common.matrix.tests");
+
+    public static final String matrix1FileName = "testmatrix1.mmx";
+    public static final String matrix2FileName = "testmatrix2.mmx";
+
+    public static void main(String[] args) {
+        logger.info("Test Description: ");
+        logger.info("\tSquare matrix with same external zones in both rows and columns");
+        Matrix m1 = TestBinaryMatrix.createMatrix1();
+        MatrixWriter.createWriter(MatrixType.MAPPED, new File(matrix1FileName)).writeMatrix(m1);
+        compare(m1, MatrixReader.createReader(matrix1FileName).readMatrix());
+
+        logger.info("Test Description: ");
+        logger.info("\tTwo non-square tables with different external zones in rows and columns, in one file");
+        Matrix m2 = TestBinaryMatrix.createMatrix2();
+        Matrix m3 = m2.multiply(2.0f);
+        m3.setExternalNumbers(m2.getExternalRowNumbers(), m2.getExternalColumnNumbers());
+        MatrixWriter.createWriter(MatrixType.MAPPED, new File(matrix2FileName))
+                .writeMatrices(new String[] { "single", "double" }, new Matrix[] { m2, m3 });
+
+        MappedMatrixReader reader = new MappedMatrixReader(new File(matrix2FileName));
+        compare(m2, reader.readMatrix("single"));
+        compare(m3, reader.readMatrix("double"));
+        Matrix[] both = reader.readMatrices();
+        compare(m2, both[0]);
+        compare(m3, both[1]);
+    }
+
+    /**
+     * Compare every cell and row of a matrix read from a mapped file with the matrix that was written.
+     */
+    public static void compare(Matrix expected, Matrix actual) {
+        int[] rows = expected.getExternalRowNumbers();
+        int[] cols = expected.getExternalColumnNumbers();
+
+        float[] expectedRow = new float[expected.getColumnCount()];
+        float[] actualRow = new float[actual.getColumnCount()];
+
+        int errors = 0;
+        for (int r = 1; r < rows.length; r++) {
+            expected.getRow(rows[r], expectedRow);
+            actual.getRow(rows[r], actualRow);
+            for (int c = 1; c < cols.length; c++) {
+                if (expected.getValueAt(rows[r], cols[c]) != actual.getValueAt(rows[r], cols[c])
+                        || expectedRow[c-1] != actualRow[c-1])
+                    errors++;
+            }
+        }
+
+        if (expected.getSum() != actual.getSum())
+            errors++;
+
+        logger.info(actual.getName() + ": " + actual.getClass().getSimpleName() + ", sum=" +
+                String.format("%7.2f", actual.getSum()) + (errors == 0 ? ", all values match." : ", " + errors + " differences."));
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.matrix.tests;
+
+import com.pb.common.matrix.Matrix;
+import com.pb.common.matrix.MatrixReader;
+import com.pb.common.matrix.MatrixType;
+import com.pb.common.matrix.MatrixWriter;
+import com.pb.common.matrix.TpplusJavaMatrixReader;
+import com.pb.common.matrix.TpplusJavaMatrixWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests the TpplusJavaMatrixReader/Writer classes with tpplus matrix files written by Cube.  Each file is read
+ * a table at a time and all at once, written again and read back, and the row records written are checked
+ * against the ones in the original file.
+ *
+ * The byte, float and double row encodings are tested with random matrices, with whole, fractional and negative
+ * values and runs of equal values, written by TpplusJavaMatrixWriter at each kind of precision and by the native
+ * TPPlus writer.  The cell values read are checked against the matrices written.
+ *
+ * Each table is also compared with the values read by the TPPlus matrix type, which uses the native
+ * VoyagerFileAccess library.  Where that library can't be loaded the comparison is reported as skipped, unless
+ * -native is given, in which case it is a failure.  The float and double encodings have not been compared with
+ * a skim written by Cube, so run this with such a skim and -native before reading Cube skims with TPPlusJava.
+ *
+ * usage: TestTpplusJavaMatrix [-native] [matrixFile ...]
+ */
+public class TestTpplusJavaMatrix {
+
+    public static void testFile(File file, boolean requireNative) throws IOException {
+
+        TpplusJavaMatrixReader reader = (TpplusJavaMatrixReader) MatrixReader.createReader(MatrixType.TPPLUSJAVA, file);
+        int nTables = reader.getNumTables();
+        int nZones = reader.getNumRows();
+        String[] names = reader.getMatrixNames();
+        check(nTables > 0 && nZones > 0, "tables and zones in " + file);
+
+        Matrix[] all = reader.readMatrices();
+        check(all.length == nTables, "one matrix for each table");
+        for (int i=0; i < nTables; i++) {
+            check(all[i].getRowCount() == nZones && all[i].getColumnCount() == nZones, "dimensions of " + names[i]);
+            check(names[i].equals(all[i].getName()), "name of table " + (i+1));
+            Matrix byName = reader.readMatrix(names[i]);
+            Matrix byNumber = reader.readMatrix(String.valueOf(i+1));
+            check(Arrays.deepEquals(all[i].getValues(), byName.getValues()), "table read by name is the same as read with all tables");
+            check(Arrays.deepEquals(all[i].getValues(), byNumber.getValues()), "table read by number is the same as read with all tables");
+            System.out.println(file.getName() + " " + names[i] + ": " + nZones + " zones, sum " + all[i].getSum());
+        }
+
+        File copy = File.createTempFile("tpplusJava", ".tpp");
+        copy.deleteOnExit();
+        MatrixWriter writer = MatrixWriter.createWriter(MatrixType.TPPLUSJAVA, copy);
+        writer.writeMatrices(names, all);
+
+        Matrix[] copies = MatrixReader.createReader(MatrixType.TPPLUSJAVA, copy).readMatrices();
+        for (int i=0; i < nTables; i++)
+            check(Arrays.deepEquals(all[i].getValues(), copies[i].getValues()), "written and read back " + names[i]);
+
+        // the header has a different program and date, but the rows should be encoded the way Cube encodes them
+        byte[] original = readFile(file);
+        byte[] written = readFile(copy);
+        check(Arrays.equals(rowRecords(original), rowRecords(written)), "row records written the same as the original");
+
+        compareWithNativeReader(file, all, requireNative);
+    }
+
+    public static void testEncodings(boolean requireNative) throws IOException {
+
+        int nZones = 60;
+        String[] names = { "whole", "fractional", "mixed" };
+        Random random = new Random(19);
+        float[][][] values = new float[names.length][nZones][nZones];
+        for (int r=0; r < nZones; r++) {
+            // rows of whole numbers from 0 to 255, with runs
+            for (int c=0; c < nZones; c++)
+                values[0][r][c] = c < r ? 7 : random.nextInt(256);
+
+            // fractional and negative values, with runs
+            for (int c=0; c < nZones; c++)
+                values[1][r][c] = c % 20 < 10 ? -1.25f : (random.nextFloat() - 0.5f) * 1000;
+
+            // whole rows, fractional rows, large values and rows of zeros
+            for (int c=0; c < nZones; c++) {
+                switch (r % 4) {
+                    case 0: values[2][r][c] = random.nextInt(256); break;
+                    case 1: values[2][r][c] = random.nextFloat() * 60; break;
+                    case 2: values[2][r][c] = 1000 + random.nextInt(100000); break;
+                    default: values[2][r][c] = 0; break;
+                }
+            }
+        }
+
+        Matrix[] m = new Matrix[names.length];
+        for (int i=0; i < names.length; i++)
+            m[i] = new Matrix(names[i], "", values[i]);
+
+        int[] precisions = { 0, 4, TpplusJavaMatrixReader.PRECISION_SINGLE, TpplusJavaMatrixReader.PRECISION_DOUBLE };
+        for (int precision : precisions) {
+            File file = File.createTempFile("tpplusJava", ".tpp");
+            file.deleteOnExit();
+            TpplusJavaMatrixWriter writer = (TpplusJavaMatrixWriter) MatrixWriter.createWriter(MatrixType.TPPLUSJAVA, file);
+            writer.setPrecision(precision);
+            writer.writeMatrices(names, m);
+
+            TpplusJavaMatrixReader reader = (TpplusJavaMatrixReader) MatrixReader.createReader(MatrixType.TPPLUSJAVA, file);
+            check(reader.getPrecisions()[0] == precision, "precision " + precision + " read back as " + reader.getPrecisions()[0]);
+            Matrix[] all = reader.readMatrices();
+            for (int i=0; i < names.length; i++) {
+                check(Arrays.deepEquals(values[i], all[i].getValues()), "precision " + precision + ": values of " + names[i] + " written and read back");
+                check(Arrays.deepEquals(values[i], reader.readMatrix(names[i]).getValues()), "precision " + precision + ": values of " + names[i] + " read by name");
+            }
+            System.out.println("precision " + precision + ": " + names.length + " tables written and read back");
+
+            compareWithNativeReader(file, all, requireNative);
+        }
+
+        compareWithNativeWriter(m, requireNative);
+    }
+
+    /**
+     * Reads matrices written by the native TPPlus writer, at 4 decimal places, and compares them with the values written.
+     */
+    private static void compareWithNativeWriter(Matrix[] m, boolean requireNative) throws IOException {
+
+        File file = File.createTempFile("tpplusNative", ".tpp");
+        file.deleteOnExit();
+        String[] names = new String[m.length];
+        for (int i=0; i < m.length; i++)
+            names[i] = m[i].getName();
+        try {
+            MatrixWriter.createWriter(MatrixType.TPPLUS, file).writeMatrices(names, m);
+        }
+        catch (LinkageError e) {
+            check(!requireNative, "native TPPlus writer could not be loaded: " + e);
+            System.out.println("not compared with the native TPPlus writer, which could not be loaded: " + e);
+            return;
+        }
+
+        Matrix[] all = MatrixReader.createReader(MatrixType.TPPLUSJAVA, file).readMatrices();
+        for (int i=0; i < m.length; i++) {
+            float[][] expected = m[i].getValues();
+            float[][] actual = all[i].getValues();
+            for (int r=0; r < expected.length; r++)
+                for (int c=0; c < expected[r].length; c++)
+                    check(Math.abs(expected[r][c] - actual[r][c]) <= 0.00005 * Math.max(1, Math.abs(expected[r][c])),
+                            names[i] + " [" + (r+1) + "," + (c+1) + "] written by the native writer as " + expected[r][c] + ", read as " + actual[r][c]);
+        }
+        System.out.println(m.length + " tables written by the native TPPlus writer read the same");
+    }
+
+    private static void compareWithNativeReader(File file, Matrix[] all, boolean requireNative) {
+
+        Matrix[] nativeMatrices = new Matrix[all.length];
+        try {
+            MatrixReader nativeReader = MatrixReader.createReader(MatrixType.TPPLUS, file);
+            for (int i=0; i < all.length; i++)
+                nativeMatrices[i] = nativeReader.readMatrix(all[i].getName());
+        }
+        catch (LinkageError e) {
+            check(!requireNative, "native TPPlus reader could not be loaded: " + e);
+            System.out.println(file.getName() + ": not compared with the native TPPlus reader, which could not be loaded: " + e);
+            return;
+        }
+
+        for (int i=0; i < all.length; i++) {
+            check(Arrays.equals(all[i].getExternalRowNumbers(), nativeMatrices[i].getExternalRowNumbers()), "zone numbers of " + all[i].getName() + " the same as the native reader's");
+            check(Arrays.deepEquals(all[i].getValues(), nativeMatrices[i].getValues()), "values of " + all[i].getName() + " the same as the native reader's");
+        }
+        System.out.println(file.getName() + ": " + all.length + " tables the same as read by the native TPPlus reader");
+    }
+
+    private static byte[] rowRecords(byte[] contents) {
+        int p = 0;
+        while (true) {
+            int length = (contents[p] & 0xff) | (contents[p+1] & 0xff) << 8 | (contents[p+2] & 0xff) << 16 | (contents[p+3] & 0xff) << 24;
+            boolean rows = contents[p+4] == 'R' && contents[p+5] == 'O' && contents[p+6] == 'W';
+            p += length;
+            if (rows)
+                return Arrays.copyOfRange(contents, p, contents.length);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] contents = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < contents.length)
+                n += in.read(contents, n, contents.length - n);
+        }
+        finally {
+            in.close();
+        }
+        return contents;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new RuntimeException("failed: " + message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean requireNative = false;
+        for (String arg : args) {
+            if (arg.equals("-native"))
+                requireNative = true;
+            else
+                testFile(new File(arg), requireNative);
+        }
+        testEncodings(requireNative);
+        System.out.println("TestTpplusJavaMatrix passed");
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.model.tests;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.pb.common.model.ModelException;
+import com.pb.common.newmodel.Alternative;
+import com.pb.common.newmodel.ConcreteAlternative;
+import com.pb.common.newmodel.FlatLogitModel;
+import com.pb.common.newmodel.LogitModel;
+
+/**
+ * Checks that FlatLogitModel gives the same logsums, probabilities and choices
+ * as the equivalent tree of LogitModel objects, and that a NaN utility is
+ * an error as it is for LogitModel.
+ *
+ * The nesting structure, as it would be defined in a UEC:
+ *
+ *                          root
+ *               auto                 transit            nest coeff. = 0.6
+ *          da   sr2   sr3     walkBus  walkRail  drive
+ */
+public class TestFlatLogitModel {
+
+    private static final String[] ALT_NAMES = { "da", "sr2", "sr3", "walkBus", "walkRail", "drive" };
+
+    private static final int[][] ALLOCATION = {
+        { 0, 1, 2, 3, 4, 5 },
+        { 1, 1, 1, 2, 2, 2 }
+    };
+
+    private static final double[][] NESTING_COEFFICIENTS = {
+        { 1.0, 1.0, 1.0, 1.0, 1.0, 1.0 },
+        { 0.6, 0.6, 0.6, 0.6, 0.6, 0.6 }
+    };
+
+
+    public static void main(String[] args) {
+
+        ConcreteAlternative[] alts = new ConcreteAlternative[ALT_NAMES.length];
+        for (int i = 0; i < alts.length; i++)
+            alts[i] = new ConcreteAlternative(ALT_NAMES[i], i + 1);
+
+        // dispersion parameters are 1.0 at the root and 1/0.6 for the nests
+        LogitModel root = new LogitModel("root", 0, 2);
+        LogitModel auto = new LogitModel("auto", 1, 3);
+        LogitModel transit = new LogitModel("transit", 2, 3);
+        root.setDispersionParameter(1.0);
+        auto.setDispersionParameter(1.0 / 0.6);
+        transit.setDispersionParameter(1.0 / 0.6);
+        root.addAlternative(auto);
+        root.addAlternative(transit);
+        for (int i = 0; i < 3; i++)
+            auto.addAlternative(alts[i]);
+        for (int i = 3; i < 6; i++)
+            transit.addAlternative(alts[i]);
+
+        FlatLogitModel flat = new FlatLogitModel(ALT_NAMES.length, ALLOCATION, NESTING_COEFFICIENTS);
+        check(flat.getNumberOfNests() == 3, "number of nests = " + flat.getNumberOfNests());
+
+        Random random = new Random(12345);
+        double[] utilities = new double[ALT_NAMES.length];
+        boolean[] available = new boolean[ALT_NAMES.length];
+        int numChoices = 0;
+
+        for (int trial = 0; trial < 1000; trial++) {
+
+            for (int i = 0; i < utilities.length; i++) {
+                utilities[i] = random.nextGaussian() * 2.0;
+                available[i] = random.nextInt(5) > 0;
+                alts[i].setUtility(utilities[i]);
+                alts[i].setAvailability(available[i]);
+            }
+
+            root.setAvailability();
+            double treeLogsum = root.getUtility();
+            root.calculateProbabilities();
+
+            double flatLogsum = flat.calculateProbabilities(utilities, available);
+            check(treeLogsum == flatLogsum, "trial " + trial + ": logsum " + flatLogsum + ", tree logsum " + treeLogsum);
+            if (!root.isAvailable())
+                continue;
+
+            double[] probabilities = flat.getProbabilities();
+            for (int i = 0; i < alts.length; i++)
+                check(alts[i].getProbability() == probabilities[i], "trial " + trial + ": probability of " + ALT_NAMES[i]);
+
+            for (int k = 0; k < 10; k++) {
+                double rn = random.nextDouble();
+                Alternative chosen = root.chooseAlternative(rn);
+                check(chosen.getNumber() == flat.chooseAlternative(rn) + 1, "trial " + trial + ": choice for random number " + rn);
+                numChoices++;
+            }
+        }
+
+        // a NaN utility for an available alternative is an error, as it is for LogitModel, not NaN probabilities
+        Arrays.fill(utilities, 0.5);
+        Arrays.fill(available, true);
+        utilities[4] = Double.NaN;
+        boolean thrown = false;
+        try {
+            flat.calculateProbabilities(utilities, available);
+        }
+        catch (ModelException e) {
+            thrown = ModelException.INVALID_UTILITY.equals(e.getMessage());
+        }
+        check(thrown, "NaN utility did not throw ModelException(INVALID_UTILITY)");
+
+        // but not for an alternative that isn't available
+        available[4] = false;
+        double logsum = flat.calculateProbabilities(utilities, available);
+        check(!Double.isNaN(logsum) && flat.getProbabilities()[4] == 0.0, "NaN utility of unavailable alternative, logsum " + logsum);
+
+        System.out.println("TestFlatLogitModel passed, " + numChoices + " choices compared");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new RuntimeException("failed: " + message);
+    }
+
+}
@@ -35,14 +35,17 @@ public class ChoiceModelApplication implements java.io.Serializable {
     private int[]                       altsSample;
 
 	private UtilityExpressionCalculator uec = null;
+
+	// the logit calculations are done by the flat array model.  The LogitModel tree with the same structure
+	// is only updated from it when it is asked for, e.g. to log the calculations for each nest.
+	private FlatLogitModel flatModel = null;
 	private LogitModel root = null;
+	private LogitModel[] nests = null;
 
     // the rootLogsum is calculated when utilities are exponentiated
     private double                      rootLogsum           = 0.0;
     private int                         availabilityCount    = 0;
-    private double[] cumProbs;
-    private double[] elementalUtils;
-    private double[] elementalProbs;    
+    private boolean[] elementalAvailable;
 
     private long totalCount;
     private long otherCount;
@@ -87,9 +90,7 @@ public class ChoiceModelApplication implements java.io.Serializable {
         altsAvailable = defaultAltsAvailable;
         altsSample = defaultAltsSample;
 
-        elementalUtils = new double[numberOfAlternatives];
-        elementalProbs = new double[numberOfAlternatives];
-        cumProbs = new double[numberOfAlternatives];
+        elementalAvailable = new boolean[numberOfAlternatives];
 
         // create the logit model defined in cm object's uec (specified in UEC
         // control file info passed into cm)
@@ -161,6 +162,9 @@ public class ChoiceModelApplication implements java.io.Serializable {
             root.addAlternative(alts[i]);
         }
 
+        flatModel = new FlatLogitModel(numberOfAlternatives);
+        nests = new LogitModel[] { root };
+
     }
 
     /**
@@ -192,6 +196,21 @@ public class ChoiceModelApplication implements java.io.Serializable {
         int level = allocation.length - 1;
         root = buildNestedLogitModel(level, allocation, nestingCoefficients, dispersionParameters);
 
+        flatModel = new FlatLogitModel(numberOfAlternatives, allocation, nestingCoefficients);
+
+        // nests in the order the FlatLogitModel numbers them
+        ArrayList<LogitModel> nestList = new ArrayList<LogitModel>();
+        addNests(root, nestList);
+        nests = nestList.toArray(new LogitModel[nestList.size()]);
+
+    }
+
+    private void addNests(LogitModel nest, ArrayList<LogitModel> nestList)
+    {
+        nestList.add(nest);
+        for (Alternative alt : nest.getAlternatives())
+            if (alt instanceof LogitModel)
+                addNests((LogitModel) alt, nestList);
     }
 	
     /**
@@ -333,26 +352,22 @@ public class ChoiceModelApplication implements java.io.Serializable {
         long check2 = System.nanoTime();
         totalCount = check2 - check1;
 
-        // set utility for each alternative
+        // set availability for each alternative
         availabilityCount = 0;
-        for (int a = 0; a < alts.length; a++)
+        for (int a = 0; a < numberOfAlternatives; a++)
         {
-            alts[a].setAvailability(altsAvailable[a + 1]);
+            elementalAvailable[a] = altsAvailable[a + 1];
             if (altsSample[a + 1] == 1 && altsAvailable[a + 1])
-                alts[a].setAvailability((utilities[a] > -299.0));
-            alts[a].setUtility(utilities[a]);
-            if (altsSample[a + 1] == 1 && altsAvailable[a + 1] && utilities[a] > -299.0)
-                availabilityCount++;
+            {
+                elementalAvailable[a] = (utilities[a] > -299.0);
+                if (elementalAvailable[a])
+                    availabilityCount++;
+            }
         }
 
-        root.setAvailability();
-
-        // call root.getUtility() to calculate exponentiated utilties. The logit
+        // calculate exponentiated utilities, logsums and logit probabilities. The logit
         // model logsum is returned.
-        rootLogsum = root.getUtility();
-
-        // calculate logit probabilities
-        root.calculateProbabilities();
+        rootLogsum = flatModel.calculateProbabilities(utilities, elementalAvailable);
 
         otherCount = System.nanoTime() - check2;
         
@@ -387,34 +402,60 @@ public class ChoiceModelApplication implements java.io.Serializable {
         long check2 = System.nanoTime();
         totalCount = check2 - check1;
 
-        // set utility for each alternative
+        // set availability for each alternative
         availabilityCount = 0;
-        for (int a = 0; a < alts.length; a++)
+        for (int a = 0; a < numberOfAlternatives; a++)
         {
-            alts[a].setAvailability(altsAvailable[a + 1]);
+            elementalAvailable[a] = altsAvailable[a + 1];
             if (altsSample[a + 1] == 1 && altsAvailable[a + 1])
-                alts[a].setAvailability((utilities[a] > -299.0));
-            alts[a].setUtility(utilities[a]);
-            if (altsSample[a + 1] == 1 && altsAvailable[a + 1] && utilities[a] > -299.0)
-                availabilityCount++;
+            {
+                elementalAvailable[a] = (utilities[a] > -299.0);
+                if (elementalAvailable[a])
+                    availabilityCount++;
+            }
         }
 
-        root.setAvailability();
-
-        // call root.getUtility() to calculate exponentiated utilties. The logit
+        // calculate exponentiated utilities, logsums and logit probabilities. The logit
         // model logsum is returned.
-        rootLogsum = root.getUtility();
-
-        // calculate logit probabilities
-        root.calculateProbabilities();
+        rootLogsum = flatModel.calculateProbabilities(utilities, elementalAvailable);
 
     }
 
+    /**
+     * @return the root of the LogitModel tree, with the utilities, availabilities and probabilities
+     *         from the last computeUtilities() call.
+     */
     public LogitModel getRootLogitModel()
     {
+        updateLogitModel();
         return root;
     }
 
+    /**
+     * copy the results of the last calculation by the flat array model into the LogitModel tree.
+     */
+    private void updateLogitModel()
+    {
+        double[] utilities = flatModel.getUtilities();
+        boolean[] availabilities = flatModel.getAvailabilities();
+        double[] expUtilities = flatModel.getExpUtilities();
+        double[] probabilities = flatModel.getProbabilities();
+        for (int a = 0; a < numberOfAlternatives; a++)
+        {
+            alts[a].setUtility(utilities[a]);
+            alts[a].setAvailability(availabilities[a]);
+            alts[a].setExpUtility(expUtilities[a]);
+            alts[a].setProbability(probabilities[a]);
+        }
+
+        for (int n = 1; n < nests.length; n++)
+        {
+            nests[n].setExpUtility(flatModel.getNestExpUtility(n));
+            nests[n].setProbability(flatModel.getNestProbability(n));
+        }
+        root.setAvailability();
+    }
+
     /*
      * apply the logit choice UEC to calculate the logsum for this household's choice
      * model
@@ -431,6 +472,7 @@ public class ChoiceModelApplication implements java.io.Serializable {
 
     public ConcreteAlternative[] getAlternatives()
     {
+        updateLogitModel();
         return alts;
     }
 
@@ -449,12 +491,7 @@ public class ChoiceModelApplication implements java.io.Serializable {
      */
     public double[] getUtilities()
     {
-
-        for (int i = 0; i < numberOfAlternatives; i++)
-            elementalUtils[i] = alts[i].getUtility();
- 
-        return elementalUtils;
-
+        return flatModel.getUtilities();
     }
 
     /**
@@ -465,13 +502,7 @@ public class ChoiceModelApplication implements java.io.Serializable {
      * return the array of elemental alternative probabilities for this logit choice model
      */
     public double[] getProbabilities(){
-        
-        for (int i=0; i < numberOfAlternatives; i++) {
-            elementalProbs[i] = alts[i].getProbability();
-        }
-        
-        return elementalProbs;
-    
+        return flatModel.getProbabilities();
     }
 
     public int getAvailabilityCount()
@@ -491,10 +522,13 @@ public class ChoiceModelApplication implements java.io.Serializable {
      */
     public int getChoiceResult( double randomNumber ) {
 
-        ConcreteAlternative chosen = (ConcreteAlternative) root.chooseAlternative( randomNumber );
-        int alternativeNumber = chosen.getNumber();
-        
-        return alternativeNumber;
+        int chosen = flatModel.chooseAlternative( randomNumber );
+        if ( chosen < 0 ) {
+            logger.error( String.format( "no alternative chosen for %s with random number %.8f", description, randomNumber ) );
+            throw new RuntimeException();
+        }
+
+        return chosen + 1;
 
     }
 
@@ -525,17 +559,7 @@ public class ChoiceModelApplication implements java.io.Serializable {
      * return the array of cumulative probabilities for this logit choice model
      */
     public double[] getCumulativeProbabilities(){
-        
-
-    	double[] probabilities = getProbabilities();
-        cumProbs[0] = probabilities[0];
-        for (int i=1; i < numberOfAlternatives; i++) 
-            cumProbs[i] = cumProbs[i-1] + probabilities[i];
-        
-        cumProbs[numberOfAlternatives-1] = 1.0;
-        
-        return cumProbs;
-    
+        return flatModel.getCumulativeProbabilities();
     }
 
     public int getChoiceIndexFromCumProbabilities (double[] cumProbabilities, double randomNum ) {
@@ -574,7 +598,7 @@ public class ChoiceModelApplication implements java.io.Serializable {
             double altUtil = utils[a];
             double altProb = probs[a];
             double altCumProb = cumProbs[a];
-            boolean altAvail = alts[a].isAvailable();
+            boolean altAvail = elementalAvailable[a];
 
             if (altAvail)
                 myLogger.debug(String.format(
@@ -607,6 +631,7 @@ public class ChoiceModelApplication implements java.io.Serializable {
         debugLogger
                 .debug("****************************************************************************************************************");
 
+        updateLogitModel();
         logLogitCalculations(root);
     }
 
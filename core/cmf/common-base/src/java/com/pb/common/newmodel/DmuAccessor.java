@@ -0,0 +1,235 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.newmodel;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+import org.apache.log4j.Logger;
+
+import com.pb.common.calculator.VariableTable;
+
+/**
+ * Table of accessors for the @-variables of one DMU class, built once per class
+ * and shared by every UEC using that class.
+ *
+ * A UEC variable such as @drivers is bound straight to the DMU's public getDrivers()
+ * or getDrivers(int alt) method through a generated lambda, so evaluating it does
+ * not go through the DMU's getValueForIndex() switch.  Variables whose getter name
+ * is only a key in the DMU's method index table (no public method of that name,
+ * or an ambiguous overload) are bound to the switch, so every name resolves the
+ * same way it did before.
+ */
+public final class DmuAccessor {
+
+    private static transient Logger logger = Logger.getLogger(DmuAccessor.class);
+
+    /**
+     * Returns the value of one DMU variable for a DMU object and alternative.
+     */
+    public interface Getter {
+        double get(Object dmu, int alternative);
+    }
+
+    private static final ConcurrentHashMap<Class<?>, DmuAccessor> accessors = new ConcurrentHashMap<Class<?>, DmuAccessor>();
+
+    private final Class<?> dmuClass;
+    private final ConcurrentHashMap<String, Getter> getters = new ConcurrentHashMap<String, Getter>();
+
+
+    private DmuAccessor(Class<?> dmuClass) {
+        this.dmuClass = dmuClass;
+    }
+
+
+    /**
+     * @return the accessor table for a DMU class, creating it the first time the class is seen.
+     */
+    public static DmuAccessor getAccessor(Class<?> dmuClass) {
+        DmuAccessor accessor = accessors.get(dmuClass);
+        if (accessor == null) {
+            accessors.putIfAbsent(dmuClass, new DmuAccessor(dmuClass));
+            accessor = accessors.get(dmuClass);
+        }
+        return accessor;
+    }
+
+
+    public Class<?> getDmuClass() {
+        return dmuClass;
+    }
+
+
+    /**
+     * Return the getter for a DMU method name, e.g. "getDrivers".
+     *
+     * @param methodName name of the getter method as listed in the DMU method index table
+     * @param methodIndex index returned for methodName by the DMU's getIndexValue()
+     * @return accessor for the variable
+     */
+    public Getter getGetter(String methodName, int methodIndex) {
+        Getter getter = getters.get(methodName);
+        if (getter == null) {
+            getters.putIfAbsent(methodName, createGetter(methodName, methodIndex));
+            getter = getters.get(methodName);
+        }
+        return getter;
+    }
+
+
+    private Getter createGetter(String methodName, int methodIndex) {
+
+        Method noArgMethod = findMethod(methodName);
+        Method altMethod = findMethod(methodName, int.class);
+
+        // bind to the switch if there is no unambiguous numeric getter of this name
+        Method method = (noArgMethod == null) ? altMethod : (altMethod == null ? noArgMethod : null);
+        if (method == null || ! isNumeric(method.getReturnType()))
+            return new SwitchGetter(methodIndex);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle target;
+        try {
+            target = lookup.unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            return new SwitchGetter(methodIndex);
+        }
+
+        try {
+            if (method == altMethod) {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                        MethodType.methodType(Getter.class),
+                        MethodType.methodType(double.class, Object.class, int.class),
+                        target,
+                        MethodType.methodType(double.class, dmuClass, int.class));
+                return (Getter) site.getTarget().invokeExact();
+            }
+            else {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "applyAsDouble",
+                        MethodType.methodType(ToDoubleFunction.class),
+                        MethodType.methodType(double.class, Object.class),
+                        target,
+                        MethodType.methodType(double.class, dmuClass));
+                @SuppressWarnings("unchecked")
+                ToDoubleFunction<Object> function = (ToDoubleFunction<Object>) site.getTarget().invokeExact();
+                return new NoArgumentGetter(function);
+            }
+        }
+        catch (Throwable e) {
+            // lambda could not be generated for this class - use the method handle directly
+            logger.warn("using method handle for " + dmuClass.getName() + "." + methodName + "(): " + e);
+            if (method == altMethod)
+                return new AltHandleGetter(target.asType(MethodType.methodType(double.class, Object.class, int.class)));
+            else
+                return new NoArgumentHandleGetter(target.asType(MethodType.methodType(double.class, Object.class)));
+        }
+    }
+
+
+    private Method findMethod(String methodName, Class<?>... parameterTypes) {
+        try {
+            Method method = dmuClass.getMethod(methodName, parameterTypes);
+            if (Modifier.isStatic(method.getModifiers()) || ! Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+                return null;
+            return method;
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+
+    private static boolean isNumeric(Class<?> type) {
+        return type == double.class || type == float.class || type == long.class || type == int.class
+            || type == short.class || type == byte.class;
+    }
+
+
+
+    private static final class NoArgumentGetter implements Getter {
+        private final ToDoubleFunction<Object> function;
+
+        NoArgumentGetter(ToDoubleFunction<Object> function) {
+            this.function = function;
+        }
+
+        public double get(Object dmu, int alternative) {
+            return function.applyAsDouble(dmu);
+        }
+    }
+
+    private static final class NoArgumentHandleGetter implements Getter {
+        private final MethodHandle handle;
+
+        NoArgumentHandleGetter(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        public double get(Object dmu, int alternative) {
+            try {
+                return (double) handle.invokeExact(dmu);
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static final class AltHandleGetter implements Getter {
+        private final MethodHandle handle;
+
+        AltHandleGetter(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        public double get(Object dmu, int alternative) {
+            try {
+                return (double) handle.invokeExact(dmu, alternative);
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static final class SwitchGetter implements Getter {
+        private final int methodIndex;
+
+        SwitchGetter(int methodIndex) {
+            this.methodIndex = methodIndex;
+        }
+
+        public double get(Object dmu, int alternative) {
+            return ((VariableTable) dmu).getValueForIndex(methodIndex, alternative);
+        }
+    }
+
+}
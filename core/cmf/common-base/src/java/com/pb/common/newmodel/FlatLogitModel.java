@@ -0,0 +1,415 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.newmodel;
+
+import com.pb.common.math.MathUtil;
+import com.pb.common.model.ModelException;
+
+import org.apache.log4j.Logger;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Multinomial or nested logit model held in flat arrays instead of a tree of
+ * LogitModel and ConcreteAlternative objects.
+ *
+ * The nesting structure is compiled once, in the constructor, into arrays
+ * giving the children of each nest.  Nests are numbered in the order the
+ * LogitModel tree would be walked from the root (the root is nest 0, and
+ * every nest has a higher number than its parent), so the nests can be
+ * evaluated bottom up and top down with plain loops.  Each evaluation
+ * reuses the same exponentiated utility, logsum and probability arrays.
+ *
+ * The results are the same as building the tree with LogitModel objects and
+ * calling setAvailability(), getUtility(), calculateProbabilities() and
+ * chooseAlternative() on its root.
+ *
+ * @see LogitModel
+ */
+public class FlatLogitModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected static Logger logger = Logger.getLogger(FlatLogitModel.class);
+
+    private final int numberOfAlternatives;
+
+    // children of nest n are childIndex[childStart[n]] to childIndex[childStart[n+1]-1],
+    // an elemental alternative index (0 based) if childIsNest is false, otherwise a nest index.
+    private int[] childStart;
+    private int[] childIndex;
+    private boolean[] childIsNest;
+    private double[] dispersionParameters;
+    private int numberOfNests;
+
+    // reused for each evaluation
+    private double[] utilities;
+    private boolean[] availabilities;
+    private double[] expUtilities;
+    private double[] probabilities;
+    private double[] cumProbabilities;
+    private double[] nestLogsums;
+    private double[] nestExpUtilities;
+    private double[] nestProbabilities;
+    private boolean[] nestAvailabilities;
+    private boolean available;
+
+
+    /**
+     * Create a multinomial logit model with a dispersion parameter of 1.0.
+     * @param numberOfAlternatives   The number of elemental alternatives.
+     */
+    public FlatLogitModel(int numberOfAlternatives) {
+        this.numberOfAlternatives = numberOfAlternatives;
+
+        numberOfNests = 1;
+        childStart = new int[] { 0, numberOfAlternatives };
+        childIndex = new int[numberOfAlternatives];
+        childIsNest = new boolean[numberOfAlternatives];
+        for (int i = 0; i < numberOfAlternatives; i++)
+            childIndex[i] = i;
+        dispersionParameters = new double[] { 1.0 };
+
+        allocateBuffers();
+    }
+
+    /**
+     * Create a nested logit model from a UEC nesting structure.
+     * @param numberOfAlternatives   The number of elemental alternatives.
+     * @param allocation   allocation[0][i] is the elemental alternative at position i; allocation[level][i]
+     *                     is the nest within level that position i belongs to.  The last level is the root.
+     * @param nestingCoefficients   nesting coefficient for each level and position.
+     */
+    public FlatLogitModel(int numberOfAlternatives, int[][] allocation, double[][] nestingCoefficients) {
+        this.numberOfAlternatives = numberOfAlternatives;
+
+        // dispersion parameters for each level, 1.0 for the level above the root.
+        double[] levelDispersionParameters = new double[nestingCoefficients.length + 1];
+        levelDispersionParameters[levelDispersionParameters.length - 1] = 1.0;
+        for (int i = levelDispersionParameters.length - 2; i >= 0; i--)
+            levelDispersionParameters[i] = levelDispersionParameters[i + 1] / nestingCoefficients[i][0];
+
+        ArrayList<int[]> nestChildren = new ArrayList<int[]>();
+        ArrayList<Double> nestDispersion = new ArrayList<Double>();
+        compileNest(allocation.length - 1, allocation, nestingCoefficients, levelDispersionParameters, nestChildren, nestDispersion);
+
+        numberOfNests = nestChildren.size();
+        childStart = new int[numberOfNests + 1];
+        dispersionParameters = new double[numberOfNests];
+        for (int n = 0; n < numberOfNests; n++) {
+            childStart[n + 1] = childStart[n] + nestChildren.get(n).length;
+            dispersionParameters[n] = nestDispersion.get(n);
+        }
+        childIndex = new int[childStart[numberOfNests]];
+        childIsNest = new boolean[childStart[numberOfNests]];
+        for (int n = 0; n < numberOfNests; n++) {
+            int[] children = nestChildren.get(n);
+            for (int c = 0; c < children.length; c++) {
+                // nests were stored as -(nest index + 1)
+                childIsNest[childStart[n] + c] = children[c] < 0;
+                childIndex[childStart[n] + c] = children[c] < 0 ? -children[c] - 1 : children[c];
+            }
+        }
+
+        allocateBuffers();
+    }
+
+
+    /**
+     * Add the nest for the given level of allocation, and the nests below it, to the lists,
+     * grouping the positions in the same way as building the LogitModel tree.
+     * @return the index of the nest added.
+     */
+    private int compileNest(int level, int[][] allocation, double[][] nestingCoefficients, double[] levelDispersionParameters,
+            ArrayList<int[]> nestChildren, ArrayList<Double> nestDispersion) {
+
+        int maxAlt = 0;
+        int minAlt = 999999999;
+        for (int i = 0; i < allocation[level].length; i++) {
+            if (allocation[level][i] > maxAlt) maxAlt = allocation[level][i];
+            if (allocation[level][i] < minAlt) minAlt = allocation[level][i];
+        }
+
+        // positions in each branch of this level
+        ArrayList<ArrayList<Integer>> branchAlts = new ArrayList<ArrayList<Integer>>(maxAlt - minAlt + 1);
+        for (int i = minAlt; i <= maxAlt; i++)
+            branchAlts.add(new ArrayList<Integer>());
+        for (int i = 0; i < allocation[level].length; i++)
+            branchAlts.get(allocation[level][i] - minAlt).add(i);
+
+        int nest = nestChildren.size();
+        nestChildren.add(null);
+        nestDispersion.add(levelDispersionParameters[level + 1]);
+
+        int[] children = new int[branchAlts.size()];
+        int numChildren = 0;
+        boolean[] altSet = new boolean[maxAlt + 1];
+
+        for (ArrayList<Integer> branch : branchAlts) {
+
+            if (branch.size() == 0) continue;
+
+            if (level > 0) {
+                int[][] newAllocation = new int[level][];
+                double[][] newNestingCoefficients = new double[level][];
+                for (int k = 0; k < level; k++) {
+                    newAllocation[k] = new int[branch.size()];
+                    newNestingCoefficients[k] = new double[branch.size()];
+                    for (int j = 0; j < branch.size(); j++) {
+                        newAllocation[k][j] = allocation[k][branch.get(j)];
+                        newNestingCoefficients[k][j] = nestingCoefficients[k][branch.get(j)];
+                    }
+                }
+
+                double[] newDispersionParameters = new double[level + 1];
+                newDispersionParameters[level] = levelDispersionParameters[level + 1] / nestingCoefficients[level][branch.get(0)];
+                for (int k = level - 1; k >= 0; k--)
+                    newDispersionParameters[k] = newDispersionParameters[k + 1] / newNestingCoefficients[k][0];
+
+                int subNest = compileNest(level - 1, newAllocation, newNestingCoefficients, newDispersionParameters, nestChildren, nestDispersion);
+                children[numChildren++] = -subNest - 1;
+            }
+            else {
+                int a = allocation[level][branch.get(0)];
+                if (!altSet[a]) {
+                    children[numChildren++] = a;
+                    altSet[a] = true;
+                }
+            }
+        }
+
+        nestChildren.set(nest, Arrays.copyOf(children, numChildren));
+        return nest;
+    }
+
+
+    private void allocateBuffers() {
+        utilities = new double[numberOfAlternatives];
+        availabilities = new boolean[numberOfAlternatives];
+        expUtilities = new double[numberOfAlternatives];
+        probabilities = new double[numberOfAlternatives];
+        cumProbabilities = new double[numberOfAlternatives];
+        nestLogsums = new double[numberOfNests];
+        nestExpUtilities = new double[numberOfNests];
+        nestProbabilities = new double[numberOfNests];
+        nestAvailabilities = new boolean[numberOfNests];
+    }
+
+
+    /**
+     * Calculate the exponentiated utilities, nest logsums and probabilities for a set of utilities.
+     * The utilities and availabilities are copied, so the arrays passed in may be reused by the caller.
+     *
+     * @param altUtilities   utility of each elemental alternative (0 based).
+     * @param altAvailabilities   availability of each elemental alternative (0 based).
+     * @return the root logsum, or -999 if no alternative is available.
+     * @throws ModelException if a nest logsum is NaN because of an invalid utility.
+     */
+    public double calculateProbabilities(double[] altUtilities, boolean[] altAvailabilities) {
+
+        System.arraycopy(altUtilities, 0, utilities, 0, numberOfAlternatives);
+        System.arraycopy(altAvailabilities, 0, availabilities, 0, numberOfAlternatives);
+
+        // children have higher nest numbers than their parents, so going backwards computes
+        // each nest's logsum before it is needed by its parent.
+        for (int n = numberOfNests - 1; n >= 0; n--) {
+            double dispersion = dispersionParameters[n];
+            double sum = 0;
+            boolean nestAvailable = false;
+            for (int c = childStart[n]; c < childStart[n + 1]; c++) {
+                int k = childIndex[c];
+                if (childIsNest[c]) {
+                    double utility = nestLogsums[k];
+                    double expUtility = utility < -400 ? 0.0 : MathUtil.exp(dispersion * utility);
+                    nestExpUtilities[k] = expUtility;
+                    sum += expUtility;
+                    nestAvailable |= nestAvailabilities[k] || utility > -500;
+                }
+                else {
+                    double utility = utilities[k];
+                    if (availabilities[k] && !(utility < -400)) {
+                        double expUtility = MathUtil.exp(dispersion * utility);
+                        expUtilities[k] = expUtility;
+                        sum += expUtility;
+                    }
+                    else {
+                        expUtilities[k] = 0.0;
+                    }
+                    nestAvailable |= availabilities[k] || utility > -500;
+                }
+            }
+            // as for the LogitModel tree, nests below the root are always available and their logsum
+            // is returned even if nothing under them is.
+            nestLogsums[n] = (1 / dispersion) * MathUtil.log(sum);
+            nestAvailabilities[n] = nestAvailable;
+
+            // as in LogitModel.getUtility(), a bad utility is an error rather than NaN probabilities
+            if (Double.isNaN(nestLogsums[n]))
+                throw new ModelException(ModelException.INVALID_UTILITY);
+        }
+
+        // the root is available if any elemental alternative directly under it is available,
+        // or any nest under it has an alternative that is available or not very unlikely.
+        available = false;
+        for (int c = childStart[0]; c < childStart[1]; c++)
+            available |= childIsNest[c] ? nestAvailabilities[childIndex[c]] : availabilities[childIndex[c]];
+
+        if (!available) {
+            nestLogsums[0] = -999;
+            Arrays.fill(probabilities, 0.0);
+            Arrays.fill(nestProbabilities, 0.0);
+            return nestLogsums[0];
+        }
+
+        // parents have lower nest numbers than their children, so going forwards computes
+        // each nest's probability before its children's.
+        nestProbabilities[0] = 1.0;
+        for (int n = 0; n < numberOfNests; n++) {
+            double sum = 0;
+            for (int c = childStart[n]; c < childStart[n + 1]; c++)
+                sum += childIsNest[c] ? nestExpUtilities[childIndex[c]] : expUtilities[childIndex[c]];
+
+            double nestProbability = nestProbabilities[n];
+            for (int c = childStart[n]; c < childStart[n + 1]; c++) {
+                int k = childIndex[c];
+                double expUtility = childIsNest[c] ? nestExpUtilities[k] : expUtilities[k];
+                double probability = (expUtility > 0 && sum > 0) ? expUtility / sum * nestProbability : 0.0;
+                if (childIsNest[c])
+                    nestProbabilities[k] = probability;
+                else
+                    probabilities[k] = probability;
+            }
+        }
+
+        return nestLogsums[0];
+    }
+
+
+    /**
+     * Choose an elemental alternative, walking the nests in the same order as LogitModel.chooseAlternative().
+     * @param rnum a random number in [0,1).
+     * @return the chosen alternative (0 based), or -1 if none could be chosen.
+     */
+    public int chooseAlternative(double rnum) {
+        int chosen = chooseAlternative(0, rnum, 0.0);
+        if (chosen < 0) {
+            logger.error("Could not choose alternative.", new Exception());
+            logger.error("Discrete Choice model random number: " + rnum);
+        }
+        return chosen;
+    }
+
+    private int chooseAlternative(int nest, double rnum, double startProbability) {
+        double sum = startProbability;
+        for (int c = childStart[nest]; c < childStart[nest + 1]; c++) {
+            int k = childIndex[c];
+            double probability = childIsNest[c] ? nestProbabilities[k] : probabilities[k];
+            if (probability == 0)
+                continue;
+
+            sum += probability;
+            if (rnum <= sum)
+                return childIsNest[c] ? chooseAlternative(k, rnum, sum - probability) : k;
+        }
+        return -1;
+    }
+
+
+    /**
+     * @return true if any alternative was available in the last calculation.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * @return the root logsum from the last calculation.
+     */
+    public double getLogsum() {
+        return nestLogsums[0];
+    }
+
+    public int getNumberOfAlternatives() {
+        return numberOfAlternatives;
+    }
+
+    /**
+     * @return the elemental alternative utilities from the last calculation (0 based).  The array is reused.
+     */
+    public double[] getUtilities() {
+        return utilities;
+    }
+
+    /**
+     * @return the elemental alternative availabilities from the last calculation (0 based).  The array is reused.
+     */
+    public boolean[] getAvailabilities() {
+        return availabilities;
+    }
+
+    /**
+     * @return the elemental alternative exponentiated utilities from the last calculation (0 based).  The array is reused.
+     */
+    public double[] getExpUtilities() {
+        return expUtilities;
+    }
+
+    /**
+     * @return the elemental alternative probabilities from the last calculation (0 based).  The array is reused.
+     */
+    public double[] getProbabilities() {
+        return probabilities;
+    }
+
+    /**
+     * @return the cumulative probabilities of the elemental alternatives from the last calculation,
+     * with the last set to exactly 1.0.  The array is reused.
+     */
+    public double[] getCumulativeProbabilities() {
+        cumProbabilities[0] = probabilities[0];
+        for (int i = 1; i < numberOfAlternatives; i++)
+            cumProbabilities[i] = cumProbabilities[i - 1] + probabilities[i];
+        cumProbabilities[numberOfAlternatives - 1] = 1.0;
+        return cumProbabilities;
+    }
+
+    /**
+     * @return the number of nests, including the root.
+     */
+    public int getNumberOfNests() {
+        return numberOfNests;
+    }
+
+    public double getNestDispersionParameter(int nest) {
+        return dispersionParameters[nest];
+    }
+
+    public double getNestLogsum(int nest) {
+        return nestLogsums[nest];
+    }
+
+    public double getNestExpUtility(int nest) {
+        return nestExpUtilities[nest];
+    }
+
+    public double getNestProbability(int nest) {
+        return nestProbabilities[nest];
+    }
+
+}
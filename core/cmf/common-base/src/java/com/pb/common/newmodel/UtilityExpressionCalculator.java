@@ -16,6 +16,8 @@
  */
 package com.pb.common.newmodel;
 
+import com.pb.common.calculator.CompiledExpression;
+import com.pb.common.calculator.CompiledVariableFactory;
 import com.pb.common.calculator.ControlFileReader;
 import com.pb.common.calculator.DataEntry;
 import com.pb.common.calculator.Expression;
@@ -31,6 +33,7 @@ import com.pb.common.calculator.VariableTable;
 import com.pb.common.calculator.VariableType;
 import com.pb.common.datafile.OLD_CSVFileReader;
 import com.pb.common.datafile.TableDataSet;
+import com.pb.common.util.Metrics;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -57,10 +60,16 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
 
     private static final long serialVersionUID = 7497158488337652487L;
     protected static Logger logger = Logger.getLogger(UtilityExpressionCalculator.class);
+
+    private static final Metrics.Histogram solveTimes = Metrics.histogram("uec.solve");
+    private static final Metrics.Counter matrixLookups = Metrics.counter("uec.matrix.lookups");
     protected static Logger debugLogger = Logger.getLogger("debug");
     protected static Logger traceLogger =  Logger.getLogger("trace");
 
     private static final String[] ALT_COLUMN_LABELS = { "a", "alt" };
+
+    // property used to turn on compiled expression evaluation
+    public static final String PROPERTIES_COMPILED_EXPRESSIONS = "UEC.CompiledExpressions";
     
     private static int MAX_NEGATIVE_EXPONENT = -250;
     
@@ -99,6 +108,11 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
 
     private Expression[] modelExpressions;
     private Expression[] filterExpressions;
+
+    //Compiled forms of the model and filter expressions, null if not compiled
+    private boolean compileExpressions = false;
+    private CompiledExpression[] compiledModelExpressions;
+    private CompiledExpression[] compiledFilterExpressions;
     private ExpressionFlags[] expressionFlags;
     private ExpressionIndex[] expressionIndex;
     private float[][] coefficients;
@@ -129,6 +143,10 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
     //User object
     private transient Object dmuObject;
 
+    //Accessors for the @ variables, indexed like varInfo, valid for objects of dmuGetterClass
+    private transient DmuAccessor.Getter[] dmuGetters;
+    private transient Class<?> dmuGetterClass;
+
 
     //Determines if alterantives are to be found in a file
     private boolean isAlternativesInFile = false;
@@ -176,6 +194,10 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
             debugLoggerDebug = true;
         }
 
+        if (env != null && env.containsKey(PROPERTIES_COMPILED_EXPRESSIONS)) {
+            compileExpressions = Boolean.parseBoolean(env.get(PROPERTIES_COMPILED_EXPRESSIONS).trim());
+        }
+
         if (loggerDebug) {
             logger.debug("Excel file: "+this.file);
             logger.debug("Model sheet: "+this.modelSheet);
@@ -325,6 +347,62 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
         if(debugLoggerDebug)
             printVariableTable();
 
+        createDmuGetters();
+
+        if (compileExpressions)
+            compileExpressions();
+
+    }
+
+    /**
+     * Bind each @ variable to its accessor in the DMU class, so the value is
+     * read through the getter method rather than the DMU's getValueForIndex() switch.
+     */
+    private void createDmuGetters() {
+
+        if (dmuObject == null)
+            return;
+
+        DmuAccessor accessor = DmuAccessor.getAccessor(dmuObject.getClass());
+
+        dmuGetters = new DmuAccessor.Getter[varInfo.length];
+        for (int i = 0; i < varInfo.length; i++)
+        {
+            if (varInfo[i].getType() == VariableType.OBJECT)
+                dmuGetters[i] = accessor.getGetter(getObjectMethodName(varInfo[i].getName()), varInfo[i].getValueIndex());
+        }
+        dmuGetterClass = accessor.getDmuClass();
+    }
+
+    /**
+     * Compile the parsed model and filter expressions.  Variable lookups are
+     * resolved to nodes that read the value for their type directly, so the
+     * compiled expressions do not go through getValueForIndex().  The
+     * interpreted expressions are kept for the debug/trace solve path.
+     */
+    private void compileExpressions() {
+
+        CompiledVariableFactory factory = new CompiledVariables();
+
+        compiledModelExpressions = new CompiledExpression[nModelEntries];
+        compiledFilterExpressions = new CompiledExpression[nModelEntries];
+
+        for (int i = 0; i < nModelEntries; i++)
+        {
+            try
+            {
+                compiledModelExpressions[i] = modelExpressions[i].compile(factory);
+                if (expressionFlags[i].hasFilter)
+                    compiledFilterExpressions[i] = filterExpressions[i].compile(factory);
+            } catch (RuntimeException e)
+            {
+                throw new RuntimeException("Compile error in expression[" + (i + 1) + "]: "
+                        + modelExpressions[i].getExpression(), e);
+            }
+        }
+
+        if (loggerDebug)
+            logger.debug("Compiled " + nModelEntries + " expressions for: " + file.getName() + ", sheet " + modelSheet);
     }
 
     /**
@@ -692,10 +770,17 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
 
         internalVariable[SZ_INDEX] = indexValues.getStopZone();
 
+        long solveStart = Metrics.isEnabled() ? System.nanoTime() : 0;
+        double[] solution;
         if ( indexDebug )
-            return solveWithDebug(indexValues.getOriginZone(), indexValues.getDestZone(), indexValues.getZoneIndex(), indexValues.getHHIndex(), dmuObject);
+            solution = solveWithDebug(indexValues.getOriginZone(), indexValues.getDestZone(), indexValues.getZoneIndex(), indexValues.getHHIndex(), dmuObject);
         else
-            return solve(indexValues.getOriginZone(), indexValues.getDestZone(), indexValues.getZoneIndex(), indexValues.getHHIndex(), dmuObject);
+            solution = solve(indexValues.getOriginZone(), indexValues.getDestZone(), indexValues.getZoneIndex(), indexValues.getHHIndex(), dmuObject);
+
+        if (solveStart != 0)
+            solveTimes.record(System.nanoTime() - solveStart);
+
+        return solution;
     }
 
 
@@ -713,8 +798,14 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
      * @param availFlag
      */
     public double[] solve(int orig, int dest, int zoneIndex, int hhIndex, Object dmuObject, int[] availFlag) {
+        long solveStart = Metrics.isEnabled() ? System.nanoTime() : 0;
         System.arraycopy(availFlag, 1, available, 1, nAlternatives);
-        return solve( orig, dest, zoneIndex, hhIndex, dmuObject);
+        double[] solution = solve( orig, dest, zoneIndex, hhIndex, dmuObject);
+
+        if (solveStart != 0)
+            solveTimes.record(System.nanoTime() - solveStart);
+
+        return solution;
     }
 
     /**
@@ -763,7 +854,10 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
 
             if (available[alternativeNumber] <= 0) continue;
 
-            solveExpressions(firstAlternative, a, coeffIndex);
+            if (compiledModelExpressions != null)
+                solveCompiledExpressions(firstAlternative, a, coeffIndex);
+            else
+                solveExpressions(firstAlternative, a, coeffIndex);
             firstAlternative = false;
         }
 
@@ -983,6 +1077,70 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
 
     }
 
+    /**
+     * Same as solveExpressions(), but evaluates the compiled form of each expression.
+     * 
+     * @param firstAlternative flag to indicate that the first alternative is being
+     *            processed
+     * @param altIndex alternative number eg. 0, 1, 2, ...
+     * @param coeffIndex index into coefficient value array
+     */
+    private void solveCompiledExpressions(boolean firstAlternative, int altIndex, int coeffIndex)
+    {
+
+        for (int e = 0; e < nModelEntries; e++)
+        {
+
+            // Solve expressions the first time through the alternative loop or
+            // if there is an alternative variable in the expression
+            if ((firstAlternative) || (expressionFlags[e].hasAlternativeVariable))
+            {
+                try
+                {
+                    // Solve filter expression first if it exists
+                    if (compiledFilterExpressions[e] == null || compiledFilterExpressions[e].solve() > 0)
+                        answers[e] = compiledModelExpressions[e].solve();
+                    else
+                        answers[e] = 0;
+                } catch (Exception ex)
+                {
+                    logger.error(String.format(
+                        "Exception thrown in UEC with: File=%s, ModelSheet=%d, DataSheet=%d, internalVariable=%d, %d, %d, %d, %d, %d.",
+                        file, modelSheet, dataSheet, internalVariable[0],
+                        internalVariable[1], internalVariable[2],
+                        internalVariable[3], internalVariable[4],
+                        internalVariable[5]));
+                    logger.error(String.format(
+                        "Exception thrown evaluating expression for: alt=%d, e=%d, expression=%s.",
+                        altIndex + 1, e + 1, modelExpressions[e].getExpression()));
+                    StringWriter sw = new StringWriter();
+                    PrintWriter pw = new PrintWriter(sw);
+                    ex.printStackTrace(pw);
+                    logger.error(sw.toString());
+                    throw new RuntimeException();
+                }
+            }
+
+            // Accumulate results for alternative
+            if (expressionFlags[e].isModelEntry)
+            {
+                results[altIndex] += answers[e] * coefficients[e][coeffIndex];
+            }
+
+            altAnswers[e][altIndex] = answers[e];
+
+            // we have to compute expression values for all expressions for the first alternative,
+            // so its answers are all set and only the later alternatives stop here
+            if ( results[altIndex] < MAX_NEGATIVE_EXPONENT && ! firstAlternative ){
+                for (int j=e+1; j < altAnswers.length; j++)
+                    altAnswers[j][altIndex] = Double.NaN;
+                break;
+            }
+
+        }
+
+    }
+
     /**
      * This version contains debugging statements that can be turned on in log configuartion
      * 
@@ -1497,6 +1655,7 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
     private double getMatrixValue(int variableIndex)
     {
 
+        matrixLookups.increment();
         return matrixDataManager.getValueForIndex(varInfo[variableIndex].getValueIndex(),
                 varInfo[variableIndex].getOrigIndex(), varInfo[variableIndex].getDestIndex());
     }
@@ -1504,6 +1663,7 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
     private double getMatrixCollectionValue(int variableIndex)
     {
 
+        matrixLookups.increment();
         return matrixDataManager.getValueForIndex(varInfo[variableIndex].getValueIndex(),
                 varInfo[variableIndex].getOrigIndex(), varInfo[variableIndex].getDestIndex(),
                 varInfo[variableIndex].getNameIndex());
@@ -1511,6 +1671,7 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
 
     private double getMatrixArrayValue(int variableIndex, int arrayIndex) {
 
+        matrixLookups.increment();
         return matrixDataManager.getArrayValueForIndex(
                 varInfo[variableIndex].getValueIndex(),
                 varInfo[variableIndex].getOrigIndex(),
@@ -1520,6 +1681,7 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
     private double getMatrixCollectionArrayValue(int variableIndex,
             int arrayIndex) {
 
+        matrixLookups.increment();
         return matrixDataManager.getArrayValueForIndex(
                 varInfo[variableIndex].getValueIndex(),
                 varInfo[variableIndex].getOrigIndex(),
@@ -1531,10 +1693,11 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
     {
         double value = 0;
 
-        int index = varInfo[variableIndex].getValueIndex();
-
         // Invoke method on user defined object
-        value = ((VariableTable) dmuObject).getValueForIndex(index, internalVariable[ALT_INDEX]);
+        if (dmuObject.getClass() == dmuGetterClass)
+            value = dmuGetters[variableIndex].get(dmuObject, internalVariable[ALT_INDEX]);
+        else
+            value = ((VariableTable) dmuObject).getValueForIndex(varInfo[variableIndex].getValueIndex(), internalVariable[ALT_INDEX]);
 
         return value;
     }
@@ -1604,13 +1767,10 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
         return varInfoList.size() - 1;
     }
 
-    private int getObjectMethodIndex(String variableName)
+    private String getObjectMethodName(String variableName)
     {
 
-        int index = -1;
-
         String modifiedName;
-        String getterName;
 
         // Strip off the special symbol
         if (variableName.startsWith("@@"))
@@ -1622,8 +1782,16 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
         }
 
         // Construct a java getter method name
-        getterName = "get" + Character.toUpperCase(modifiedName.charAt(0))
+        return "get" + Character.toUpperCase(modifiedName.charAt(0))
                 + modifiedName.substring(1);
+    }
+
+    private int getObjectMethodIndex(String variableName)
+    {
+
+        int index = -1;
+
+        String getterName = getObjectMethodName(variableName);
 
         try
         {
@@ -1978,6 +2146,26 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
         return variableTableAsString;
     }
 
+    /**
+     * @return the names of the user class variables (@ and @@ variables) used in the expressions,
+     *         without the leading @ symbols.
+     */
+    public String[] getObjectVariableNames()
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        for (int i = 0; i < varInfo.length; i++)
+        {
+            if (varInfo[i].getType() == VariableType.OBJECT)
+            {
+                String name = varInfo[i].getName();
+                while (name.startsWith("@"))
+                    name = name.substring(1);
+                if (!names.contains(name)) names.add(name);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
     public double[][] getAnswersArray()
     {
         return altAnswers;
@@ -2284,6 +2472,179 @@ public class UtilityExpressionCalculator implements VariableTable, Serializable
 
     }
 
+    // ------------------------ Compiled Variable Nodes ------------------------
+
+    /**
+     * Creates compiled expression nodes that read each variable type directly,
+     * equivalent to the switch in getValueForIndex() and setValue().
+     */
+    private class CompiledVariables implements CompiledVariableFactory, Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public CompiledExpression variable(int variableIndex)
+        {
+            VariableInfo info = varInfo[variableIndex];
+
+            switch (info.getType())
+            {
+                case VariableType.SCALAR:
+                    return new ScalarNode(info.getValueIndexValue());
+                case VariableType.ZONE:
+                    return new ZoneNode(info.getInternalIndex(), info.getValueIndexValue());
+                case VariableType.HOUSEHOLD:
+                    return new HouseholdNode(info.getValueIndexValue());
+                case VariableType.ALTERNATIVE:
+                    return new AlternativeNode(info.getValueIndexValue());
+                case VariableType.MATRIX:
+                    return new MatrixNode(info.getValueIndexValue(), info.getOrigIndexValue(), info.getDestIndexValue());
+                case VariableType.MATRIX_COLLECTION:
+                    return new MatrixCollectionNode(info.getValueIndexValue(), info.getOrigIndexValue(), info.getDestIndexValue(), info.getNameIndexValue());
+                case VariableType.OBJECT:
+                    return new ObjectNode(info.getValueIndexValue(), dmuGetters == null ? null : dmuGetters[variableIndex]);
+                case VariableType.INTERNAL:
+                    return new InternalNode(info.getValueIndexValue());
+                default:
+                    throw new RuntimeException("compile, unknown variableIndex: " + variableIndex);
+            }
+        }
+
+        public CompiledExpression arrayLookup(int variableIndex, CompiledExpression arrayIndex)
+        {
+            VariableInfo info = varInfo[variableIndex];
+
+            switch (info.getType())
+            {
+                case VariableType.MATRIX:
+                    return new MatrixArrayNode(info.getValueIndexValue(), info.getOrigIndexValue(), info.getDestIndexValue(), arrayIndex);
+                case VariableType.MATRIX_COLLECTION:
+                    return new MatrixCollectionArrayNode(info.getValueIndexValue(), info.getOrigIndexValue(), info.getDestIndexValue(), info.getNameIndexValue(), arrayIndex);
+                default:
+                    throw new RuntimeException("compile, array subscript only works on MATRIX types: " + variableIndex);
+            }
+        }
+
+        public CompiledExpression assignment(int variableIndex, CompiledExpression value)
+        {
+            VariableInfo info = varInfo[variableIndex];
+
+            switch (info.getType())
+            {
+                case VariableType.SCALAR:
+                    return new ScalarAssignmentNode(info.getValueIndexValue(), value);
+                case VariableType.INTERNAL:
+                    return new InternalAssignmentNode(info.getValueIndexValue(), value);
+                default:
+                    throw new RuntimeException("compile, unknown assignment variableIndex: " + variableIndex);
+            }
+        }
+    }
+
+    private final class ScalarNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex;
+        ScalarNode(int valueIndex) { this.valueIndex = valueIndex; }
+        public double solve() { return scalarValue[valueIndex]; }
+    }
+
+    private final class ZoneNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int internalIndex, valueIndex;
+        ZoneNode(int internalIndex, int valueIndex) { this.internalIndex = internalIndex; this.valueIndex = valueIndex; }
+        public double solve() { return tableDataManager.getZoneValueForIndex(internalVariable[internalIndex], valueIndex); }
+    }
+
+    private final class HouseholdNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex;
+        HouseholdNode(int valueIndex) { this.valueIndex = valueIndex; }
+        public double solve() { return tableDataManager.getHouseholdValueForIndex(internalVariable[HH_INDEX], valueIndex); }
+    }
+
+    private final class AlternativeNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex;
+        AlternativeNode(int valueIndex) { this.valueIndex = valueIndex; }
+        public double solve() { return altTableData.getIndexedValueAt(internalVariable[ALT_INDEX], valueIndex); }
+    }
+
+    private final class MatrixNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex, origIndex, destIndex;
+        MatrixNode(int valueIndex, int origIndex, int destIndex) { this.valueIndex = valueIndex; this.origIndex = origIndex; this.destIndex = destIndex; }
+        public double solve() { matrixLookups.increment(); return matrixDataManager.getValueForIndex(valueIndex, internalVariable[origIndex], internalVariable[destIndex]); }
+    }
+
+    private final class MatrixCollectionNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex, origIndex, destIndex, nameIndex;
+        MatrixCollectionNode(int valueIndex, int origIndex, int destIndex, int nameIndex) { this.valueIndex = valueIndex; this.origIndex = origIndex; this.destIndex = destIndex; this.nameIndex = nameIndex; }
+        public double solve() { matrixLookups.increment(); return matrixDataManager.getValueForIndex(valueIndex, internalVariable[origIndex], internalVariable[destIndex], nameIndex); }
+    }
+
+    private final class MatrixArrayNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex, origIndex, destIndex;
+        private final CompiledExpression arrayIndex;
+        MatrixArrayNode(int valueIndex, int origIndex, int destIndex, CompiledExpression arrayIndex) { this.valueIndex = valueIndex; this.origIndex = origIndex; this.destIndex = destIndex; this.arrayIndex = arrayIndex; }
+        public double solve() { matrixLookups.increment(); return matrixDataManager.getArrayValueForIndex(valueIndex, internalVariable[origIndex], internalVariable[destIndex], (int) arrayIndex.solve()); }
+    }
+
+    private final class MatrixCollectionArrayNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex, origIndex, destIndex, nameIndex;
+        private final CompiledExpression arrayIndex;
+        MatrixCollectionArrayNode(int valueIndex, int origIndex, int destIndex, int nameIndex, CompiledExpression arrayIndex) { this.valueIndex = valueIndex; this.origIndex = origIndex; this.destIndex = destIndex; this.nameIndex = nameIndex; this.arrayIndex = arrayIndex; }
+        public double solve() { matrixLookups.increment(); return matrixDataManager.getArrayValueForIndex(valueIndex, internalVariable[origIndex], internalVariable[destIndex], nameIndex, (int) arrayIndex.solve()); }
+    }
+
+    private final class ObjectNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex;
+        private final transient DmuAccessor.Getter getter;
+        ObjectNode(int valueIndex, DmuAccessor.Getter getter) { this.valueIndex = valueIndex; this.getter = getter; }
+        public double solve() {
+            if (getter != null && dmuObject.getClass() == dmuGetterClass)
+                return getter.get(dmuObject, internalVariable[ALT_INDEX]);
+            return ((VariableTable) dmuObject).getValueForIndex(valueIndex, internalVariable[ALT_INDEX]);
+        }
+    }
+
+    private final class InternalNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex;
+        InternalNode(int valueIndex) { this.valueIndex = valueIndex; }
+        public double solve() { return internalVariable[valueIndex]; }
+    }
+
+    private final class ScalarAssignmentNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex;
+        private final CompiledExpression value;
+        ScalarAssignmentNode(int valueIndex, CompiledExpression value) { this.valueIndex = valueIndex; this.value = value; }
+        public double solve() { double answer = value.solve(); scalarValue[valueIndex] = answer; return answer; }
+    }
+
+    private final class InternalAssignmentNode extends CompiledExpression
+    {
+        private static final long serialVersionUID = 1L;
+        private final int valueIndex;
+        private final CompiledExpression value;
+        InternalAssignmentNode(int valueIndex, CompiledExpression value) { this.valueIndex = valueIndex; this.value = value; }
+        public double solve() { double answer = value.solve(); internalVariable[valueIndex] = (int) answer; return answer; }
+    }
+
     /**
      * Called to get an value for an indexed, arrayed variable e.g. IVT[PERIOD]
      */
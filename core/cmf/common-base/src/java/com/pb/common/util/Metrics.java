@@ -0,0 +1,188 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms shared by all threads in a JVM, e.g.
+ * households simulated, UEC solves and matrix lookups.
+ *
+ * Counter and Histogram objects are looked up by name once, usually into a
+ * static field, and updating them does not lock.  Nothing is recorded unless
+ * setEnabled(true) has been called, so instrumented code costs one volatile
+ * read when metrics are off.
+ *
+ * The values are cumulative for the JVM.  snapshotSinceLastReport() returns
+ * the change since its previous call, so tasks running in the same JVM can
+ * each report what was recorded while they ran, and the reports summed over
+ * all tasks and JVMs give the totals.
+ *
+ * @see MetricsSnapshot
+ */
+public final class Metrics {
+
+    /**
+     * Number of histogram buckets.  Bucket 0 counts values of 0, bucket i
+     * counts values from 2^(i-1) to 2^i - 1.
+     */
+    public static final int NUM_BUCKETS = 64;
+
+    private static volatile boolean enabled = false;
+
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    private static MetricsSnapshot lastReported = new MetricsSnapshot();
+
+
+    private Metrics() {
+    }
+
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+
+    /**
+     * @return the counter with this name, created if it does not exist.
+     */
+    public static Counter counter(String name) {
+        Counter c = counters.get(name);
+        if (c == null) {
+            Counter newCounter = new Counter();
+            c = counters.putIfAbsent(name, newCounter);
+            if (c == null)
+                c = newCounter;
+        }
+        return c;
+    }
+
+    /**
+     * @return the histogram with this name, created if it does not exist.
+     */
+    public static Histogram histogram(String name) {
+        Histogram h = histograms.get(name);
+        if (h == null) {
+            Histogram newHistogram = new Histogram();
+            h = histograms.putIfAbsent(name, newHistogram);
+            if (h == null)
+                h = newHistogram;
+        }
+        return h;
+    }
+
+
+    /**
+     * @return the cumulative values of all counters and histograms in this JVM.
+     */
+    public static MetricsSnapshot snapshot() {
+        MetricsSnapshot s = new MetricsSnapshot();
+        for (Map.Entry<String, Counter> entry : counters.entrySet())
+            s.putCounter(entry.getKey(), entry.getValue().get());
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet())
+            s.putHistogram(entry.getKey(), entry.getValue().getValues());
+        return s;
+    }
+
+    /**
+     * @return the change in all counters and histograms since the last call.
+     */
+    public static synchronized MetricsSnapshot snapshotSinceLastReport() {
+        MetricsSnapshot current = snapshot();
+        MetricsSnapshot change = current.subtract(lastReported);
+        lastReported = current;
+        return change;
+    }
+
+
+    /**
+     * Bucket for a value: 0 for values <= 0, otherwise the number of bits
+     * needed to hold the value.
+     */
+    static int bucket(long value) {
+        return value <= 0 ? 0 : Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+
+    /**
+     * A count of events.
+     */
+    public static final class Counter {
+
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            if (enabled)
+                count.increment();
+        }
+
+        public void add(long n) {
+            if (enabled)
+                count.add(n);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+
+    /**
+     * Counts, total and power of 2 distribution of a value, usually elapsed
+     * nanoseconds.
+     */
+    public static final class Histogram {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+
+        Histogram() {
+            for (int i = 0; i < NUM_BUCKETS; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        public void record(long value) {
+            if (enabled) {
+                count.increment();
+                sum.add(value);
+                buckets[bucket(value)].increment();
+            }
+        }
+
+        /**
+         * @return count, sum and the bucket counts, as stored in a MetricsSnapshot.
+         */
+        long[] getValues() {
+            long[] values = new long[NUM_BUCKETS + 2];
+            values[0] = count.sum();
+            values[1] = sum.sum();
+            for (int i = 0; i < NUM_BUCKETS; i++)
+                values[i + 2] = buckets[i].sum();
+            return values;
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Values of the Metrics counters and histograms at one time, which can be
+ * sent between JVMs, added together and written as CSV or JSON.
+ *
+ * Histogram values are assumed to be nanoseconds, and are written in
+ * milliseconds.  Percentiles are the upper end of the power of 2 bucket
+ * holding the percentile, so are accurate to within a factor of 2.
+ *
+ * @see Metrics
+ */
+public class MetricsSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] CSV_HEADINGS = { "node", "metric", "type", "count", "total_ms", "mean_ms", "p50_ms", "p90_ms", "p99_ms" };
+
+    private final TreeMap<String, Long> counters = new TreeMap<String, Long>();
+
+    // count, sum, then Metrics.NUM_BUCKETS bucket counts
+    private final TreeMap<String, long[]> histograms = new TreeMap<String, long[]>();
+
+
+    void putCounter(String name, long value) {
+        counters.put(name, value);
+    }
+
+    void putHistogram(String name, long[] values) {
+        histograms.put(name, values);
+    }
+
+
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    public long getHistogramCount(String name) {
+        long[] values = histograms.get(name);
+        return values == null ? 0 : values[0];
+    }
+
+    public long getHistogramSum(String name) {
+        long[] values = histograms.get(name);
+        return values == null ? 0 : values[1];
+    }
+
+    public boolean isEmpty() {
+        return counters.isEmpty() && histograms.isEmpty();
+    }
+
+
+    /**
+     * Add the values of another snapshot to this one.
+     */
+    public void add(MetricsSnapshot other) {
+        for (Map.Entry<String, Long> entry : other.counters.entrySet())
+            counters.put(entry.getKey(), getCounter(entry.getKey()) + entry.getValue());
+        for (Map.Entry<String, long[]> entry : other.histograms.entrySet()) {
+            long[] values = histograms.get(entry.getKey());
+            if (values == null) {
+                histograms.put(entry.getKey(), entry.getValue().clone());
+            }
+            else {
+                for (int i = 0; i < values.length; i++)
+                    values[i] += entry.getValue()[i];
+            }
+        }
+    }
+
+    /**
+     * @return a new snapshot with the values of an earlier snapshot subtracted from these.
+     * Counters and histograms with no change are left out.
+     */
+    public MetricsSnapshot subtract(MetricsSnapshot earlier) {
+        MetricsSnapshot change = new MetricsSnapshot();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            long value = entry.getValue() - earlier.getCounter(entry.getKey());
+            if (value != 0)
+                change.counters.put(entry.getKey(), value);
+        }
+        for (Map.Entry<String, long[]> entry : histograms.entrySet()) {
+            long[] values = entry.getValue().clone();
+            long[] earlierValues = earlier.histograms.get(entry.getKey());
+            if (earlierValues != null) {
+                for (int i = 0; i < values.length; i++)
+                    values[i] -= earlierValues[i];
+            }
+            if (values[0] != 0)
+                change.histograms.put(entry.getKey(), values);
+        }
+        return change;
+    }
+
+
+    /**
+     * @return the value below which fraction of the histogram's values fall,
+     * as the upper end of the bucket it falls in.
+     */
+    public long getPercentile(String name, double fraction) {
+        long[] values = histograms.get(name);
+        if (values == null || values[0] == 0)
+            return 0;
+
+        long target = (long) Math.ceil(fraction * values[0]);
+        long cumulative = 0;
+        for (int b = 0; b < Metrics.NUM_BUCKETS; b++) {
+            cumulative += values[b + 2];
+            if (cumulative >= target)
+                return b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+        }
+        return Long.MAX_VALUE;
+    }
+
+
+    /**
+     * @return the snapshots of each node, and their total, as CSV with a heading row.
+     */
+    public static String toCsv(Map<String, MetricsSnapshot> snapshotsByNode) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < CSV_HEADINGS.length; i++)
+            sb.append(i == 0 ? "" : ",").append(CSV_HEADINGS[i]);
+        sb.append('\n');
+
+        for (Map.Entry<String, MetricsSnapshot> entry : snapshotsByNode.entrySet())
+            entry.getValue().appendCsv(sb, entry.getKey());
+        total(snapshotsByNode).appendCsv(sb, "total");
+
+        return sb.toString();
+    }
+
+    private void appendCsv(StringBuilder sb, String node) {
+        for (Map.Entry<String, Long> entry : counters.entrySet())
+            sb.append(String.format("%s,%s,counter,%d,,,,,%n", node, entry.getKey(), entry.getValue()));
+        for (String name : histograms.keySet()) {
+            long count = getHistogramCount(name);
+            double totalMs = getHistogramSum(name) / 1.0e6;
+            sb.append(String.format("%s,%s,histogram,%d,%.3f,%.6f,%.6f,%.6f,%.6f%n", node, name, count, totalMs, count > 0 ? totalMs / count : 0.0,
+                    getPercentile(name, 0.5) / 1.0e6, getPercentile(name, 0.9) / 1.0e6, getPercentile(name, 0.99) / 1.0e6));
+        }
+    }
+
+
+    /**
+     * @return the snapshots of each node, and their total, as a JSON object.
+     */
+    public static String toJson(Map<String, MetricsSnapshot> snapshotsByNode) {
+        StringBuilder sb = new StringBuilder("{\n  \"nodes\": {");
+        boolean first = true;
+        for (Map.Entry<String, MetricsSnapshot> entry : snapshotsByNode.entrySet()) {
+            sb.append(first ? "\n" : ",\n").append("    ").append(jsonString(entry.getKey())).append(": ");
+            entry.getValue().appendJson(sb, "    ");
+            first = false;
+        }
+        sb.append("\n  },\n  \"total\": ");
+        total(snapshotsByNode).appendJson(sb, "  ");
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+
+    private void appendJson(StringBuilder sb, String indent) {
+        sb.append("{\n").append(indent).append("  \"counters\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            sb.append(first ? " " : ", ").append(jsonString(entry.getKey())).append(": ").append(entry.getValue());
+            first = false;
+        }
+        sb.append(" },\n").append(indent).append("  \"histograms\": {");
+        first = true;
+        for (String name : histograms.keySet()) {
+            long count = getHistogramCount(name);
+            double totalMs = getHistogramSum(name) / 1.0e6;
+            sb.append(first ? "\n" : ",\n").append(indent).append("    ").append(jsonString(name));
+            sb.append(String.format(": { \"count\": %d, \"totalMs\": %.3f, \"meanMs\": %.6f, \"p50Ms\": %.6f, \"p90Ms\": %.6f, \"p99Ms\": %.6f }",
+                    count, totalMs, count > 0 ? totalMs / count : 0.0,
+                    getPercentile(name, 0.5) / 1.0e6, getPercentile(name, 0.9) / 1.0e6, getPercentile(name, 0.99) / 1.0e6));
+            first = false;
+        }
+        sb.append(first ? " }\n" : "\n" + indent + "  }\n").append(indent).append("}");
+    }
+
+    private static String jsonString(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+
+    private static MetricsSnapshot total(Map<String, MetricsSnapshot> snapshotsByNode) {
+        MetricsSnapshot total = new MetricsSnapshot();
+        for (MetricsSnapshot s : snapshotsByNode.values())
+            total.add(s);
+        return total;
+    }
+
+
+    /**
+     * Write the snapshots of each node as fileBaseName.csv and fileBaseName.json.
+     */
+    public static void writeFiles(Map<String, MetricsSnapshot> snapshotsByNode, String fileBaseName) throws IOException {
+        writeFile(new File(fileBaseName + ".csv"), toCsv(snapshotsByNode));
+        writeFile(new File(fileBaseName + ".json"), toJson(snapshotsByNode));
+    }
+
+    private static void writeFile(File file, String contents) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(contents);
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.common.util.tests;
+
+import java.util.TreeMap;
+
+import com.pb.common.util.Metrics;
+import com.pb.common.util.MetricsSnapshot;
+
+/**
+ * Test cases for the Metrics and MetricsSnapshot classes.
+ *
+ */
+public class MetricsTest {
+
+    public void testDisabled() {
+        Metrics.setEnabled(false);
+        Metrics.counter("test.disabled").increment();
+        Metrics.histogram("test.disabled.time").record(1000);
+
+        MetricsSnapshot s = Metrics.snapshot();
+        check(s.getCounter("test.disabled") == 0, "counter not recorded when disabled");
+        check(s.getHistogramCount("test.disabled.time") == 0, "histogram not recorded when disabled");
+    }
+
+    public void testSinceLastReport() throws InterruptedException {
+        Metrics.setEnabled(true);
+        final Metrics.Counter counter = Metrics.counter("test.count");
+        final Metrics.Histogram histogram = Metrics.histogram("test.time");
+        Metrics.snapshotSinceLastReport();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 1; i <= 1000; i++) {
+                        counter.increment();
+                        histogram.record(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        MetricsSnapshot first = Metrics.snapshotSinceLastReport();
+        check(first.getCounter("test.count") == 4000, "counter=" + first.getCounter("test.count") + ", expected 4000");
+        check(first.getHistogramCount("test.time") == 4000, "histogram count=" + first.getHistogramCount("test.time") + ", expected 4000");
+        check(first.getHistogramSum("test.time") == 4 * 500500, "histogram sum=" + first.getHistogramSum("test.time") + ", expected " + (4 * 500500));
+        check(first.getPercentile("test.time", 0.5) == 511, "p50=" + first.getPercentile("test.time", 0.5) + ", expected 511");
+        check(first.getPercentile("test.time", 0.99) == 1023, "p99=" + first.getPercentile("test.time", 0.99) + ", expected 1023");
+
+        counter.add(5);
+        MetricsSnapshot second = Metrics.snapshotSinceLastReport();
+        check(second.getCounter("test.count") == 5, "counter since last report=" + second.getCounter("test.count") + ", expected 5");
+        check(second.getHistogramCount("test.time") == 0, "histogram since last report should be empty");
+
+        TreeMap<String, MetricsSnapshot> byNode = new TreeMap<String, MetricsSnapshot>();
+        byNode.put("node1", first);
+        byNode.put("node2", second);
+        String csv = MetricsSnapshot.toCsv(byNode);
+        check(csv.contains("total,test.count,counter,4005,"), "csv total row for test.count");
+        String json = MetricsSnapshot.toJson(byNode);
+        check(json.contains("\"node2\""), "json has node2");
+
+        System.out.println(csv);
+        System.out.println(json);
+        Metrics.setEnabled(false);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new RuntimeException("failed: " + message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        MetricsTest test = new MetricsTest();
+        test.testDisabled();
+        test.testSinceLastReport();
+        System.out.println("MetricsTest passed");
+    }
+}
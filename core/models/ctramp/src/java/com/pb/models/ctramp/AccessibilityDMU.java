@@ -112,6 +112,30 @@ public class AccessibilityDMU
     {
         return autoSufficiency;
     }
+
+    /**
+     * @return the index into the size terms array for the given alternative.
+     */
+    public int getSizeTermIndex(int alt)
+    {
+        return (int) alternativeData.getValueAt(alt, sizeIndex);
+    }
+
+    /**
+     * @return the income segment index into the logsums array for the given alternative.
+     */
+    public int getIncomeIndex(int alt)
+    {
+        return (int) alternativeData.getValueAt(alt, incomeIndex);
+    }
+
+    /**
+     * @return the auto sufficiency index into the logsums array for the given alternative.
+     */
+    public int getAutoSufficiencyIndex(int alt)
+    {
+        return (int) alternativeData.getValueAt(alt, autoSufficiencyIndex);
+    }
     
     /**
      * For the given alternative, look up the size term and return it.
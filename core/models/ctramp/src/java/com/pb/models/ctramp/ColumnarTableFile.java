@@ -0,0 +1,403 @@
+package com.pb.models.ctramp;
+
+import com.pb.common.datafile.TableDataSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compact binary, column oriented copy of an output csv table, written by HouseholdDataWriter next to the csv file.
+ *
+ * The file holds a header with the column names followed by blocks of rows, one block for each range of households
+ * written.  Within a block each column is stored on its own: as 1, 2 or 4 byte ints if every value in the block is
+ * an integer, as 4 byte floats if every value is a number that a float holds to the 6 decimals written to the csv
+ * file, as 8 byte doubles if every value is some other number, and otherwise as a dictionary of the distinct
+ * strings followed by the 1, 2 or 4 byte dictionary index of each row.
+ *
+ * <pre>
+ *   int magic, int version, int numColumns, numColumns x UTF columnName
+ *   repeated until end of file:
+ *     int numRows
+ *     numColumns x ( byte type, column values )
+ * </pre>
+ */
+public class ColumnarTableFile {
+
+    private static Logger logger = Logger.getLogger(ColumnarTableFile.class);
+
+    public static final String FILE_EXTENSION = ".col";
+
+    private static final int MAGIC = 0x43544331;   // "CTC1"
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_BYTE = 0;
+    private static final byte TYPE_SHORT = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_STRING = 5;
+
+    // half of the last decimal place written by the csv "%f" format
+    private static final double FLOAT_TOLERANCE = 0.5e-6;
+
+
+    private ColumnarTableFile() {
+    }
+
+
+    /**
+     * @return the columnar file name for a csv file name - the extension is replaced by FILE_EXTENSION.
+     */
+    public static String getFileName( String csvFileName ) {
+        int lastDot = csvFileName.lastIndexOf('.');
+        int lastSeparator = Math.max( csvFileName.lastIndexOf('/'), csvFileName.lastIndexOf('\\') );
+        if ( lastDot > lastSeparator )
+            return csvFileName.substring( 0, lastDot ) + FILE_EXTENSION;
+        return csvFileName + FILE_EXTENSION;
+    }
+
+
+    /**
+     * Writes the header and the blocks of one table.  The blocks are encoded with encodeBlock(), which can be called
+     * from any thread, and are written with writeBlock() in the order they should appear in the file.
+     */
+    public static class Writer {
+
+        private final File file;
+        private final DataOutputStream out;
+
+        public Writer( File file, List<String> columnNames ) {
+            this.file = file;
+            try {
+                out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 1 << 16 ) );
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.writeInt( columnNames.size() );
+                for ( String name : columnNames )
+                    out.writeUTF( name );
+            }
+            catch (IOException e) {
+                logger.error( "exception opening columnar output file " + file, e );
+                throw new RuntimeException( e );
+            }
+        }
+
+        public void writeBlock( ByteArrayOutputStream block ) {
+            try {
+                block.writeTo( out );
+            }
+            catch (IOException e) {
+                logger.error( "exception writing columnar output file " + file, e );
+                throw new RuntimeException( e );
+            }
+        }
+
+        public void close() {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                logger.error( "exception closing columnar output file " + file, e );
+                throw new RuntimeException( e );
+            }
+        }
+    }
+
+
+    /**
+     * Encode a block of rows, each a list of the csv field values, into a buffer that is reset first.
+     */
+    public static void encodeBlock( List<List<String>> rows, int numColumns, ByteArrayOutputStream block ) {
+
+        block.reset();
+        DataOutputStream out = new DataOutputStream( block );
+        int numRows = rows.size();
+
+        String[][] columns = new String[numColumns][numRows];
+        for ( int r=0; r < numRows; r++ ) {
+            int c = 0;
+            for ( String value : rows.get(r) ) {
+                if ( c == numColumns ) {
+                    logger.error( String.format( "row %d of columnar block has more than the %d columns in the table header.", r, numColumns ) );
+                    throw new RuntimeException();
+                }
+                columns[c++][r] = value;
+            }
+        }
+
+        try {
+            out.writeInt( numRows );
+            for ( String[] column : columns )
+                encodeColumn( column, out );
+            out.flush();
+        }
+        catch (IOException e) {
+            // can't happen with a ByteArrayOutputStream
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static void encodeColumn( String[] values, DataOutputStream out ) throws IOException {
+
+        int[] intValues = new int[values.length];
+        double[] doubleValues = new double[values.length];
+        boolean allInts = true;
+        boolean allNumbers = true;
+        boolean allFloats = true;
+        int min = 0;
+        int max = 0;
+
+        for ( int i=0; i < values.length && allNumbers; i++ ) {
+            String value = values[i];
+            if ( value == null ) {
+                allInts = false;
+                allNumbers = false;
+            }
+            else if ( allInts && isInteger( value ) ) {
+                intValues[i] = Integer.parseInt( value );
+                doubleValues[i] = intValues[i];
+                min = Math.min( min, intValues[i] );
+                max = Math.max( max, intValues[i] );
+            }
+            else {
+                allInts = false;
+                try {
+                    doubleValues[i] = Double.parseDouble( value );
+                    if ( Math.abs( doubleValues[i] - (float)doubleValues[i] ) > FLOAT_TOLERANCE )
+                        allFloats = false;
+                }
+                catch (NumberFormatException e) {
+                    allNumbers = false;
+                }
+            }
+        }
+
+        if ( allInts ) {
+            if ( min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE ) {
+                out.writeByte( TYPE_BYTE );
+                for ( int v : intValues )
+                    out.writeByte( v );
+            }
+            else if ( min >= Short.MIN_VALUE && max <= Short.MAX_VALUE ) {
+                out.writeByte( TYPE_SHORT );
+                for ( int v : intValues )
+                    out.writeShort( v );
+            }
+            else {
+                out.writeByte( TYPE_INT );
+                for ( int v : intValues )
+                    out.writeInt( v );
+            }
+        }
+        else if ( allNumbers && allFloats ) {
+            out.writeByte( TYPE_FLOAT );
+            for ( double v : doubleValues )
+                out.writeFloat( (float)v );
+        }
+        else if ( allNumbers ) {
+            out.writeByte( TYPE_DOUBLE );
+            for ( double v : doubleValues )
+                out.writeDouble( v );
+        }
+        else {
+            Map<String,Integer> dictionary = new HashMap<String,Integer>();
+            List<String> dictionaryValues = new ArrayList<String>();
+            int[] indices = intValues;
+            for ( int i=0; i < values.length; i++ ) {
+                String value = values[i] == null ? "" : values[i];
+                Integer index = dictionary.get( value );
+                if ( index == null ) {
+                    index = dictionaryValues.size();
+                    dictionary.put( value, index );
+                    dictionaryValues.add( value );
+                }
+                indices[i] = index;
+            }
+
+            out.writeByte( TYPE_STRING );
+            out.writeInt( dictionaryValues.size() );
+            for ( String value : dictionaryValues )
+                out.writeUTF( value );
+            int indexBytes = getIndexBytes( dictionaryValues.size() );
+            for ( int index : indices )
+                writeIndex( index, indexBytes, out );
+        }
+    }
+
+    // true for an optional minus sign followed by up to 9 digits, which always fits in an int
+    private static boolean isInteger( String value ) {
+        int start = value.startsWith( "-" ) ? 1 : 0;
+        int length = value.length() - start;
+        if ( length < 1 || length > 9 )
+            return false;
+        for ( int i=start; i < value.length(); i++ ) {
+            char ch = value.charAt( i );
+            if ( ch < '0' || ch > '9' )
+                return false;
+        }
+        return true;
+    }
+
+    private static int getIndexBytes( int dictionarySize ) {
+        if ( dictionarySize <= 256 )
+            return 1;
+        else if ( dictionarySize <= 65536 )
+            return 2;
+        else
+            return 4;
+    }
+
+    private static void writeIndex( int index, int indexBytes, DataOutputStream out ) throws IOException {
+        switch ( indexBytes ) {
+            case 1 : out.writeByte( index ); break;
+            case 2 : out.writeShort( index ); break;
+            default : out.writeInt( index );
+        }
+    }
+
+    private static int readIndex( int indexBytes, DataInputStream in ) throws IOException {
+        switch ( indexBytes ) {
+            case 1 : return in.readUnsignedByte();
+            case 2 : return in.readUnsignedShort();
+            default : return in.readInt();
+        }
+    }
+
+
+    /**
+     * Read a columnar file into a TableDataSet.  A column is read as a number column if it was stored as numbers in
+     * every block, and as a string column otherwise.
+     */
+    public static TableDataSet read( File file ) {
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) );
+            if ( in.readInt() != MAGIC ) {
+                logger.error( "file " + file + " is not a columnar output file." );
+                throw new RuntimeException();
+            }
+            int version = in.readInt();
+            if ( version != VERSION ) {
+                logger.error( String.format( "columnar output file %s has version %d, expected %d.", file, version, VERSION ) );
+                throw new RuntimeException();
+            }
+
+            int numColumns = in.readInt();
+            String[] names = new String[numColumns];
+            for ( int c=0; c < numColumns; c++ )
+                names[c] = in.readUTF();
+
+            // values are kept as Doubles or Strings until the column type is known
+            List<List<Object>> columns = new ArrayList<List<Object>>();
+            boolean[] numeric = new boolean[numColumns];
+            for ( int c=0; c < numColumns; c++ ) {
+                columns.add( new ArrayList<Object>() );
+                numeric[c] = true;
+            }
+
+            while ( true ) {
+                int numRows;
+                try {
+                    numRows = in.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                for ( int c=0; c < numColumns; c++ ) {
+                    List<Object> column = columns.get(c);
+                    byte type = in.readByte();
+                    if ( type == TYPE_BYTE ) {
+                        for ( int r=0; r < numRows; r++ )
+                            column.add( (double)in.readByte() );
+                    }
+                    else if ( type == TYPE_SHORT ) {
+                        for ( int r=0; r < numRows; r++ )
+                            column.add( (double)in.readShort() );
+                    }
+                    else if ( type == TYPE_INT ) {
+                        for ( int r=0; r < numRows; r++ )
+                            column.add( (double)in.readInt() );
+                    }
+                    else if ( type == TYPE_FLOAT ) {
+                        for ( int r=0; r < numRows; r++ )
+                            column.add( (double)in.readFloat() );
+                    }
+                    else if ( type == TYPE_DOUBLE ) {
+                        for ( int r=0; r < numRows; r++ )
+                            column.add( in.readDouble() );
+                    }
+                    else if ( type == TYPE_STRING ) {
+                        numeric[c] = false;
+                        String[] dictionary = new String[in.readInt()];
+                        for ( int i=0; i < dictionary.length; i++ )
+                            dictionary[i] = in.readUTF();
+                        int indexBytes = getIndexBytes( dictionary.length );
+                        for ( int r=0; r < numRows; r++ )
+                            column.add( dictionary[readIndex( indexBytes, in )] );
+                    }
+                    else {
+                        logger.error( String.format( "invalid column type %d for column %s in columnar output file %s.", type, names[c], file ) );
+                        throw new RuntimeException();
+                    }
+                }
+            }
+
+            TableDataSet table = new TableDataSet();
+            for ( int c=0; c < numColumns; c++ ) {
+                List<Object> column = columns.get(c);
+                if ( numeric[c] ) {
+                    float[] values = new float[column.size()];
+                    for ( int r=0; r < values.length; r++ )
+                        values[r] = ((Double)column.get(r)).floatValue();
+                    table.appendColumn( values, names[c] );
+                }
+                else {
+                    String[] values = new String[column.size()];
+                    for ( int r=0; r < values.length; r++ ) {
+                        Object value = column.get(r);
+                        values[r] = value instanceof Double ? formatNumber( (Double)value ) : (String)value;
+                    }
+                    table.appendColumn( values, names[c] );
+                }
+            }
+            return table;
+        }
+        catch (IOException e) {
+            logger.error( "exception reading columnar output file " + file, e );
+            throw new RuntimeException( e );
+        }
+        finally {
+            if ( in != null ) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    private static String formatNumber( double value ) {
+        if ( value == Math.rint( value ) && Math.abs( value ) < Integer.MAX_VALUE )
+            return Integer.toString( (int)value );
+        return Double.toString( value );
+    }
+
+}
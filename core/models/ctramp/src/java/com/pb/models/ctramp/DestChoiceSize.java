@@ -976,6 +976,52 @@ public class DestChoiceSize implements Serializable {
         }
     }
 
+
+    /**
+     * @return a copy of the current shadow prices, to be compared with the updated values by getShadowPriceChangedAlternatives().
+     */
+    public double[][][] getShadowPrices() {
+        double[][][] copy = new double[shadowPrice.length][][];
+        for ( int i=0; i < shadowPrice.length; i++ )
+            copy[i] = duplicateDouble2DArray( shadowPrice[i] );
+        return copy;
+    }
+
+
+    /**
+     * Determine the destination choice alternatives whose shadow price changed by more than a relative threshold
+     * since previousShadowPrice was saved by getShadowPrices().
+     *
+     * @param previousShadowPrice shadow prices before the last update.
+     * @param tourPurposeList purposes in the order used for balanceSizeVariables().
+     * @param threshold relative change in shadow price, e.g. 0.01 for 1%.
+     * @return array indexed by dc model purpose index and dc alternative ((zone-1)*numSubZones + subzone + 1),
+     * true if the alternative's shadow price changed by more than the threshold.
+     */
+    public boolean[][] getShadowPriceChangedAlternatives( double[][][] previousShadowPrice, String[] tourPurposeList, double threshold ) {
+
+        int maxDcModelIndex = 0;
+        for ( String purposeString : tourPurposeList )
+            maxDcModelIndex = Math.max( maxDcModelIndex, modelStructure.getDcModelPurposeIndex(purposeString) );
+
+        boolean[][] changedAlts = new boolean[maxDcModelIndex+1][];
+
+        for( int i=0; i < tourPurposeList.length; i++ ) {
+            int dcModelIndex = modelStructure.getDcModelPurposeIndex( tourPurposeList[i] );
+            changedAlts[dcModelIndex] = new boolean[numZones*numSubZones + 1];
+            for( int k=1; k <= numZones; k++ ) {
+                for( int l=0; l < numSubZones; l++ ) {
+                    double previous = previousShadowPrice[i][k][l];
+                    double change = previous > 0 ? Math.abs( shadowPrice[i][k][l]/previous - 1.0 ) : Math.abs( shadowPrice[i][k][l] - previous );
+                    if ( change > threshold )
+                        changedAlts[dcModelIndex][(k-1)*numSubZones + l + 1] = true;
+                }
+            }
+        }
+
+        return changedAlts;
+    }
+
  
     
     public void reportMaxDiff( int iteration, double[][][] modeledDestinationLocationsByDestZone, String[] tourPurposeList ) {
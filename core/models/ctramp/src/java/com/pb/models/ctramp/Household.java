@@ -8,6 +8,29 @@ import com.pb.models.ctramp.jppf.CtrampApplication;
 
 public class Household implements java.io.Serializable {
     
+    // model steps with their own random number stream when the household random number generator is counter based
+    public static final int RANDOM_STEP_UWSL = 0;
+    public static final int RANDOM_STEP_AO = 1;
+    public static final int RANDOM_STEP_FP = 2;
+    public static final int RANDOM_STEP_CDAP = 3;
+    public static final int RANDOM_STEP_IMTF = 4;
+    public static final int RANDOM_STEP_IMTOD = 5;
+    public static final int RANDOM_STEP_IMMC = 6;
+    public static final int RANDOM_STEP_JTF = 7;
+    public static final int RANDOM_STEP_JTL = 8;
+    public static final int RANDOM_STEP_JTOD = 9;
+    public static final int RANDOM_STEP_JMC = 10;
+    public static final int RANDOM_STEP_INMTF = 11;
+    public static final int RANDOM_STEP_INMTL = 12;
+    public static final int RANDOM_STEP_INMTOD = 13;
+    public static final int RANDOM_STEP_INMMC = 14;
+    public static final int RANDOM_STEP_AWF = 15;
+    public static final int RANDOM_STEP_AWL = 16;
+    public static final int RANDOM_STEP_AWTOD = 17;
+    public static final int RANDOM_STEP_AWMC = 18;
+    public static final int RANDOM_STEP_STF = 19;
+    public static final int RANDOM_STEP_STL = 20;
+
     private boolean debugChoiceModels;
     
     private int hhId;
@@ -74,7 +97,7 @@ public class Household implements java.io.Serializable {
 
     
     public Household() {
-        hhRandom = new Random();
+        hhRandom = new HouseholdRandom();
      }
     
     
@@ -115,6 +138,28 @@ public class Household implements java.io.Serializable {
         hhRandom.setSeed( baseSeed + hhId );
     }
 
+    /**
+     * Use counter based random number streams for each model step (see HouseholdRandom), so a model step can be
+     * restarted without replaying the random numbers drawn by the steps before it.
+     */
+    public void setCounterBasedRandom( boolean value ) {
+        if ( hhRandom instanceof HouseholdRandom )
+            ((HouseholdRandom)hhRandom).setCounterBased( value );
+    }
+
+    public boolean isCounterBasedRandom() {
+        return hhRandom instanceof HouseholdRandom && ((HouseholdRandom)hhRandom).isCounterBased();
+    }
+
+    /**
+     * Position a counter based random number generator at the start of the stream for a model step, one of the
+     * RANDOM_STEP_ values.  Has no effect on other generators.
+     */
+    public void startRandomStep( int step ) {
+        if ( hhRandom instanceof HouseholdRandom )
+            ((HouseholdRandom)hhRandom).setStep( step );
+    }
+
     public void setRandomObject ( Random r ) {
         hhRandom = r;
     }
@@ -1017,6 +1062,26 @@ public class Household implements java.io.Serializable {
     }
 
 
+    /**
+     * @return the same availability as getAvailableJointTourTimeWindows( t, altStarts, altEnds ) for the alternatives
+     * the masks were built for.  An alternative unavailable to any participant is unavailable to the joint tour, so
+     * the participants' window words are or'ed and the alternatives are tested once.
+     */
+    public boolean[] getAvailableJointTourTimeWindows( Tour t, TimeWindowMasks altMasks ) {
+        byte[] participatingPersonIndices = t.getPersonNumArray();
+
+        long[] jointWords = new long[TimeWindowMasks.NUM_WORDS];
+        long[] words = new long[TimeWindowMasks.NUM_WORDS];
+        for ( int i=0; i < participatingPersonIndices.length; i++ ) {
+            TimeWindowMasks.setWindowWords( persons[participatingPersonIndices[i]].getTimeWindows(), words );
+            for ( int w=0; w < jointWords.length; w++ )
+                jointWords[w] |= words[w];
+        }
+
+        return altMasks.getAvailability( jointWords );
+    }
+
+
     public void createJointTourArray () {
         jointTours = new Tour[0];
     }
@@ -1536,6 +1601,125 @@ public class Household implements java.io.Serializable {
 	}
 
 
+    /**
+     * Write the household attributes to a HouseholdColumnStore row.  Persons and joint tours are stored by the HouseholdColumnStore.
+     */
+    void storeColumns( HouseholdColumnStore.Row row ) {
+        if ( ! ( hhRandom instanceof HouseholdRandom ) )
+            throw new IllegalStateException( "household " + hhId + " random number generator is a " + hhRandom.getClass().getName() + ", its state can't be stored." );
+
+        row.putBoolean( debugChoiceModels );
+        row.putInt( hhId );
+        row.putInt( hhIncomeInDollars );
+        row.putByte( hhSize );
+        row.putByte( hhType );
+        row.putByte( hhWorkers );
+        row.putShort( homeTaz );
+        row.putByte( homeWalkSubzone );
+        row.putByte( aoModelAutos );
+        row.putString( cdapModelPattern );
+        row.putByte( imtfModelPattern );
+        row.putString( jtfModelPattern );
+        HouseholdRandom hhRandomObject = (HouseholdRandom)hhRandom;
+        row.putLong( hhRandomObject.getState() );
+        row.putBoolean( hhRandomObject.isCounterBased() );
+        row.putLong( hhRandomObject.getCounterKey() );
+        row.putInt( hhRandomObject.getStep() );
+        row.putLong( hhRandomObject.getDrawIndex() );
+        row.putShort( randomCount );
+        row.putShort( uwslRandomCount );
+        row.putShort( aoRandomCount );
+        row.putShort( fpRandomCount );
+        row.putShort( cdapRandomCount );
+        row.putShort( imtfRandomCount );
+        row.putShort( imtodRandomCount );
+        row.putShort( immcRandomCount );
+        row.putShort( awfRandomCount );
+        row.putShort( awlRandomCount );
+        row.putShort( awtodRandomCount );
+        row.putShort( awmcRandomCount );
+        row.putShort( jtfRandomCount );
+        row.putShort( jtlRandomCount );
+        row.putShort( jtodRandomCount );
+        row.putShort( jmcRandomCount );
+        row.putShort( inmtfRandomCount );
+        row.putShort( inmtlRandomCount );
+        row.putShort( inmtodRandomCount );
+        row.putShort( inmmcRandomCount );
+        row.putShort( stfRandomCount );
+        row.putShort( stlRandomCount );
+        row.putByte( maxAdultOverlaps );
+        row.putByte( maxChildOverlaps );
+        row.putByte( maxAdultChildOverlaps );
+        row.putByte( maxHoursAvailableAdult );
+        row.putByte( maxHoursAvailableChild );
+        row.putShort( humanVehicles );
+        row.putShort( autonomousVehicles );
+        row.putInt( hAnalyst );
+        row.putShort( incomePercentOfPoverty );
+        row.putFloat( sampleRate );
+        row.putInt( numberOfPersonsSet );
+    }
+
+    /**
+     * Read the household attributes written by storeColumns().
+     */
+    void loadColumns( HouseholdColumnStore.Row row ) {
+        debugChoiceModels = row.getBoolean();
+        hhId = row.getInt();
+        hhIncomeInDollars = row.getInt();
+        hhSize = row.getByte();
+        hhType = row.getByte();
+        hhWorkers = row.getByte();
+        homeTaz = row.getShort();
+        homeWalkSubzone = row.getByte();
+        aoModelAutos = row.getByte();
+        cdapModelPattern = row.getString();
+        imtfModelPattern = row.getByte();
+        jtfModelPattern = row.getString();
+        HouseholdRandom random = new HouseholdRandom( 0 );
+        random.setState( row.getLong() );
+        random.setCounterBased( row.getBoolean() );
+        long key = row.getLong();
+        int step = row.getInt();
+        random.setCounterState( key, step, row.getLong() );
+        hhRandom = random;
+        randomCount = row.getShort();
+        uwslRandomCount = row.getShort();
+        aoRandomCount = row.getShort();
+        fpRandomCount = row.getShort();
+        cdapRandomCount = row.getShort();
+        imtfRandomCount = row.getShort();
+        imtodRandomCount = row.getShort();
+        immcRandomCount = row.getShort();
+        awfRandomCount = row.getShort();
+        awlRandomCount = row.getShort();
+        awtodRandomCount = row.getShort();
+        awmcRandomCount = row.getShort();
+        jtfRandomCount = row.getShort();
+        jtlRandomCount = row.getShort();
+        jtodRandomCount = row.getShort();
+        jmcRandomCount = row.getShort();
+        inmtfRandomCount = row.getShort();
+        inmtlRandomCount = row.getShort();
+        inmtodRandomCount = row.getShort();
+        inmmcRandomCount = row.getShort();
+        stfRandomCount = row.getShort();
+        stlRandomCount = row.getShort();
+        maxAdultOverlaps = row.getByte();
+        maxChildOverlaps = row.getByte();
+        maxAdultChildOverlaps = row.getByte();
+        maxHoursAvailableAdult = row.getByte();
+        maxHoursAvailableChild = row.getByte();
+        humanVehicles = row.getShort();
+        autonomousVehicles = row.getShort();
+        hAnalyst = row.getInt();
+        incomePercentOfPoverty = row.getShort();
+        sampleRate = row.getFloat();
+        numberOfPersonsSet = row.getInt();
+    }
+
+
 	public enum HouseholdType {
         nul,
         FAMILY_MARRIED,
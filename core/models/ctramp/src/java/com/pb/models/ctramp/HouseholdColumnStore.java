@@ -0,0 +1,876 @@
+package com.pb.models.ctramp;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds the synthetic population and its choice model results in primitive
+ * column arrays instead of Household, Person, Tour and Stop objects.
+ *
+ * There is one table each for households, persons, tours and stops.  The
+ * household table has one row per household index.  The persons, tours and
+ * stops of a household use a contiguous range of rows in the other tables.
+ * When a household is stored again and has more rows than before, its rows
+ * are appended to the end of the table and the old rows become unused.  A
+ * table is compacted when more than half of its rows or variable length
+ * values are unused.
+ *
+ * Each class writes its own attributes to a Row in a fixed order with
+ * storeColumns() and reads them back in the same order with loadColumns().
+ * The columns of a table are created by the first row written to it.
+ *
+ * getHouseholds() creates new Household objects from the columns.  A range of
+ * households can also be copied to a new store with getHouseholdColumns(),
+ * e.g. to send it to another JVM as a few primitive arrays, and copied back
+ * with setHouseholdColumns().
+ *
+ * Reads may run concurrently, stores are exclusive.
+ */
+public class HouseholdColumnStore implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int numHouseholds;
+
+    private final boolean[] stored;
+
+    private ColumnTable householdTable = new ColumnTable();
+    private ColumnTable personTable = new ColumnTable();
+    private ColumnTable tourTable = new ColumnTable();
+    private ColumnTable stopTable = new ColumnTable();
+
+    // first row and number of rows used by each household in the person, tour and stop tables
+    private final int[] personStart;
+    private final int[] personCount;
+    private final int[] tourStart;
+    private final int[] tourCount;
+    private final int[] stopStart;
+    private final int[] stopCount;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create an empty store for numHouseholds households.
+     */
+    public HouseholdColumnStore( int numHouseholds ) {
+        this.numHouseholds = numHouseholds;
+        stored = new boolean[numHouseholds];
+        personStart = new int[numHouseholds];
+        personCount = new int[numHouseholds];
+        tourStart = new int[numHouseholds];
+        tourCount = new int[numHouseholds];
+        stopStart = new int[numHouseholds];
+        stopCount = new int[numHouseholds];
+        householdTable.appendRows( numHouseholds );
+    }
+
+    /**
+     * Create a store holding the households in hhs.
+     */
+    public HouseholdColumnStore( Household[] hhs ) {
+        this( hhs.length );
+        setHouseholds( hhs, 0 );
+    }
+
+
+    public int getNumHouseholds() {
+        return numHouseholds;
+    }
+
+
+    /**
+     * @return new Household objects for the households with index first through last.
+     */
+    public Household[] getHouseholds( int first, int last ) {
+        Household[] hhs = new Household[last - first + 1];
+        lock.readLock().lock();
+        try {
+            for ( int i=first; i <= last; i++ )
+                hhs[i - first] = readHousehold( i );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return hhs;
+    }
+
+    public Household getHousehold( int index ) {
+        lock.readLock().lock();
+        try {
+            return readHousehold( index );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Store households in the rows for household indices startIndex through startIndex + hhs.length - 1.
+     */
+    public void setHouseholds( Household[] hhs, int startIndex ) {
+        lock.writeLock().lock();
+        try {
+            for ( int i=0; i < hhs.length; i++ )
+                writeHousehold( startIndex + i, hhs[i] );
+            compactIfNeeded();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setHousehold( Household hh, int index ) {
+        setHouseholds( new Household[] { hh }, index );
+    }
+
+
+    /**
+     * @return a new store with the rows of households first through last, as household indices 0 through last - first.
+     */
+    public HouseholdColumnStore getHouseholdColumns( int first, int last ) {
+        HouseholdColumnStore slice = new HouseholdColumnStore( last - first + 1 );
+        lock.readLock().lock();
+        try {
+            for ( int i=first; i <= last; i++ )
+                slice.copyHousehold( i - first, this, i );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        slice.trimToSize();
+        return slice;
+    }
+
+
+    /**
+     * Copy all households from a store returned by getHouseholdColumns() into the rows for
+     * household indices startIndex through startIndex + slice.getNumHouseholds() - 1.
+     */
+    public void setHouseholdColumns( HouseholdColumnStore slice, int startIndex ) {
+        lock.writeLock().lock();
+        try {
+            for ( int i=0; i < slice.numHouseholds; i++ )
+                copyHousehold( startIndex + i, slice, i );
+            compactIfNeeded();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    public String getStatistics() {
+        lock.readLock().lock();
+        try {
+            return String.format( "household column store: households=%d, persons=%d, tours=%d, stops=%d, %.1f MB",
+                    numHouseholds, personTable.rowCount - personTable.unusedRows, tourTable.rowCount - tourTable.unusedRows,
+                    stopTable.rowCount - stopTable.unusedRows,
+                    ( householdTable.bytes() + personTable.bytes() + tourTable.bytes() + stopTable.bytes() ) / ( 1024.0 * 1024.0 ) );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+
+    private Household readHousehold( int index ) {
+
+        if ( ! stored[index] )
+            return null;
+
+        Row row = new Row( householdTable, index );
+        int numPersons = row.getInt();
+        int numJointTours = row.getInt();
+
+        Household hh = new Household();
+        hh.loadColumns( row );
+
+        // persons are created before the tours, which refer to them
+        int[][] numTours = null;
+        if ( numPersons >= 0 ) {
+            Person[] persons = new Person[numPersons + 1];
+            numTours = new int[numPersons + 1][];
+            hh.setPersons( persons );
+            for ( int p=1; p <= numPersons; p++ ) {
+                row = new Row( personTable, personStart[index] + p - 1 );
+                numTours[p] = new int[] { row.getInt(), row.getInt(), row.getInt(), row.getInt() };
+
+                persons[p] = new Person( hh, p );
+                persons[p].loadColumns( row );
+            }
+        }
+
+        int t = tourStart[index];
+        int[] s = { stopStart[index] };
+
+        if ( numJointTours >= 0 ) {
+            Tour[] jointTours = new Tour[numJointTours];
+            for ( int k=0; k < numJointTours; k++ )
+                jointTours[k] = readTour( hh, t++, s );
+            hh.setJointTourArray( jointTours );
+        }
+
+        for ( int p=1; p <= numPersons; p++ ) {
+            List<List<Tour>> lists = getTourLists( hh.getPersons()[p] );
+            for ( int l=0; l < lists.size(); l++ ) {
+                for ( int k=0; k < numTours[p][l]; k++ )
+                    lists.get( l ).add( readTour( hh, t++, s ) );
+            }
+        }
+
+        return hh;
+
+    }
+
+
+    private Tour readTour( Household hh, int tourRow, int[] stopRow ) {
+
+        Row row = new Row( tourTable, tourRow );
+        int personNum = row.getByte();
+        int numOutbound = row.getInt();
+        int numInbound = row.getInt();
+
+        Tour tour = new Tour( hh, 0 );
+        tour.loadColumns( row );
+        if ( personNum > 0 )
+            tour.setPersonObject( hh.getPersons()[personNum] );
+
+        tour.setStops( readStops( tour, numOutbound, stopRow ), readStops( tour, numInbound, stopRow ) );
+        return tour;
+
+    }
+
+
+    private Stop[] readStops( Tour tour, int numStops, int[] stopRow ) {
+        if ( numStops < 0 )
+            return null;
+
+        Stop[] stops = new Stop[numStops];
+        for ( int k=0; k < numStops; k++ ) {
+            stops[k] = new Stop( tour, 0, 0, 0, false );
+            stops[k].loadColumns( new Row( stopTable, stopRow[0]++ ) );
+        }
+        return stops;
+    }
+
+
+
+    private void writeHousehold( int index, Household hh ) {
+
+        if ( hh == null ) {
+            release( index );
+            stored[index] = false;
+            return;
+        }
+
+        Person[] persons = hh.getPersons();
+        Tour[] jointTours = hh.getJointTourArray();
+
+        // count the rows needed in each table
+        int numPersons = persons == null ? 0 : persons.length - 1;
+        int numTours = 0;
+        int numStops = 0;
+        if ( jointTours != null ) {
+            for ( Tour tour : jointTours ) {
+                numTours++;
+                numStops += countStops( tour );
+            }
+        }
+        for ( int p=1; p <= numPersons; p++ ) {
+            for ( List<Tour> list : getTourLists( persons[p] ) ) {
+                for ( Tour tour : list ) {
+                    numTours++;
+                    numStops += countStops( tour );
+                }
+            }
+        }
+
+        allocate( index, numPersons, numTours, numStops );
+
+        Row row = new Row( householdTable, index );
+        row.putInt( persons == null ? -1 : numPersons );
+        row.putInt( jointTours == null ? -1 : jointTours.length );
+        hh.storeColumns( row );
+
+        int t = tourStart[index];
+        int[] s = { stopStart[index] };
+
+        if ( jointTours != null ) {
+            for ( Tour tour : jointTours )
+                writeTour( tour, t++, s );
+        }
+
+        for ( int p=1; p <= numPersons; p++ ) {
+            List<List<Tour>> lists = getTourLists( persons[p] );
+
+            row = new Row( personTable, personStart[index] + p - 1 );
+            for ( List<Tour> list : lists )
+                row.putInt( list.size() );
+            persons[p].storeColumns( row );
+
+            for ( List<Tour> list : lists ) {
+                for ( Tour tour : list )
+                    writeTour( tour, t++, s );
+            }
+        }
+
+        stored[index] = true;
+
+    }
+
+
+    private void writeTour( Tour tour, int tourRow, int[] stopRow ) {
+
+        Person person = tour.getPersonObject();
+        Stop[] outbound = tour.getOutboundStops();
+        Stop[] inbound = tour.getInboundStops();
+
+        Row row = new Row( tourTable, tourRow );
+        row.putByte( person == null ? 0 : person.getPersonNum() );
+        row.putInt( outbound == null ? -1 : outbound.length );
+        row.putInt( inbound == null ? -1 : inbound.length );
+        tour.storeColumns( row );
+
+        writeStops( outbound, stopRow );
+        writeStops( inbound, stopRow );
+
+    }
+
+
+    private void writeStops( Stop[] stops, int[] stopRow ) {
+        if ( stops == null )
+            return;
+        for ( Stop stop : stops )
+            stop.storeColumns( new Row( stopTable, stopRow[0]++ ) );
+    }
+
+
+    private static int countStops( Tour tour ) {
+        int n = 0;
+        if ( tour.getOutboundStops() != null )
+            n += tour.getOutboundStops().length;
+        if ( tour.getInboundStops() != null )
+            n += tour.getInboundStops().length;
+        return n;
+    }
+
+
+    private static List<List<Tour>> getTourLists( Person person ) {
+        List<List<Tour>> lists = new ArrayList<List<Tour>>( 4 );
+        lists.add( person.getListOfWorkTours() );
+        lists.add( person.getListOfSchoolTours() );
+        lists.add( person.getListOfIndividualNonMandatoryTours() );
+        lists.add( person.getListOfAtWorkSubtours() );
+        return lists;
+    }
+
+
+
+    /**
+     * Choose the rows for a household in the person, tour and stop tables - the household's current
+     * rows if there are enough of them, otherwise new rows at the end of the table.
+     */
+    private void allocate( int index, int numPersons, int numTours, int numStops ) {
+        personStart[index] = allocate( personTable, index, personStart[index], personCount[index], numPersons );
+        personCount[index] = numPersons;
+        tourStart[index] = allocate( tourTable, index, tourStart[index], tourCount[index], numTours );
+        tourCount[index] = numTours;
+        stopStart[index] = allocate( stopTable, index, stopStart[index], stopCount[index], numStops );
+        stopCount[index] = numStops;
+    }
+
+    private int allocate( ColumnTable table, int index, int start, int count, int n ) {
+        if ( stored[index] && n <= count ) {
+            table.releaseRows( start + n, count - n );
+            return start;
+        }
+        if ( stored[index] )
+            table.releaseRows( start, count );
+        return table.appendRows( n );
+    }
+
+    private void release( int index ) {
+        if ( stored[index] ) {
+            personTable.releaseRows( personStart[index], personCount[index] );
+            tourTable.releaseRows( tourStart[index], tourCount[index] );
+            stopTable.releaseRows( stopStart[index], stopCount[index] );
+            personCount[index] = 0;
+            tourCount[index] = 0;
+            stopCount[index] = 0;
+        }
+    }
+
+
+    /**
+     * Copy household srcIndex of store src to household index of this store.
+     */
+    private void copyHousehold( int index, HouseholdColumnStore src, int srcIndex ) {
+
+        if ( ! src.stored[srcIndex] ) {
+            release( index );
+            stored[index] = false;
+            return;
+        }
+
+        allocate( index, src.personCount[srcIndex], src.tourCount[srcIndex], src.stopCount[srcIndex] );
+
+        householdTable.copyRows( src.householdTable, srcIndex, 1, index );
+        personTable.copyRows( src.personTable, src.personStart[srcIndex], personCount[index], personStart[index] );
+        tourTable.copyRows( src.tourTable, src.tourStart[srcIndex], tourCount[index], tourStart[index] );
+        stopTable.copyRows( src.stopTable, src.stopStart[srcIndex], stopCount[index], stopStart[index] );
+
+        stored[index] = true;
+
+    }
+
+
+    private void compactIfNeeded() {
+        if ( personTable.needsCompaction() )
+            personTable = personTable.compact( personStart, personCount );
+        if ( tourTable.needsCompaction() )
+            tourTable = tourTable.compact( tourStart, tourCount );
+        if ( stopTable.needsCompaction() )
+            stopTable = stopTable.compact( stopStart, stopCount );
+        if ( householdTable.needsCompaction() ) {
+            int[] start = new int[numHouseholds];
+            int[] count = new int[numHouseholds];
+            for ( int i=0; i < numHouseholds; i++ ) {
+                start[i] = i;
+                count[i] = 1;
+            }
+            householdTable = householdTable.compact( start, count );
+        }
+    }
+
+
+    private void trimToSize() {
+        householdTable.trimToSize();
+        personTable.trimToSize();
+        tourTable.trimToSize();
+        stopTable.trimToSize();
+    }
+
+
+
+    /**
+     * A cursor over the columns of one row of a table.  Values are written and
+     * read in column order, and each put or get moves to the next column.
+     */
+    public static final class Row {
+
+        private final ColumnTable table;
+        private final int row;
+        private int column;
+
+        private Row( ColumnTable table, int row ) {
+            this.table = table;
+            this.row = row;
+        }
+
+        public void putByte( int value ) {
+            ((byte[])table.column( column++, ColumnTable.BYTE ))[row] = (byte)value;
+        }
+
+        public void putBoolean( boolean value ) {
+            putByte( value ? 1 : 0 );
+        }
+
+        public void putShort( int value ) {
+            ((short[])table.column( column++, ColumnTable.SHORT ))[row] = (short)value;
+        }
+
+        public void putInt( int value ) {
+            ((int[])table.column( column++, ColumnTable.INT ))[row] = value;
+        }
+
+        public void putLong( long value ) {
+            ((long[])table.column( column++, ColumnTable.LONG ))[row] = value;
+        }
+
+        public void putFloat( float value ) {
+            ((float[])table.column( column++, ColumnTable.FLOAT ))[row] = value;
+        }
+
+        public void putString( String value ) {
+            ((int[])table.column( column++, ColumnTable.STRING ))[row] = table.getStringCode( value );
+        }
+
+        public void putBytes( byte[] values ) {
+            long[] entries = (long[])table.column( column++, ColumnTable.BYTES );
+            if ( values == null )
+                entries[row] = table.storeBytes( entries[row], null, 0, 0 );
+            else
+                entries[row] = table.storeBytes( entries[row], values, 0, values.length );
+        }
+
+        public void putFloats( float[] values ) {
+            long[] entries = (long[])table.column( column++, ColumnTable.FLOATS );
+            if ( values == null )
+                entries[row] = table.storeFloats( entries[row], null, 0, 0 );
+            else
+                entries[row] = table.storeFloats( entries[row], values, 0, values.length );
+        }
+
+        public byte getByte() {
+            return ((byte[])table.column( column++, ColumnTable.BYTE ))[row];
+        }
+
+        public boolean getBoolean() {
+            return getByte() != 0;
+        }
+
+        public short getShort() {
+            return ((short[])table.column( column++, ColumnTable.SHORT ))[row];
+        }
+
+        public int getInt() {
+            return ((int[])table.column( column++, ColumnTable.INT ))[row];
+        }
+
+        public long getLong() {
+            return ((long[])table.column( column++, ColumnTable.LONG ))[row];
+        }
+
+        public float getFloat() {
+            return ((float[])table.column( column++, ColumnTable.FLOAT ))[row];
+        }
+
+        public String getString() {
+            return table.getString( ((int[])table.column( column++, ColumnTable.STRING ))[row] );
+        }
+
+        public byte[] getBytes() {
+            long entry = ((long[])table.column( column++, ColumnTable.BYTES ))[row];
+            if ( entry == 0 )
+                return null;
+            byte[] values = new byte[ColumnTable.length( entry )];
+            System.arraycopy( table.bytePool, ColumnTable.offset( entry ), values, 0, values.length );
+            return values;
+        }
+
+        public float[] getFloats() {
+            long entry = ((long[])table.column( column++, ColumnTable.FLOATS ))[row];
+            if ( entry == 0 )
+                return null;
+            float[] values = new float[ColumnTable.length( entry )];
+            System.arraycopy( table.floatPool, ColumnTable.offset( entry ), values, 0, values.length );
+            return values;
+        }
+
+    }
+
+
+
+    /**
+     * A table of primitive columns.  Strings are stored as codes into a
+     * dictionary of the table's distinct strings.  Byte and float arrays are
+     * stored in a pool for each type, with the offset and length of each
+     * array packed into a long - 0 for a null array.
+     */
+    private static final class ColumnTable implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final byte BYTE   = 0;
+        static final byte SHORT  = 1;
+        static final byte INT    = 2;
+        static final byte LONG   = 3;
+        static final byte FLOAT  = 4;
+        static final byte STRING = 5;
+        static final byte BYTES  = 6;
+        static final byte FLOATS = 7;
+
+        private static final String[] KIND_NAMES = { "byte", "short", "int", "long", "float", "String", "byte[]", "float[]" };
+
+        byte[] kinds = new byte[0];
+        Object[] columns = new Object[0];
+        int rowCount;
+        int capacity;
+        int unusedRows;
+
+        ArrayList<String> strings = new ArrayList<String>();
+        transient HashMap<String, Integer> stringCodes = new HashMap<String, Integer>();
+
+        byte[] bytePool = new byte[0];
+        int bytePoolSize;
+        int unusedBytes;
+
+        float[] floatPool = new float[0];
+        int floatPoolSize;
+        int unusedFloats;
+
+
+        Object column( int c, byte kind ) {
+            if ( c == kinds.length )
+                addColumn( kind );
+            else if ( c > kinds.length )
+                throw new IllegalStateException( "column " + c + " read or written before column " + kinds.length );
+            if ( kinds[c] != kind )
+                throw new IllegalStateException( "column " + c + " holds " + KIND_NAMES[kinds[c]] + " values, not " + KIND_NAMES[kind] );
+            return columns[c];
+        }
+
+        private void addColumn( byte kind ) {
+            byte[] newKinds = new byte[kinds.length + 1];
+            System.arraycopy( kinds, 0, newKinds, 0, kinds.length );
+            newKinds[kinds.length] = kind;
+
+            Object[] newColumns = new Object[columns.length + 1];
+            System.arraycopy( columns, 0, newColumns, 0, columns.length );
+            newColumns[columns.length] = newArray( kind, capacity );
+
+            kinds = newKinds;
+            columns = newColumns;
+        }
+
+        private static Object newArray( byte kind, int length ) {
+            switch ( kind ) {
+                case BYTE:   return new byte[length];
+                case SHORT:  return new short[length];
+                case INT:
+                case STRING: return new int[length];
+                case FLOAT:  return new float[length];
+                default:     return new long[length];
+            }
+        }
+
+        private static Object resize( Object array, byte kind, int length ) {
+            Object newArray = newArray( kind, length );
+            System.arraycopy( array, 0, newArray, 0, Math.min( java.lang.reflect.Array.getLength( array ), length ) );
+            return newArray;
+        }
+
+
+        /**
+         * @return the first of n new rows added to the end of the table.
+         */
+        int appendRows( int n ) {
+            if ( rowCount + n > capacity ) {
+                int newCapacity = Math.max( rowCount + n, capacity + capacity/2 + 16 );
+                for ( int c=0; c < columns.length; c++ )
+                    columns[c] = resize( columns[c], kinds[c], newCapacity );
+                capacity = newCapacity;
+            }
+            int start = rowCount;
+            rowCount += n;
+            return start;
+        }
+
+
+        /**
+         * Mark n rows starting at start as unused.
+         */
+        void releaseRows( int start, int n ) {
+            if ( n <= 0 )
+                return;
+            unusedRows += n;
+            for ( int c=0; c < columns.length; c++ ) {
+                if ( kinds[c] == BYTES || kinds[c] == FLOATS ) {
+                    long[] entries = (long[])columns[c];
+                    for ( int r=start; r < start + n; r++ ) {
+                        if ( entries[r] != 0 ) {
+                            if ( kinds[c] == BYTES )
+                                unusedBytes += length( entries[r] );
+                            else
+                                unusedFloats += length( entries[r] );
+                            entries[r] = 0;
+                        }
+                    }
+                }
+            }
+        }
+
+
+        int getStringCode( String value ) {
+            if ( value == null )
+                return -1;
+            if ( stringCodes == null ) {
+                stringCodes = new HashMap<String, Integer>();
+                for ( int i=0; i < strings.size(); i++ )
+                    stringCodes.put( strings.get( i ), i );
+            }
+            Integer code = stringCodes.get( value );
+            if ( code == null ) {
+                code = strings.size();
+                strings.add( value );
+                stringCodes.put( value, code );
+            }
+            return code;
+        }
+
+        String getString( int code ) {
+            return code < 0 ? null : strings.get( code );
+        }
+
+
+        static int offset( long entry ) {
+            return (int)(entry >>> 32);
+        }
+
+        static int length( long entry ) {
+            return (int)(entry & 0xFFFFFFFFL) - 1;
+        }
+
+        private static long entry( int offset, int length ) {
+            return ((long)offset << 32) | (length + 1);
+        }
+
+
+        /**
+         * Store length values from values[from], replacing the array for entry oldEntry.
+         * @return the entry for the stored values.
+         */
+        long storeBytes( long oldEntry, byte[] values, int from, int length ) {
+            if ( oldEntry != 0 ) {
+                if ( values != null && length( oldEntry ) == length ) {
+                    System.arraycopy( values, from, bytePool, offset( oldEntry ), length );
+                    return oldEntry;
+                }
+                unusedBytes += length( oldEntry );
+            }
+            if ( values == null )
+                return 0;
+
+            if ( bytePoolSize + length > bytePool.length ) {
+                byte[] newPool = new byte[(int)Math.min( Integer.MAX_VALUE - 8, Math.max( (long)bytePoolSize + length, bytePool.length + (long)bytePool.length/2 + 1024 ) )];
+                System.arraycopy( bytePool, 0, newPool, 0, bytePoolSize );
+                bytePool = newPool;
+            }
+            System.arraycopy( values, from, bytePool, bytePoolSize, length );
+            long newEntry = entry( bytePoolSize, length );
+            bytePoolSize += length;
+            return newEntry;
+        }
+
+        long storeFloats( long oldEntry, float[] values, int from, int length ) {
+            if ( oldEntry != 0 ) {
+                if ( values != null && length( oldEntry ) == length ) {
+                    System.arraycopy( values, from, floatPool, offset( oldEntry ), length );
+                    return oldEntry;
+                }
+                unusedFloats += length( oldEntry );
+            }
+            if ( values == null )
+                return 0;
+
+            if ( floatPoolSize + length > floatPool.length ) {
+                float[] newPool = new float[(int)Math.min( Integer.MAX_VALUE - 8, Math.max( (long)floatPoolSize + length, floatPool.length + (long)floatPool.length/2 + 256 ) )];
+                System.arraycopy( floatPool, 0, newPool, 0, floatPoolSize );
+                floatPool = newPool;
+            }
+            System.arraycopy( values, from, floatPool, floatPoolSize, length );
+            long newEntry = entry( floatPoolSize, length );
+            floatPoolSize += length;
+            return newEntry;
+        }
+
+
+        /**
+         * Copy n rows of src starting at srcStart over the rows of this table starting at dstStart.
+         */
+        void copyRows( ColumnTable src, int srcStart, int n, int dstStart ) {
+            if ( n <= 0 )
+                return;
+
+            while ( kinds.length < src.kinds.length )
+                addColumn( src.kinds[kinds.length] );
+            if ( kinds.length != src.kinds.length )
+                throw new IllegalStateException( "can't copy rows from a table with " + src.kinds.length + " columns to one with " + kinds.length );
+
+            for ( int c=0; c < kinds.length; c++ ) {
+                if ( kinds[c] != src.kinds[c] )
+                    throw new IllegalStateException( "column " + c + " holds " + KIND_NAMES[kinds[c]] + " values, not " + KIND_NAMES[src.kinds[c]] );
+
+                switch ( kinds[c] ) {
+                    case STRING: {
+                        int[] from = (int[])src.columns[c];
+                        int[] to = (int[])columns[c];
+                        for ( int r=0; r < n; r++ )
+                            to[dstStart + r] = getStringCode( src.getString( from[srcStart + r] ) );
+                        break;
+                    }
+                    case BYTES: {
+                        long[] from = (long[])src.columns[c];
+                        long[] to = (long[])columns[c];
+                        for ( int r=0; r < n; r++ ) {
+                            long e = from[srcStart + r];
+                            to[dstStart + r] = storeBytes( to[dstStart + r], e == 0 ? null : src.bytePool, offset( e ), length( e ) );
+                        }
+                        break;
+                    }
+                    case FLOATS: {
+                        long[] from = (long[])src.columns[c];
+                        long[] to = (long[])columns[c];
+                        for ( int r=0; r < n; r++ ) {
+                            long e = from[srcStart + r];
+                            to[dstStart + r] = storeFloats( to[dstStart + r], e == 0 ? null : src.floatPool, offset( e ), length( e ) );
+                        }
+                        break;
+                    }
+                    default:
+                        System.arraycopy( src.columns[c], srcStart, columns[c], dstStart, n );
+                }
+            }
+        }
+
+
+        boolean needsCompaction() {
+            return unusedRows > rowCount / 2 || unusedBytes > bytePoolSize / 2 || unusedFloats > floatPoolSize / 2;
+        }
+
+
+        /**
+         * @return a table holding only the used rows, with start updated to their new positions.
+         */
+        ColumnTable compact( int[] start, int[] count ) {
+            ColumnTable table = new ColumnTable();
+            table.appendRows( rowCount - unusedRows );
+            table.rowCount = 0;
+            for ( int i=0; i < start.length; i++ ) {
+                int newStart = table.appendRows( count[i] );
+                table.copyRows( this, start[i], count[i], newStart );
+                start[i] = newStart;
+            }
+            return table;
+        }
+
+
+        void trimToSize() {
+            for ( int c=0; c < columns.length; c++ )
+                columns[c] = resize( columns[c], kinds[c], rowCount );
+            capacity = rowCount;
+
+            byte[] newBytePool = new byte[bytePoolSize];
+            System.arraycopy( bytePool, 0, newBytePool, 0, bytePoolSize );
+            bytePool = newBytePool;
+
+            float[] newFloatPool = new float[floatPoolSize];
+            System.arraycopy( floatPool, 0, newFloatPool, 0, floatPoolSize );
+            floatPool = newFloatPool;
+        }
+
+
+        long bytes() {
+            long bytes = bytePool.length + 4L*floatPool.length;
+            for ( int c=0; c < kinds.length; c++ ) {
+                switch ( kinds[c] ) {
+                    case BYTE:  bytes += capacity;      break;
+                    case SHORT: bytes += 2L*capacity;   break;
+                    case INT:
+                    case STRING:
+                    case FLOAT: bytes += 4L*capacity;   break;
+                    default:    bytes += 8L*capacity;
+                }
+            }
+            return bytes;
+        }
+
+    }
+
+}
@@ -5,6 +5,7 @@ import com.pb.common.datafile.DataReader;
 import com.pb.common.datafile.DataWriter;
 import com.pb.common.datafile.DiskObjectArray;
 import com.pb.common.datafile.OLD_CSVFileReader;
+import com.pb.common.datafile.ParallelCSVFileReader;
 import com.pb.common.datafile.TableDataSet;
 import com.pb.common.util.IndexSort;
 import com.pb.common.util.ObjectUtil;
@@ -39,6 +40,9 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
     public static final String NUMBER_OF_HH_OBJECTS_HELD_IN_MEMORY_KEY = "Number.InMemory.HHs";
 
     public static final String RANDOM_SEED_NAME = "Model.Random.Seed";
+    public static final String RANDOM_COUNTER_BASED_NAME = "Model.Random.CounterBased";
+
+    public static final String CSV_READER_THREADS_NAME = "CSV.Reader.Threads";
 
     public static final String OUTPUT_HH_DATA_FILE_TARGET = "outputHouseholdData.file";
     public static final String OUTPUT_PERSON_DATA_FILE_TARGET = "outputPersonData.file";
@@ -101,6 +105,8 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
 
     protected static final String MAX_HHS_PER_DISK_OBJECT_FILE_KEY = "Households.disk.object.maximum.hhs.per.file";
     protected static final String NUMBER_OF_DISK_OBJECT_FILES_KEY =  "Households.disk.object.number.of.files";
+
+    public static final String HH_COLUMN_STORE_KEY = "Households.column.store";
     
     public static final String PROPERTIES_HOUSEHOLD_TRACE_LIST = "Debug.Trace.HouseholdIdList";
 
@@ -123,10 +129,14 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
     protected HashSet<Integer> householdTraceSet;
 
     protected Household[] fullHhArray;
+    protected HouseholdColumnStore hhColumnStore = null;
+    protected boolean useHhColumnStore = false;
+    protected HouseholdPacketScheduler packetScheduler = null;
     protected int[] hhIndexArray;
     protected int numberOfHouseholds;
 
     protected int inputRandomSeed;
+    protected boolean counterBasedRandom;
     protected int numPeriods;
     protected int firstPeriod;
 
@@ -210,6 +220,8 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
         
         // the seed read from the properties file controls seeding the Household object random number generator objects.
         inputRandomSeed = Integer.parseInt( propertyMap.get( HouseholdDataManager.RANDOM_SEED_NAME ) );
+        String counterBasedString = propertyMap.get( HouseholdDataManager.RANDOM_COUNTER_BASED_NAME );
+        counterBasedRandom = counterBasedString != null && counterBasedString.trim().equalsIgnoreCase( "true" );
 
         // map synthetic population table data to objects to be used by CT-RAMP
     	mapTablesToHouseholdObjects();
@@ -219,6 +231,13 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
         numberOfHouseholds = fullHhArray.length;
         logPersonSummary( fullHhArray );            
 
+        // keep the households in primitive columns rather than as objects
+        if ( useHhColumnStore ) {
+            hhColumnStore = new HouseholdColumnStore( fullHhArray );
+            fullHhArray = null;
+            logger.info( hhColumnStore.getStatistics() );
+        }
+
         setTraceHouseholdSet();
 
     }
@@ -271,6 +290,9 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
         propertyValue = propertyMap.get( NUMBER_OF_HH_OBJECTS_HELD_IN_MEMORY_KEY );
         if ( propertyValue != null )
             NUMBER_OF_IN_MEMORY_HHS = Integer.parseInt( propertyValue );
+
+        propertyValue = propertyMap.get( HH_COLUMN_STORE_KEY );
+        useHhColumnStore = propertyValue != null && Boolean.parseBoolean( propertyValue.trim() );
         
         
     }
@@ -1444,7 +1466,10 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
 
 
     public void setHhArray(Household[] hhArray) {
-        fullHhArray = hhArray;
+        if ( hhColumnStore != null )
+            hhColumnStore = new HouseholdColumnStore( hhArray );
+        else
+            fullHhArray = hhArray;
     }
     
     
@@ -1452,7 +1477,10 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
         //long startTime = System.currentTimeMillis();
         //logger.info( String.format( "start setHhArray for startIndex=%d, startTime=%d.", startIndex, startTime ) );
 
-        if ( hhDiskObjectArrayList != null ) {
+        if ( hhColumnStore != null ) {
+            hhColumnStore.setHouseholds( tempHhs, startIndex );
+        }
+        else if ( hhDiskObjectArrayList != null ) {
             putHhArrayIntoDiskObject( tempHhs, startIndex );
         }
         else {
@@ -1466,7 +1494,10 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
     }
 
     public void setHhArrayElement( Household tempHh, int index ) {
-        if ( hhDiskObjectArrayList != null ) {
+        if ( hhColumnStore != null ) {
+            hhColumnStore.setHousehold( tempHh, index );
+        }
+        else if ( hhDiskObjectArrayList != null ) {
             putHhArrayElementIntoDiskObject( tempHh, index );
         }
         else {
@@ -1480,6 +1511,8 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
      * @return hhs
      */
     public Household[] getHhArray() {
+        if ( hhColumnStore != null )
+            return hhColumnStore.getHouseholds( 0, numberOfHouseholds - 1 );
         return fullHhArray;
     }
     
@@ -1489,7 +1522,10 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
         //logger.info( String.format( "start getHhArray for first=%d, last=%d, startTime=%d.", first, last, startTime ) );
         
         Household[] tempHhs = null;
-        if ( hhDiskObjectArrayList != null ) {
+        if ( hhColumnStore != null ) {
+            tempHhs = hhColumnStore.getHouseholds( first, last );
+        }
+        else if ( hhDiskObjectArrayList != null ) {
             tempHhs = getHhArrayFromDiskObject( first, last );
         }
         else {
@@ -1507,7 +1543,10 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
 
     
     public Household getHhArrayElement( int index ) {
-        if ( hhDiskObjectArrayList != null ) {
+        if ( hhColumnStore != null ) {
+            return hhColumnStore.getHousehold( index );
+        }
+        else if ( hhDiskObjectArrayList != null ) {
             return getHhArrayElementFromDiskObject( index );
         }
         else {
@@ -1516,6 +1555,64 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
     }
     
     
+    /**
+     * @return true if the households are held in a HouseholdColumnStore.
+     */
+    public boolean isHhColumnStore() {
+        return hhColumnStore != null;
+    }
+
+
+    /**
+     * return the households with index first through last as a HouseholdColumnStore, which is
+     * sent between JVMs as a few primitive arrays rather than as a graph of objects.
+     */
+    public HouseholdColumnStore getHhColumnStore( int first, int last ) {
+        if ( hhColumnStore != null )
+            return hhColumnStore.getHouseholdColumns( first, last );
+        return new HouseholdColumnStore( getHhArray( first, last ) );
+    }
+
+
+    public void setHhColumnStore( HouseholdColumnStore hhs, int startIndex ) {
+        if ( hhColumnStore != null )
+            hhColumnStore.setHouseholdColumns( hhs, startIndex );
+        else
+            setHhArray( hhs.getHouseholds( 0, hhs.getNumHouseholds() - 1 ), startIndex );
+    }
+
+
+    /**
+     * Start handing out packets of all households to distributed tasks through getNextHouseholdPacket().
+     * @see HouseholdPacketScheduler
+     */
+    public void setupHouseholdPackets( int minPacketSize, int maxPacketSize, double targetPacketSeconds ) {
+        packetScheduler = new HouseholdPacketScheduler( 0, getNumHouseholds() - 1, minPacketSize, maxPacketSize, targetPacketSeconds );
+    }
+
+
+    public int[] getNextHouseholdPacket( String nodeName, String workerName, int completedHouseholds, long completedNanos ) {
+        return packetScheduler.getNextPacket( nodeName, workerName, completedHouseholds, completedNanos );
+    }
+
+
+    public void returnHouseholdPacket( String workerName ) {
+        packetScheduler.returnPacket( workerName );
+    }
+
+
+    public int requeueIncompleteHouseholdPackets() {
+        return packetScheduler.requeueIncompletePackets();
+    }
+
+
+    public String getHouseholdPacketStatistics() {
+        if ( packetScheduler == null )
+            return "household packets: none scheduled";
+        return packetScheduler.getStatistics();
+    }
+
+
     public int getArrayIndex( int hhId ){
         int i = hhIndexArray[hhId];
         return i;
@@ -1549,9 +1646,7 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
 
         try{
             logger.info( "reading popsyn household data file." );
-            OLD_CSVFileReader reader = new OLD_CSVFileReader();
-            reader.setDelimSet( "," + reader.getDelimSet() );
-            hhTable = reader.readFile(new File( fileName ));
+            hhTable = readPopulationFile( fileName );
         }
         catch(Exception e){
             logger.fatal( String.format( "Exception occurred reading synthetic household data file: %s into TableDataSet object.", fileName ) );
@@ -1561,6 +1656,28 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
     }
 
     
+    /**
+     * Read a synthetic population file with the parallel reader if CSV.Reader.Threads is more than 0, or
+     * otherwise with the OLD_CSVFileReader.
+     */
+    private TableDataSet readPopulationFile( String fileName ) throws IOException {
+
+        String threadsString = propertyMap.get( CSV_READER_THREADS_NAME );
+        int threads = threadsString == null || threadsString.trim().length() == 0 ? 0 : Integer.parseInt( threadsString.trim() );
+
+        if ( threads > 0 ) {
+            ParallelCSVFileReader reader = new ParallelCSVFileReader();
+            reader.setDelimSet( "," + reader.getDelimSet() );
+            reader.setThreads( threads );
+            return reader.readFile(new File( fileName ));
+        }
+
+        OLD_CSVFileReader reader = new OLD_CSVFileReader();
+        reader.setDelimSet( "," + reader.getDelimSet() );
+        return reader.readFile(new File( fileName ));
+    }
+
+    
     private void readPersonData( String inputPersonFileName ) {
         
         // construct input person file name from properties file values
@@ -1568,9 +1685,7 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
 
         try{
             logger.info( "reading popsyn person data file." );
-            OLD_CSVFileReader reader = new OLD_CSVFileReader();
-            reader.setDelimSet( "," + reader.getDelimSet() );
-            personTable = reader.readFile(new File( fileName ));
+            personTable = readPopulationFile( fileName );
         }
         catch(Exception e){
             logger.fatal( String.format( "Exception occurred reading synthetic person data file: %s into TableDataSet object.", fileName ) );
@@ -1835,19 +1950,7 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
 
     public double[][][] getMandatoryToursByDestZoneSubZone() {
 
-        // dimension the array
-        int numZones = tazDataManager.getNumberOfZones();
-        int numWalkSubzones = tazDataManager.getNumberOfSubZones();
-
-        // get correspondence between mandatory purpose names and their array indices
-        String[] mandatoryPurposes = modelStructure.getDcModelPurposeList( ModelStructure.MANDATORY_CATEGORY );
-        HashMap<String,Integer> tourPurposeIndexMap = new HashMap<String,Integer>();
-        for ( int p=0; p < mandatoryPurposes.length; p++ )
-            tourPurposeIndexMap.put( mandatoryPurposes[p], p );
-                
-        double[][][] mandatoryTours = new double[mandatoryPurposes.length][numZones+1][numWalkSubzones];
-
-        
+        double[][][] mandatoryTours = createMandatoryToursByDestZoneSubZone( tazDataManager, modelStructure );
 
         int startRange = 0;
         int endRange = 0;
@@ -1858,63 +1961,8 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
                 endRange = getNumHouseholds();
             
             Household[] tempHhs = getHhArray( startRange, endRange-1 );
-            // hhs is dimesioned to number of households + 1.
-            int count = 0;
-            for ( int r=0; r < tempHhs.length; r++ ) {
-
-                Person[] persons = tempHhs[r].getPersons();
-    
-                for ( int p=1; p < persons.length; p++) {
-    
-                    Person person = persons[p];
-                	double expansionFactor = 1.0/person.getSampleRate();
-
-                    String purposeName = "";
-                    int purposeIndex = -1;
-                    int destZone = -1;
-                    int destSubZone = -1;
-                    try {
-    
-                        if ( person.getPersonIsWorker() == 1 && person.getPersonWorkLocationZone() > 0 ) {
-                            
-                            purposeIndex = person.getWorkLocationPurposeIndex();
-                            destZone = person.getPersonWorkLocationZone();
-                            destSubZone = person.getPersonWorkLocationSubZone();
-                            mandatoryTours[purposeIndex][destZone][destSubZone]+=expansionFactor;
-    
-                        }
-    
-                        if ( person.getPersonIsPreschoolChild() == 1 || person.getPersonIsStudentDriving() == 1 || person.getPersonIsStudentNonDriving() == 1 && person.getPersonSchoolLocationZone() > 0 ) {
-                            
-                            purposeIndex = person.getSchoolLocationPurposeIndex();
-                            destZone = person.getPersonSchoolLocationZone();
-                            destSubZone = person.getPersonSchoolLocationSubZone();
-                            mandatoryTours[purposeIndex][destZone][destSubZone]+=expansionFactor;
-    
-                        }
-                        else if ( person.getPersonIsUniversityStudent() == 1 && person.getPersonSchoolLocationZone() > 0 ) {
-                            
-                            purposeIndex = person.getUniversityLocationPurposeIndex();
-                            destZone = person.getPersonSchoolLocationZone();
-                            destSubZone = person.getPersonSchoolLocationSubZone();
-                            mandatoryTours[purposeIndex][destZone][destSubZone]+=expansionFactor;
-    
-                        }
-    
-                    }
-                    catch ( RuntimeException e ) {
-                        logger.error ( String.format("exception caught counting number of mandatory tour destinations for purpose: %s, for household table record r=%d, personNum=%d.", purposeName, r, person.getPersonNum() ) );
-                        logger.error ( String.format("     r = %d.", r ) );
-                        logger.error ( String.format("     household id = %d.", tempHhs[r] ) );
-                        logger.error ( String.format("     personNum = %d.", person.getPersonNum() ) );
-                        logger.error ( String.format("     purpose name = %s, purposeIndex = %d.", purposeName, purposeIndex ) );
-                        logger.error ( String.format("     destZone = %d, destSubZone = %d.", destZone, destSubZone ) );
-                        logger.error ( String.format("     startRange = %d, endRange = %d, count = %d.", startRange, endRange, count ) );
-                    }
-    
-                }
-            
-            } // r (households)
+            for ( int r=0; r < tempHhs.length; r++ )
+                addMandatoryToursByDestZoneSubZone( tempHhs[r], mandatoryTours );
             
             startRange += NUMBER_OF_IN_MEMORY_HHS;
             
@@ -1925,6 +1973,74 @@ public abstract class HouseholdDataManager implements HouseholdDataManagerIf, Se
     }
 
 
+    /**
+     * @return an array dimensioned to hold the number of mandatory tours by purpose, destination zone and subzone.
+     */
+    public static double[][][] createMandatoryToursByDestZoneSubZone( TazDataIf tazDataManager, ModelStructure modelStructure ) {
+        int numZones = tazDataManager.getNumberOfZones();
+        int numWalkSubzones = tazDataManager.getNumberOfSubZones();
+        String[] mandatoryPurposes = modelStructure.getDcModelPurposeList( ModelStructure.MANDATORY_CATEGORY );
+        return new double[mandatoryPurposes.length][numZones+1][numWalkSubzones];
+    }
+
+
+    /**
+     * Add the expanded work and school locations of the persons in a household to the number of mandatory tours by
+     * purpose, destination zone and subzone.
+     */
+    public static void addMandatoryToursByDestZoneSubZone( Household hh, double[][][] mandatoryTours ) {
+
+        Person[] persons = hh.getPersons();
+
+        for ( int p=1; p < persons.length; p++) {
+
+            Person person = persons[p];
+            double expansionFactor = 1.0/person.getSampleRate();
+
+            int purposeIndex = -1;
+            int destZone = -1;
+            int destSubZone = -1;
+            try {
+
+                if ( person.getPersonIsWorker() == 1 && person.getPersonWorkLocationZone() > 0 ) {
+                    
+                    purposeIndex = person.getWorkLocationPurposeIndex();
+                    destZone = person.getPersonWorkLocationZone();
+                    destSubZone = person.getPersonWorkLocationSubZone();
+                    mandatoryTours[purposeIndex][destZone][destSubZone]+=expansionFactor;
+
+                }
+
+                if ( person.getPersonIsPreschoolChild() == 1 || person.getPersonIsStudentDriving() == 1 || person.getPersonIsStudentNonDriving() == 1 && person.getPersonSchoolLocationZone() > 0 ) {
+                    
+                    purposeIndex = person.getSchoolLocationPurposeIndex();
+                    destZone = person.getPersonSchoolLocationZone();
+                    destSubZone = person.getPersonSchoolLocationSubZone();
+                    mandatoryTours[purposeIndex][destZone][destSubZone]+=expansionFactor;
+
+                }
+                else if ( person.getPersonIsUniversityStudent() == 1 && person.getPersonSchoolLocationZone() > 0 ) {
+                    
+                    purposeIndex = person.getUniversityLocationPurposeIndex();
+                    destZone = person.getPersonSchoolLocationZone();
+                    destSubZone = person.getPersonSchoolLocationSubZone();
+                    mandatoryTours[purposeIndex][destZone][destSubZone]+=expansionFactor;
+
+                }
+
+            }
+            catch ( RuntimeException e ) {
+                Logger logger = Logger.getLogger(HouseholdDataManager.class);
+                logger.error ( String.format("exception caught counting number of mandatory tour destinations for household id=%d, personNum=%d.", hh.getHhId(), person.getPersonNum() ) );
+                logger.error ( String.format("     purposeIndex = %d.", purposeIndex ) );
+                logger.error ( String.format("     destZone = %d, destSubZone = %d.", destZone, destSubZone ) );
+            }
+
+        }
+
+    }
+
+
 
     public int[][] getJointToursByHomeZoneSubZone( String purposeString ) {
 
@@ -147,6 +147,44 @@ public interface HouseholdDataManagerIf {
     public Household[] getHhArray(int firstHhIndex, int lastHhIndex);
 
 
+    /**
+     * @return true if the households are held in a HouseholdColumnStore, so getHhColumnStore() and
+     * setHhColumnStore() copy primitive columns rather than creating Household objects.
+     */
+    public boolean isHhColumnStore();
+
+    /**
+     * return the households with index firstHhIndex through lastHhIndex as a HouseholdColumnStore.
+     */
+    public HouseholdColumnStore getHhColumnStore(int firstHhIndex, int lastHhIndex);
+    public void setHhColumnStore( HouseholdColumnStore hhs, int startIndex );
+
+
+    /**
+     * start handing out packets of household indices to distributed tasks, sized adaptively by HouseholdPacketScheduler.
+     */
+    public void setupHouseholdPackets( int minPacketSize, int maxPacketSize, double targetPacketSeconds );
+
+    /**
+     * return the first and last index of the next packet of households for a task that finished completedHouseholds
+     * households in completedNanos, or null if none are left.
+     */
+    public int[] getNextHouseholdPacket( String nodeName, String workerName, int completedHouseholds, long completedNanos );
+
+    /**
+     * put the packet of households a task is working on back in the queue, when the task fails before storing them.
+     */
+    public void returnHouseholdPacket( String workerName );
+
+    /**
+     * put the packets of households still held by tasks back in the queue after all the tasks have ended, and
+     * return the number of households not completed.
+     */
+    public int requeueIncompleteHouseholdPackets();
+
+    public String getHouseholdPacketStatistics();
+
+
     /**
      * return the number of household objects read from the synthetic population.
      * @return
@@ -14,6 +14,9 @@ public class HouseholdDataManagerRmi implements HouseholdDataManagerIf, Serializ
     UtilRmi remote;
     String connectString;
 
+    // households are sent as HouseholdColumnStore objects if the server holds them in one - null until the server is asked
+    private transient Boolean hhColumnStore;
+
 
 
     public HouseholdDataManagerRmi( String hostname, int port, String className ){
@@ -347,6 +350,10 @@ public class HouseholdDataManagerRmi implements HouseholdDataManagerIf, Serializ
     }
     
     public Household[] getHhArray(int first, int last) {
+        if ( isHhColumnStore() ) {
+            HouseholdColumnStore hhs = getHhColumnStore( first, last );
+            return hhs.getHouseholds( 0, hhs.getNumHouseholds() - 1 );
+        }
         Object[] objArray = { first, last };
         return (Household[])remote.method( "getHhArray", objArray);
     }
@@ -357,9 +364,56 @@ public class HouseholdDataManagerRmi implements HouseholdDataManagerIf, Serializ
     }
 
     public void setHhArray( Household[] tempHhs, int startIndex )  {
+        if ( isHhColumnStore() ) {
+            setHhColumnStore( new HouseholdColumnStore( tempHhs ), startIndex );
+            return;
+        }
         Object[] objArray = { tempHhs, startIndex };
         remote.method( "setHhArray", objArray);
     }
+
+    public boolean isHhColumnStore() {
+        if ( hhColumnStore == null ) {
+            Object[] objArray = {};
+            hhColumnStore = (Boolean)remote.method( "isHhColumnStore", objArray);
+        }
+        return hhColumnStore;
+    }
+
+    public HouseholdColumnStore getHhColumnStore( int first, int last ) {
+        Object[] objArray = { first, last };
+        return (HouseholdColumnStore)remote.method( "getHhColumnStore", objArray);
+    }
+
+    public void setHhColumnStore( HouseholdColumnStore hhs, int startIndex ) {
+        Object[] objArray = { hhs, startIndex };
+        remote.method( "setHhColumnStore", objArray);
+    }
+
+    public void setupHouseholdPackets( int minPacketSize, int maxPacketSize, double targetPacketSeconds ) {
+        Object[] objArray = { minPacketSize, maxPacketSize, targetPacketSeconds };
+        remote.method( "setupHouseholdPackets", objArray);
+    }
+
+    public int[] getNextHouseholdPacket( String nodeName, String workerName, int completedHouseholds, long completedNanos ) {
+        Object[] objArray = { nodeName, workerName, completedHouseholds, completedNanos };
+        return (int[])remote.method( "getNextHouseholdPacket", objArray);
+    }
+
+    public void returnHouseholdPacket( String workerName ) {
+        Object[] objArray = { workerName };
+        remote.method( "returnHouseholdPacket", objArray);
+    }
+
+    public int requeueIncompleteHouseholdPackets() {
+        Object[] objArray = {};
+        return (Integer)remote.method( "requeueIncompleteHouseholdPackets", objArray);
+    }
+
+    public String getHouseholdPacketStatistics() {
+        Object[] objArray = {};
+        return (String)remote.method( "getHouseholdPacketStatistics", objArray);
+    }
     
     
     /**
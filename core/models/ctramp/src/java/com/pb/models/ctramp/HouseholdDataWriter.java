@@ -2,13 +2,21 @@ package com.pb.models.ctramp;
 
 import com.pb.common.calculator.VariableTable;
 import com.pb.common.newmodel.ChoiceModelApplication;
-import com.pb.common.util.ObjectUtil;
 import com.pb.common.util.ResourceUtil;
 import com.pb.models.ctramp.jppf.CtrampApplication;
 import com.pb.models.ctramp.jppf.StopLocationModeChoiceModel;
 import com.pb.models.ctramp.sqlite.ConnectionHelper;
 
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.io.File;
 import java.io.IOException;
@@ -44,8 +52,26 @@ public class HouseholdDataWriter {
     private static final String PROPERTIES_INDIV_TRIP_TABLE = "Results.IndivTripTable";
     private static final String PROPERTIES_JOINT_TRIP_TABLE = "Results.JointTripTable";
 
+    private static final String PROPERTIES_WRITER_THREADS        = "Results.Writer.Threads";
+    private static final String PROPERTIES_WRITE_COLUMNAR_FILES  = "Results.Writer.ColumnarFiles";
+
     private static final int NUM_WRITE_PACKETS = 2000;
 
+    // output tables written by the pipelined file writer, in the order of the FileDataWriter csv writers
+    private static final int HOUSEHOLD_TABLE = 0;
+    private static final int PERSON_TABLE = 1;
+    private static final int INDIV_TOUR_TABLE = 2;
+    private static final int JOINT_TOUR_TABLE = 3;
+    private static final int INDIV_TRIP_TABLE = 4;
+    private static final int JOINT_TRIP_TABLE = 5;
+    private static final int TRIP_TABLE = 6;
+    private static final int NUM_TABLES = 7;
+    // the trip table rows are preformatted strings, so it has no columnar file
+    private static final int NUM_COLUMNAR_TABLES = 6;
+
+    // number of household ranges that may be formatted or waiting to be written for each formatting thread
+    private static final int RANGE_BUFFERS_PER_THREAD = 2;
+
     private final String intFormat = "%d";
     private final String floatFormat = "%f";
     private final String doubleFormat = "%f";
@@ -54,6 +80,10 @@ public class HouseholdDataWriter {
     private String stringFormat = fileStringFormat;
 
     private boolean saveUtilsProbsFlag = false;
+
+    // 0 writes the files from the calling thread, otherwise the number of threads formatting household ranges
+    private int writerThreads = 0;
+    private boolean writeColumnarFiles = false;
     
     private ResourceBundle resourceBundle;
     private ModelStructure modelStructure;
@@ -62,6 +92,9 @@ public class HouseholdDataWriter {
     private TravelTimeModel travelTimeModel;
     private CtrampDmuFactoryIf dmuFactory;
 
+    // id of the first household a formatting thread of the pipelined writer failed on, 0 if none
+    private final AtomicInteger failedHhId = new AtomicInteger();
+
     private Map<String,Map<Integer,String>> tourModeAltLabels; //purpose -> mode id -> mode name
     private Map<Integer,Map<Integer,String>> tripModeAltLabels; //trip mode choice purpose index -> mode id -> mode name;
 
@@ -83,6 +116,13 @@ public class HouseholdDataWriter {
                 saveUtilsProbsFlag = true;
         }
 
+        writerThreads = Math.max( 0, ResourceUtil.getIntegerProperty( resourceBundle, PROPERTIES_WRITER_THREADS, 0 ) );
+        writeColumnarFiles = ResourceUtil.getBooleanProperty( resourceBundle, PROPERTIES_WRITE_COLUMNAR_FILES, false );
+
+        // the columnar files are written by the pipelined writer
+        if ( writeColumnarFiles && writerThreads == 0 )
+            writerThreads = 1;
+
     }
 
     //NOTE - this method should not be called simultaneously with the file one one as the string format is changed
@@ -104,8 +144,6 @@ public class HouseholdDataWriter {
 
     private void writeData(HouseholdDataManagerIf householdDataManager, DataWriter writer) {
         int hhid=0;
-        int persNum = 0;
-        int tourid = 0;
 
         boolean fileWriter = writer instanceof FileDataWriter; //only write trips if writing to file
 
@@ -115,67 +153,39 @@ public class HouseholdDataWriter {
         }
         
         if (writer.getWriteTravelTimesFileFlag() || writer.getWriteTripFileFlag()) {
-            travelTimeModel = new TravelTimeModel(ResourceUtil.changeResourceBundleIntoHashMap(resourceBundle));
+            int[] tazs = tazDataManager.getIndexToZoneArray();
+            travelTimeModel = new TravelTimeModel(ResourceUtil.changeResourceBundleIntoHashMap(resourceBundle),Arrays.copyOfRange(tazs,1,tazs.length));
         }
 
         try {
 
-            ArrayList<int[]> startEndTaskIndicesList = getWriteHouseholdRanges( householdDataManager.getNumHouseholds() );
+            if ( fileWriter && writerThreads > 0 ) {
+                failedHhId.set( 0 );
+                try {
+                    writeHouseholdsPipelined( householdDataManager, (FileDataWriter)writer );
+                }
+                finally {
+                    hhid = failedHhId.get();
+                }
+            }
+            else {
+                ArrayList<int[]> startEndTaskIndicesList = getWriteHouseholdRanges( householdDataManager.getNumHouseholds() );
 
-            long maxSize = 0;
-            for ( int[] startEndIndices : startEndTaskIndicesList ) {
-            
-                int startIndex = startEndIndices[0];
-                int endIndex = startEndIndices[1];
+                for ( int[] startEndIndices : startEndTaskIndicesList ) {
 
-            
-                // get the array of households
-                Household[] householdArray = householdDataManager.getHhArray( startIndex, endIndex );
-            
-                for (Household hh : householdArray) {
-                    if (hh == null) continue;
-                    hhid = hh.getHhId();
-                    
-                    long size = 0;
-                    try{
-                        size = ObjectUtil.checkObjectSize( hh );                        
-                    }
-                    catch ( Exception e ){
-                    }
-                    if ( size > maxSize )
-                        maxSize = size;
-
-                    
-                    writer.writeHouseholdData(formHouseholdDataEntry(hh));
-                    for (Person p : hh.getPersons()) {
-                        if (p == null) continue;
-                        persNum = p.getPersonNum(); 
-                        
-                        writer.writePersonData(formPersonDataEntry(p));
-                        for (Tour t : p.getListOfWorkTours())
-                            writeIndivTourData(t,writer);
-                        for (Tour t : p.getListOfSchoolTours())
-                            writeIndivTourData(t,writer);
-                        for (Tour t : p.getListOfIndividualNonMandatoryTours())
-                            writeIndivTourData(t,writer);
-                        for (Tour t : p.getListOfAtWorkSubtours())
-                            writeIndivTourData(t,writer);
-                    }
-                    Tour[] jointTours = hh.getJointTourArray();
-                    if (jointTours != null) {
-                        for (Tour t : jointTours)  {
-                            if (t == null) continue;
-                            writeJointTourData(t,writer);
-                        }
-                    }
+                    int startIndex = startEndIndices[0];
+                    int endIndex = startEndIndices[1];
+
+                    // get the array of households
+                    Household[] householdArray = householdDataManager.getHhArray( startIndex, endIndex );
 
-                    if (fileWriter && writer.getWriteTripFileFlag()) {
-                        writer.writeTripData(createVizTripRecords(hh));
+                    for (Household hh : householdArray) {
+                        if (hh == null) continue;
+                        hhid = hh.getHhId();
+                        writeHouseholdRecords( hh, writer, fileWriter );
                     }
                 }
             }
-            
-            logger.info( "max size for all Household objects after writing output files is " + maxSize + " bytes." );
 
             if (fileWriter && writer.getWriteTravelTimesFileFlag()) {
                 logger.info("Writing travel time table");
@@ -184,7 +194,7 @@ public class HouseholdDataWriter {
             }
 
         } catch ( RuntimeException e ) {
-            logger.error( String.format( "error writing hh=%d, persNum=%d, tourId=%d", hhid, persNum, tourid ), e);
+            logger.error( String.format( "error writing hh=%d", hhid ), e);
             throw new RuntimeException();
         } finally {
             writer.finishActions();
@@ -194,7 +204,232 @@ public class HouseholdDataWriter {
    
     
 
-    private void writeIndivTourData(Tour t, DataWriter writer) {
+    /**
+     * Write the household, person, tour and trip files with a pipeline: this thread reads the household ranges from
+     * the household data manager, a pool of threads formats each range into a RangeBuffer, and one thread for each
+     * output table writes the formatted blocks to its file in range order.  The RangeBuffers are reused, and the
+     * number of them bounds the number of formatted ranges held in memory.
+     */
+    private void writeHouseholdsPipelined(HouseholdDataManagerIf householdDataManager, final FileDataWriter fileWriter) {
+
+        logger.info( String.format( "writing household files with %d formatting threads%s.", writerThreads,
+                writeColumnarFiles ? " and columnar copies of the files" : "" ) );
+
+        int numTables = fileWriter.getWriteTripFileFlag() ? NUM_TABLES : NUM_TABLES - 1;
+
+        final BlockingQueue<RangeBuffer> freeBuffers = new LinkedBlockingQueue<RangeBuffer>();
+        for ( int i=0; i < writerThreads * RANGE_BUFFERS_PER_THREAD; i++ )
+            freeBuffers.add( new RangeBuffer( fileWriter.getWriteTripFileFlag() ) );
+
+        ExecutorService formatters = Executors.newFixedThreadPool( writerThreads );
+        ExecutorService[] tableWriters = new ExecutorService[numTables];
+        for ( int t=0; t < numTables; t++ )
+            tableWriters[t] = Executors.newSingleThreadExecutor();
+
+        LinkedList<Future<RangeBuffer>> formattedRanges = new LinkedList<Future<RangeBuffer>>();
+        List<Future<?>> tableWrites = new ArrayList<Future<?>>();
+
+        try {
+            for ( int[] startEndIndices : getWriteHouseholdRanges( householdDataManager.getNumHouseholds() ) ) {
+
+                // hand formatted ranges to the table writers until a buffer is free for the next range
+                while ( freeBuffers.isEmpty() && ! formattedRanges.isEmpty() )
+                    submitTableWrites( formattedRanges.removeFirst().get(), fileWriter, tableWriters, freeBuffers, tableWrites );
+                final RangeBuffer buffer = freeBuffers.take();
+
+                final Household[] householdArray = householdDataManager.getHhArray( startEndIndices[0], startEndIndices[1] );
+                formattedRanges.add( formatters.submit( new Callable<RangeBuffer>() {
+                    public RangeBuffer call() {
+                        buffer.format( householdArray );
+                        return buffer;
+                    }
+                } ) );
+
+                while ( ! formattedRanges.isEmpty() && formattedRanges.getFirst().isDone() )
+                    submitTableWrites( formattedRanges.removeFirst().get(), fileWriter, tableWriters, freeBuffers, tableWrites );
+            }
+
+            while ( ! formattedRanges.isEmpty() )
+                submitTableWrites( formattedRanges.removeFirst().get(), fileWriter, tableWriters, freeBuffers, tableWrites );
+
+            for ( Future<?> tableWrite : tableWrites )
+                tableWrite.get();
+        }
+        catch (InterruptedException e) {
+            logger.error( "interrupted writing household files.", e );
+            throw new RuntimeException( e );
+        }
+        catch (ExecutionException e) {
+            logger.error( "exception formatting or writing household files.", e.getCause() );
+            throw new RuntimeException( e.getCause() );
+        }
+        finally {
+            formatters.shutdownNow();
+            for ( ExecutorService tableWriter : tableWriters )
+                tableWriter.shutdownNow();
+        }
+    }
+
+    private void submitTableWrites(final RangeBuffer buffer, final FileDataWriter fileWriter, ExecutorService[] tableWriters,
+            final BlockingQueue<RangeBuffer> freeBuffers, List<Future<?>> tableWrites) {
+
+        // the last table writer to finish with the buffer returns it to the free list
+        final AtomicInteger remainingWrites = new AtomicInteger( tableWriters.length );
+        for ( int t=0; t < tableWriters.length; t++ ) {
+            final int table = t;
+            tableWrites.add( tableWriters[t].submit( new Runnable() {
+                public void run() {
+                    try {
+                        fileWriter.writeTableBlock( table, buffer.csvLines[table], buffer.getColumnarBlock( table ) );
+                    }
+                    finally {
+                        if ( remainingWrites.decrementAndGet() == 0 ) {
+                            buffer.clear();
+                            freeBuffers.add( buffer );
+                        }
+                    }
+                }
+            } ) );
+        }
+    }
+
+    /**
+     * HouseholdRecordWriter that formats the records for a range of households into csv lines held for each output
+     * table, and, if columnar files are written, encodes the range as a block of each columnar file.
+     */
+    private class RangeBuffer implements HouseholdRecordWriter {
+
+        private final StringBuilder[] csvLines = new StringBuilder[NUM_TABLES];
+        private final List<List<List<String>>> rows = new ArrayList<List<List<String>>>();
+        private final ByteArrayOutputStream[] columnarBlocks = new ByteArrayOutputStream[NUM_COLUMNAR_TABLES];
+        private final int[] numColumns = new int[NUM_COLUMNAR_TABLES];
+        private final boolean writeTripFileFlag;
+        private final String lineSeparator = System.getProperty( "line.separator" );
+
+        RangeBuffer(boolean writeTripFileFlag) {
+            this.writeTripFileFlag = writeTripFileFlag;
+            for ( int t=0; t < NUM_TABLES; t++ )
+                csvLines[t] = new StringBuilder();
+            if ( writeColumnarFiles ) {
+                for ( int t=0; t < NUM_COLUMNAR_TABLES; t++ ) {
+                    rows.add( new ArrayList<List<String>>() );
+                    columnarBlocks[t] = new ByteArrayOutputStream();
+                }
+                numColumns[HOUSEHOLD_TABLE] = formHouseholdColumnNames().size();
+                numColumns[PERSON_TABLE] = formPersonColumnNames().size();
+                numColumns[INDIV_TOUR_TABLE] = formIndivTourColumnNames().size();
+                numColumns[JOINT_TOUR_TABLE] = formJointTourColumnNames().size();
+                numColumns[INDIV_TRIP_TABLE] = formIndivTripColumnNames().size();
+                numColumns[JOINT_TRIP_TABLE] = formJointTripColumnNames().size();
+            }
+        }
+
+        void format(Household[] householdArray) {
+            for (Household hh : householdArray) {
+                if (hh == null) continue;
+                try {
+                    writeHouseholdRecords( hh, this, true );
+                }
+                catch ( RuntimeException e ) {
+                    failedHhId.compareAndSet( 0, hh.getHhId() );
+                    throw e;
+                }
+            }
+
+            if ( writeColumnarFiles ) {
+                for ( int t=0; t < NUM_COLUMNAR_TABLES; t++ ) {
+                    ColumnarTableFile.encodeBlock( rows.get(t), numColumns[t], columnarBlocks[t] );
+                    rows.get(t).clear();
+                }
+            }
+        }
+
+        ByteArrayOutputStream getColumnarBlock(int table) {
+            return table < NUM_COLUMNAR_TABLES ? columnarBlocks[table] : null;
+        }
+
+        void clear() {
+            for ( StringBuilder sb : csvLines )
+                sb.setLength( 0 );
+        }
+
+        private void addRow(int table, List<String> data) {
+            StringBuilder sb = csvLines[table];
+            Iterator<String> it = data.iterator();
+            sb.append(it.next());
+            while (it.hasNext())
+                sb.append(',').append(it.next());
+            sb.append(lineSeparator);
+            if ( writeColumnarFiles )
+                rows.get(table).add(data);
+        }
+
+        public void writeHouseholdData(List<String> data) {
+            addRow(HOUSEHOLD_TABLE,data);
+        }
+
+        public void writePersonData(List<String> data) {
+            addRow(PERSON_TABLE,data);
+        }
+
+        public void writeIndivTourData(List<String> data) {
+            addRow(INDIV_TOUR_TABLE,data);
+        }
+
+        public void writeJointTourData(List<String> data) {
+            addRow(JOINT_TOUR_TABLE,data);
+        }
+
+        public void writeIndivTripData(List<String> data) {
+            addRow(INDIV_TRIP_TABLE,data);
+        }
+
+        public void writeJointTripData(List<String> data) {
+            addRow(JOINT_TRIP_TABLE,data);
+        }
+
+        public void writeTripData(List<String> entries) {
+            StringBuilder sb = csvLines[TRIP_TABLE];
+            for (String entry : entries)
+                sb.append(entry).append(lineSeparator);
+        }
+
+        public Boolean getWriteTripFileFlag() {
+            return writeTripFileFlag;
+        }
+    }
+
+
+    private void writeHouseholdRecords(Household hh, HouseholdRecordWriter writer, boolean fileWriter) {
+        writer.writeHouseholdData(formHouseholdDataEntry(hh));
+        for (Person p : hh.getPersons()) {
+            if (p == null) continue;
+
+            writer.writePersonData(formPersonDataEntry(p));
+            for (Tour t : p.getListOfWorkTours())
+                writeIndivTourData(t,writer);
+            for (Tour t : p.getListOfSchoolTours())
+                writeIndivTourData(t,writer);
+            for (Tour t : p.getListOfIndividualNonMandatoryTours())
+                writeIndivTourData(t,writer);
+            for (Tour t : p.getListOfAtWorkSubtours())
+                writeIndivTourData(t,writer);
+        }
+        Tour[] jointTours = hh.getJointTourArray();
+        if (jointTours != null) {
+            for (Tour t : jointTours)  {
+                if (t == null) continue;
+                writeJointTourData(t,writer);
+            }
+        }
+
+        if (fileWriter && writer.getWriteTripFileFlag()) {
+            writer.writeTripData(createVizTripRecords(hh));
+        }
+    }
+
+
+    private void writeIndivTourData(Tour t, HouseholdRecordWriter writer) {
         writer.writeIndivTourData(formIndivTourDataEntry(t));
         
         Stop[] outboundStops = t.getOutboundStops();
@@ -219,7 +454,7 @@ public class HouseholdDataWriter {
     }
 
 
-    private void writeJointTourData(Tour t, DataWriter writer) {
+    private void writeJointTourData(Tour t, HouseholdRecordWriter writer) {
         writer.writeJointTourData(formJointTourDataEntry(t));
         
         Stop[] outboundStops = t.getOutboundStops();
@@ -1221,7 +1456,8 @@ public class HouseholdDataWriter {
         REAL
     }
 
-    private interface DataWriter {
+    // the records written for each household
+    private interface HouseholdRecordWriter {
         void writeHouseholdData(List<String> data);
         void writePersonData(List<String> data);
         void writeIndivTourData(List<String> data);
@@ -1229,9 +1465,12 @@ public class HouseholdDataWriter {
         void writeIndivTripData(List<String> data);
         void writeJointTripData(List<String> data);
         void writeTripData(List<String> entries);
+        Boolean getWriteTripFileFlag();
+    }
+
+    private interface DataWriter extends HouseholdRecordWriter {
         void writeTravelTimeData(int[] zoneList);
         void finishActions();
-        Boolean getWriteTripFileFlag();
         Boolean getWriteTravelTimesFileFlag();
     }
 
@@ -1535,6 +1774,7 @@ public class HouseholdDataWriter {
         private final PrintWriter jointTripWriter;
         private PrintWriter tripWriter;
         private PrintWriter travelTimeWriter;
+        private ColumnarTableFile.Writer[] columnarWriters;
         
         private Boolean writeTripFileFlag = false;
         private Boolean writeTravelTimesFileFlag = false;
@@ -1590,6 +1830,16 @@ public class HouseholdDataWriter {
             if(writeTravelTimesFileFlag) {
             	travelTimeWriter.println(formTravelTimeTableColumnHeader());
             }
+
+            if(writeColumnarFiles) {
+                columnarWriters = new ColumnarTableFile.Writer[NUM_COLUMNAR_TABLES];
+                columnarWriters[HOUSEHOLD_TABLE] = new ColumnarTableFile.Writer(new File(baseDir + ColumnarTableFile.getFileName(hhFile)), formHouseholdColumnNames());
+                columnarWriters[PERSON_TABLE] = new ColumnarTableFile.Writer(new File(baseDir + ColumnarTableFile.getFileName(personFile)), formPersonColumnNames());
+                columnarWriters[INDIV_TOUR_TABLE] = new ColumnarTableFile.Writer(new File(baseDir + ColumnarTableFile.getFileName(indivTourFile)), formIndivTourColumnNames());
+                columnarWriters[JOINT_TOUR_TABLE] = new ColumnarTableFile.Writer(new File(baseDir + ColumnarTableFile.getFileName(jointTourFile)), formJointTourColumnNames());
+                columnarWriters[INDIV_TRIP_TABLE] = new ColumnarTableFile.Writer(new File(baseDir + ColumnarTableFile.getFileName(indivTripFile)), formIndivTripColumnNames());
+                columnarWriters[JOINT_TRIP_TABLE] = new ColumnarTableFile.Writer(new File(baseDir + ColumnarTableFile.getFileName(jointTripFile)), formJointTripColumnNames());
+            }
             
         }
 
@@ -1647,6 +1897,30 @@ public class HouseholdDataWriter {
                         travelTimeWriter.println(line);
         }
 
+        /**
+         * Write a block of csv lines formatted by a RangeBuffer, and its columnar block if there is one.  Calls
+         * for a table must be made from one thread at a time, in the order the blocks are to appear in the files.
+         */
+        private void writeTableBlock(int table, StringBuilder csvLines, ByteArrayOutputStream columnarBlock) {
+            PrintWriter pw = getCsvWriter(table);
+            if (pw != null)
+                pw.append(csvLines);
+            if (columnarBlock != null && columnarWriters != null && table < NUM_COLUMNAR_TABLES)
+                columnarWriters[table].writeBlock(columnarBlock);
+        }
+
+        private PrintWriter getCsvWriter(int table) {
+            switch (table) {
+                case HOUSEHOLD_TABLE : return hhWriter;
+                case PERSON_TABLE : return personWriter;
+                case INDIV_TOUR_TABLE : return indivTourWriter;
+                case JOINT_TOUR_TABLE : return jointTourWriter;
+                case INDIV_TRIP_TABLE : return indivTripWriter;
+                case JOINT_TRIP_TABLE : return jointTripWriter;
+                default : return tripWriter;
+            }
+        }
+
         private void writeEntryToCsv(PrintWriter pw, List<String> data) {
             pw.println(formCsvString(data));
         }
@@ -1687,6 +1961,10 @@ public class HouseholdDataWriter {
                 if(writeTravelTimesFileFlag) {
                 	travelTimeWriter.close();	
                 }
+                if(columnarWriters != null) {
+                    for (ColumnarTableFile.Writer columnarWriter : columnarWriters)
+                        columnarWriter.close();
+                }
             }
         }
         
@@ -1818,6 +2096,7 @@ public class HouseholdDataWriter {
         else
             tourCategory = ModelStructure.AT_WORK_CATEGORY;
         String tripMode = tourModeAltLabels.get(t.getTourPurpose().toLowerCase()).get(t.getTourModeChoice());
+        int travelTimeMode = tripMode == null ? -1 : travelTimeModel.getModeIndex(tripMode);
         int departHour = returnTrip ? t.getTourEndHour() : t.getTourStartHour();
         int origin = returnTrip ? t.getTourDestTaz() : t.getTourOrigTaz();
         int dest = returnTrip ? t.getTourOrigTaz() : t.getTourDestTaz();
@@ -1862,8 +2141,8 @@ public class HouseholdDataWriter {
                 .append(p.getCdapActivity()).append(",")
                 .append(tourModeAltLabels.get(t.getTourPurpose().toLowerCase()).get(t.getTourModeChoice())).append(",") //trip mode name
                 .append(tripMode).append(",") //tour mode name
-                .append(tripMode == null ? -1 : travelTimeModel.getTravelTime(tripMode,departHour,origin,dest)).append(",")
-        		.append(tripMode == null ? -1 : travelTimeModel.getTravelDistance(tripMode,departHour,origin,dest));
+                .append(tripMode == null ? -1 : travelTimeModel.getTravelTime(travelTimeMode,departHour,origin,dest)).append(",")
+        		.append(tripMode == null ? -1 : travelTimeModel.getTravelDistance(travelTimeMode,departHour,origin,dest));
         if (tripMode == null)
             logger.info("Null trip mode: " + t.getTourPrimaryPurpose().toLowerCase()+ " " + t.getTourModeChoice());
         return record;
@@ -1896,6 +2175,7 @@ public class HouseholdDataWriter {
         else
             tourCategory = ModelStructure.AT_WORK_CATEGORY;
         String tripMode = tripModeAltLabels.get(modelStructure.getTripModeChoiceModelIndex(t.getTourPrimaryPurpose().toLowerCase())).get(s.getMode());
+        int travelTimeMode = tripMode == null ? -1 : travelTimeModel.getModeIndex(tripMode);
 
         StringBuilder[] record = new StringBuilder[3];
         record[0] = new StringBuilder()
@@ -1937,8 +2217,8 @@ public class HouseholdDataWriter {
                 .append(p.getCdapActivity()).append(",")
                 .append(tourModeAltLabels.get(t.getTourPurpose().toLowerCase()).get(t.getTourModeChoice())).append(",") //trip mode name
                 .append(tripMode).append(",") //tour mode name
-                .append(tripMode == null ? -1 : travelTimeModel.getTravelTime(tripMode,s.getDepartHour(),s.getOrig(),s.getDest())).append(",")
-        		.append(tripMode == null ? -1 : travelTimeModel.getTravelDistance(tripMode,s.getDepartHour(),s.getOrig(),s.getDest()));
+                .append(tripMode == null ? -1 : travelTimeModel.getTravelTime(travelTimeMode,s.getDepartHour(),s.getOrig(),s.getDest())).append(",")
+        		.append(tripMode == null ? -1 : travelTimeModel.getTravelDistance(travelTimeMode,s.getDepartHour(),s.getOrig(),s.getDest()));
         if (tripMode == null)
             logger.info("Null trip mode: " + t.getTourPrimaryPurpose().toLowerCase()+ " " + s.getMode());
         return record;
@@ -0,0 +1,224 @@
+package com.pb.models.ctramp;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Hands out ranges of household indices to distributed tasks which ask for their next packet when they
+ * finish the previous one, so no task waits while households are left.
+ *
+ * The first packet for a node is minPacketSize households.  After that, packet size follows the
+ * node's measured households per second, so that a packet takes about targetPacketSeconds, but at
+ * most doubles from the node's previous packet.  Near the end of the households, packets are limited
+ * to half the remaining households divided by the number of tasks still working, so the last packets
+ * are small and the tasks finish at about the same time.
+ *
+ * A packet is complete when the task it was given to asks for its next one.  The packet a task holds is
+ * put back in the queue, and given out again before any new households, if the task returns it after a
+ * failure, if the task asks for a first packet while it still holds one (JPPF resubmitted the task after
+ * its node was lost), or if it is still held when all the tasks have ended.
+ */
+public class HouseholdPacketScheduler implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger logger = Logger.getLogger(HouseholdPacketScheduler.class);
+
+    private final int lastIndex;
+    private final int minPacketSize;
+    private final int maxPacketSize;
+    private final double targetPacketSeconds;
+
+    private int nextIndex;
+    private long completedHouseholds;
+    private final HashSet<String> activeWorkers = new HashSet<String>();
+
+    // packet each task is working on, by worker name, and packets to give out again
+    private final HashMap<String, int[]> outstandingPackets = new HashMap<String, int[]>();
+    private final ArrayDeque<int[]> requeuedPackets = new ArrayDeque<int[]>();
+    private final TreeMap<String, NodeStats> nodeStats = new TreeMap<String, NodeStats>();
+
+    private final long startTime = System.nanoTime();
+
+
+    /**
+     * @param firstIndex first household index to schedule.
+     * @param lastIndex last household index to schedule.
+     * @param minPacketSize size of the first packet for a node, and the smallest packet size.
+     * @param maxPacketSize largest packet size, or 0 for no limit.
+     * @param targetPacketSeconds time a packet should take at a node's measured rate.
+     */
+    public HouseholdPacketScheduler( int firstIndex, int lastIndex, int minPacketSize, int maxPacketSize, double targetPacketSeconds ) {
+        this.nextIndex = firstIndex;
+        this.lastIndex = lastIndex;
+        this.minPacketSize = Math.max( minPacketSize, 1 );
+        this.maxPacketSize = maxPacketSize;
+        this.targetPacketSeconds = targetPacketSeconds;
+    }
+
+
+    /**
+     * Record the packet a task finished, and return its next one.
+     *
+     * @param nodeName name of the node running the task, used to measure throughput.
+     * @param workerName name unique to the task, which stays the same if the task is resubmitted.
+     * @param completedHouseholds number of households in the packet the task finished, 0 for its first request.
+     * @param completedNanos elapsed time for the finished packet.
+     * @return first and last household index of the next packet, or null if there are no households left.
+     */
+    public synchronized int[] getNextPacket( String nodeName, String workerName, int completedHouseholds, long completedNanos ) {
+
+        NodeStats stats = nodeStats.get( nodeName );
+        if ( stats == null ) {
+            stats = new NodeStats();
+            nodeStats.put( nodeName, stats );
+        }
+
+        int[] previous = outstandingPackets.remove( workerName );
+        if ( previous != null ) {
+            if ( completedHouseholds > 0 ) {
+                this.completedHouseholds += previous[1] - previous[0] + 1;
+                stats.update( completedHouseholds, completedNanos );
+            }
+            else {
+                logger.warn( String.format( "%s asked for its first household packet while holding households %d to %d, which will be run again.", workerName, previous[0], previous[1] ) );
+                requeuedPackets.add( previous );
+            }
+        }
+
+        if ( ! requeuedPackets.isEmpty() ) {
+            int[] packet = requeuedPackets.poll();
+            activeWorkers.add( workerName );
+            outstandingPackets.put( workerName, packet );
+            return packet;
+        }
+
+        if ( nextIndex > lastIndex ) {
+            activeWorkers.remove( workerName );
+            return null;
+        }
+        activeWorkers.add( workerName );
+
+        int size = minPacketSize;
+        if ( stats.rate > 0 ) {
+            size = (int) ( stats.rate * targetPacketSeconds );
+            size = Math.min( size, 2*stats.lastPacketSize );
+        }
+
+        int remaining = lastIndex - nextIndex + 1;
+        int tailSize = (int) Math.ceil( remaining / ( 2.0 * activeWorkers.size() ) );
+        size = Math.min( size, tailSize );
+
+        if ( maxPacketSize > 0 )
+            size = Math.min( size, maxPacketSize );
+        size = Math.max( size, minPacketSize );
+        size = Math.min( size, remaining );
+
+        int[] packet = { nextIndex, nextIndex + size - 1 };
+        nextIndex += size;
+        stats.lastPacketSize = size;
+        outstandingPackets.put( workerName, packet );
+
+        return packet;
+    }
+
+
+    /**
+     * Put the packet a task is working on back in the queue, e.g. when the task failed before storing its households.
+     *
+     * @param workerName name the task asked for its packets with.
+     */
+    public synchronized void returnPacket( String workerName ) {
+        activeWorkers.remove( workerName );
+        int[] packet = outstandingPackets.remove( workerName );
+        if ( packet != null ) {
+            logger.warn( String.format( "%s returned households %d to %d, which will be run again.", workerName, packet[0], packet[1] ) );
+            requeuedPackets.add( packet );
+        }
+    }
+
+
+    /**
+     * Put the packets still held by tasks back in the queue, once all the tasks have ended.
+     *
+     * @return the number of households not completed.
+     */
+    public synchronized int requeueIncompletePackets() {
+        for ( Map.Entry<String, int[]> entry : outstandingPackets.entrySet() ) {
+            int[] packet = entry.getValue();
+            logger.warn( String.format( "%s ended without completing households %d to %d, which will be run again.", entry.getKey(), packet[0], packet[1] ) );
+            requeuedPackets.add( packet );
+        }
+        outstandingPackets.clear();
+        activeWorkers.clear();
+
+        int incomplete = lastIndex - nextIndex + 1;
+        for ( int[] packet : requeuedPackets )
+            incomplete += packet[1] - packet[0] + 1;
+        return incomplete;
+    }
+
+
+    /**
+     * @return the households, packets and throughput of each node.
+     */
+    public synchronized String getStatistics() {
+
+        double elapsedSeconds = ( System.nanoTime() - startTime ) / 1.0e9;
+
+        StringBuilder sb = new StringBuilder( String.format( "household packets: %.1f seconds elapsed", elapsedSeconds ) );
+        sb.append( String.format( "%n    %-30s %10s %12s %14s %14s %14s", "node", "packets", "households", "busy seconds", "hhs/task sec", "hhs/sec" ) );
+
+        int totalPackets = 0;
+        long totalHouseholds = 0;
+        for ( Map.Entry<String, NodeStats> entry : nodeStats.entrySet() ) {
+            NodeStats stats = entry.getValue();
+            double busySeconds = stats.nanos / 1.0e9;
+            sb.append( String.format( "%n    %-30s %10d %12d %14.1f %14.1f %14.1f", entry.getKey(), stats.packets, stats.households, busySeconds,
+                    busySeconds > 0 ? stats.households / busySeconds : 0.0, elapsedSeconds > 0 ? stats.households / elapsedSeconds : 0.0 ) );
+            totalPackets += stats.packets;
+            totalHouseholds += stats.households;
+        }
+        sb.append( String.format( "%n    %-30s %10d %12d %14s %14s %14.1f", "total", totalPackets, totalHouseholds, "", "",
+                elapsedSeconds > 0 ? totalHouseholds / elapsedSeconds : 0.0 ) );
+        sb.append( String.format( "%n    households completed=%d, in progress=%d packets, requeued=%d packets", completedHouseholds,
+                outstandingPackets.size(), requeuedPackets.size() ) );
+
+        return sb.toString();
+    }
+
+
+
+    private static class NodeStats implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        int packets;
+        long households;
+        long nanos;
+
+        // households per second for one task on the node, smoothed over packets
+        double rate;
+        int lastPacketSize;
+
+        void update( int completedHouseholds, long completedNanos ) {
+            packets++;
+            households += completedHouseholds;
+            nanos += completedNanos;
+
+            if ( completedNanos > 0 ) {
+                double packetRate = completedHouseholds / ( completedNanos / 1.0e9 );
+                rate = ( rate > 0 ) ? 0.5*rate + 0.5*packetRate : packetRate;
+            }
+        }
+
+    }
+
+}
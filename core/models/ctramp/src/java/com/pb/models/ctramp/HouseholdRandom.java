@@ -0,0 +1,165 @@
+package com.pb.models.ctramp;
+
+import java.util.Random;
+
+/**
+ * Random number generator for a Household.  Draws exactly the same sequence
+ * as java.util.Random, but its 48 bit state can be read and set, so that a
+ * household held in a HouseholdColumnStore resumes its random number sequence
+ * where it left off.
+ *
+ * In counter based mode (setCounterBased(true)) the generator instead draws
+ * from a separate stream for each model step.  The n-th draw of a step is a
+ * SplitMix64 hash of the seed, the step and n, so any step can be started
+ * with setStep() without replaying the draws made by the steps before it, and
+ * the draws made in a step don't depend on how many draws the earlier steps
+ * made.
+ */
+public class HouseholdRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // SplitMix64 increments used to space the draws in a stream and the streams for the steps
+    private static final long DRAW_INCREMENT = 0x9E3779B97F4A7C15L;
+    private static final long STEP_INCREMENT = 0xD1B54A32D192ED03L;
+
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    // no initializers - the Random constructor sets the state through setSeed() before subclass fields are initialized
+    private long state;
+
+    private boolean counterBased;
+    private long key;
+    private int step;
+    private long streamBase;
+    private long drawIndex;
+
+
+    public HouseholdRandom() {
+        super();
+    }
+
+    public HouseholdRandom( long seed ) {
+        super( seed );
+    }
+
+
+    /**
+     * Reset the sequence for the seed.  In counter based mode the generator is positioned at the first draw of step 0.
+     */
+    @Override
+    public synchronized void setSeed( long seed ) {
+        super.setSeed( seed );
+        state = (seed ^ MULTIPLIER) & MASK;
+        key = mix64( seed );
+        setPosition( 0, 0 );
+    }
+
+    @Override
+    protected int next( int bits ) {
+        if ( counterBased )
+            return (int)(nextCounterValue() >>> (64 - bits));
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int)(state >>> (48 - bits));
+    }
+
+    /**
+     * In counter based mode a double uses one draw rather than the two used by java.util.Random.
+     */
+    @Override
+    public double nextDouble() {
+        if ( counterBased )
+            return (nextCounterValue() >>> 11) * DOUBLE_UNIT;
+        return super.nextDouble();
+    }
+
+
+    public boolean isCounterBased() {
+        return counterBased;
+    }
+
+    /**
+     * Switch between the java.util.Random sequence and the counter based streams.  Both continue from the seed set
+     * last, or from the state set with setState() or setCounterState().
+     */
+    public void setCounterBased( boolean counterBased ) {
+        this.counterBased = counterBased;
+    }
+
+    /**
+     * Position the counter based generator at the first draw of a model step.  Has no effect on the java.util.Random
+     * sequence, which continues from its current state.
+     */
+    public void setStep( int step ) {
+        setPosition( step, 0 );
+    }
+
+    /**
+     * Position the counter based generator at a draw within a model step.
+     */
+    public void setPosition( int step, long drawIndex ) {
+        this.step = step;
+        this.drawIndex = drawIndex;
+        streamBase = mix64( key + (step + 1) * STEP_INCREMENT );
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return the number of counter based draws made since the current step was started.
+     */
+    public long getDrawIndex() {
+        return drawIndex;
+    }
+
+
+    /**
+     * @return the generator state, to be restored with setState().
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Restore a state returned by getState().
+     */
+    public void setState( long state ) {
+        this.state = state & MASK;
+    }
+
+    /**
+     * @return the counter based generator key, to be restored with setCounterState().
+     */
+    public long getCounterKey() {
+        return key;
+    }
+
+    /**
+     * Restore a key returned by getCounterKey() and the step and draw index the generator was positioned at.
+     */
+    public void setCounterState( long key, int step, long drawIndex ) {
+        this.key = key;
+        setPosition( step, drawIndex );
+    }
+
+
+    private long nextCounterValue() {
+        return mix64( streamBase + (++drawIndex) * DRAW_INCREMENT );
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     */
+    private static long mix64( long z ) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -4,8 +4,12 @@ import gnu.cajo.invoke.Remote;
 import gnu.cajo.utils.ItemServer;
 import org.apache.log4j.Logger;
 
-import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.File;
 import java.io.Serializable;
 
@@ -40,10 +44,17 @@ public class MatrixDataServer implements MatrixDataServerIf, Serializable {
 
     //private MatrixIO32BitJvm ioVm32Bit = null; 
 
-    private HashMap<String, DataEntry> matrixEntryMap;
-    private HashMap<String, Matrix> matrixMap;
+    // one task per matrix name.  The first thread to request a matrix reads it, other threads
+    // requesting the same matrix wait on its task, and requests for other matrices are not blocked.
+    private ConcurrentHashMap<String, FutureTask<Matrix>> matrixMap;
 
-    private boolean useMatrixMap;
+    private volatile boolean useMatrixMap;
+
+    // cache statistics
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong matricesRead = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
     
     //private static boolean is64bit = true;
     
@@ -52,9 +63,8 @@ public class MatrixDataServer implements MatrixDataServerIf, Serializable {
         // start the 32 bit JVM used specifically for running matrix io classes
         //ioVm32Bit = MatrixIO32BitJvm.getInstance();
 
-        // create the HashMap objects to keep track of matrix data read by the server
-        matrixEntryMap = new HashMap<String, DataEntry>();
-        matrixMap = new HashMap<String, Matrix>();
+        // create the map object to keep track of matrix data read by the server
+        matrixMap = new ConcurrentHashMap<String, FutureTask<Matrix>>();
     }
 
 
@@ -79,35 +89,123 @@ public class MatrixDataServer implements MatrixDataServerIf, Serializable {
     /**
      * Return the Matrix object identified by the DataEntry argument.  If it exists in the cache,
      * return that object.  If it does not yet exist, read the Matrix data, store in the cache, and return it.
+     * Threads requesting a matrix that is being read by another thread wait for that read to finish;
+     * different matrices are read concurrently, and requests for cached matrices do not lock.
      *
      * @param matrixEntry is an object with details about the name and location of a matrix read by a UEC object.
      * @return a Matrix object from the cached set.
      */
-    public synchronized Matrix getMatrix( DataEntry matrixEntry ) {
+    public Matrix getMatrix( DataEntry matrixEntry ) {
 
-        Matrix m;
+        if ( ! useMatrixMap ) {
+            cacheMisses.incrementAndGet();
+            return timedReadMatrix( matrixEntry );
+        }
 
         String name = matrixEntry.name;
 
-        if ( matrixEntryMap.containsKey( name ) ) {
-            m = matrixMap.get( name );
+        FutureTask<Matrix> task = matrixMap.get( name );
+        if ( task == null ) {
+            final DataEntry entry = matrixEntry;
+            FutureTask<Matrix> newTask = new FutureTask<Matrix>( new Callable<Matrix>() {
+                public Matrix call() {
+                    return timedReadMatrix( entry );
+                }
+            });
+
+            task = matrixMap.putIfAbsent( name, newTask );
+            if ( task == null ) {
+                task = newTask;
+                cacheMisses.incrementAndGet();
+                task.run();
+            }
+            else {
+                cacheHits.incrementAndGet();
+            }
         }
         else {
-            m = readMatrix( matrixEntry );
-            
-            if ( useMatrixMap ) {
-                matrixMap.put ( name, m );
-                matrixEntryMap.put( name, matrixEntry );
+            cacheHits.incrementAndGet();
+        }
+
+        try {
+            return task.get();
+        }
+        catch ( ExecutionException e ) {
+            // don't cache the failure, so a later request tries the read again
+            matrixMap.remove( name, task );
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+                throw (RuntimeException)cause;
+            throw new RuntimeException( "exception reading matrix " + name, cause );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "interrupted waiting for matrix " + name, e );
+        }
+    }
+
+
+    public int[][] getMatrixExternalNumbers( DataEntry matrixEntry ) {
+        Matrix m = getMatrix( matrixEntry );
+        int[][] externalNumbers = { m.getExternalRowNumbers(), m.getExternalColumnNumbers() };
+        return externalNumbers;
+    }
+
+
+    /**
+     * Return the rows of several matrices for a set of origins in one call, so a client can
+     * work from the rows it needs instead of transferring whole matrices.
+     */
+    public float[][][] getMatrixRows( DataEntry[] matrixEntries, int[] externalRows ) {
+
+        float[][][] rows = new float[matrixEntries.length][externalRows.length][];
+
+        for ( int i=0; i < matrixEntries.length; i++ ) {
+            Matrix m = getMatrix( matrixEntries[i] );
+            for ( int r=0; r < externalRows.length; r++ ) {
+                rows[i][r] = new float[m.getColumnCount()];
+                m.getRow( externalRows[r], rows[i][r] );
             }
         }
 
-        return m;
+        return rows;
+    }
+
+
+    /**
+     * Return the columns of several matrices for a set of zones in one call, for clients that
+     * look up values by destination.
+     */
+    public float[][][] getMatrixColumns( DataEntry[] matrixEntries, int[] externalColumns ) {
+
+        float[][][] columns = new float[matrixEntries.length][externalColumns.length][];
+
+        for ( int i=0; i < matrixEntries.length; i++ ) {
+            Matrix m = getMatrix( matrixEntries[i] );
+            for ( int c=0; c < externalColumns.length; c++ ) {
+                columns[i][c] = new float[m.getRowCount()];
+                m.getColumn( externalColumns[c], columns[i][c] );
+            }
+        }
+
+        return columns;
     }
 
 
     public void clear() {
         matrixMap.clear();
-        matrixEntryMap.clear();
+    }
+
+
+    /**
+     * @return a summary of the matrix cache counters: requests served from the cache, requests that
+     * read a matrix, the number of matrices cached, and the total and average time spent reading.
+     */
+    public String getCacheStatistics() {
+        long reads = matricesRead.get();
+        double readSeconds = readNanos.get() / 1.0e9;
+        return String.format( "matrix cache: hits=%d, misses=%d, cached=%d, matrices read=%d, read time=%.1f sec, average read time=%.3f sec",
+            cacheHits.get(), cacheMisses.get(), matrixMap.size(), reads, readSeconds, reads > 0 ? readSeconds/reads : 0.0 );
     }
 
     
@@ -116,6 +214,15 @@ public class MatrixDataServer implements MatrixDataServerIf, Serializable {
     }
     
     
+    private Matrix timedReadMatrix( DataEntry matrixEntry ) {
+        long start = System.nanoTime();
+        Matrix m = readMatrix( matrixEntry );
+        readNanos.addAndGet( System.nanoTime() - start );
+        matricesRead.incrementAndGet();
+        return m;
+    }
+
+
     /*
      * Read a matrix.
      *
@@ -139,9 +246,15 @@ public class MatrixDataServer implements MatrixDataServerIf, Serializable {
         } else if (matrixEntry.format.equalsIgnoreCase("tpplus")) {
             MatrixReader mr = MatrixReader.createReader(MatrixType.TPPLUS, new File(fileName));
             matrix = mr.readMatrix(matrixEntry.matrixName);
+        } else if (matrixEntry.format.equalsIgnoreCase("tpplusjava")) {
+            MatrixReader mr = MatrixReader.createReader(MatrixType.TPPLUSJAVA, new File(fileName));
+            matrix = mr.readMatrix(matrixEntry.matrixName);
         } else if (matrixEntry.format.equalsIgnoreCase("transcad")) {
         	MatrixReader mr = MatrixReader.createReader(MatrixType.TRANSCAD, new File(fileName));
             matrix = mr.readMatrix(matrixEntry.matrixName);
+        } else if (matrixEntry.format.equalsIgnoreCase("mapped")) {
+            MatrixReader mr = MatrixReader.createReader(MatrixType.MAPPED, new File(fileName));
+            matrix = mr.readMatrix(matrixEntry.matrixName);
         } else {
             throw new RuntimeException("unsupported matrix type: " + matrixEntry.format);
         }
@@ -52,6 +52,26 @@ public class MatrixDataServerRmi implements MatrixDataServerIf, Serializable {
         remote.method( "clear", objArray);
     }
     
+    public int[][] getMatrixExternalNumbers( DataEntry dataEntry ) {
+        Object[] objArray = { dataEntry };
+        return (int[][])remote.method( "getMatrixExternalNumbers", objArray);
+    }
+
+    public float[][][] getMatrixRows( DataEntry[] dataEntries, int[] externalRows ) {
+        Object[] objArray = { dataEntries, externalRows };
+        return (float[][][])remote.method( "getMatrixRows", objArray);
+    }
+
+    public float[][][] getMatrixColumns( DataEntry[] dataEntries, int[] externalColumns ) {
+        Object[] objArray = { dataEntries, externalColumns };
+        return (float[][][])remote.method( "getMatrixColumns", objArray);
+    }
+
+    public String getCacheStatistics() {
+        Object[] objArray = {};
+        return (String)remote.method( "getCacheStatistics", objArray);
+    }
+
     public Matrix getMatrix( DataEntry dataEntry ) {
         Object[] objArray = { dataEntry };
         return (Matrix)remote.method( "getMatrix", objArray);
@@ -1,7 +1,9 @@
 package com.pb.models.ctramp;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import org.apache.log4j.Logger;
 
@@ -34,6 +36,10 @@ public class ModeChoiceDMU implements Serializable, VariableTable {
     protected float destSingleTNCWaitTime;
     protected float origSharedTNCWaitTime;
     protected float destSharedTNCWaitTime;
+
+    // tour mode choice logsum cache, see declareLogsumCacheKey()
+    private boolean logsumCacheKeyDeclared;
+    private HashSet<String> logsumCacheVariables = new HashSet<String>();
     
     private ModelStructure modelStructure;
     
@@ -432,6 +438,73 @@ public class ModeChoiceDMU implements Serializable, VariableTable {
         return accessibilityValueOfTime; 
     }
 
+
+    /**
+     * Declare the tour mode choice logsum cache key (see ModeChoiceLogsumCache).  Subclasses call addLogsumCacheVariables()
+     * for the DMU variables their getLogsumCacheKey() accounts for by a segment in the key.  Person specific variables,
+     * such as the value of time, are not declared, so tour mode choice models that use them bypass the cache.  The base
+     * class declares none, so every tour mode choice model bypasses the cache.
+     * 
+     * @param propertyMap is the properties file HashMap, for any values the declaration depends on.
+     */
+    public void declareLogsumCacheKey( HashMap<String, String> propertyMap ) {
+        logsumCacheKeyDeclared = true;
+    }
+
+    public boolean isLogsumCacheKeyDeclared() {
+        return logsumCacheKeyDeclared;
+    }
+
+    /**
+     * @param variableNames are variable names as used in the UEC, e.g. "age" for getAge().
+     */
+    protected void addLogsumCacheVariables( String... variableNames ) {
+        for ( String name : variableNames )
+            logsumCacheVariables.add( name );
+    }
+
+    /**
+     * @param variableNames are the DMU variables referenced by a UEC.
+     * @return the variables the logsum cache key does not account for.
+     */
+    public ArrayList<String> getVariablesNotInLogsumCacheKey( String[] variableNames ) {
+        ArrayList<String> notInKey = new ArrayList<String>();
+        for ( String name : variableNames ) {
+            if ( ! logsumCacheVariables.contains( name ) )
+                notInKey.add( name );
+        }
+        return notInKey;
+    }
+
+    /**
+     * @param modelIndex is the index of the tour mode choice model (UEC sheet) the logsum is computed for.
+     * @return the logsum cache key values for the segment the DMU object's household, person and tour belong to,
+     * or null if this DMU does not declare a key.
+     */
+    public long[] getLogsumCacheKey( int modelIndex ) {
+        return null;
+    }
+
+    /**
+     * @return 0 for a household with no autos, 1 if it has fewer autos than workers, 2 otherwise.
+     */
+    protected int getAutoSufficiency() {
+        int autos = getAutos();
+        if ( autos == 0 )
+            return 0;
+        else if ( autos < getWorkers() )
+            return 1;
+        else
+            return 2;
+    }
+
+    /**
+     * @return the skim period index for an hour of the tour.
+     */
+    protected int getSkimPeriod( int hour ) {
+        return modelStructure.getSkimMatrixPeriod( hour );
+    }
+
     
     
 
@@ -219,7 +219,18 @@ public class Person implements java.io.Serializable {
         return availability;
     }
 
-    
+
+    /**
+     * @return the same availability as getAvailableTimeWindows( altStarts, altEnds ) for the alternatives the masks
+     * were built for, tested for all the alternatives at once.
+     */
+    public boolean[] getAvailableTimeWindows( TimeWindowMasks altMasks ) {
+        long[] words = new long[TimeWindowMasks.NUM_WORDS];
+        TimeWindowMasks.setWindowWords( windows, words );
+        return altMasks.getAvailability( words );
+    }
+
+
     /**
 	 * @return the halfHourWindow
 	 */
@@ -1681,4 +1692,85 @@ public class Person implements java.io.Serializable {
  		this.sampleRate = sampleRate;
  	}
 
+
+    /**
+     * Write the person attributes to a HouseholdColumnStore row.  Tours are stored by the HouseholdColumnStore.
+     */
+    void storeColumns( HouseholdColumnStore.Row row ) {
+        row.putByte( persNum );
+        row.putInt( persId );
+        row.putByte( persAge );
+        row.putByte( persGender );
+        row.putByte( persEmploymentCategory );
+        row.putByte( persIndustryCategory );
+        row.putByte( persWfhCategory );
+        row.putByte( persStudentCategory );
+        row.putByte( personType );
+        row.putFloat( persValueOfTime );
+        row.putByte( persPecasOcc );
+        row.putShort( workLoc );
+        row.putByte( workLocSubzone );
+        row.putShort( schoolLoc );
+        row.putByte( schoolLocSubzone );
+        row.putByte( workLocationPurposeIndex );
+        row.putByte( universityLocationPurposeIndex );
+        row.putByte( schoolLocationPurposeIndex );
+        row.putFloat( workLocationLogsum );
+        row.putFloat( schoolLocationLogsum );
+        row.putByte( freeParkingAvailable );
+        row.putString( cdapActivity );
+        row.putByte( imtfChoice );
+        row.putByte( inmtfChoice );
+        row.putByte( maxAdultOverlaps );
+        row.putByte( maxChildOverlaps );
+        row.putByte( maxTourId );
+        row.putInt( pAnalyst );
+        row.putBytes( windows );
+        row.putByte( windowBeforeFirstMandJointTour );
+        row.putByte( windowBetweenFirstLastMandJointTour );
+        row.putByte( windowAfterLastMandJointTour );
+        row.putBytes( halfHourWindow );
+        row.putFloat( sampleRate );
+    }
+
+    /**
+     * Read the person attributes written by storeColumns().
+     */
+    void loadColumns( HouseholdColumnStore.Row row ) {
+        persNum = row.getByte();
+        persId = row.getInt();
+        persAge = row.getByte();
+        persGender = row.getByte();
+        persEmploymentCategory = row.getByte();
+        persIndustryCategory = row.getByte();
+        persWfhCategory = row.getByte();
+        persStudentCategory = row.getByte();
+        personType = row.getByte();
+        persValueOfTime = row.getFloat();
+        persPecasOcc = row.getByte();
+        workLoc = row.getShort();
+        workLocSubzone = row.getByte();
+        schoolLoc = row.getShort();
+        schoolLocSubzone = row.getByte();
+        workLocationPurposeIndex = row.getByte();
+        universityLocationPurposeIndex = row.getByte();
+        schoolLocationPurposeIndex = row.getByte();
+        workLocationLogsum = row.getFloat();
+        schoolLocationLogsum = row.getFloat();
+        freeParkingAvailable = row.getByte();
+        cdapActivity = row.getString();
+        imtfChoice = row.getByte();
+        inmtfChoice = row.getByte();
+        maxAdultOverlaps = row.getByte();
+        maxChildOverlaps = row.getByte();
+        maxTourId = row.getByte();
+        pAnalyst = row.getInt();
+        windows = row.getBytes();
+        windowBeforeFirstMandJointTour = row.getByte();
+        windowBetweenFirstLastMandJointTour = row.getByte();
+        windowAfterLastMandJointTour = row.getByte();
+        halfHourWindow = row.getBytes();
+        sampleRate = row.getFloat();
+    }
+
 }
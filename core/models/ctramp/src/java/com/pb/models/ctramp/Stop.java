@@ -192,5 +192,48 @@ public class Stop implements Serializable {
 		this.origSharedTNCWait = origSharedTNCWait;
 	}
     
+
+    /**
+     * Write the stop attributes to a HouseholdColumnStore row.
+     */
+    void storeColumns( HouseholdColumnStore.Row row ) {
+        row.putByte( id );
+        row.putShort( orig );
+        row.putByte( origWalkSegment );
+        row.putShort( dest );
+        row.putByte( destWalkSegment );
+        row.putShort( parkTaz );
+        row.putByte( mode );
+        row.putBoolean( inbound );
+        row.putShort( departHour );
+        row.putByte( origPurposeIndex );
+        row.putByte( destPurposeIndex );
+        row.putFloat( origTaxiWait );
+        row.putFloat( origSingleTNCWait );
+        row.putFloat( origSharedTNCWait );
+        row.putFloat( sampleRate );
+    }
+
+    /**
+     * Read the stop attributes written by storeColumns().
+     */
+    void loadColumns( HouseholdColumnStore.Row row ) {
+        id = row.getByte();
+        orig = row.getShort();
+        origWalkSegment = row.getByte();
+        dest = row.getShort();
+        destWalkSegment = row.getByte();
+        parkTaz = row.getShort();
+        mode = row.getByte();
+        inbound = row.getBoolean();
+        departHour = row.getShort();
+        origPurposeIndex = row.getByte();
+        destPurposeIndex = row.getByte();
+        origTaxiWait = row.getFloat();
+        origSingleTNCWait = row.getFloat();
+        origSharedTNCWait = row.getFloat();
+        sampleRate = row.getFloat();
+    }
+
 }
 
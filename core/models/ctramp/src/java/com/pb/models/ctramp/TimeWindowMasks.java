@@ -0,0 +1,138 @@
+package com.pb.models.ctramp;
+
+import java.io.Serializable;
+
+import org.apache.log4j.Logger;
+
+import com.pb.models.ctramp.jppf.CtrampApplication;
+
+
+/**
+ * Bit masks for the departure hour / arrival hour alternatives of a time of day choice model, used to find the
+ * alternatives a person's time window allows all at once instead of scanning the window hours for each alternative.
+ *
+ * A person's window, coded 0 to 4 for each hour as in Person.scheduleWindow(), is summarized in two long words with a
+ * bit for each hour (hour - START_HOUR):
+ *   word 0, bits 0-31: the hour is scheduled (code > 0);  bits 32-63: a tour of more than one hour can't start in the
+ *   hour (code 1 or 2).
+ *   word 1, bits 0-31: a tour of more than one hour can't end in the hour (code 1 or 3);  bits 32-63: the hour is in
+ *   the middle of another tour (code 1).
+ * Each alternative has two masks with the bits of the words that make it unavailable, so it is available if neither
+ * word has any of them set, the same test as Person.isWindowAvailable().  An alternative is available to all the
+ * persons on a joint tour if it's available to each of them, so the words of the participants are or'ed together
+ * and tested once.
+ *
+ * The words aren't kept with the person as a persistent bitset: the byte[] window is still the only record of the
+ * schedule, and the words are rebuilt from it by setWindowWords() on every call, e.g. in
+ * Person.getAvailableTimeWindows() and Household.getAvailableJointTourTimeWindows(), at the cost of a pass over the
+ * window's hours each time.
+ */
+public class TimeWindowMasks implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Logger logger = Logger.getLogger(TimeWindowMasks.class);
+
+    public static final int NUM_WORDS = 2;
+
+    private static final int FLAG_SHIFT = 32;
+
+    private final long[] altMasks0;
+    private final long[] altMasks1;
+
+
+    public TimeWindowMasks( int[] altStarts, int[] altEnds ) {
+
+        int numHours = CtrampApplication.LAST_HOUR - CtrampApplication.START_HOUR + 1;
+        if ( numHours > FLAG_SHIFT ) {
+            logger.error( String.format( "%d hours from START_HOUR=%d to LAST_HOUR=%d is more than the %d hours the time window masks have bits for.", numHours, CtrampApplication.START_HOUR, CtrampApplication.LAST_HOUR, FLAG_SHIFT ) );
+            throw new RuntimeException();
+        }
+
+        altMasks0 = new long[altStarts.length];
+        altMasks1 = new long[altStarts.length];
+
+        for ( int i=0; i < altStarts.length; i++ ) {
+
+            int start = altStarts[i] - CtrampApplication.START_HOUR;
+            int end = altEnds[i] - CtrampApplication.START_HOUR;
+            if ( start < 0 || end >= numHours || start > end ) {
+                logger.error( String.format( "time of day alternative %d, start=%d, end=%d, is not a period between START_HOUR=%d and LAST_HOUR=%d.", i+1, altStarts[i], altEnds[i], CtrampApplication.START_HOUR, CtrampApplication.LAST_HOUR ) );
+                throw new RuntimeException();
+            }
+
+            if ( start == end ) {
+                // a one hour tour only needs the hour not to be in the middle of another tour
+                altMasks1[i] = 1L << ( FLAG_SHIFT + start );
+            }
+            else {
+                long interior = 0;
+                for ( int h=start+1; h < end; h++ )
+                    interior |= 1L << h;
+                altMasks0[i] = interior | ( 1L << ( FLAG_SHIFT + start ) );
+                altMasks1[i] = 1L << end;
+            }
+        }
+
+    }
+
+
+    /**
+     * Summarize a person's time window in the two words the alternative masks are tested against.
+     *
+     * @param windows the person's time window, one code for each hour from START_HOUR.
+     * @param words array of NUM_WORDS to store the words in.
+     */
+    public static void setWindowWords( byte[] windows, long[] words ) {
+        long scheduled = 0;
+        long noStart = 0;
+        long noEnd = 0;
+        long middle = 0;
+        for ( int h=0; h < windows.length; h++ ) {
+            long bit = 1L << h;
+            switch ( windows[h] ) {
+                case 0:
+                    break;
+                case 1:
+                    scheduled |= bit;
+                    noStart |= bit;
+                    noEnd |= bit;
+                    middle |= bit;
+                    break;
+                case 2:
+                    scheduled |= bit;
+                    noStart |= bit;
+                    break;
+                case 3:
+                    scheduled |= bit;
+                    noEnd |= bit;
+                    break;
+                default:
+                    scheduled |= bit;
+                    break;
+            }
+        }
+        words[0] = scheduled | ( noStart << FLAG_SHIFT );
+        words[1] = noEnd | ( middle << FLAG_SHIFT );
+    }
+
+
+    /**
+     * @return the availability of the alternatives for time window words, in an array indexed from 1 for
+     * the UEC based choice model.
+     */
+    public boolean[] getAvailability( long[] words ) {
+        long word0 = words[0];
+        long word1 = words[1];
+        boolean[] availability = new boolean[altMasks0.length+1];
+        for ( int i=0; i < altMasks0.length; i++ )
+            availability[i+1] = ( ( word0 & altMasks0[i] ) | ( word1 & altMasks1[i] ) ) == 0;
+        return availability;
+    }
+
+
+    public int getNumberOfAlternatives() {
+        return altMasks0.length;
+    }
+
+}
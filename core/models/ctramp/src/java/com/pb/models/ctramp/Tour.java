@@ -658,4 +658,84 @@ public class Tour implements java.io.Serializable {
 
 
     
+
+    void setStops( Stop[] outboundStops, Stop[] inboundStops ) {
+        this.outboundStops = outboundStops;
+        this.inboundStops = inboundStops;
+    }
+
+    /**
+     * Write the tour attributes to a HouseholdColumnStore row.  The person and stops are stored by the HouseholdColumnStore.
+     */
+    void storeColumns( HouseholdColumnStore.Row row ) {
+        row.putByte( tourCategoryIndex );
+        row.putByte( tourPurposeIndex );
+        row.putString( tourPurpose );
+        row.putBytes( personNumArray );
+        row.putByte( jointTourComposition );
+        row.putByte( tourId );
+        row.putByte( personTourId );
+        row.putShort( tourOrigTaz );
+        row.putShort( tourDestTaz );
+        row.putByte( tourOrigWalkSubzone );
+        row.putByte( tourDestWalkSubzone );
+        row.putByte( tourStartHour );
+        row.putByte( tourEndHour );
+        row.putByte( tourMode );
+        row.putByte( subtourFreqChoice );
+        row.putShort( tourParkTaz );
+        row.putFloat( destinationChoiceLogsum );
+        row.putFloat( origTaxiWait );
+        row.putFloat( destTaxiWait );
+        row.putFloat( origTNCSingleWait );
+        row.putFloat( destTNCSingleWait );
+        row.putFloat( origTNCSharedWait );
+        row.putFloat( destTNCSharedWait );
+        row.putFloats( tourModalProbabilities );
+        row.putFloats( tourModalUtilities );
+        row.putByte( stopFreqChoice );
+        row.putByte( departPeriod );
+        row.putByte( arrivePeriod );
+        row.putInt( parentTourId );
+        row.putBoolean( useOwnedAV );
+        row.putFloat( sampleRate );
+    }
+
+    /**
+     * Read the tour attributes written by storeColumns().
+     */
+    void loadColumns( HouseholdColumnStore.Row row ) {
+        tourCategoryIndex = row.getByte();
+        tourPurposeIndex = row.getByte();
+        tourPurpose = row.getString();
+        personNumArray = row.getBytes();
+        jointTourComposition = row.getByte();
+        tourId = row.getByte();
+        personTourId = row.getByte();
+        tourOrigTaz = row.getShort();
+        tourDestTaz = row.getShort();
+        tourOrigWalkSubzone = row.getByte();
+        tourDestWalkSubzone = row.getByte();
+        tourStartHour = row.getByte();
+        tourEndHour = row.getByte();
+        tourMode = row.getByte();
+        subtourFreqChoice = row.getByte();
+        tourParkTaz = row.getShort();
+        destinationChoiceLogsum = row.getFloat();
+        origTaxiWait = row.getFloat();
+        destTaxiWait = row.getFloat();
+        origTNCSingleWait = row.getFloat();
+        destTNCSingleWait = row.getFloat();
+        origTNCSharedWait = row.getFloat();
+        destTNCSharedWait = row.getFloat();
+        tourModalProbabilities = row.getFloats();
+        tourModalUtilities = row.getFloats();
+        stopFreqChoice = row.getByte();
+        departPeriod = row.getByte();
+        arrivePeriod = row.getByte();
+        parentTourId = row.getInt();
+        useOwnedAV = row.getBoolean();
+        sampleRate = row.getFloat();
+    }
+
 }
@@ -5,21 +5,40 @@ import com.pb.common.calculator.VariableTable;
 import com.pb.common.newmodel.ChoiceModelApplication;
 import com.pb.models.ctramp.jppf.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
 
 /**
+ * Travel times and distances by mode for the trip and travel time output files.
+ *
+ * If TravelTimeModel.PrecomputedTables is true and the model is created with the list of zones, the UEC is
+ * evaluated once for each origin, time period and measure the first time the origin is asked for, and the results
+ * for all destinations are kept in a table that later calls read from.  Modes can be looked up once with
+ * getModeIndex() and passed as an index.
  *
  * @author crf
  *         Started Nov 4, 2010 1:55:52 PM
  */
 public class TravelTimeModel {
+
+    private static Logger logger = Logger.getLogger(TravelTimeModel.class);
+
     private static final int TT_DATA_SHEET = 0;
     private static final int TT_PEAK_TIME_SHEET = 1;
     private static final int TT_OFFPEAK_TIME_SHEET = 2;
     private static final int TT_PEAK_DISTANCE_SHEET = 3;
     private static final int TT_OFFPEAK_DISTANCE_SHEET = 4;
     private static final String PROPERTIES_UEC_TRAVEL_TIME_MODEL = "UecFile.TravelTime";
+    private static final String PROPERTIES_PRECOMPUTED_TABLES = "TravelTimeModel.PrecomputedTables";
+
+    private static final int PEAK = 0;
+    private static final int OFFPEAK = 1;
+    private static final int TIME = 0;
+    private static final int DISTANCE = 1;
 
     private static final String[] timePeriods = {"peak","offpeak"};
     private static final int START_AM_PEAK = 6;
@@ -38,7 +57,27 @@ public class TravelTimeModel {
     private final Map<String,Integer> peakDistanceModeToAlternativeMap;
     private final Map<String,Integer> offPeakDistanceModeToAlternativeMap;
 
+    // index of each mode name (lower case) in any of the models, and the alternative for each mode
+    // in each [measure][period] model, -1 if the model doesn't have the mode
+    private final Map<String,Integer> modeIndexMap;
+    private final int[][][] modeAlternatives;
+
+    // precomputed tables: rows by measure, period and origin zone, at [(measure*2 + period)*(maxZone+1) + origin],
+    // each row [alternative*(maxZone+1) + dest]
+    private final int[] zones;
+    private final int rowStride;
+    private final AtomicReferenceArray<float[]> tables;
+
+
     public TravelTimeModel(HashMap<String, String> propertyMap) {
+        this(propertyMap, null);
+    }
+
+    /**
+     * @param zones the zone numbers, used to precompute the travel times and distances if
+     * TravelTimeModel.PrecomputedTables is true.  May be null, in which case the UEC is evaluated for every call.
+     */
+    public TravelTimeModel(HashMap<String, String> propertyMap, int[] zones) {
         String mcUecFile = propertyMap.get(com.pb.models.ctramp.jppf.CtrampApplication.PROPERTIES_PROJECT_DIRECTORY) +
                            propertyMap.get(PROPERTIES_UEC_TRAVEL_TIME_MODEL);
 
@@ -68,31 +107,129 @@ public class TravelTimeModel {
         alts = offPeakDistanceModel.getAlternativeNames();
         for (int i = 0; i < alts.length; i++)
         	offPeakDistanceModeToAlternativeMap.put(alts[i].toLowerCase(),i);
+
+        modeIndexMap = new HashMap<String,Integer>();
+        for (ChoiceModelApplication app : new ChoiceModelApplication[] {peakTimeModel,offPeakTimeModel,peakDistanceModel,offPeakDistanceModel})
+            for (String alt : app.getAlternativeNames())
+                if (!modeIndexMap.containsKey(alt.toLowerCase()))
+                    modeIndexMap.put(alt.toLowerCase(),modeIndexMap.size());
+        modeAlternatives = new int[2][2][];
+        modeAlternatives[TIME][PEAK] = getModeAlternatives(peakTimeModeToAlternativeMap);
+        modeAlternatives[TIME][OFFPEAK] = getModeAlternatives(offPeakTimeModeToAlternativeMap);
+        modeAlternatives[DISTANCE][PEAK] = getModeAlternatives(peakDistanceModeToAlternativeMap);
+        modeAlternatives[DISTANCE][OFFPEAK] = getModeAlternatives(offPeakDistanceModeToAlternativeMap);
+
+        boolean precompute = zones != null && Boolean.parseBoolean(propertyMap.get(PROPERTIES_PRECOMPUTED_TABLES));
+        if (precompute) {
+            this.zones = zones.clone();
+            int maxZone = 0;
+            for (int zone : zones)
+                maxZone = Math.max(maxZone,zone);
+            rowStride = maxZone + 1;
+            tables = new AtomicReferenceArray<float[]>(2 * 2 * rowStride);
+            logger.info("travel times and distances will be precomputed for " + zones.length + " zones.");
+        }
+        else {
+            this.zones = null;
+            rowStride = 0;
+            tables = null;
+        }
     }
-   
-    private boolean tripStartsInPeakPeriod(int startHour) {
-        return ((startHour >= START_AM_PEAK && startHour <= END_AM_PEAK) ||
-                (startHour >= START_PM_PEAK && startHour <= END_PM_PEAK));
+
+    private int[] getModeAlternatives(Map<String,Integer> modeToAlternativeMap) {
+        int[] alternatives = new int[modeIndexMap.size()];
+        for (Map.Entry<String,Integer> entry : modeIndexMap.entrySet()) {
+            Integer alt = modeToAlternativeMap.get(entry.getKey());
+            alternatives[entry.getValue()] = alt == null ? -1 : alt;
+        }
+        return alternatives;
     }
 
-    private double getTravelTime(int origin, int dest, Boolean peak, String alt) {
-        indices.setOriginZone(origin);
-        indices.setDestZone(dest);
-        ChoiceModelApplication app = peak ? peakTimeModel : offPeakTimeModel;
-        app.computeUtilities(modelDmu,indices);
-        return app.getUtilities()[(peak ? peakTimeModeToAlternativeMap : offPeakTimeModeToAlternativeMap).get(alt)];
+    private ChoiceModelApplication getModel(int measure, int period) {
+        if (measure == TIME)
+            return period == PEAK ? peakTimeModel : offPeakTimeModel;
+        else
+            return period == PEAK ? peakDistanceModel : offPeakDistanceModel;
+    }
 
+    private int getTableIndex(int measure, int period, int origin) {
+        return (measure*2 + period)*rowStride + origin;
     }
-    
-    private double getTravelDistance(int origin, int dest, Boolean peak, String alt) {
+
+    /**
+     * @return the precomputed row for an origin, computing it the first time it is asked for.
+     */
+    private float[] getRow(int measure, int period, int origin) {
+        float[] row = tables.get(getTableIndex(measure, period, origin));
+        if (row == null)
+            row = computeRow(measure, period, origin);
+        return row;
+    }
+
+    private synchronized float[] computeRow(int measure, int period, int origin) {
+        // another thread may have computed the row while this one waited
+        float[] row = tables.get(getTableIndex(measure, period, origin));
+        if (row != null)
+            return row;
+
+        ChoiceModelApplication app = getModel(measure, period);
+        int numAlts = app.getNumberOfAlternatives();
+        row = new float[numAlts * rowStride];
+        Arrays.fill(row, Float.NaN);
         indices.setOriginZone(origin);
-        indices.setDestZone(dest);
-        ChoiceModelApplication app = peak ? peakDistanceModel : offPeakDistanceModel;
-        app.computeUtilities(modelDmu,indices);
-        return app.getUtilities()[(peak ? peakDistanceModeToAlternativeMap : offPeakDistanceModeToAlternativeMap).get(alt)];
+        for (int dest : zones) {
+            indices.setDestZone(dest);
+            app.computeUtilities(modelDmu,indices);
+            double[] utilities = app.getUtilities();
+            for (int i = 0; i < numAlts; i++)
+                row[i*rowStride + dest] = (float)utilities[i];
+        }
+        tables.set(getTableIndex(measure, period, origin), row);
+        return row;
+    }
 
+    private double getValue(int measure, int modeIndex, int startHour, int origin, int dest) {
+        int period = tripStartsInPeakPeriod(startHour) ? PEAK : OFFPEAK;
+        int alt = modeIndex < 0 ? -1 : modeAlternatives[measure][period][modeIndex];
+        if (alt < 0) {
+            logger.error(String.format("travel time model mode index %d is not an alternative of the %s %s model.",
+                    modeIndex, timePeriods[period], measure == TIME ? "time" : "distance"));
+            throw new RuntimeException();
+        }
+        if (tables != null)
+            return getRow(measure, period, origin)[alt*rowStride + dest];
+        synchronized (this) {
+            indices.setOriginZone(origin);
+            indices.setDestZone(dest);
+            ChoiceModelApplication app = getModel(measure, period);
+            app.computeUtilities(modelDmu,indices);
+            return app.getUtilities()[alt];
+        }
     }
-    
+
+    private double[] getValues(int measure, String period, int origin, int dest) {
+        int p = (period == timePeriods[0]) ? PEAK : OFFPEAK;
+        if (tables != null) {
+            float[] row = getRow(measure, p, origin);
+            double[] values = new double[row.length / rowStride];
+            for (int i = 0; i < values.length; i++)
+                values[i] = row[i*rowStride + dest];
+            return values;
+        }
+        synchronized (this) {
+            indices.setOriginZone(origin);
+            indices.setDestZone(dest);
+            ChoiceModelApplication app = getModel(measure, p);
+            app.computeUtilities(modelDmu,indices);
+            return app.getUtilities().clone();
+        }
+    }
+   
+    private boolean tripStartsInPeakPeriod(int startHour) {
+        return ((startHour >= START_AM_PEAK && startHour <= END_AM_PEAK) ||
+                (startHour >= START_PM_PEAK && startHour <= END_PM_PEAK));
+    }
+
     public String[] getTimeAlternatives(String period) {
         return (period == timePeriods[0]) ? peakTimeModel.getAlternativeNames() : offPeakTimeModel.getAlternativeNames();
     }
@@ -100,28 +237,38 @@ public class TravelTimeModel {
     public String[] getTimePeriods() {
         return timePeriods;
     }
+
     public double[] getTravelTimes(String period, int origin, int dest) {
-        indices.setOriginZone(origin);
-        indices.setDestZone(dest);
-        ChoiceModelApplication app = (period == timePeriods[0]) ? peakTimeModel : offPeakTimeModel;
-        app.computeUtilities(modelDmu,indices);
-        return app.getUtilities();
+        return getValues(TIME, period, origin, dest);
     }
 
     public double[] getTravelDistances(String period, int origin, int dest) {
-        indices.setOriginZone(origin);
-        indices.setDestZone(dest);
-        ChoiceModelApplication app = (period == timePeriods[0]) ? peakDistanceModel : offPeakDistanceModel;
-        app.computeUtilities(modelDmu,indices);
-        return app.getUtilities();
+        return getValues(DISTANCE, period, origin, dest);
     }
-    
+
+    /**
+     * @return the index of a mode to pass to getTravelTime() and getTravelDistance(), or -1 if the travel time UEC
+     * doesn't have the mode.
+     */
+    public int getModeIndex(String modeName) {
+        Integer index = modeIndexMap.get(modeName.toLowerCase());
+        return index == null ? -1 : index;
+    }
+
+    public double getTravelTime(int modeIndex, int startHour, int origin, int dest) {
+        return getValue(TIME, modeIndex, startHour, origin, dest);
+    }
+
+    public double getTravelDistance(int modeIndex, int startHour, int origin, int dest) {
+        return getValue(DISTANCE, modeIndex, startHour, origin, dest);
+    }
+
     public double getTravelTime(String modeName, int startHour, int origin, int dest) {
-        return getTravelTime(origin,dest,tripStartsInPeakPeriod(startHour),modeName.toLowerCase());
+        return getTravelTime(getModeIndex(modeName),startHour,origin,dest);
     }
 
     public double getTravelDistance(String modeName, int startHour, int origin, int dest) {
-        return getTravelDistance(origin,dest,tripStartsInPeakPeriod(startHour),modeName.toLowerCase());
+        return getTravelDistance(getModeIndex(modeName),startHour,origin,dest);
     }
     
     private class TravelTimeDMU implements VariableTable {
@@ -4,10 +4,18 @@ import gnu.cajo.invoke.Remote;
 
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
+import java.rmi.ConnectException;
 import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -18,17 +26,39 @@ import org.apache.log4j.Logger;
  *
  * Utility class for applying remote methods of various types
  *
+ * The remote item reference for each connectString is looked up once and
+ * shared by all UtilRmi objects in the JVM.  If a call fails because the
+ * connection to the item was lost, the reference is dropped, looked up again
+ * and the call is retried, waiting between attempts with a bounded
+ * exponential backoff.
+ *
+ * Calls and their elapsed time are counted by connectString and method.
+ * Argument and return value bytes are also counted if setCountBytes(true)
+ * is called (RunModel.CountRmiBytes = true) - this serializes them a second
+ * time, so is off by default.  The counters are kept per JVM:  the statistics
+ * CtrampApplication logs after each iteration cover only the calls made from
+ * the main model JVM, not those the JPPF node JVMs make to the household and
+ * matrix servers.
  */
 
 public class UtilRmi implements java.io.Serializable {
 
-    private transient Logger logger = Logger.getLogger(UtilRmi.class);
+    private static Logger logger = Logger.getLogger(UtilRmi.class);
     private String connectString;
 
-    private static int MAX_RETRY_COUNT = 100; 
-    private static int MAX_RETRY_TIME = 1000; // milliseconds 
-    
-    
+    private static int MAX_RETRY_COUNT = 100;
+    private static int MIN_RETRY_TIME = 10;   // milliseconds
+    private static int MAX_RETRY_TIME = 1000; // milliseconds
+    private static int MAX_RECONNECT_COUNT = 10;
+
+    // remote item references, by connectString
+    private static final ConcurrentHashMap<String, Object> itemMap = new ConcurrentHashMap<String, Object>();
+
+    // call counters, by connectString + "." + method name
+    private static final ConcurrentHashMap<String, MethodCounters> countersMap = new ConcurrentHashMap<String, MethodCounters>();
+    private static volatile boolean countBytes = false;
+
+
     public UtilRmi(String connectString) {
         this.connectString = connectString;
     }
@@ -37,29 +67,103 @@ public class UtilRmi implements java.io.Serializable {
 
     public Object method( String name, Object[] args ) {
 
-        int connectExceptionCount = 0;
-        
+        long startTime = System.nanoTime();
+
         Object itemObject = null;
         Object returnObject = null;
 
-        
+        int reconnectCount = 0;
+        while ( true ) {
+
+            itemObject = getItem( name );
+
+            try {
+                returnObject = Remote.invoke( itemObject, name, args );
+                break;
+            }
+            catch (InvocationTargetException e) {
+                logger.error ("InvocationTargetException exception making RMI method call.");
+                if ( connectString != null )
+                    logger.error ("connectString = " + connectString + "." + name + "().");
+                if ( name != null )
+                    logger.error ("name = " + name + "().");
+                e.printStackTrace();
+                throw new RuntimeException();
+            }
+            catch (ConnectException e) {
+                reconnectCount = reconnect( itemObject, name, reconnectCount, e );
+            }
+            catch (ConnectIOException e) {
+                reconnectCount = reconnect( itemObject, name, reconnectCount, e );
+            }
+            catch (NoSuchObjectException e) {
+                reconnectCount = reconnect( itemObject, name, reconnectCount, e );
+            }
+            catch (Exception e) {
+                logger.error ("Exception exception making RMI method call: " + connectString + "." + name + "().", e);
+                throw new RuntimeException();
+            }
+
+        }
+
+        getCounters( name ).add( System.nanoTime() - startTime, args, returnObject );
+
+        return returnObject;
+
+    }
+
+
+
+    /**
+     * Drop an item reference whose connection failed, and wait before the
+     * call is retried with a new reference.  These exceptions are thrown
+     * before the remote method starts, so it is safe to call it again.
+     *
+     * @return the number of reconnects made for this call.
+     */
+    private int reconnect( Object itemObject, String name, int reconnectCount, RemoteException e ) {
+
+        itemMap.remove( connectString, itemObject );
+
+        reconnectCount++;
+        if ( reconnectCount > MAX_RECONNECT_COUNT ) {
+            logger.error ("UtilRmi.method() lost the connection " + MAX_RECONNECT_COUNT + " times making RMI method call: " + connectString + "." + name + "().", e);
+            throw new RuntimeException();
+        }
+
+        logger.warn ("UtilRmi.method() lost the connection making RMI method call: " + connectString + "." + name + "(), reconnecting: " + e.getMessage() );
+        backoff( reconnectCount );
+        return reconnectCount;
+
+    }
+
+
+
+    /**
+     * @return the shared item reference for connectString, looking it up
+     * if there isn't one.
+     */
+    private Object getItem( String name ) {
+
+        Object itemObject = itemMap.get( connectString );
+        if ( itemObject != null )
+            return itemObject;
+
+        int connectExceptionCount = 0;
+
         while ( connectExceptionCount < MAX_RETRY_COUNT ) {
 
             try {
                 itemObject = Remote.getItem(connectString);
                 break;
             }
+            catch (ConnectException e) {
+                connectExceptionCount++;
+                backoff( connectExceptionCount );
+            }
             catch (ConnectIOException e) {
-                
-                try {
-                    Thread.currentThread().wait( MAX_RETRY_TIME );
-                } catch (InterruptedException e1) {
-                    // TODO Auto-generated catch block
-                    e1.printStackTrace();
-                }
-                
                 connectExceptionCount++;
-                
+                backoff( connectExceptionCount );
             }
             catch (RemoteException e) {
                 logger.error ("RemoteException exception making RMI method call: " + connectString + "." + name + "().", e);
@@ -93,42 +197,141 @@ public class UtilRmi implements java.io.Serializable {
                 logger.error ("UnsatisfiedLinkError exception making RMI method call: " + connectString + "." + name + "().", e);
                 throw new RuntimeException();
             }
-            
+
         }
-            
-        
+
+
         if ( connectExceptionCount > 0 ) {
-            logger.warn ("UtilRmi.method() timed out " + connectExceptionCount + "times connecting to: " + connectString + "." + name + "()." );
+            logger.warn ("UtilRmi.method() timed out " + connectExceptionCount + " times connecting to: " + connectString + "." + name + "()." );
         }
         if ( connectExceptionCount == MAX_RETRY_COUNT ) {
             logger.error ("UtilRmi.method() connection was never made." );
             throw new RuntimeException();
         }
 
-        
-        
+        // another thread may have looked up the item at the same time - use the one that was stored first
+        Object existing = itemMap.putIfAbsent( connectString, itemObject );
+        return existing != null ? existing : itemObject;
+
+    }
+
+
+
+    /**
+     * Sleep before retry number attempt, starting at MIN_RETRY_TIME and
+     * doubling up to MAX_RETRY_TIME.
+     */
+    private static void backoff( int attempt ) {
+        long waitTime = Math.min( (long)MIN_RETRY_TIME << Math.min( attempt - 1, 16 ), MAX_RETRY_TIME );
         try {
-            returnObject = Remote.invoke( itemObject, name, args );
+            Thread.sleep( waitTime );
         }
-        catch (InvocationTargetException e) {            
-            logger.error ("InvocationTargetException exception making RMI method call.");
-            if ( connectString != null )
-                logger.error ("connectString = " + connectString + "." + name + "().");
-            if ( name != null )
-                logger.error ("name = " + name + "().");
-            e.printStackTrace();
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error ("UtilRmi.method() interrupted waiting to retry.", e );
             throw new RuntimeException();
         }
-        catch (Exception e) {
-            logger.error ("Exception exception making RMI method call: " + connectString + "." + name + "().", e);
-            throw new RuntimeException();
+    }
+
+
+
+    private MethodCounters getCounters( String name ) {
+        String key = connectString + "." + name;
+        MethodCounters counters = countersMap.get( key );
+        if ( counters == null ) {
+            MethodCounters newCounters = new MethodCounters();
+            counters = countersMap.putIfAbsent( key, newCounters );
+            if ( counters == null )
+                counters = newCounters;
         }
-            
-        
-        
-        return returnObject;
-        
+        return counters;
+    }
+
+
+
+    /**
+     * Count the serialized bytes of method arguments and return values.
+     */
+    public static void setCountBytes( boolean count ) {
+        countBytes = count;
+    }
+
+
+    /**
+     * @return the call counters for each remote method called from this JVM only.
+     */
+    public static String getStatistics() {
+        StringBuilder sb = new StringBuilder( "UtilRmi remote calls:" );
+        for ( Map.Entry<String, MethodCounters> entry : new TreeMap<String, MethodCounters>( countersMap ).entrySet() ) {
+            MethodCounters c = entry.getValue();
+            long calls = c.calls.get();
+            double totalMs = c.nanos.get() / 1000000.0;
+            sb.append( String.format( "%n    %s(): calls=%d, total=%.1f ms, mean=%.3f ms",
+                    entry.getKey(), calls, totalMs, calls > 0 ? totalMs / calls : 0.0 ) );
+            if ( countBytes )
+                sb.append( String.format( ", bytes sent=%d, bytes received=%d", c.bytesSent.get(), c.bytesReceived.get() ) );
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Reset the call counters.
+     */
+    public static void clearStatistics() {
+        countersMap.clear();
+    }
+
+
+
+    private static class MethodCounters {
+
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+
+        void add( long elapsedNanos, Object[] args, Object returnObject ) {
+            calls.incrementAndGet();
+            nanos.addAndGet( elapsedNanos );
+            if ( countBytes ) {
+                bytesSent.addAndGet( serializedSize( args ) );
+                bytesReceived.addAndGet( serializedSize( returnObject ) );
+            }
+        }
+
+    }
+
+
+    private static long serializedSize( Object object ) {
+        if ( object == null )
+            return 0;
+
+        CountingOutputStream counter = new CountingOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream( counter );
+            out.writeObject( object );
+            out.close();
+        }
+        catch (IOException e) {
+            logger.warn ("UtilRmi could not count bytes of " + object.getClass().getName() + ": " + e.getMessage() );
+        }
+        return counter.count;
+    }
+
+
+    private static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        public void write( int b ) {
+            count++;
+        }
+
+        public void write( byte[] b, int off, int len ) {
+            count += len;
+        }
+
     }
-        
 
 }
@@ -0,0 +1,478 @@
+package com.pb.models.ctramp.jppf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+import com.pb.common.calculator.MatrixDataManager;
+import com.pb.common.util.Tracer;
+import com.pb.models.ctramp.AccessibilityDMU;
+
+
+/**
+ * Computes the accessibility logsums for all origin destination choice alternatives on a fork/join pool.
+ *
+ * For each origin and income segment the modal exponentiated utilities from the ExpUtilityModel are combined with the
+ * auto sufficiency constants into one destination array per auto sufficiency segment, and each accessibility
+ * alternative is the log of the sum over destinations of that array times the destination size terms.  The
+ * accessibility alternatives' income, auto sufficiency and size term indices are read from the AccessibilityDMU once,
+ * rather than for every origin destination pair.
+ *
+ * If a state file is given, the results are saved in it with a fingerprint of each origin's skim values, the size
+ * terms and the input files, and the next calculation only recomputes the origins whose skim values changed.  The
+ * accessibility UEC utilities depend on the origin's skim rows and on zonal data, so every origin of a period is
+ * recomputed if that period's size terms changed, and every origin is recomputed if the UEC files, the accessibility
+ * alternatives files, the zonal data files or the properties changed.  Saved accessibilities are also only reused if
+ * they have one value for each of the current accessibility alternatives.
+ */
+public class AccessibilityEngine {
+
+    private static transient Logger logger = Logger.getLogger(AccessibilityEngine.class);
+
+    // origin destination choice alternatives calculated by each fork/join task
+    private static final int ORIGINS_PER_TASK = 6;
+
+    private final AccessibilityLogsumsCalculator calculator;
+    private final Tracer tracer;
+
+    private final int maxTaz;
+    private final int numberOfSubzones;
+    private final int numDcAlts;
+    private final int numIncomeSegments;
+    private final int numThreads;
+
+    // [period][auto sufficiency][mode]
+    private final double[][][] expConstants;
+
+    private final String stateFileName;
+    private final long setupFingerprint;
+
+
+    public AccessibilityEngine( AccessibilityLogsumsCalculator calculator, HashMap<String,String> propertyMap, String[] inputFileNames, String stateFileName,
+            int maxTaz, int numberOfSubzones, int numDcAlts, int numIncomeSegments, double[][][] expConstants, int numThreads, Tracer tracer )
+    {
+        this.calculator = calculator;
+        this.maxTaz = maxTaz;
+        this.numberOfSubzones = numberOfSubzones;
+        this.numDcAlts = numDcAlts;
+        this.numIncomeSegments = numIncomeSegments;
+        this.expConstants = expConstants;
+        this.numThreads = Math.max( 1, numThreads );
+        this.stateFileName = stateFileName;
+        this.tracer = tracer;
+
+        setupFingerprint = stateFileName == null ? 0 : getSetupFingerprint( propertyMap, inputFileNames );
+    }
+
+
+    /**
+     * @param accessibilitySize size terms by destination choice alternative, period/purpose and size term segment.
+     * @param logsumsDmus DMU for each period with the alternative data of the period's accessibility logsums UEC set.
+     * @param numAccessibilityAlts the number of accessibility alternatives for each period.
+     * @return the accessibilities by period, origin destination choice alternative and accessibility alternative.
+     */
+    public double[][][] calculateAccessibilities( double[][][] accessibilitySize, AccessibilityDMU[] logsumsDmus, int[] numAccessibilityAlts )
+    {
+
+        int numPeriods = logsumsDmus.length;
+        long startTime = System.currentTimeMillis();
+
+        // one model object per period is set up before the tasks start, which also reads the matrices they use
+        ArrayList<ConcurrentLinkedQueue<ExpUtilityModel>> modelPools = new ArrayList<ConcurrentLinkedQueue<ExpUtilityModel>>( numPeriods );
+        for ( int p=0; p < numPeriods; p++ ) {
+            ConcurrentLinkedQueue<ExpUtilityModel> pool = new ConcurrentLinkedQueue<ExpUtilityModel>();
+            pool.add( calculator.getExpUtilityModel( p ) );
+            modelPools.add( pool );
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool( numThreads );
+        try {
+
+            State previous = readState();
+            State state = new State( numPeriods );
+            state.setupFingerprint = setupFingerprint;
+
+            if ( stateFileName != null ) {
+                state.originFingerprints = new long[maxTaz+1];
+                forkJoinPool.invoke( new OriginFingerprintTask( state.originFingerprints, 1, maxTaz+1 ) );
+            }
+
+            for ( int p=0; p < numPeriods; p++ ) {
+
+                // size terms by size term segment and destination
+                int numSegments = accessibilitySize[0][p].length;
+                double[][] sizeTerms = new double[numSegments][numDcAlts];
+                for ( int d=0; d < numDcAlts; d++ ) {
+                    for ( int s=0; s < numSegments; s++ )
+                        sizeTerms[s][d] = accessibilitySize[d][p][s];
+                }
+                state.sizeFingerprints[p] = getSizeFingerprint( sizeTerms );
+
+                int[] altIncome = new int[numAccessibilityAlts[p]];
+                int[] altAutoSufficiency = new int[numAccessibilityAlts[p]];
+                int[] altSizeTerm = new int[numAccessibilityAlts[p]];
+                for ( int alt=0; alt < numAccessibilityAlts[p]; alt++ ) {
+                    altIncome[alt] = logsumsDmus[p].getIncomeIndex( alt + 1 );
+                    altAutoSufficiency[alt] = logsumsDmus[p].getAutoSufficiencyIndex( alt + 1 );
+                    altSizeTerm[alt] = logsumsDmus[p].getSizeTermIndex( alt + 1 );
+                }
+
+                state.accessibilities[p] = new double[numDcAlts][];
+                boolean recomputeAll = previous == null || previous.setupFingerprint != setupFingerprint || previous.accessibilities.length != numPeriods
+                        || previous.sizeFingerprints[p] != state.sizeFingerprints[p] || previous.accessibilities[p].length != numDcAlts;
+
+                // origins whose skim values haven't changed keep their previous accessibilities
+                int[] origAlts = new int[numDcAlts];
+                int numOrigAlts = 0;
+                for ( int origAlt=0; origAlt < numDcAlts; origAlt++ ) {
+                    int iTaz = ( origAlt / numberOfSubzones ) + 1;
+                    if ( recomputeAll || previous.originFingerprints[iTaz] != state.originFingerprints[iTaz] || previous.accessibilities[p][origAlt] == null
+                            || previous.accessibilities[p][origAlt].length != numAccessibilityAlts[p] )
+                        origAlts[numOrigAlts++] = origAlt;
+                    else
+                        state.accessibilities[p][origAlt] = previous.accessibilities[p][origAlt];
+                }
+
+                logger.info( String.format( "accessibility engine, period %d: calculating %d of %d origins%s.", p, numOrigAlts, numDcAlts,
+                        recomputeAll ? "" : ", the rest are unchanged since the previous calculation" ) );
+
+                PeriodKernel kernel = new PeriodKernel( p, modelPools.get( p ), sizeTerms, altIncome, altAutoSufficiency, altSizeTerm, state.accessibilities[p] );
+                forkJoinPool.invoke( new OriginRangeTask( kernel, origAlts, 0, numOrigAlts ) );
+
+            }
+
+            writeState( state );
+
+            logger.info( String.format( "accessibility engine finished in %.1f seconds.", ( System.currentTimeMillis() - startTime ) / 1000.0 ) );
+
+            return state.accessibilities;
+
+        }
+        catch ( RuntimeException e ) {
+            logger.error( "exception calculating accessibilities.", e );
+            throw e;
+        }
+        finally {
+            forkJoinPool.shutdown();
+        }
+
+    }
+
+
+
+    /**
+     * Accessibility calculation for the origins of one period.
+     */
+    private final class PeriodKernel {
+
+        private final int periodIndex;
+        private final ConcurrentLinkedQueue<ExpUtilityModel> modelPool;
+
+        // [size term segment][destination choice alternative]
+        private final double[][] sizeTerms;
+
+        private final int[] altIncome;
+        private final int[] altAutoSufficiency;
+        private final int[] altSizeTerm;
+
+        private final double[][] accessibilities;
+
+        private PeriodKernel( int periodIndex, ConcurrentLinkedQueue<ExpUtilityModel> modelPool, double[][] sizeTerms,
+                int[] altIncome, int[] altAutoSufficiency, int[] altSizeTerm, double[][] accessibilities ) {
+            this.periodIndex = periodIndex;
+            this.modelPool = modelPool;
+            this.sizeTerms = sizeTerms;
+            this.altIncome = altIncome;
+            this.altAutoSufficiency = altAutoSufficiency;
+            this.altSizeTerm = altSizeTerm;
+            this.accessibilities = accessibilities;
+        }
+
+
+        private void calculate( int[] origAlts, int start, int end ) {
+
+            // ExpUtilityModel objects are not thread safe, so each task uses one no other task is using
+            ExpUtilityModel model = modelPool.poll();
+            if ( model == null )
+                model = calculator.getExpUtilityModel( periodIndex );
+
+            try {
+                double[][] c = expConstants[periodIndex];
+                double[][] expUtilities = new double[c.length][numDcAlts];
+
+                for ( int k=start; k < end; k++ ) {
+
+                    int origAlt = origAlts[k];
+                    int iTaz = ( origAlt / numberOfSubzones ) + 1;
+                    int iSubzoneIndex = origAlt - ( iTaz - 1 ) * numberOfSubzones;
+
+                    double[] result = new double[altIncome.length];
+
+                    for ( int incomeIndex=0; incomeIndex < numIncomeSegments; incomeIndex++ ) {
+
+                        model.clearExponentiatedUtilities( incomeIndex );
+                        model.calculateExponentiatedUtilities( iTaz, iSubzoneIndex, incomeIndex, tracer );
+                        double[] nm = model.getNmExpUtilities( incomeIndex );
+                        double[] sov = model.getSovExpUtilities( incomeIndex );
+                        double[] hov = model.getHovExpUtilities( incomeIndex );
+                        double[][] wt = model.getWtExpUtilities( incomeIndex );
+                        double[][] dt = model.getDtExpUtilities( incomeIndex );
+
+                        // exponentiated utility by auto sufficiency segment and destination
+                        for ( int a=0; a < c.length; a++ ) {
+                            double[] e = expUtilities[a];
+                            for ( int destAlt=0; destAlt < numDcAlts; destAlt++ ) {
+                                int jTaz = ( destAlt / numberOfSubzones ) + 1;
+                                int jSubzoneIndex = destAlt - ( jTaz - 1 ) * numberOfSubzones;
+                                e[destAlt] = sov[jTaz] * c[a][0] + hov[jTaz] * c[a][1] + wt[jTaz][jSubzoneIndex] * c[a][2]
+                                        + dt[jTaz][jSubzoneIndex] * c[a][3] + nm[jTaz] * c[a][4];
+                            }
+                        }
+
+                        for ( int alt=0; alt < altIncome.length; alt++ ) {
+                            if ( altIncome[alt] != incomeIndex )
+                                continue;
+                            double[] e = expUtilities[altAutoSufficiency[alt]];
+                            double[] size = sizeTerms[altSizeTerm[alt]];
+                            double sum = 0;
+                            for ( int destAlt=0; destAlt < numDcAlts; destAlt++ )
+                                sum += e[destAlt] * size[destAlt];
+                            result[alt] = sum > 0 ? Math.log( sum ) : sum;
+                        }
+
+                        if ( tracer.isTraceOn() )
+                            logTrace( iTaz, iSubzoneIndex, incomeIndex, expUtilities );
+
+                    }
+
+                    accessibilities[origAlt] = result;
+
+                }
+            }
+            finally {
+                modelPool.add( model );
+            }
+
+        }
+
+
+        private void logTrace( int iTaz, int iSubzoneIndex, int incomeIndex, double[][] expUtilities ) {
+            for ( int destAlt=0; destAlt < numDcAlts; destAlt++ ) {
+                int jTaz = ( destAlt / numberOfSubzones ) + 1;
+                if ( ! tracer.isTraceZonePair( iTaz, jTaz ) )
+                    continue;
+                int jSubzoneIndex = destAlt - ( jTaz - 1 ) * numberOfSubzones;
+                for ( int a=0; a < expUtilities.length; a++ )
+                    logger.info( String.format( "period=%d, iTaz=%d, iSubzone=%d, jTaz=%d, jSubzone=%d, income=%d, autoSufficiency=%d, expUtility=%16.6e",
+                            periodIndex, iTaz, iSubzoneIndex, jTaz, jSubzoneIndex, incomeIndex, a, expUtilities[a][destAlt] ) );
+            }
+        }
+
+    }
+
+
+    private final class OriginRangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PeriodKernel kernel;
+        private final int[] origAlts;
+        private final int start;
+        private final int end;
+
+        private OriginRangeTask( PeriodKernel kernel, int[] origAlts, int start, int end ) {
+            this.kernel = kernel;
+            this.origAlts = origAlts;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if ( end - start <= ORIGINS_PER_TASK ) {
+                kernel.calculate( origAlts, start, end );
+            }
+            else {
+                int middle = ( start + end ) >>> 1;
+                invokeAll( new OriginRangeTask( kernel, origAlts, start, middle ), new OriginRangeTask( kernel, origAlts, middle, end ) );
+            }
+        }
+
+    }
+
+
+    private final class OriginFingerprintTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] fingerprints;
+        private final int start;
+        private final int end;
+
+        private OriginFingerprintTask( long[] fingerprints, int start, int end ) {
+            this.fingerprints = fingerprints;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if ( end - start <= ORIGINS_PER_TASK ) {
+                int[] destTazs = new int[maxTaz];
+                for ( int j=0; j < maxTaz; j++ )
+                    destTazs[j] = j + 1;
+                MatrixDataManager mdm = MatrixDataManager.getInstance();
+                for ( int iTaz=start; iTaz < end; iTaz++ )
+                    fingerprints[iTaz] = mdm.getRowFingerprint( iTaz, destTazs );
+            }
+            else {
+                int middle = ( start + end ) >>> 1;
+                invokeAll( new OriginFingerprintTask( fingerprints, start, middle ), new OriginFingerprintTask( fingerprints, middle, end ) );
+            }
+        }
+
+    }
+
+
+
+    /**
+     * Accessibilities and the fingerprints of the inputs they were calculated from.
+     */
+    private static final class State implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long setupFingerprint;
+        private long[] sizeFingerprints;
+        private long[] originFingerprints;
+        private double[][][] accessibilities;
+
+        private State( int numPeriods ) {
+            sizeFingerprints = new long[numPeriods];
+            accessibilities = new double[numPeriods][][];
+        }
+    }
+
+
+    private State readState() {
+
+        if ( stateFileName == null )
+            return null;
+
+        File stateFile = new File( stateFileName );
+        if ( ! stateFile.exists() ) {
+            logger.info( "accessibility engine state file " + stateFileName + " does not exist, all origins will be calculated." );
+            return null;
+        }
+
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream( new FileInputStream( stateFile ) );
+            State state = (State) in.readObject();
+            if ( state.originFingerprints == null || state.originFingerprints.length != maxTaz+1 ) {
+                logger.info( "accessibility engine state file " + stateFileName + " is for a different zone system, all origins will be calculated." );
+                return null;
+            }
+            return state;
+        }
+        catch ( Exception e ) {
+            logger.warn( "could not read accessibility engine state file " + stateFileName + ", all origins will be calculated.", e );
+            return null;
+        }
+        finally {
+            if ( in != null ) {
+                try {
+                    in.close();
+                }
+                catch ( IOException e ) {
+                }
+            }
+        }
+
+    }
+
+    private void writeState( State state ) {
+
+        if ( stateFileName == null )
+            return;
+
+        ObjectOutputStream out = null;
+        try {
+            out = new ObjectOutputStream( new FileOutputStream( stateFileName ) );
+            out.writeObject( state );
+        }
+        catch ( IOException e ) {
+            logger.error( "error writing accessibility engine state file " + stateFileName + ".", e );
+            throw new RuntimeException( e );
+        }
+        finally {
+            if ( out != null ) {
+                try {
+                    out.close();
+                }
+                catch ( IOException e ) {
+                }
+            }
+        }
+
+    }
+
+
+    private static long getSetupFingerprint( HashMap<String,String> propertyMap, String[] inputFileNames ) {
+
+        long hash = 0xcbf29ce484222325L;
+
+        TreeMap<String,String> sortedProperties = new TreeMap<String,String>( propertyMap );
+        for ( String key : sortedProperties.keySet() ) {
+            hash = fingerprint( hash, key.hashCode() );
+            String value = sortedProperties.get( key );
+            hash = fingerprint( hash, value == null ? 0 : value.hashCode() );
+        }
+
+        for ( String fileName : inputFileNames ) {
+            hash = fingerprint( hash, fileName.hashCode() );
+            try {
+                byte[] bytes = Files.readAllBytes( new File( fileName ).toPath() );
+                for ( byte b : bytes )
+                    hash = fingerprint( hash, b );
+            }
+            catch ( IOException e ) {
+                logger.error( "error reading " + fileName + " to check whether accessibility inputs changed.", e );
+                throw new RuntimeException( e );
+            }
+        }
+
+        return hash;
+    }
+
+    private static long getSizeFingerprint( double[][] sizeTerms ) {
+        long hash = 0xcbf29ce484222325L;
+        for ( double[] values : sizeTerms ) {
+            for ( double value : values ) {
+                long bits = Double.doubleToLongBits( value );
+                hash = fingerprint( hash, (int) bits );
+                hash = fingerprint( hash, (int) ( bits >>> 32 ) );
+            }
+        }
+        return hash;
+    }
+
+    private static long fingerprint( long hash, int value ) {
+        hash = ( hash ^ value ) * 0x100000001b3L;
+        return hash ^ ( hash >>> 29 );
+    }
+
+}
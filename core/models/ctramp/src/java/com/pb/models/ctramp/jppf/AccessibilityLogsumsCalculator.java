@@ -25,6 +25,7 @@ import com.pb.models.ctramp.AccConstantsDMU;
 import com.pb.models.ctramp.AccessibilityDMU;
 import com.pb.models.ctramp.CtrampDmuFactoryIf;
 import com.pb.models.ctramp.DestChoiceSize;
+import com.pb.models.ctramp.TazDataHandler;
 import com.pb.models.ctramp.TazDataIf;
 import com.pb.models.ctramp.Util;
 
@@ -61,11 +62,17 @@ public class AccessibilityLogsumsCalculator implements Callable<List<Object>>, S
     private static final String ACC_UEC_FILE_WALK_TRANSIT_OP_UTILITY_PAGE_PROPERTY_KEY =                "acc.wt.offpeak.page";
     private static final String ACC_UEC_FILE_DRIVE_TRANSIT_OP_UTILITY_PAGE_PROPERTY_KEY =               "acc.dt.offpeak.page";
 
+    private static final String ACC_ALTS_MANDATORY_FILE_PROPERTY_KEY = "acc.alts.mandatory.file";
+    private static final String ACC_ALTS_NON_MANDATORY_FILE_PROPERTY_KEY = "acc.alts.nonmandatory.file";
+
     private static final String ACC_UEC_VALUE_OF_TIME_LOW = "acc.low.value.of.time";
     private static final String ACC_UEC_VALUE_OF_TIME_MED = "acc.med.value.of.time";
     private static final String ACC_UEC_VALUE_OF_TIME_HIGH = "acc.high.value.of.time";
     private static final String ACC_UEC_VALUE_OF_TIME_VERYHIGH = "acc.veryhigh.value.of.time";
 
+    private static final String ACC_ENGINE_ENABLED_PROPERTY_KEY = "acc.engine.enabled";
+    private static final String ACC_ENGINE_STATE_FILE_PROPERTY_KEY = "acc.engine.state.file";
+
     private static final String ACC_TRACE_OD_UTILITY_PROPERTY_KEY = "acc.trace.flag";
     private static final String ACC_TRACE_OD_UTILITY_ORIG_PROPERTY_KEY = "acc.trace.orig";
     private static final String ACC_TRACE_OD_UTILITY_DEST_PROPERTY_KEY = "acc.trace.dest";
@@ -107,6 +114,7 @@ public class AccessibilityLogsumsCalculator implements Callable<List<Object>>, S
     private int numOrigsPerJppfTask;
     private boolean useJppf;
     private boolean multiThreaded;
+    private boolean useEngine;
     
     
     // period/purpose segments - work and othMaint
@@ -158,6 +166,9 @@ public class AccessibilityLogsumsCalculator implements Callable<List<Object>>, S
             multiThreaded = false;
         }
         
+        String engineString = propertyMap.get( ACC_ENGINE_ENABLED_PROPERTY_KEY );
+        useEngine = engineString != null && engineString.trim().equalsIgnoreCase( "true" );
+
         trace = Util.getBooleanValueFromPropertyMap( propertyMap, ACC_TRACE_OD_UTILITY_PROPERTY_KEY );
         traceOtaz = Util.getIntegerArrayFromPropertyMap( propertyMap, ACC_TRACE_OD_UTILITY_ORIG_PROPERTY_KEY );
         traceDtaz = Util.getIntegerArrayFromPropertyMap( propertyMap, ACC_TRACE_OD_UTILITY_DEST_PROPERTY_KEY );
@@ -474,6 +485,9 @@ public class AccessibilityLogsumsCalculator implements Callable<List<Object>>, S
         logsumsDataPage[PEAK_INDEX] = Util.getIntegerValueFromPropertyMap( propertyMap, ACC_UEC_FILE_MANDATORY_DATA_PAGE_PROPERTY_KEY );
         logsumsDataPage[OFF_PEAK_INDEX] = Util.getIntegerValueFromPropertyMap( propertyMap, ACC_UEC_FILE_NON_MANDATORY_DATA_PAGE_PROPERTY_KEY );
 
+        if ( useEngine )
+            return calculateAccessibilitiesWithEngine( accessibilitySize, sizeTermSegmentNames.length, logsumsFile, logsumsPage, logsumsDataPage );
+
         AccessibilityDMU logsumsDmu = dmuFactory.getAccessibilityDMU();
                     
         
@@ -518,6 +532,44 @@ public class AccessibilityLogsumsCalculator implements Callable<List<Object>>, S
     }
 
 
+    private double[][][] calculateAccessibilitiesWithEngine( double[][][] accessibilitySize, int numPeriods, String[] logsumsFile, int[] logsumsPage, int[] logsumsDataPage )
+    {
+
+        String projectDirectory = propertyMap.get( CtrampApplication.PROPERTIES_PROJECT_DIRECTORY );
+        String uecFolder = propertyMap.get( PROJECT_UEC_FOLDER_PROPERTY_KEY );
+
+        AccessibilityDMU[] logsumsDmus = new AccessibilityDMU[numPeriods];
+        int[] numAccessibilityAlts = new int[numPeriods];
+        for ( int periodIndex=0; periodIndex < numPeriods; periodIndex++ ) {
+            logsumsDmus[periodIndex] = dmuFactory.getAccessibilityDMU();
+            UtilityExpressionCalculator logsumsUEC = new UtilityExpressionCalculator( new File(logsumsFile[periodIndex]), logsumsPage[periodIndex], logsumsDataPage[periodIndex], propertyMap, logsumsDmus[periodIndex] );
+            logsumsDmus[periodIndex].setAlternativeData( logsumsUEC.getAlternativeData() );
+            numAccessibilityAlts[periodIndex] = logsumsUEC.getNumberOfAlternatives();
+        }
+
+        // the accessibilities only need to be recalculated if these files change, or the properties, size terms or skims
+        String[] inputFileNames = {
+            projectDirectory + uecFolder + "/" + Util.getStringValueFromPropertyMap( propertyMap, ACC_UEC_FILE_KEY ),
+            projectDirectory + uecFolder + "/" + Util.getStringValueFromPropertyMap( propertyMap, ACC_UEC_FILE_CONSTANTS_PROPERTY_KEY ),
+            projectDirectory + uecFolder + "/" + Util.getStringValueFromPropertyMap( propertyMap, ACC_ALTS_MANDATORY_FILE_PROPERTY_KEY ),
+            projectDirectory + uecFolder + "/" + Util.getStringValueFromPropertyMap( propertyMap, ACC_ALTS_NON_MANDATORY_FILE_PROPERTY_KEY ),
+            projectDirectory + propertyMap.get( TazDataHandler.PROPERTIES_TAZ_DATA ),
+            projectDirectory + propertyMap.get( TazDataHandler.PROPERTIES_WALK_SHARES_DATA )
+        };
+
+        String stateFileName = propertyMap.get( ACC_ENGINE_STATE_FILE_PROPERTY_KEY );
+        if ( stateFileName == null || stateFileName.trim().length() == 0 )
+            stateFileName = null;
+        else
+            stateFileName = projectDirectory + stateFileName.trim();
+
+        AccessibilityEngine engine = new AccessibilityEngine( this, propertyMap, inputFileNames, stateFileName,
+                maxTaz, numberOfSubzones, numDcAlts, incomeSegmentVOTs.length, expConstants, numAccessibilityThreads, tracer );
+        return engine.calculateAccessibilities( accessibilitySize, logsumsDmus, numAccessibilityAlts );
+
+    }
+
+
     private double[][] submitTasks( ArrayList<int[]> startEndIndexList, double[][][] accessibilitySize, String logsumsFile, int logsumsDataPage, int logsumsPage, int periodIndex, int incomeIndex, double[][] accessibilities, String[] incomeSegments, String[] autoSufficiencySegments )
     {
 
@@ -0,0 +1,245 @@
+package com.pb.models.ctramp.jppf;
+
+import com.pb.common.math.MathUtil;
+
+
+/**
+ * Assembles the utilities of the coordinated daily activity patterns of a household from the one person, two
+ * person, three person and all member utilities, and chooses a pattern, with primitive arrays instead of a
+ * LogitModel with an alternative object for each pattern.
+ *
+ * Pattern p of an n person household has activity (p / 3^i) % 3 for person i, the order of the alternatives
+ * created by HouseholdCoordinatedDailyActivityPatternModel.  The activity of each pattern for each utility term,
+ * or -1 if the term doesn't apply, is tabulated once for each household size, so a pattern's utility is a sum
+ * over the terms with array lookups.  Terms are added in the order the LogitModel implementation adds them, and
+ * the probabilities and choice are computed as LogitModel computes them, so the same pattern is chosen.
+ */
+public class CdapPatternKernel {
+
+    public static final int NUM_ACTIVITIES = 3;
+
+    private final int maxHhSize;
+
+    // by household size: the term index for each person, pair and triple of persons
+    private final int[][] oneTermIndex;
+    private final int[][][] twoTermIndex;
+    private final int[][][][] threeTermIndex;
+    private final int[] numTerms;
+
+    // by household size, pattern and term: the activity whose utility the term adds to the pattern, or -1
+    private final byte[][][] termActivity;
+
+    // by household size and pattern: the activity of all the persons, or -1 if they don't all have the same one
+    private final byte[][] allSameActivity;
+
+    // by household size and pattern: the pattern name, e.g. "MNH"
+    private final String[][] patternNames;
+
+    private int hhSize;
+    private final double[][] termUtilities;
+    private final double[] allMemberUtilities = new double[NUM_ACTIVITIES];
+    private final double[] utilities;
+    private final double[] expUtilities;
+    private final double[] probabilities;
+
+
+    /**
+     * @param maxHhSize the largest household size the kernel is used for.
+     * @param activityNames the name of each activity, in the order of the utilities.
+     */
+    public CdapPatternKernel( int maxHhSize, String[] activityNames ) {
+
+        this.maxHhSize = maxHhSize;
+
+        oneTermIndex = new int[maxHhSize+1][];
+        twoTermIndex = new int[maxHhSize+1][][];
+        threeTermIndex = new int[maxHhSize+1][][][];
+        numTerms = new int[maxHhSize+1];
+        termActivity = new byte[maxHhSize+1][][];
+        allSameActivity = new byte[maxHhSize+1][];
+        patternNames = new String[maxHhSize+1][];
+
+        int maxTerms = 0;
+        for ( int n=1; n <= maxHhSize; n++ ) {
+
+            // number the terms in the order the utilities are added: person i, then each pair (i,j) for j > i,
+            // each followed by the triples (i,j,k) for k > j.
+            oneTermIndex[n] = new int[n];
+            twoTermIndex[n] = new int[n][n];
+            threeTermIndex[n] = new int[n][n][n];
+            int[][] termPersons = new int[n*n*n][];
+            int t = 0;
+            for ( int i=0; i < n; i++ ) {
+                termPersons[t] = new int[] { i };
+                oneTermIndex[n][i] = t++;
+                for ( int j=i+1; j < n; j++ ) {
+                    termPersons[t] = new int[] { i, j };
+                    twoTermIndex[n][i][j] = t++;
+                    for ( int k=j+1; k < n; k++ ) {
+                        termPersons[t] = new int[] { i, j, k };
+                        threeTermIndex[n][i][j][k] = t++;
+                    }
+                }
+            }
+            numTerms[n] = t;
+            maxTerms = Math.max( maxTerms, t );
+
+            int numPatterns = getNumberOfPatterns( n );
+            termActivity[n] = new byte[numPatterns][t];
+            allSameActivity[n] = new byte[numPatterns];
+            patternNames[n] = new String[numPatterns];
+            int[] activities = new int[n];
+            for ( int p=0; p < numPatterns; p++ ) {
+
+                StringBuilder name = new StringBuilder( n );
+                int rest = p;
+                for ( int i=0; i < n; i++ ) {
+                    activities[i] = rest % NUM_ACTIVITIES;
+                    rest /= NUM_ACTIVITIES;
+                    name.append( activityNames[activities[i]] );
+                }
+                patternNames[n][p] = name.toString();
+
+                for ( int term=0; term < t; term++ )
+                    termActivity[n][p][term] = (byte)getSameActivity( activities, termPersons[term] );
+
+                int[] everyone = new int[n];
+                for ( int i=0; i < n; i++ )
+                    everyone[i] = i;
+                allSameActivity[n][p] = (byte)getSameActivity( activities, everyone );
+            }
+        }
+
+        termUtilities = new double[maxTerms][NUM_ACTIVITIES];
+        int maxPatterns = getNumberOfPatterns( maxHhSize );
+        utilities = new double[maxPatterns];
+        expUtilities = new double[maxPatterns];
+        probabilities = new double[maxPatterns];
+    }
+
+
+    public static int getNumberOfPatterns( int hhSize ) {
+        int numPatterns = 1;
+        for ( int i=0; i < hhSize; i++ )
+            numPatterns *= NUM_ACTIVITIES;
+        return numPatterns;
+    }
+
+
+    // the activity of the persons if they all have the same one, or -1
+    private static int getSameActivity( int[] activities, int[] persons ) {
+        int activity = activities[persons[0]];
+        for ( int i=1; i < persons.length; i++ )
+            if ( activities[persons[i]] != activity )
+                return -1;
+        return activity;
+    }
+
+
+    /**
+     * Start a household, clearing the utilities set for the previous one.
+     */
+    public void setHouseholdSize( int hhSize ) {
+        if ( hhSize < 1 || hhSize > maxHhSize )
+            throw new IllegalArgumentException( "CDAP pattern kernel household size " + hhSize + " is not between 1 and " + maxHhSize + "." );
+        this.hhSize = hhSize;
+        for ( int t=0; t < numTerms[hhSize]; t++ )
+            for ( int a=0; a < NUM_ACTIVITIES; a++ )
+                termUtilities[t][a] = 0;
+        for ( int a=0; a < NUM_ACTIVITIES; a++ )
+            allMemberUtilities[a] = 0;
+    }
+
+    /**
+     * Set the utility of each activity for person i (0 based).
+     */
+    public void setOnePersonUtilities( int i, double[] activityUtilities ) {
+        System.arraycopy( activityUtilities, 0, termUtilities[oneTermIndex[hhSize][i]], 0, NUM_ACTIVITIES );
+    }
+
+    /**
+     * Set the utility of persons i and j (0 based, i < j) both having each activity.
+     */
+    public void setTwoPersonUtilities( int i, int j, double[] activityUtilities ) {
+        System.arraycopy( activityUtilities, 0, termUtilities[twoTermIndex[hhSize][i][j]], 0, NUM_ACTIVITIES );
+    }
+
+    /**
+     * Set the utility of persons i, j and k (0 based, i < j < k) all having each activity.
+     */
+    public void setThreePersonUtilities( int i, int j, int k, double[] activityUtilities ) {
+        System.arraycopy( activityUtilities, 0, termUtilities[threeTermIndex[hhSize][i][j][k]], 0, NUM_ACTIVITIES );
+    }
+
+    /**
+     * Set the utility of all the persons having each activity.
+     */
+    public void setAllMemberUtilities( double[] activityUtilities ) {
+        System.arraycopy( activityUtilities, 0, allMemberUtilities, 0, NUM_ACTIVITIES );
+    }
+
+
+    /**
+     * Compute the pattern utilities and probabilities, and choose a pattern.
+     *
+     * @return the index of the chosen pattern, or -1 if no pattern can be chosen with the random number.
+     */
+    public int choosePattern( double randomNumber ) {
+
+        int numPatterns = getNumberOfPatterns( hhSize );
+        int terms = numTerms[hhSize];
+        byte[][] activities = termActivity[hhSize];
+        byte[] allSame = allSameActivity[hhSize];
+
+        double sum = 0;
+        for ( int p=0; p < numPatterns; p++ ) {
+            byte[] patternActivities = activities[p];
+            double utility = 0.0;
+            for ( int t=0; t < terms; t++ ) {
+                int a = patternActivities[t];
+                if ( a >= 0 )
+                    utility += termUtilities[t][a];
+            }
+            if ( allSame[p] >= 0 )
+                utility += allMemberUtilities[allSame[p]];
+            utilities[p] = utility;
+
+            // patterns with a very large negative utility aren't available
+            expUtilities[p] = utility < -400 ? 0.0 : MathUtil.exp( utility );
+            sum += expUtilities[p];
+        }
+
+        int chosen = -1;
+        double cumProb = 0.0;
+        for ( int p=0; p < numPatterns; p++ ) {
+            probabilities[p] = ( expUtilities[p] > 0 && sum > 0 ) ? expUtilities[p] / sum : 0;
+            if ( probabilities[p] == 0 )
+                continue;
+            cumProb += probabilities[p];
+            if ( chosen < 0 && randomNumber <= cumProb )
+                chosen = p;
+        }
+
+        return chosen;
+    }
+
+
+    public String getPatternName( int pattern ) {
+        return patternNames[hhSize][pattern];
+    }
+
+    /**
+     * @return the utilities of the patterns of the current household size computed by choosePattern().
+     */
+    public double[] getUtilities() {
+        return utilities;
+    }
+
+    /**
+     * @return the probabilities of the patterns of the current household size computed by choosePattern().
+     */
+    public double[] getProbabilities() {
+        return probabilities;
+    }
+
+}
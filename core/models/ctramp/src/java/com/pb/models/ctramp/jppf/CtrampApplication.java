@@ -31,6 +31,7 @@ import com.pb.models.ctramp.CtrampDmuFactoryIf;
 import com.pb.models.ctramp.Definitions;
 import com.pb.models.ctramp.DestChoiceSize;
 import com.pb.models.ctramp.Household;
+import com.pb.models.ctramp.HouseholdDataManager;
 import com.pb.models.ctramp.HouseholdDataManagerIf;
 import com.pb.models.ctramp.HouseholdDataWriter;
 import com.pb.models.ctramp.MatrixDataServer;
@@ -40,6 +41,7 @@ import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.StopFrequencyDMU;
 import com.pb.models.ctramp.TazDataIf;
 import com.pb.models.ctramp.Tour;
+import com.pb.models.ctramp.UtilRmi;
 import com.pb.models.synpopV3.PopulationSynthesizer;
 
 
@@ -223,6 +225,8 @@ public class CtrampApplication implements Serializable {
 
      static final String PROPERTIES_RESTART_WITH_HOUSEHOLD_SERVER = "RunModel.RestartWithHhServer";
      public static final String PROPERTIES_REREAD_MATRIX_DATA_ON_RESTART = "RunModel.RereadMatrixDataOnRestart"; 
+     public static final String PROPERTIES_MATRIX_SERVER_ROW_CACHE_SIZE = "RunModel.MatrixServerRowCacheSize";
+     public static final String PROPERTIES_COUNT_RMI_BYTES = "RunModel.CountRmiBytes";
      
      static final String PROPERTIES_HOUSEHOLD_DISK_OBJECT_FILE_NAME = "Households.disk.object.base.name";
      static final String PROPERTIES_HOUSEHOLD_DISK_OBJECT_KEY = "Read.HouseholdDiskObjectFile";
@@ -289,6 +293,8 @@ public class CtrampApplication implements Serializable {
          this.modelStructure = modelStructure;
          this.tazDataManager = tazDataManager;
 
+         UtilRmi.setCountBytes( ResourceUtil.getBooleanProperty( resourceBundle, PROPERTIES_COUNT_RMI_BYTES, false ) );
+
          hhDiskObjectFile = ResourceUtil.getProperty(resourceBundle, PROPERTIES_HOUSEHOLD_DISK_OBJECT_FILE_NAME);
          if ( hhDiskObjectFile != null )
              hhDiskObjectFile = projectDirectory + hhDiskObjectFile;
@@ -386,6 +392,9 @@ public class CtrampApplication implements Serializable {
          // run core activity based model for the specified iteration
          runIteration( globalIterationNumber, householdDataManager, dmuFactory );
 
+         if ( ms != null )
+             logger.info( ms.getCacheStatistics() );
+         logger.info( UtilRmi.getStatistics() );
          
          
          // if a separate process for running matrix data mnager was started, we're done with it, so close it. 
@@ -727,6 +736,11 @@ public class CtrampApplication implements Serializable {
          if ( runUsualWorkSchoolChoiceModel ) {
              householdDataManager.resetUwslRandom();
          }
+         else if ( ResourceUtil.getBooleanProperty( resourceBundle, HouseholdDataManager.RANDOM_COUNTER_BASED_NAME, false ) ) {
+             // counter based household random number generators are positioned at the start of each model step as the step runs,
+             // so the random numbers drawn by the steps before the restart step don't need to be replayed.
+             logger.info( "household random number generators are counter based, no random number reset is needed to restart." );
+         }
          else {
         	 boolean runAutoOwnershipModel = ResourceUtil.getBooleanProperty(resourceBundle, PROPERTIES_RUN_AUTO_OWNERSHIP);
         	 if ( runAutoOwnershipModel ) {
@@ -2,8 +2,7 @@ package com.pb.models.ctramp.jppf;
 
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -23,7 +22,7 @@ public class DestChoiceModelManager implements Serializable {
     private static DestChoiceModelManager objInstance = null;
 
     private MatrixDataManager mdm = null;
-    private LinkedList<MandatoryDestChoiceModel> modelQueue = null;
+    private transient ModelObjectPool<MandatoryDestChoiceModel> modelPool = null;
 
     private HashMap<String, String> propertyMap;
     private ModelStructure modelStructure;
@@ -36,10 +35,12 @@ public class DestChoiceModelManager implements Serializable {
     private String modeChoiceUecFileName;
     private CtrampDmuFactoryIf dmuFactory;
 
-    private int modelIndex;
     private int currentIteration;
 
-    private int completedHouseholds = 0;
+    // sample of alternatives probabilities shared by the dcModel objects for the current shadow price iteration
+    private SoaAliasTables soaAliasTables;
+
+    private AtomicInteger completedHouseholds = new AtomicInteger();
 
     
     
@@ -51,9 +52,8 @@ public class DestChoiceModelManager implements Serializable {
     public static synchronized DestChoiceModelManager getInstance() {
         if ( objInstance == null ) {
             objInstance = new DestChoiceModelManager();
-            objInstance.modelIndex = 0;
             objInstance.currentIteration = 0;
-            objInstance.completedHouseholds = 0;
+            objInstance.completedHouseholds.set( 0 );
             return objInstance;
         }
         else {
@@ -67,12 +67,11 @@ public class DestChoiceModelManager implements Serializable {
     public synchronized void factorySetup( HashMap<String, String> propertyMap, MatrixDataServerIf ms, ModelStructure modelStructure, String tourCategory, TazDataIf tazDataManager, DestChoiceSize dcSizeObj,
             String dcUecFileName, String soaUecFileName, int soaSampleSize, String modeChoiceUecFileName, CtrampDmuFactoryIf dmuFactory, String restartModelString ) {
 
-        if ( modelQueue != null ) {
+        if ( modelPool != null ) {
             return;
         }
 
-        modelIndex = 0;
-        completedHouseholds = 0;
+        completedHouseholds.set( 0 );
         
         System.out.println( String.format( "initializing DC ModelManager: thread=%s.", Thread.currentThread().getName() ) );
         
@@ -88,8 +87,13 @@ public class DestChoiceModelManager implements Serializable {
         this.dmuFactory = dmuFactory;
 
 
-        // the first thread to reach this method initializes the modelQueue used to recycle dcModel objects. 
-        modelQueue = new LinkedList<MandatoryDestChoiceModel>();
+        // the first thread to reach this method initializes the modelPool used to recycle dcModel objects. 
+        modelPool = new ModelObjectPool<MandatoryDestChoiceModel>( "dcModel", new ModelObjectPool.Factory<MandatoryDestChoiceModel>() {
+            public MandatoryDestChoiceModel create( int modelIndex ) {
+                return createDestChoiceModelObject( modelIndex, propertyMap, modelStructure, tourCategory, tazDataManager, dcSizeObj,
+                        dcUecFileName, soaUecFileName, soaSampleSize, modeChoiceUecFileName, dmuFactory );
+            }
+        });
         
         
         
@@ -108,6 +112,8 @@ public class DestChoiceModelManager implements Serializable {
             logger.info ( String.format( Thread.currentThread().getName() + ": DestChoiceModelManager needs MatrixDataManager, MatrixDataServer connection test: %s", testString ) );
             mdm = MatrixDataManager.getInstance();
             mdm.setMatrixDataServerObject( ms );
+            String rowCacheSize = propertyMap.get( CtrampApplication.PROPERTIES_MATRIX_SERVER_ROW_CACHE_SIZE );
+            mdm.setMatrixRowCacheSize( rowCacheSize == null ? 0 : Integer.parseInt( rowCacheSize.trim() ) );
         }
         else {
             logger.info ( Thread.currentThread().getName() + ": MatrixDataManager already exists - resetting for DestChoiceModelManager." );
@@ -117,55 +123,45 @@ public class DestChoiceModelManager implements Serializable {
         
         TableDataSetManager tdm = TableDataSetManager.getInstance();
         tdm.clearData();
+
+        // other tasks on the node wait here for the models to be built rather than building their own one at a time.
+        if ( Boolean.parseBoolean( propertyMap.get( HouseholdChoiceModelsManager.PROPERTIES_PREWARM_MODELS ) ) )
+            modelPool.prewarm( ModelObjectPool.getNodeProcessingThreads() );
     }
 
     
     public void returnDcModelObject ( MandatoryDestChoiceModel dcModel, int taskIndex, int startIndex, int endIndex ) {
-        modelQueue.add( dcModel );
-        completedHouseholds += (endIndex - startIndex + 1);
+        modelPool.give( dcModel );
+        int completed = completedHouseholds.addAndGet( endIndex - startIndex + 1 );
         int probCalcs = dcModel.getProbCalcs();
-        logger.info( String.format( "returned dcModel=%d to queue, task=%d, thread=%s, completedHouseholds=%d, probCalcs=%d.", dcModel.getModelIndex(), taskIndex, Thread.currentThread().getName(), completedHouseholds, probCalcs ) );
+        logger.info( String.format( "returned dcModel=%d to pool, task=%d, thread=%s, completedHouseholds=%d, probCalcs=%d, %s.", dcModel.getModelIndex(), taskIndex, Thread.currentThread().getName(), completed, probCalcs, modelPool.getStatistics() ) );
     }
         
     
     /**
-     * @return DestChoiceModel object created if less than the max number have been created, otherwise retrieved from the queue.
+     * @return DestChoiceModel object from the pool, created if none is idle.
      * 
      */
-    //public MandatoryDestChoiceModel getDcModelObject( int taskIndex, int iteration ) {
-    public synchronized MandatoryDestChoiceModel getDcModelObject( int taskIndex, int iteration ) {
+    public MandatoryDestChoiceModel getDcModelObject( int taskIndex, int iteration ) {
         
-        String message = "";
-        MandatoryDestChoiceModel dcModel = null;
-
-        if ( modelQueue.isEmpty() ) {
-
-            modelIndex ++;
-            dcModel = createDestChoiceModelObject( modelIndex, propertyMap, modelStructure, tourCategory, tazDataManager, dcSizeObj,
-                    dcUecFileName, soaUecFileName, soaSampleSize, modeChoiceUecFileName, dmuFactory );
-            message = String.format( "created dcModel=%d, task=%d, thread=%s.", modelIndex, taskIndex, Thread.currentThread().getName() );
-            
-        }
-        else {
-        
-            // the first task processed with an iteration parameter greater than the manager's current iteration count clears the dcModel cache and updates the iteration count.
-            if ( iteration > currentIteration ) {
-                currentIteration = iteration;
-                completedHouseholds = 0;
-            }
-            
-            dcModel = modelQueue.remove();    
-            
-            message = String.format( "removed dcModel=%d from queue, task=%d, thread=%s.", dcModel.getModelIndex(), taskIndex, Thread.currentThread().getName() );
-            
-        }
+        // the first task processed with an iteration parameter greater than the manager's current iteration count updates the iteration count.
+        startIteration( iteration );
 
-        logger.info( message );
+        MandatoryDestChoiceModel dcModel = modelPool.take();
+        logger.info( String.format( "took dcModel=%d from pool, task=%d, thread=%s, %s.", dcModel.getModelIndex(), taskIndex, Thread.currentThread().getName(), modelPool.getStatistics() ) );
         return dcModel;
             
     }
     
     
+    private synchronized void startIteration( int iteration ) {
+        if ( iteration > currentIteration ) {
+            currentIteration = iteration;
+            completedHouseholds.set( 0 );
+        }
+    }
+    
+    
  
     private MandatoryDestChoiceModel createDestChoiceModelObject ( int modelIndex, HashMap<String, String> propertyMap, ModelStructure modelStructure, String tourCategory, TazDataIf tazDataManager, DestChoiceSize dcSizeObj,
             String dcUecFileName, String soaUecFileName, int soaSampleSize, String modeChoiceUecFileName, CtrampDmuFactoryIf dmuFactory ) {
@@ -182,30 +178,39 @@ public class DestChoiceModelManager implements Serializable {
     
     public void clearDcModels() {
         
-        if ( modelQueue == null ) {
+        if ( modelPool == null ) {
             return;
         }
     
-        Iterator<MandatoryDestChoiceModel> it = modelQueue.iterator();
-        while ( it.hasNext() ) {
-            MandatoryDestChoiceModel dcModel = it.next();
-            if ( dcModel != null ) {
-                logger.info( "cleaned up dcModel " + dcModel.getModelIndex() + "." );
-                dcModel = null;
-            }
-        }
+        logger.info( "clearing dcModels, " + modelPool.getStatistics() + "." );
+        for ( MandatoryDestChoiceModel dcModel : modelPool.drain() )
+            logger.info( "cleaned up dcModel " + dcModel.getModelIndex() + "." );
 
-        modelIndex = 0;
-        completedHouseholds = 0;
+        completedHouseholds.set( 0 );
         
-        modelQueue.clear();
-        modelQueue = null;
+        modelPool = null;
         
         dcSizeObj = null;
+        soaAliasTables = null;
+        ModeChoiceLogsumCache.clearInstance();
     }
 
 
     
+    /**
+     * @return the shared sample of alternatives tables for a shadow price iteration.  The tables for the previous
+     * iteration are discarded the first time a later iteration asks for them.
+     */
+    public synchronized SoaAliasTables getSoaAliasTables( int iteration, int numberOfPurposes, int numberOfZones ) {
+        if ( soaAliasTables == null || soaAliasTables.getIteration() != iteration ) {
+            if ( soaAliasTables != null )
+                logger.info( String.format( "shared SOA tables for shadow price iteration %d held %d purpose/origin tables.", soaAliasTables.getIteration(), soaAliasTables.getNumberOfTables() ) );
+            soaAliasTables = new SoaAliasTables( iteration, numberOfPurposes, numberOfZones );
+        }
+        return soaAliasTables;
+    }
+
+
     public MatrixDataManager getMatrixDataManager() {
         return mdm;
     }
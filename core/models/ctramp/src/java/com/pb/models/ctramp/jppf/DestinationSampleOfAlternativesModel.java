@@ -9,6 +9,7 @@ import com.pb.models.ctramp.Household;
 import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.Tour;
 import com.pb.common.newmodel.ChoiceModelApplication;
+import com.pb.common.util.Metrics;
 
 import java.io.Serializable;
 import java.util.Arrays;
@@ -21,6 +22,9 @@ import org.apache.log4j.Logger;
 
 public class DestinationSampleOfAlternativesModel implements Serializable {
 
+    private static final Metrics.Counter soaSamples = Metrics.counter("soa.samples");
+    private static final Metrics.Counter soaProbabilityCalculations = Metrics.counter("soa.probability.calculations");
+
     private transient Logger logger = Logger.getLogger(DestinationSampleOfAlternativesModel.class);
 
     // set to false to store probabilities in cache for re-use; true to disable probabilities cache.
@@ -49,6 +53,12 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
     private float[] corrections;
     private int numUniqueAlts;
 
+    // node-wide probabilities for usual location choices, and the frequency of each entry drawn from them.
+    // null if each object computes its own.
+    private transient SoaAliasTables sharedTables;
+    private int[] entryFreq;
+    private int[] sampledEntries;
+
     private ChoiceModelApplication[] choiceModel;
     
     private String tourCategory;
@@ -119,6 +129,25 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
         altFreqMap = new HashMap<Integer,Integer>( sampleSize );
         sample = new int[sampleSize+1];
         corrections = new float[sampleSize+1];
+        entryFreq = new int[tazDataManager.getNumberOfZones()*tazDataManager.getNumberOfSubZones()];
+        sampledEntries = new int[sampleSize];
+    }
+    
+
+
+    /**
+     * Set the node-wide tables of sample of alternatives probabilities to use for usual location choices,
+     * or null to compute and cache them in this object.
+     */
+    public void setSharedAliasTables( SoaAliasTables tables ) {
+        sharedTables = tables;
+    }
+
+    /**
+     * @return the size of the purpose index dimension of the shared tables.
+     */
+    public int getNumberOfPurposeIndices() {
+        return choiceModel.length;
     }
     
 
@@ -188,6 +217,8 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
 
     public void computeDestinationSampleOfAlternatives( DcSoaDMU dcSoaDmuObject, Tour tour, Person person, String purposeName, int purposeIndex ) {
 
+        soaSamples.increment();
+
         // clear the HashMap used to store the alternatives selected and the count of each time an alternative was included
         altFreqMap.clear();
         
@@ -200,6 +231,12 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
         if ( tour != null )
             origTaz = tour.getTourOrigTaz();
 
+        int numDcAlts = this.tazDataManager.getNumberOfZones()*this.tazDataManager.getNumberOfSubZones();
+        if ( sharedTables != null && tour == null && sampleSize != numDcAlts ) {
+            if ( computeSampleFromSharedTables( dcSoaDmuObject, person, purposeName, purposeIndex, origTaz ) )
+                return;
+        }
+
         // if the flag is set to compute sample of alternative probabilities for every work/school location choice,
         // or the tour's origin taz is different from the currentOrigTaz, reset the currentOrigTaz and clear the stored probabilities.
         if ( tour != null && tour.getTourCategoryIsAtWork() ) {
@@ -220,6 +257,7 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
             if ( subtourProbabilitiesCache[purposeIndex] == null ) {
                 computeSampleOfAlternativesChoiceProbabilities( choiceModel[purposeIndex], dcSoaDmuObject, tour, person, purposeName, purposeIndex, origTaz );
                 soaProbabilitiesCalculationCount++;
+                soaProbabilityCalculations.increment();
             }
 
         }
@@ -241,6 +279,7 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
             if ( probabilitiesCache[purposeIndex] == null ) {
                 computeSampleOfAlternativesChoiceProbabilities( choiceModel[purposeIndex], dcSoaDmuObject, tour, person, purposeName, purposeIndex, origTaz );
                 soaProbabilitiesCalculationCount++;
+                soaProbabilityCalculations.increment();
             }
 
         }
@@ -248,7 +287,6 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
         
         // if the sample size matches numDcAlts, choose all alternatives
         // e.g. for logsums calculations
-        int numDcAlts = this.tazDataManager.getNumberOfZones()*this.tazDataManager.getNumberOfSubZones();
         if (sampleSize == numDcAlts) {
             for (int chosenAlt=1; chosenAlt <= numDcAlts; chosenAlt++) {
                 altFreqMap.put(chosenAlt, 1);
@@ -323,6 +361,76 @@ public class DestinationSampleOfAlternativesModel implements Serializable {
     
     
 
+    /**
+     * Draw the sample for a usual location choice from the shared alias table for the purpose and origin zone,
+     * computing the table first if no thread in this JVM has yet.
+     * @return false if no alternative has a positive probability, so the sample was not drawn.
+     */
+    private boolean computeSampleFromSharedTables( DcSoaDMU dcSoaDmuObject, Person person, String purposeName, int purposeIndex, int origTaz ) {
+
+        Household hhObj = person.getHouseholdObject();
+
+        SoaAliasTables.AliasTable table = sharedTables.getTable( purposeIndex, origTaz );
+
+        // debug households compute the probabilities again so they are written to the trace log.
+        if ( table == null || hhObj.getDebugChoiceModels() ) {
+
+            if ( origTaz != currentOrigTaz ) {
+                for ( int i=0; i < probabilitiesCache.length; i++ ) {
+                    probabilitiesCache[i] = null;
+                    cumProbabilitiesCache[i] = null;
+                }
+                currentOrigTaz = origTaz;
+            }
+
+            computeSampleOfAlternativesChoiceProbabilities( choiceModel[purposeIndex], dcSoaDmuObject, null, person, purposeName, purposeIndex, origTaz );
+            soaProbabilitiesCalculationCount++;
+            soaProbabilityCalculations.increment();
+
+            if ( table == null )
+                table = sharedTables.putTable( purposeIndex, origTaz, new SoaAliasTables.AliasTable( probabilitiesCache[purposeIndex] ) );
+        }
+
+        if ( table.getNumberOfEntries() == 0 )
+            return false;
+
+        Random hhRandom = hhObj.getHhRandom();
+        int rnCount = hhObj.getHhRandomCount();
+        // when household.getHhRandom() was applied, the random count was incremented, assuming a random number would be drawn right away.
+        // so let's decrement by 1, then increment the count each time a random number is actually drawn in this method.
+        rnCount --;
+
+        // draw sampleSize entries from the table, keeping the unique entries in the order first drawn.
+        int numUniqueEntries = 0;
+        for (int i=0; i < sampleSize; i++) {
+
+            double rn = hhRandom.nextDouble();
+            rnCount++;
+
+            int entry = table.draw( rn );
+            if ( entryFreq[entry]++ == 0 )
+                sampledEntries[numUniqueEntries++] = entry;
+
+            if ( hhObj.getDebugChoiceModels () ) {
+                choiceModel[purposeIndex].logSelectionInfo ( String.format("%s Sample Of Alternatives Choice for dmuSegment=%d", purposeName, origTaz), String.format("HHID=%d, rn=%.8f, rnCount=%d", hhObj.getHhId(), rn, (rnCount+i) ), rn, table.getAlternative( entry ) );
+            }
+        }
+
+        hhObj.setHhRandomCount( rnCount );
+
+        numUniqueAlts = numUniqueEntries;
+        for (int k=0; k < numUniqueEntries; k++) {
+            int entry = sampledEntries[k];
+            sample[k+1] = table.getAlternative( entry );
+            corrections[k+1] = (float)Math.log( (double)entryFreq[entry]/table.getProbability( entry ) );
+            entryFreq[entry] = 0;
+        }
+
+        return true;
+    }
+
+
+
     /**
      * @param choiceModel the ChoiceModelApplication object for the purpose
      * @param tour the tour object for whic destination choice is required, or null if a usual work/school location is being chosen 
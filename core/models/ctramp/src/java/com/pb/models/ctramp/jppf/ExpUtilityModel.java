@@ -1,5 +1,6 @@
 package com.pb.models.ctramp.jppf;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import org.apache.log4j.Logger;
 import com.pb.common.calculator.IndexValues;
@@ -152,6 +153,28 @@ public class ExpUtilityModel
     }
     
 
+    /**
+     * Set the stored exponentiated utilities for an income segment to 0, so destinations whose utilities
+     * are unavailable for the next origin calculated don't keep the values from a previous origin.
+     */
+    public void clearExponentiatedUtilities( int incomeIndex ) {
+        if ( nmExpUtilities != null )
+            Arrays.fill( nmExpUtilities[incomeIndex], 0 );
+        if ( sovExpUtilities != null )
+            Arrays.fill( sovExpUtilities[incomeIndex], 0 );
+        if ( hovExpUtilities != null )
+            Arrays.fill( hovExpUtilities[incomeIndex], 0 );
+        if ( wtExpUtilities != null ) {
+            for ( double[] values : wtExpUtilities[incomeIndex] )
+                Arrays.fill( values, 0 );
+        }
+        if ( dtExpUtilities != null ) {
+            for ( double[] values : dtExpUtilities[incomeIndex] )
+                Arrays.fill( values, 0 );
+        }
+    }
+    
+
     /**
      * Create a ChoiceModelApplication object for the properties specified.
      * 
@@ -15,6 +15,7 @@ import com.pb.models.ctramp.ModeChoiceDMU;
 import com.pb.models.ctramp.ModelStructure;
 import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.TazDataIf;
+import com.pb.models.ctramp.TimeWindowMasks;
 import com.pb.models.ctramp.Tour;
 import com.pb.models.ctramp.TourDepartureTimeAndDurationDMU;
 //
@@ -62,6 +63,7 @@ public class HouseholdAtWorkSubtourDepartureAndDurationTime implements Serializa
 
     private int[] altStarts;
     private int[] altEnds;
+    private TimeWindowMasks altMasks;
     
     //protected int[][] tourModeChoiceChosenFreq;
 
@@ -129,6 +131,7 @@ public class HouseholdAtWorkSubtourDepartureAndDurationTime implements Serializa
         TableDataSet altsTable = timeChoiceModel.getUEC().getAlternativeData();
         altStarts = altsTable.getColumnAsInt( CtrampApplication.START_FIELD_NAME );
         altEnds = altsTable.getColumnAsInt( CtrampApplication.END_FIELD_NAME );
+        altMasks = new TimeWindowMasks( altStarts, altEnds );
         altsTable = null;
 
         dmuObject.setTodAlts(altStarts, altEnds);
@@ -283,7 +286,7 @@ public class HouseholdAtWorkSubtourDepartureAndDurationTime implements Serializa
 
                     
                     // set the choice availability and sample
-                    boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altStarts, altEnds );
+                    boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altMasks );
 
                     // restrict alternatives to be only those within the work tour window
                     Arrays.fill ( tourDepartureTimeChoiceSample, 1 );
@@ -3,6 +3,7 @@ package com.pb.models.ctramp.jppf;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 import org.jppf.client.JPPFClient;
@@ -12,6 +13,7 @@ import org.jppf.task.storage.DataProvider;
 import org.jppf.task.storage.MemoryMapDataProvider;
 
 import com.pb.common.calculator.MatrixDataServerIf;
+import com.pb.common.util.MetricsSnapshot;
 import com.pb.models.ctramp.CtrampDmuFactoryIf;
 import com.pb.models.ctramp.HouseholdDataManagerIf;
 import com.pb.models.ctramp.ModelStructure;
@@ -33,6 +35,21 @@ public class HouseholdChoiceModelRunner {
     
     private static final String HOUSEHOLD_CHOICE_PACKET_SIZE = "distributed.task.packet.size";
     private static final String RUN_THIS_HOUSEHOLD_ONLY = "run.this.household.only";    
+
+    private static final String PROPERTIES_ADAPTIVE_PACKETS = "distributed.task.adaptive.packets";
+    private static final String PROPERTIES_ADAPTIVE_NUM_TASKS = "distributed.task.adaptive.number.tasks";
+    private static final String PROPERTIES_ADAPTIVE_MIN_PACKET_SIZE = "distributed.task.adaptive.min.packet.size";
+    private static final String PROPERTIES_ADAPTIVE_TARGET_SECONDS = "distributed.task.adaptive.target.seconds";
+    private static final int DEFAULT_ADAPTIVE_NUM_TASKS = 100;
+    private static final int DEFAULT_ADAPTIVE_MIN_PACKET_SIZE = 50;
+    private static final double DEFAULT_ADAPTIVE_TARGET_SECONDS = 60;
+    private static final int MAX_ADAPTIVE_RESUBMITS = 3;
+
+    // if true, tasks ask the household data manager for adaptively sized packets of households instead of being given fixed ranges
+    private boolean adaptivePackets = false;
+    private int adaptiveNumTasks = DEFAULT_ADAPTIVE_NUM_TASKS;
+    private int adaptiveMinPacketSize = DEFAULT_ADAPTIVE_MIN_PACKET_SIZE;
+    private double adaptiveTargetSeconds = DEFAULT_ADAPTIVE_TARGET_SECONDS;
     
     private HashMap<String, String> propertyMap;
     private String restartModelString;
@@ -67,6 +84,7 @@ public class HouseholdChoiceModelRunner {
         this.dmuFactory = dmuFactory;
         this.jppfClient = jppfClient;
 
+        TaskMetrics.setup( propertyMap );
 
         String oneHhString = propertyMap.get( RUN_THIS_HOUSEHOLD_ONLY );
         if ( oneHhString != null )
@@ -93,6 +111,22 @@ public class HouseholdChoiceModelRunner {
         else
             INITIALIZATION_PACKET_SIZE = Integer.parseInt( propertyValue );
             
+
+        propertyValue = propertyMap.get( PROPERTIES_ADAPTIVE_PACKETS );
+        if ( propertyValue != null )
+            adaptivePackets = Boolean.parseBoolean( propertyValue.trim() );
+
+        propertyValue = propertyMap.get( PROPERTIES_ADAPTIVE_NUM_TASKS );
+        if ( propertyValue != null )
+            adaptiveNumTasks = Integer.parseInt( propertyValue.trim() );
+
+        propertyValue = propertyMap.get( PROPERTIES_ADAPTIVE_MIN_PACKET_SIZE );
+        if ( propertyValue != null )
+            adaptiveMinPacketSize = Integer.parseInt( propertyValue.trim() );
+
+        propertyValue = propertyMap.get( PROPERTIES_ADAPTIVE_TARGET_SECONDS );
+        if ( propertyValue != null )
+            adaptiveTargetSeconds = Double.parseDouble( propertyValue.trim() );
             
     }
     
@@ -143,36 +177,69 @@ public class HouseholdChoiceModelRunner {
             
             job.setDataProvider(dataProvider);
             
-            ArrayList<int[]> startEndTaskIndicesList = getTaskHouseholdRanges( hhDataManager.getNumHouseholds() );
-            
-            int startIndex = 0;
-            int endIndex = 0;
-            int taskIndex = 1;
-            for ( int[] startEndIndices : startEndTaskIndicesList ) {
-                startIndex = startEndIndices[0];
-                endIndex = startEndIndices[1];
-
-                HouseholdChoiceModelsTaskJppf task = new HouseholdChoiceModelsTaskJppf( taskIndex, startIndex, endIndex );
-                job.addTask ( task );
-                taskIndex++;
+            if ( adaptivePackets && ONE_HH_ID < 0 ) {
+
+                // each task runs packets from the household data manager until there are none left, so there
+                // should be at least as many tasks as threads on all the nodes - the extra ones find no households.
+                // distributed.task.packet.size limits the size of a packet.
+                hhDataManager.setupHouseholdPackets( adaptiveMinPacketSize, PACKET_SIZE, adaptiveTargetSeconds );
+                logger.info( String.format( "household model runner submitting %d tasks for adaptive packets: min packet size=%d, max packet size=%d, target packet seconds=%.1f.",
+                        adaptiveNumTasks, adaptiveMinPacketSize, PACKET_SIZE, adaptiveTargetSeconds ) );
+
+                for ( int taskIndex=1; taskIndex <= adaptiveNumTasks; taskIndex++ )
+                    job.addTask ( new HouseholdChoiceModelsTaskJppf( taskIndex ) );
+
             }
+            else {
 
-            
+                ArrayList<int[]> startEndTaskIndicesList = getTaskHouseholdRanges( hhDataManager.getNumHouseholds() );
 
-            List<JPPFTask> results = jppfClient.submit(job);
-            for (JPPFTask task : results) {
-                if (task.getException() != null) throw task.getException();
+                int startIndex = 0;
+                int endIndex = 0;
+                int taskIndex = 1;
+                for ( int[] startEndIndices : startEndTaskIndicesList ) {
+                    startIndex = startEndIndices[0];
+                    endIndex = startEndIndices[1];
 
-                try {                       
-                    logger.info( String.format("HH TASK: %s returned: %s.", task.getId(), (String)task.getResult() ) );
+                    HouseholdChoiceModelsTaskJppf task = new HouseholdChoiceModelsTaskJppf( taskIndex, startIndex, endIndex );
+                    job.addTask ( task );
+                    taskIndex++;
                 }
-                catch (Exception e) {
-                    logger.error( "Exception returned by computing node caught in HouseholdChoiceModelsTaskJppf.", e );
-                    throw new RuntimeException();
+
+            }
+
+            
+
+            TreeMap<String, MetricsSnapshot> metricsByNode = new TreeMap<String, MetricsSnapshot>();
+
+            List<JPPFTask> results = jppfClient.submit(job);
+            collectTaskResults( results, metricsByNode );
+
+            if ( adaptivePackets && ONE_HH_ID < 0 ) {
+
+                // packets held by tasks that ended without completing them are given out again to a new set of tasks
+                int incompleteHouseholds = hhDataManager.requeueIncompleteHouseholdPackets();
+                for ( int resubmit=1; incompleteHouseholds > 0; resubmit++ ) {
+                    if ( resubmit > MAX_ADAPTIVE_RESUBMITS ) {
+                        logger.error( String.format( "%d households were still not completed after resubmitting household packet tasks %d times.", incompleteHouseholds, MAX_ADAPTIVE_RESUBMITS ) );
+                        throw new RuntimeException();
+                    }
+                    logger.warn( String.format( "%d households were not completed, resubmitting %d tasks for their packets.", incompleteHouseholds, adaptiveNumTasks ) );
+
+                    JPPFJob resubmitJob = new JPPFJob();
+                    resubmitJob.setDataProvider(dataProvider);
+                    for ( int taskIndex=1; taskIndex <= adaptiveNumTasks; taskIndex++ )
+                        resubmitJob.addTask ( new HouseholdChoiceModelsTaskJppf( taskIndex ) );
+
+                    collectTaskResults( jppfClient.submit(resubmitJob), metricsByNode );
+                    incompleteHouseholds = hhDataManager.requeueIncompleteHouseholdPackets();
                 }
 
+                logger.info( hhDataManager.getHouseholdPacketStatistics() );
             }
 
+            TaskMetrics.writeStepMetrics( propertyMap, "householdModels", metricsByNode );
+
         }
         catch (Exception e) {
             logger.error( "Exception caught creating/submitting/receiving HouseholdChoiceModelsTaskJppf.", e );
@@ -183,6 +250,27 @@ public class HouseholdChoiceModelRunner {
     
     
     
+    private void collectTaskResults( List<JPPFTask> results, TreeMap<String, MetricsSnapshot> metricsByNode ) throws Exception {
+
+        for (JPPFTask task : results) {
+            if (task.getException() != null) throw task.getException();
+
+            try {                       
+                logger.info( String.format("HH TASK: %s returned: %s.", task.getId(), (String)task.getResult() ) );
+                HouseholdChoiceModelsTaskJppf hhTask = (HouseholdChoiceModelsTaskJppf)task;
+                TaskMetrics.addTaskMetrics( metricsByNode, hhTask.getNodeName(), hhTask.getMetrics() );
+            }
+            catch (Exception e) {
+                logger.error( "Exception returned by computing node caught in HouseholdChoiceModelsTaskJppf.", e );
+                throw new RuntimeException();
+            }
+
+        }
+
+    }
+    
+    
+    
     private ArrayList<int[]> getTaskHouseholdRanges( int numberOfHouseholds ) {
         
         ArrayList<int[]> startEndIndexList = new ArrayList<int[]>(); 
@@ -2,19 +2,34 @@ package com.pb.models.ctramp.jppf;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 
+import com.pb.common.util.IndexSort;
+import com.pb.common.util.Metrics;
 import com.pb.common.util.ObjectUtil;
 import com.pb.models.ctramp.CtrampDmuFactoryIf;
 import com.pb.models.ctramp.Household;
 import com.pb.models.ctramp.ModelStructure;
+import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.TazDataIf;
 
 
 
 public class HouseholdChoiceModels implements Serializable {
+
+    // labels of the model components, in the order of the times returned by getTimes()
+    public static final String[] COMPONENT_LABELS = { "AO", "FP", "CDAP", "IMTF", "IMTOD", "IMMC", "JTF", "JTDC", "JTTOD", "JTMC", "INMTF", "INMTDC", "INMTTOD", "INMTMC", "AWTF", "AWTDC", "AWTTOD", "AWTMC", "STF", "STDTM" };
+
+    private static final Metrics.Histogram[] componentTimes = new Metrics.Histogram[COMPONENT_LABELS.length];
+    static {
+        for ( int i=0; i < COMPONENT_LABELS.length; i++ )
+            componentTimes[i] = Metrics.histogram( "hh." + COMPONENT_LABELS[i] );
+    }
+    private static final Metrics.Counter householdCount = Metrics.counter( "households" );
+    private static final Metrics.Counter tourCount = Metrics.counter( "tours" );
     
     private transient Logger logger = Logger.getLogger("HouseholdChoiceModels");
 
@@ -40,6 +55,10 @@ public class HouseholdChoiceModels implements Serializable {
     private boolean runStopLocationModel;
     
     private String restartModelString;
+
+    // if true, runModelsByStage() applies each model component to all households of a packet before the next component
+    public static final String PROPERTIES_RUN_BY_STAGE = "HouseholdChoiceModels.RunByStage";
+    private boolean runByStage;
     
     private HouseholdAutoOwnershipModel aoModel;
     private HouseholdFreeParkingModel fpModel;
@@ -63,26 +82,10 @@ public class HouseholdChoiceModels implements Serializable {
     private StopFrequencyModel stfModel;
     private StopLocationModeChoiceModel stlmcModel;
     
-    private long aoTime;
-    private long fpTime;
-    private long cdapTime;
-    private long imtfTime;
-    private long imtodTime;
-    private long imtmcTime;
-    private long jtfTime;
-    private long jtdcTime;
-    private long jtodTime;
-    private long jtmcTime;
-    private long inmtfTime;
-    private long inmtdcTime;
-    private long inmtodTime;
-    private long inmtmcTime;
-    private long awtfTime;
-    private long awtdcTime;
-    private long awtodTime;
-    private long awtmcTime;
-    private long stfTime;
-    private long stdtmTime;
+    // indices in COMPONENT_LABELS of the model components that are run, in the order they are applied
+    private int[] components;
+
+    private long[] componentTimesNanos = new long[COMPONENT_LABELS.length];
 
     private long[][] hhTimes = new long[7][2];
     
@@ -133,7 +136,17 @@ public class HouseholdChoiceModels implements Serializable {
         runStopFrequencyModel = Boolean.parseBoolean( propertyMap.get( CtrampApplication.PROPERTIES_RUN_STOP_FREQUENCY ) );
         runStopLocationModel = Boolean.parseBoolean( propertyMap.get( CtrampApplication.PROPERTIES_RUN_STOP_LOCATION ) );
         
+        runByStage = Boolean.parseBoolean( propertyMap.get( PROPERTIES_RUN_BY_STAGE ) );
+
         checkModelRunFlags(); 
+
+        int numComponents = 0;
+        components = new int[COMPONENT_LABELS.length];
+        for ( int component=0; component < COMPONENT_LABELS.length; component++ ) {
+            if ( runComponent( component ) )
+                components[numComponents++] = component;
+        }
+        components = Arrays.copyOf( components, numComponents );
         
         boolean measureObjectSizes = false;
         
@@ -328,26 +341,7 @@ public class HouseholdChoiceModels implements Serializable {
 
     
     public void zeroTimes() {
-        aoTime = 0;
-        fpTime = 0;
-        cdapTime = 0;
-        imtfTime = 0;
-        imtodTime = 0;
-        imtmcTime = 0;
-        jtfTime = 0;
-        jtdcTime = 0;
-        jtodTime = 0;
-        jtmcTime = 0;
-        inmtfTime = 0;
-        inmtdcTime = 0;
-        inmtodTime = 0;
-        inmtmcTime = 0;
-        awtfTime = 0;
-        awtdcTime = 0;
-        awtodTime = 0;
-        awtmcTime = 0;
-        stfTime = 0;
-        stdtmTime = 0;
+        Arrays.fill( componentTimesNanos, 0 );
 
         for (int i=0; i < hhTimes.length; i++)
             for (int j=0; j < hhTimes[i].length; j++)
@@ -360,248 +354,253 @@ public class HouseholdChoiceModels implements Serializable {
     }
     
     public long[] getTimes() {
-        long[] returnTimes = new long[20];
-        returnTimes[0] = aoTime;
-        returnTimes[1] = fpTime;
-        returnTimes[2] = cdapTime;
-        returnTimes[3] = imtfTime;
-        returnTimes[4] = imtodTime;
-        returnTimes[5] = imtmcTime;
-        returnTimes[6] = jtfTime;
-        returnTimes[7] = jtdcTime;
-        returnTimes[8] = jtodTime;
-        returnTimes[9] = jtmcTime;
-        returnTimes[10] = inmtfTime;
-        returnTimes[11] = inmtdcTime;
-        returnTimes[12] = inmtodTime;
-        returnTimes[13] = inmtmcTime;
-        returnTimes[14] = awtfTime;
-        returnTimes[15] = awtdcTime;
-        returnTimes[16] = awtodTime;
-        returnTimes[17] = awtmcTime;
-        returnTimes[18] = stfTime;
-        returnTimes[19] = stdtmTime;
-        return returnTimes;
+        return componentTimesNanos.clone();
+    }
+    
+    
+    /**
+     * @return true if households should be run with runModelsByStage().
+     */
+    public boolean isRunByStage() {
+        return runByStage;
     }
     
     
     public void runModels( Household hhObject ) {
         
-        
         // check to see if restartModel was set and reset random number sequence appropriately if so.
         checkRestartModel( hhObject );
-      
-        if ( runAutoOwnershipModel )
-            aoModel.applyModel( hhObject );
-        
-        if ( runFreeParkingAvailableModel )
-            fpModel.applyModel( hhObject );
-        
-        if ( runCoordinatedDailyActivityPatternModel )
-            cdapModel.applyModel( hhObject );
-        
-        if ( runIndividualMandatoryTourFrequencyModel ){
-            imtfModel.applyModel( hhObject );
-            tvtcModel.applyModelToMandatoryTours(hhObject);
-        }
-        
-        if ( runMandatoryTourDepartureTimeAndDurationModel )
-            imtodModel.applyModel( hhObject );
 
-        if ( runMandatoryTourModeChoiceModel )
-            immcModel.applyModel( hhObject );
-        
-        if ( runJointTourFrequencyModel ){
-            jtfModel.applyModel( hhObject );
-            tvtcModel.applyModelToJointTours(hhObject);
-        }
-        
-        if ( runJointTourLocationChoiceModel )
-            jlcModel.applyModel( hhObject );
-        
-        if ( runJointTourDepartureTimeAndDurationModel )
-            jtodModel.applyModel( hhObject );
+        for ( int component : components )
+            applyComponent( component, hhObject, false );
 
-        if ( runJointTourModeChoiceModel )
-            jmcModel.applyModel( hhObject );
-        
-        if ( runIndividualNonMandatoryTourFrequencyModel ){
-            inmtfModel.applyModel( hhObject );
-            tvtcModel.applyModelToNonMandatoryTours(hhObject);
-        }
-        
-        if ( runIndividualNonMandatoryTourLocationChoiceModel )
-            inmlcModel.applyModel( hhObject );
-        
-        if ( runIndividualNonMandatoryTourDepartureTimeAndDurationModel )
-            inmtodModel.applyModel( hhObject );
-
-        if ( runIndividualNonMandatoryTourModeChoiceModel )
-            inmmcModel.applyModel( hhObject );
-        
-        if ( runAtWorkSubtourFrequencyModel ){
-            awfModel.applyModel( hhObject );
-            tvtcModel.applyModelToAtWorkSubTours(hhObject);
-        }
-        
-        if ( runAtWorkSubtourLocationChoiceModel )
-            awlcModel.applyModel( hhObject );
-        
-        if ( runAtWorkSubtourDepartureTimeAndDurationModel )
-            awtodModel.applyModel( hhObject );
-
-        if ( runAtWorkSubtourModeChoiceModel )
-            awmcModel.applyModel( hhObject );
-        
-        if ( runStopFrequencyModel )
-            stfModel.applyModel( hhObject );
-        
-        if ( runStopLocationModel )
-            stlmcModel.applyModel( hhObject );
-
-        
-        //}        
-        
+        countHousehold( hhObject );
     }
 
 
     public void runModelsWithTiming( Household hhObject ) {
         
-        
         // check to see if restartModel was set and reset random number sequence appropriately if so.
         checkRestartModel( hhObject );
-      
-        if ( runAutoOwnershipModel ) {
-            long check = System.nanoTime();
-            aoModel.applyModel( hhObject );
-            aoTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runFreeParkingAvailableModel ) {
-            long check = System.nanoTime();
-            fpModel.applyModel( hhObject );
-            fpTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runCoordinatedDailyActivityPatternModel ) {
-            long check = System.nanoTime();
-            cdapModel.applyModel( hhObject );
-            cdapTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runIndividualMandatoryTourFrequencyModel ) {
-            long check = System.nanoTime();
-            imtfModel.applyModel( hhObject );
-            tvtcModel.applyModelToMandatoryTours(hhObject);
-            imtfTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runMandatoryTourDepartureTimeAndDurationModel ) {
-            long check = System.nanoTime();
-            imtodModel.applyModel( hhObject );
-            imtodTime += ( System.nanoTime() - check );
-        }
 
-        if ( runMandatoryTourModeChoiceModel ) {
+        for ( int component : components ) {
             long check = System.nanoTime();
-            immcModel.applyModel( hhObject );
-            imtmcTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runJointTourFrequencyModel ) {
-            long check = System.nanoTime();
-            jtfModel.applyModel( hhObject );
-            tvtcModel.applyModelToJointTours(hhObject);
-            jtfTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runJointTourLocationChoiceModel ) {
-            long check = System.nanoTime();
-            jlcModel.applyModel( hhObject );
-            jtdcTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runJointTourDepartureTimeAndDurationModel ) {
-            long check = System.nanoTime();
-            jtodModel.applyModel( hhObject );
-            jtodTime += ( System.nanoTime() - check );
+            applyComponent( component, hhObject, true );
+            recordTime( component, check );
         }
 
-        if ( runJointTourModeChoiceModel ) {
-            long check = System.nanoTime();
-            jmcModel.applyModel( hhObject );
-            jtmcTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runIndividualNonMandatoryTourFrequencyModel ) {
-            long check = System.nanoTime();
-            inmtfModel.applyModel( hhObject );
-            tvtcModel.applyModelToNonMandatoryTours(hhObject);
-            inmtfTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runIndividualNonMandatoryTourLocationChoiceModel ) {
-            long check = System.nanoTime();
-            inmlcModel.applyModel( hhObject );
-            inmtdcTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runIndividualNonMandatoryTourDepartureTimeAndDurationModel ) {
-            long check = System.nanoTime();
-            inmtodModel.applyModel( hhObject );
-            inmtodTime += ( System.nanoTime() - check );
-        }
+        countHousehold( hhObject );
+    }
 
-        if ( runIndividualNonMandatoryTourModeChoiceModel ) {
-            long check = System.nanoTime();
-            inmmcModel.applyModel( hhObject );
-            inmtmcTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runAtWorkSubtourFrequencyModel ) {
-            long check = System.nanoTime();
-            awfModel.applyModel( hhObject );
-            tvtcModel.applyModelToAtWorkSubTours(hhObject);
-            awtfTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runAtWorkSubtourLocationChoiceModel ) {
-            long check = System.nanoTime();
-            awlcModel.applyModel( hhObject );
-            awtdcTime += ( System.nanoTime() - check );
-        }
-        
-        if ( runAtWorkSubtourDepartureTimeAndDurationModel ) {
-            long check = System.nanoTime();
-            awtodModel.applyModel( hhObject );
-            awtodTime += ( System.nanoTime() - check );
+
+    /**
+     * Run the household models for a packet of households a model component at a time: each component is applied
+     * to every household, in home TAZ order, before the next component.  The UEC, DMU, skim and sample of
+     * alternatives data used by a component stay in cache across households instead of being displaced by the
+     * other components for every household.
+     * 
+     * Each household draws its random numbers from its own random number generator, started at the step for each
+     * component, so the choices are the same as when the households are run one at a time with runModels().
+     * 
+     * @param hhArray households to run.  The array itself is not reordered.
+     * @param withTiming if true, record component times as runModelsWithTiming() does.
+     */
+    public void runModelsByStage( Household[] hhArray, boolean withTiming ) {
+
+        // the household data manager stores households in home TAZ order, but households restored from a disk
+        // object array or given out in another order are sorted here.
+        int[] homeTaz = new int[hhArray.length];
+        for ( int i=0; i < hhArray.length; i++ )
+            homeTaz[i] = hhArray[i].getHhTaz();
+        int[] order = IndexSort.indexSort( homeTaz );
+
+        for ( int i=0; i < hhArray.length; i++ )
+            checkRestartModel( hhArray[i] );
+
+        for ( int component : components ) {
+
+            for ( int i=0; i < order.length; i++ ) {
+                Household hhObject = hhArray[order[i]];
+                try {
+                    long check = System.nanoTime();
+                    applyComponent( component, hhObject, withTiming );
+                    if ( withTiming )
+                        recordTime( component, check );
+                }
+                catch (RuntimeException e) {
+                    logger.fatal( String.format( "exception caught applying %s model for hhId=%d.", COMPONENT_LABELS[component], hhObject.getHhId() ) );
+                    throw e;
+                }
+            }
         }
 
-        if ( runAtWorkSubtourModeChoiceModel ) {
-            long check = System.nanoTime();
-            awmcModel.applyModel( hhObject );
-            awtmcTime += ( System.nanoTime() - check );
+        for ( int i=0; i < hhArray.length; i++ )
+            countHousehold( hhArray[i] );
+    }
+
+
+    /**
+     * @return true if the model component with the given index in COMPONENT_LABELS is run.
+     */
+    private boolean runComponent( int component ) {
+        switch ( component ) {
+            case 0: return runAutoOwnershipModel;
+            case 1: return runFreeParkingAvailableModel;
+            case 2: return runCoordinatedDailyActivityPatternModel;
+            case 3: return runIndividualMandatoryTourFrequencyModel;
+            case 4: return runMandatoryTourDepartureTimeAndDurationModel;
+            case 5: return runMandatoryTourModeChoiceModel;
+            case 6: return runJointTourFrequencyModel;
+            case 7: return runJointTourLocationChoiceModel;
+            case 8: return runJointTourDepartureTimeAndDurationModel;
+            case 9: return runJointTourModeChoiceModel;
+            case 10: return runIndividualNonMandatoryTourFrequencyModel;
+            case 11: return runIndividualNonMandatoryTourLocationChoiceModel;
+            case 12: return runIndividualNonMandatoryTourDepartureTimeAndDurationModel;
+            case 13: return runIndividualNonMandatoryTourModeChoiceModel;
+            case 14: return runAtWorkSubtourFrequencyModel;
+            case 15: return runAtWorkSubtourLocationChoiceModel;
+            case 16: return runAtWorkSubtourDepartureTimeAndDurationModel;
+            case 17: return runAtWorkSubtourModeChoiceModel;
+            case 18: return runStopFrequencyModel;
+            case 19: return runStopLocationModel;
+            default: throw new RuntimeException( "invalid household model component index " + component );
         }
-        
-        if ( runStopFrequencyModel ) {
-            long check = System.nanoTime();
-            stfModel.applyModel( hhObject );
-            stfTime += ( System.nanoTime() - check );
+    }
+
+
+    /**
+     * Apply the model component with the given index in COMPONENT_LABELS to a household, starting the household's
+     * random number step for the component.
+     * 
+     * @param withTiming if true, add the stop location and mode choice model's partial times to getPartialTimes().
+     */
+    private void applyComponent( int component, Household hhObject, boolean withTiming ) {
+        switch ( component ) {
+            case 0:
+                hhObject.startRandomStep( Household.RANDOM_STEP_AO );
+                aoModel.applyModel( hhObject );
+                break;
+            case 1:
+                hhObject.startRandomStep( Household.RANDOM_STEP_FP );
+                fpModel.applyModel( hhObject );
+                break;
+            case 2:
+                hhObject.startRandomStep( Household.RANDOM_STEP_CDAP );
+                cdapModel.applyModel( hhObject );
+                break;
+            case 3:
+                hhObject.startRandomStep( Household.RANDOM_STEP_IMTF );
+                imtfModel.applyModel( hhObject );
+                tvtcModel.applyModelToMandatoryTours(hhObject);
+                break;
+            case 4:
+                hhObject.startRandomStep( Household.RANDOM_STEP_IMTOD );
+                imtodModel.applyModel( hhObject );
+                break;
+            case 5:
+                hhObject.startRandomStep( Household.RANDOM_STEP_IMMC );
+                immcModel.applyModel( hhObject );
+                break;
+            case 6:
+                hhObject.startRandomStep( Household.RANDOM_STEP_JTF );
+                jtfModel.applyModel( hhObject );
+                tvtcModel.applyModelToJointTours(hhObject);
+                break;
+            case 7:
+                hhObject.startRandomStep( Household.RANDOM_STEP_JTL );
+                jlcModel.applyModel( hhObject );
+                break;
+            case 8:
+                hhObject.startRandomStep( Household.RANDOM_STEP_JTOD );
+                jtodModel.applyModel( hhObject );
+                break;
+            case 9:
+                hhObject.startRandomStep( Household.RANDOM_STEP_JMC );
+                jmcModel.applyModel( hhObject );
+                break;
+            case 10:
+                hhObject.startRandomStep( Household.RANDOM_STEP_INMTF );
+                inmtfModel.applyModel( hhObject );
+                tvtcModel.applyModelToNonMandatoryTours(hhObject);
+                break;
+            case 11:
+                hhObject.startRandomStep( Household.RANDOM_STEP_INMTL );
+                inmlcModel.applyModel( hhObject );
+                break;
+            case 12:
+                hhObject.startRandomStep( Household.RANDOM_STEP_INMTOD );
+                inmtodModel.applyModel( hhObject );
+                break;
+            case 13:
+                hhObject.startRandomStep( Household.RANDOM_STEP_INMMC );
+                inmmcModel.applyModel( hhObject );
+                break;
+            case 14:
+                hhObject.startRandomStep( Household.RANDOM_STEP_AWF );
+                awfModel.applyModel( hhObject );
+                tvtcModel.applyModelToAtWorkSubTours(hhObject);
+                break;
+            case 15:
+                hhObject.startRandomStep( Household.RANDOM_STEP_AWL );
+                awlcModel.applyModel( hhObject );
+                break;
+            case 16:
+                hhObject.startRandomStep( Household.RANDOM_STEP_AWTOD );
+                awtodModel.applyModel( hhObject );
+                break;
+            case 17:
+                hhObject.startRandomStep( Household.RANDOM_STEP_AWMC );
+                awmcModel.applyModel( hhObject );
+                break;
+            case 18:
+                hhObject.startRandomStep( Household.RANDOM_STEP_STF );
+                stfModel.applyModel( hhObject );
+                break;
+            case 19:
+                hhObject.startRandomStep( Household.RANDOM_STEP_STL );
+                stlmcModel.applyModel( hhObject );
+                if ( withTiming ) {
+                    long[][] partialTimes = stlmcModel.getHhTimes();
+                    for (int i=0; i < partialTimes.length; i++)
+                        for (int j=0; j < partialTimes[i].length; j++)
+                            hhTimes[i][j] += partialTimes[i][j];
+                }
+                break;
+            default:
+                throw new RuntimeException( "invalid household model component index " + component );
         }
-        
-        if ( runStopLocationModel ) {
-            long check = System.nanoTime();
-            stlmcModel.applyModel( hhObject );
-            long[][] partialTimes = stlmcModel.getHhTimes();
-            for (int i=0; i < partialTimes.length; i++)
-                for (int j=0; j < partialTimes[i].length; j++)
-                    hhTimes[i][j] += partialTimes[i][j];
-            stdtmTime += ( System.nanoTime() - check );
+    }
+
+
+    /**
+     * Record the time for a model component in the component's Metrics histogram and add it to the component's
+     * total time.
+     */
+    private void recordTime( int component, long check ) {
+        long elapsed = System.nanoTime() - check;
+        componentTimes[component].record( elapsed );
+        componentTimesNanos[component] += elapsed;
+    }
+
+
+    private void countHousehold( Household hhObject ) {
+        if ( ! Metrics.isEnabled() )
+            return;
+
+        int tours = 0;
+        if ( hhObject.getJointTourArray() != null )
+            tours += hhObject.getJointTourArray().length;
+        Person[] persons = hhObject.getPersons();
+        for ( int i=1; i < persons.length; i++ ) {
+            tours += persons[i].getListOfWorkTours().size();
+            tours += persons[i].getListOfSchoolTours().size();
+            tours += persons[i].getListOfIndividualNonMandatoryTours().size();
+            tours += persons[i].getListOfAtWorkSubtours().size();
         }
 
-        
-        //}        
-        
+        householdCount.increment();
+        tourCount.add( tours );
     }
 
 
@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -21,7 +21,10 @@ public class HouseholdChoiceModelsManager implements Serializable {
 
     private static HouseholdChoiceModelsManager objInstance = null;
 
-    private LinkedList<HouseholdChoiceModels> modelQueue = null;
+    // if true, managerSetup() builds a HouseholdChoiceModels object for each of the node's processing threads in parallel
+    public static final String PROPERTIES_PREWARM_MODELS = "distributed.node.prewarm.models";
+
+    private transient ModelObjectPool<HouseholdChoiceModels> modelPool = null;
 
     private HashMap<String, String> propertyMap;
     private String restartModelString;
@@ -29,9 +32,7 @@ public class HouseholdChoiceModelsManager implements Serializable {
     private TazDataIf tazDataManager;
     private CtrampDmuFactoryIf dmuFactory;
     
-    private int completedHouseholds = 0;
-    
-    private int modelIndex;
+    private AtomicInteger completedHouseholds = new AtomicInteger();
 
     
     private HouseholdChoiceModelsManager(){        
@@ -49,8 +50,7 @@ public class HouseholdChoiceModelsManager implements Serializable {
             objInstance.tazDataManager = tazDataManager;
             objInstance.dmuFactory = dmuFactory;
 
-            objInstance.completedHouseholds = 0;
-            objInstance.modelIndex = 0;
+            objInstance.completedHouseholds.set( 0 );
             return objInstance;
         }
         else {
@@ -64,11 +64,10 @@ public class HouseholdChoiceModelsManager implements Serializable {
     // the task instances should call needToInitialize() first, then this method if necessary.
     public synchronized void managerSetup( MatrixDataServerIf ms ) {
 
-        if ( modelQueue != null )
+        if ( modelPool != null )
             return;
         
-        modelIndex = 0;
-        completedHouseholds = 0;
+        completedHouseholds.set( 0 );
         
         //setupJointProbabilitiesCache();
         //setupIndivNonManProbabilitiesCache();
@@ -93,47 +92,35 @@ public class HouseholdChoiceModelsManager implements Serializable {
             logger.info ( String.format( Thread.currentThread().getName() + ": HouseholdChoiceModelManager needs MatrixDataManager, MatrixDataServer connection test: %s", testString ) );
             mdm = MatrixDataManager.getInstance();
             mdm.setMatrixDataServerObject( ms );
+            String rowCacheSize = propertyMap.get( CtrampApplication.PROPERTIES_MATRIX_SERVER_ROW_CACHE_SIZE );
+            mdm.setMatrixRowCacheSize( rowCacheSize == null ? 0 : Integer.parseInt( rowCacheSize.trim() ) );
         }
         else {
             logger.info ( Thread.currentThread().getName() + ": MatrixDataManager already exists." );
         }
 
-        // the first thread to reach this method initializes the modelQueue used to recycle hhChoiceModels objects. 
-        modelQueue = new LinkedList<HouseholdChoiceModels>();
+        // the first thread to reach this method initializes the modelPool used to recycle hhChoiceModels objects. 
+        modelPool = new ModelObjectPool<HouseholdChoiceModels>( "hhChoiceModels", new ModelObjectPool.Factory<HouseholdChoiceModels>() {
+            public HouseholdChoiceModels create( int modelIndex ) {
+                return new HouseholdChoiceModels( modelIndex, restartModelString, propertyMap, tazDataManager, modelStructure, dmuFactory );
+            }
+        });
+
+        // other tasks on the node wait here for the models to be built rather than building their own one at a time.
+        if ( Boolean.parseBoolean( propertyMap.get( PROPERTIES_PREWARM_MODELS ) ) )
+            modelPool.prewarm( ModelObjectPool.getNodeProcessingThreads() );
 
     }
 
     
     /**
-     * @return DestChoiceModel object created if none is available from the queue.
+     * @return HouseholdChoiceModels object from the pool, created if none is idle.
      * 
      */
-    public synchronized HouseholdChoiceModels getHouseholdChoiceModelsObject( int taskIndex ) {
+    public HouseholdChoiceModels getHouseholdChoiceModelsObject( int taskIndex ) {
 
-        String message = "";
-        HouseholdChoiceModels hhChoiceModels = null;
-        
-        
-        if ( modelQueue.isEmpty() ) {
-            // create choice model object
-            //hhChoiceModels = new HouseholdChoiceModels( ++modelIndex, restartModelString, propertyMap, tazDataManager, modelStructure, dmuFactory, jointProbabilitiesCache, jointCumProbabilitiesCache, indivNonManProbabilitiesCache, indivNonManCumProbabilitiesCache, atWorkProbabilitiesCache, atWorkCumProbabilitiesCache );
-            hhChoiceModels = new HouseholdChoiceModels( ++modelIndex, restartModelString, propertyMap, tazDataManager, modelStructure, dmuFactory );
-//            long size = 0;
-//            size = ObjectUtil.sizeOf( hhChoiceModels );
-//            try {
-//                size = ObjectUtil.checkObjectSize( hhChoiceModels );
-//            }
-//            catch (IOException e) {
-//                // TODO Auto-generated catch block
-//                e.printStackTrace();
-//            }
-            message = String.format( "created hhChoiceModels=%d, task=%d, thread=%s", modelIndex, taskIndex, Thread.currentThread().getName()  );
-        }
-        else {
-            hhChoiceModels = modelQueue.remove();
-            message = String.format( "removed hhChoiceModels=%d from queue, task=%d, thread=%s.", hhChoiceModels.getModelIndex(), taskIndex, Thread.currentThread().getName() );
-        }
-        logger.info( message );
+        HouseholdChoiceModels hhChoiceModels = modelPool.take();
+        logger.info( String.format( "took hhChoiceModels=%d from pool, task=%d, thread=%s, %s.", hhChoiceModels.getModelIndex(), taskIndex, Thread.currentThread().getName(), modelPool.getStatistics() ) );
 
         return hhChoiceModels;
 
@@ -141,14 +128,14 @@ public class HouseholdChoiceModelsManager implements Serializable {
 
     
     /**
-     * return the HouseholdChoiceModels object to the manager's queue so that it may be used by another thread
+     * return the HouseholdChoiceModels object to the manager's pool so that it may be used by another thread
      * without it having to create one. 
      * @param hhModels
      */
     public void returnHouseholdChoiceModelsObject ( HouseholdChoiceModels hhModels, int startIndex, int endIndex ) {
-        modelQueue.add( hhModels );
-        completedHouseholds += (endIndex - startIndex + 1);
-        logger.info( "returned hhChoiceModels=" + hhModels.getModelIndex() + " to queue: thread=" + Thread.currentThread().getName() + ", completedHouseholds=" + completedHouseholds + "." );
+        modelPool.give( hhModels );
+        int completed = completedHouseholds.addAndGet( endIndex - startIndex + 1 );
+        logger.info( "returned hhChoiceModels=" + hhModels.getModelIndex() + " to pool: thread=" + Thread.currentThread().getName() + ", completedHouseholds=" + completed + ", " + modelPool.getStatistics() + "." );
     }
         
 
@@ -156,23 +143,22 @@ public class HouseholdChoiceModelsManager implements Serializable {
     
     public synchronized void clearHhModels() {
         
-        if ( modelQueue == null ) {
+        if ( modelPool == null ) {
             return;
         }
         
-        System.out.println( String.format( "%s:  clearing household choice models modelQueue, thread=%s.", new Date(), Thread.currentThread().getName() ) );
+        System.out.println( String.format( "%s:  clearing household choice models modelPool, thread=%s, %s.", new Date(), Thread.currentThread().getName(), modelPool.getStatistics() ) );
         
-        while ( ! modelQueue.isEmpty() ) {
-            HouseholdChoiceModels hhChoiceModels = modelQueue.remove();
+        for ( HouseholdChoiceModels hhChoiceModels : modelPool.drain() ) {
             hhChoiceModels.cleanUp();
             System.out.println( "cleaned up hhModel " + hhChoiceModels.getModelIndex() + "." );
-            hhChoiceModels = null;
         }
         
-        modelIndex = 0;
-        completedHouseholds = 0;
+        completedHouseholds.set( 0 );
+        
+        modelPool = null;
         
-        modelQueue = null;
+        ModeChoiceLogsumCache.clearInstance();
 
     }
 
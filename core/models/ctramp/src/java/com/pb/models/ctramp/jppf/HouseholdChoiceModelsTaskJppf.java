@@ -4,6 +4,8 @@ import java.net.UnknownHostException;
 import java.util.HashMap;
 
 import com.pb.common.calculator.MatrixDataServerIf;
+import com.pb.common.util.Metrics;
+import com.pb.common.util.MetricsSnapshot;
 import com.pb.models.ctramp.CtrampDmuFactoryIf;
 import com.pb.models.ctramp.Household;
 import com.pb.models.ctramp.HouseholdDataManagerIf;
@@ -33,6 +35,16 @@ public class HouseholdChoiceModelsTaskJppf extends JPPFTask {
     private int taskIndex;
     
     private boolean runWithTiming;
+
+    // if true, the task asks the household data manager for packets of households until there are none left
+    private boolean packetsFromServer;
+
+    private transient long getHhsTime;
+    private transient long putHhsTime;
+
+    // metrics recorded on the node while the task ran, returned to the client with the task
+    private MetricsSnapshot metrics;
+    private String nodeName;
     
     public HouseholdChoiceModelsTaskJppf( int taskIndex, int startIndex, int endIndex ) {
 
@@ -41,6 +53,20 @@ public class HouseholdChoiceModelsTaskJppf extends JPPFTask {
         this.taskIndex = taskIndex;
         
         runWithTiming = true;
+        packetsFromServer = false;
+    }
+
+    /**
+     * Create a task that runs packets of households given out by HouseholdDataManagerIf.getNextHouseholdPacket().
+     */
+    public HouseholdChoiceModelsTaskJppf( int taskIndex ) {
+
+        this.startIndex = -1;
+        this.endIndex = -1;
+        this.taskIndex = taskIndex;
+        
+        runWithTiming = true;
+        packetsFromServer = true;
     }
 
     
@@ -77,11 +103,19 @@ public class HouseholdChoiceModelsTaskJppf extends JPPFTask {
         // get the factory object used to create and recycle HouseholdChoiceModels objects.
         HouseholdChoiceModelsManager modelManager = HouseholdChoiceModelsManager.getInstance( propertyMap, restartModelString, modelStructure, tazDataManager, dmuFactory );         
         modelManager.managerSetup( ms );
+        TaskMetrics.setup( propertyMap );
         
         
         
         HouseholdChoiceModels hhModel = modelManager.getHouseholdChoiceModelsObject( taskIndex);
         
+        if ( packetsFromServer ) {
+            runHouseholdPackets( hhModel, threadName, startTime );
+            collectMetrics();
+            modelManager.returnHouseholdChoiceModelsObject( hhModel, startIndex, endIndex );
+            return;
+        }
+        
         long setup1 = 0;
         long setup2 = 0;
         long setup3 = 0;
@@ -90,35 +124,14 @@ public class HouseholdChoiceModelsTaskJppf extends JPPFTask {
 
         setup1 = (System.nanoTime() - startTime)/1000000;
 
-        Household[] householdArray = hhDataManager.getHhArray( startIndex, endIndex ); 
-
-        setup2 = (System.nanoTime() - startTime)/1000000;
-        
         hhModel.zeroTimes();
-        for ( int i=0; i < householdArray.length; i++ ) {
-            
-            try {
-                if ( runWithTiming )
-                    hhModel.runModelsWithTiming ( householdArray[i] );
-                else
-                    hhModel.runModels ( householdArray[i] );                
-            }
-            catch (RuntimeException e) {
-                logger.fatal ( String.format("exception caught in taskIndex=%d hhModel index=%d applying hh model for i=%d, hhId=%d.", taskIndex, hhModel.getModelIndex(), i, householdArray[i].getHhId()) );
-                logger.fatal( "Exception caught:", e );
-                logger.fatal( "Throwing new RuntimeException() to terminate." );
-                throw new RuntimeException();
-            }
-            
-        }
+        runHouseholds( hhModel, startIndex, endIndex );
         long[] componentTimes = hhModel.getTimes();
         long[][] partialTimes = hhModel.getPartialTimes();
         
-        setup3 = (System.nanoTime() - startTime)/1000000;
-        
-        hhDataManager.setHhArray( householdArray, startIndex );
-
         setup4 = (System.nanoTime() - startTime)/1000000;
+        setup2 = setup1 + getHhsTime/1000000;
+        setup3 = setup4 - putHhsTime/1000000;
         
         logger.info( String.format("end of household choice model thread=%s, task[%d], hhModel[%d], startIndex=%d, endIndex=%d", threadName, taskIndex, hhModel.getModelIndex(), startIndex, endIndex) );
 
@@ -130,20 +143,144 @@ public class HouseholdChoiceModelsTaskJppf extends JPPFTask {
 
         if ( runWithTiming )
             logModelComponentTimes( componentTimes, partialTimes, logger, hhModel.getModelIndex() );
+
+        collectMetrics();
         
         // this has to be the last statement in this method.
         // add this hhModel instance to the static queue shared by other tasks of this type
         modelManager.returnHouseholdChoiceModelsObject( hhModel, startIndex, endIndex );
     
     }
+
+
+    /**
+     * Run packets of households given out by the household data manager until there are none left.
+     */
+    private void runHouseholdPackets( HouseholdChoiceModels hhModel, String threadName, long startTime ) {
+
+        String nodeName = threadName;
+        try {
+            nodeName = java.net.InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            logger.warn( "could not get host name for household packets, using thread name.", e );
+        }
+        // the worker name stays the same if JPPF resubmits the task to another node, so its packet can be requeued
+        String workerName = "task " + taskIndex;
+
+        long setup1 = (System.nanoTime() - startTime)/1000000;
+
+        hhModel.zeroTimes();
+        int numPackets = 0;
+        int numHouseholds = 0;
+        int completedHouseholds = 0;
+        long completedNanos = 0;
+        int[] packet = null;
+        while ( ( packet = hhDataManager.getNextHouseholdPacket( nodeName, workerName, completedHouseholds, completedNanos ) ) != null ) {
+
+            long packetStart = System.nanoTime();
+
+            // startIndex and endIndex are the range of the last packet, for logging by the model manager and exception messages.
+            startIndex = packet[0];
+            endIndex = packet[1];
+            try {
+                runHouseholds( hhModel, startIndex, endIndex );
+            }
+            catch (RuntimeException e) {
+                hhDataManager.returnHouseholdPacket( workerName );
+                throw e;
+            }
+
+            completedHouseholds = endIndex - startIndex + 1;
+            completedNanos = System.nanoTime() - packetStart;
+            numPackets++;
+            numHouseholds += completedHouseholds;
+        }
+        long[] componentTimes = hhModel.getTimes();
+        long[][] partialTimes = hhModel.getPartialTimes();
+
+        long total = (System.nanoTime() - startTime)/1000000;
+
+        logger.info( String.format("end of household choice model thread=%s, task[%d], hhModel[%d], packets=%d, households=%d", threadName, taskIndex, hhModel.getModelIndex(), numPackets, numHouseholds) );
+        logger.info( "task=" + taskIndex + ", setup=" + setup1 + ", getHhs=" + (getHhsTime/1000000) + ", processHhs=" + (total - setup1 - (getHhsTime + putHhsTime)/1000000) + ", putHhs=" + (putHhsTime/1000000) + "." );
+
+        setResult( String.format("taskIndex=%d, hhModelInstance=%d, packets=%d, households=%d, thread=%s", taskIndex, hhModel.getModelIndex(), numPackets, numHouseholds, threadName) );
+
+        if ( runWithTiming )
+            logModelComponentTimes( componentTimes, partialTimes, logger, hhModel.getModelIndex() );
+
+        // the model manager counts completed households from the range passed to returnHouseholdChoiceModelsObject()
+        startIndex = 0;
+        endIndex = numHouseholds - 1;
+    }
+
+
+    private void runHouseholds( HouseholdChoiceModels hhModel, int first, int last ) {
+
+        long check = System.nanoTime();
+        Household[] householdArray = hhDataManager.getHhArray( first, last ); 
+        getHhsTime += System.nanoTime() - check;
+
+        if ( hhModel.isRunByStage() ) {
+            try {
+                hhModel.runModelsByStage( householdArray, runWithTiming );
+            }
+            catch (RuntimeException e) {
+                logger.fatal ( String.format("exception caught in taskIndex=%d hhModel index=%d applying hh models by stage for households %d to %d.", taskIndex, hhModel.getModelIndex(), first, last) );
+                logger.fatal( "Exception caught:", e );
+                logger.fatal( "Throwing new RuntimeException() to terminate." );
+                throw new RuntimeException();
+            }
+        }
+        else {
+            for ( int i=0; i < householdArray.length; i++ ) {
+            
+                try {
+                    if ( runWithTiming )
+                        hhModel.runModelsWithTiming ( householdArray[i] );
+                    else
+                        hhModel.runModels ( householdArray[i] );                
+                }
+                catch (RuntimeException e) {
+                    logger.fatal ( String.format("exception caught in taskIndex=%d hhModel index=%d applying hh model for i=%d, hhId=%d.", taskIndex, hhModel.getModelIndex(), i, householdArray[i].getHhId()) );
+                    logger.fatal( "Exception caught:", e );
+                    logger.fatal( "Throwing new RuntimeException() to terminate." );
+                    throw new RuntimeException();
+                }
+            
+            }
+        }
+
+        check = System.nanoTime();
+        hhDataManager.setHhArray( householdArray, first );
+        putHhsTime += System.nanoTime() - check;
+    }
     
     public String getId() {
         return Integer.toString(taskIndex);
     }
 
+
+    private void collectMetrics() {
+        if ( Metrics.isEnabled() ) {
+            metrics = Metrics.snapshotSinceLastReport();
+            nodeName = TaskMetrics.getNodeName();
+        }
+    }
+
+    /**
+     * @return the metrics recorded on the task's node while it ran, or null if metrics are not enabled.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics;
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
     private void logModelComponentTimes( long[] componentTimes, long[][] partialTimes, Logger logger, int modelIndex ) {
      
-        String[] label = { "AO", "FP", "CDAP", "IMTF", "IMTOD", "IMMC", "JTF", "JTDC", "JTTOD", "JTMC", "INMTF", "INMTDC", "INMTTOD", "INMTMC", "AWTF", "AWTDC", "AWTTOD", "AWTMC", "STF", "STDTM" };
+        String[] label = HouseholdChoiceModels.COMPONENT_LABELS;
         
         logger.info( "Household choice model component runtimes (in ms) for task: " + taskIndex + ", modelIndex: " + modelIndex + ", startIndex: " + startIndex + ", endIndex: " + endIndex );
         
@@ -51,6 +51,7 @@ public class HouseholdCoordinatedDailyActivityPatternModel implements Serializab
     
 
     private static final String PROPERTIES_UEC_DAILY_ACTIVITY_PATTERN = "UecFile.CoordinatedDailyActivityPattern";
+    private static final String PROPERTIES_USE_PATTERN_KERNEL = "CDAP.UsePatternKernel";
     
     private static final int UEC_DATA_PAGE    = 0;
     private static final int UEC_ONE_PERSON   = 1;
@@ -72,6 +73,9 @@ public class HouseholdCoordinatedDailyActivityPatternModel implements Serializab
 
     // collection of logit models - one for each household size
     private ArrayList<LogitModel> logitModelList;
+
+    // if not null, used instead of the logit models to choose patterns for households that aren't traced
+    private CdapPatternKernel patternKernel;
     
     // DMU for the UEC
     private CoordinatedDailyActivityPatternDMU cdapDmuObject;
@@ -92,6 +96,9 @@ public class HouseholdCoordinatedDailyActivityPatternModel implements Serializab
         // setup the coordinated daily activity pattern choice model objects
         createLogitModels();
         setupCoordinatedDailyActivityPatternModelApplication( propertyMap, dmuFactory );
+
+        if ( Boolean.parseBoolean( propertyMap.get( PROPERTIES_USE_PATTERN_KERNEL ) ) )
+            patternKernel = new CdapPatternKernel( MAX_MODEL_HH_SIZE, activityNameArray );
     	
     }
 
@@ -382,6 +389,52 @@ public class HouseholdCoordinatedDailyActivityPatternModel implements Serializab
             }
         }
 
+        // choose the pattern for the first five members
+        String firstFiveChosenName = null;
+        if ( patternKernel != null && ! householdObject.getDebugChoiceModels() )
+            firstFiveChosenName = getPatternChoiceFromKernel( householdObject, modelHhSize );
+        else
+            firstFiveChosenName = getPatternChoiceFromLogitModel( householdObject, modelHhSize );
+
+        // make a choice for additional hh members if need be
+        if(actualHhSize>MAX_MODEL_HH_SIZE){
+            
+            String allMembersChosenPattern = applyModelForExtraHhMembers(householdObject,firstFiveChosenName);
+
+            // re-order the activities by the original order of persons
+            String finalHhPattern = "";
+            String[] finalHhPatternActivities = new String[cdapPersonArray.length];
+            for ( int i=1; i < cdapPersonArray.length; i++ ) {
+                int k = cdapPersonArray[i].getPersonNum();
+                finalHhPatternActivities[k] = allMembersChosenPattern.substring( i-1, i );
+            }
+
+            for ( int i=1; i < cdapPersonArray.length; i++ )
+                finalHhPattern += finalHhPatternActivities[i];
+
+            return finalHhPattern;
+
+        }
+
+        if(householdObject.getDebugChoiceModels()){
+            // reset the logger to what it was before we changed it    
+            LogitModel.setLogger( Logger.getLogger(LogitModel.class) );
+        }
+
+
+        // no need to re-order the activities - hhsize <= MAX_MODEL_HH_SIZE have original order of persons
+        return firstFiveChosenName;
+        
+        
+    }
+
+
+    /**
+     * Computes the pattern utilities with the UECs and the LogitModel for the household size, logging the utilities
+     * and probabilities for trace households, and chooses the pattern of the first five members.
+     */
+    private String getPatternChoiceFromLogitModel( Household householdObject, int modelHhSize ) {
+
         // get the logit model we need and clear it of any lingering probilities
         LogitModel workingLogitModel = logitModelList.get(modelHhSize-1);
         workingLogitModel.clear();
@@ -661,37 +714,55 @@ public class HouseholdCoordinatedDailyActivityPatternModel implements Serializab
             throw new RuntimeException();
         }
 
-        // make a choice for additional hh members if need be
-        if(actualHhSize>MAX_MODEL_HH_SIZE){
-            
-            String allMembersChosenPattern = applyModelForExtraHhMembers(householdObject,firstFiveChosenName);
+        return firstFiveChosenName;
 
-            // re-order the activities by the original order of persons
-            String finalHhPattern = "";
-            String[] finalHhPatternActivities = new String[cdapPersonArray.length];
-            for ( int i=1; i < cdapPersonArray.length; i++ ) {
-                int k = cdapPersonArray[i].getPersonNum();
-                finalHhPatternActivities[k] = allMembersChosenPattern.substring( i-1, i );
-            }
+    }
 
-            for ( int i=1; i < cdapPersonArray.length; i++ )
-                finalHhPattern += finalHhPatternActivities[i];
 
-            return finalHhPattern;
+    /**
+     * Computes the same pattern utilities as getPatternChoiceFromLogitModel() with the CdapPatternKernel, without
+     * trace logging, and chooses the pattern of the first five members.
+     */
+    private String getPatternChoiceFromKernel( Household householdObject, int modelHhSize ) {
+
+        // all the alternatives are available for all households (1-based, ignore 0 index and set other three to 1.)
+        int[] availability = {-1,1,1,1};
+
+        patternKernel.setHouseholdSize( modelHhSize );
 
+        for(int i=0;i<modelHhSize;++i){
+
+            cdapDmuObject.setPersonA( getCdapPerson(i+1) );
+            patternKernel.setOnePersonUtilities( i, onePersonUec.solve(cdapDmuObject.getIndexValues(), cdapDmuObject, availability) );
+
+            for(int j=i+1;j<modelHhSize;++j){
+
+                cdapDmuObject.setPersonB( getCdapPerson(j+1) );
+                patternKernel.setTwoPersonUtilities( i, j, twoPeopleUec.solve(cdapDmuObject.getIndexValues(), cdapDmuObject, availability) );
+
+                for(int k=j+1;k<modelHhSize;++k){
+
+                    cdapDmuObject.setPersonC( getCdapPerson(k+1) );
+                    patternKernel.setThreePersonUtilities( i, j, k, threePeopleUec.solve(cdapDmuObject.getIndexValues(), cdapDmuObject, availability) );
+
+                }
+            }
         }
 
-        if(householdObject.getDebugChoiceModels()){
-            // reset the logger to what it was before we changed it    
-            LogitModel.setLogger( Logger.getLogger(LogitModel.class) );
+        patternKernel.setAllMemberUtilities( allMemberInteractionUec.solve(cdapDmuObject.getIndexValues(), cdapDmuObject, availability) );
+
+        double randomNumber = householdObject.getHhRandom().nextDouble();
+        int chosen = patternKernel.choosePattern( randomNumber );
+        if ( chosen < 0 ) {
+            logger.error ( String.format( "Exception caught for HHID=%d, no available CDAP alternatives to choose.", householdObject.getHhId() ) );
+            throw new RuntimeException();
         }
 
+        return patternKernel.getPatternName( chosen );
 
-        // no need to re-order the activities - hhsize <= MAX_MODEL_HH_SIZE have original order of persons
-        return firstFiveChosenName;
-        
-        
     }
+
+
     /**
      * Applies a simple choice from fixed proportions by person type for members of households with more than
      * 5 people who are not included in the CDAP model. The choices of the additional household
@@ -14,6 +14,7 @@ import com.pb.models.ctramp.ModeChoiceDMU;
 import com.pb.models.ctramp.ModelStructure;
 import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.TazDataIf;
+import com.pb.models.ctramp.TimeWindowMasks;
 import com.pb.models.ctramp.Tour;
 import com.pb.models.ctramp.TourDepartureTimeAndDurationDMU;
 
@@ -66,6 +67,7 @@ public class HouseholdIndividualMandatoryTourDepartureAndDurationTime implements
 
     private int[] altStarts;
     private int[] altEnds;
+    private TimeWindowMasks altMasks;
     
     private int noAvailableWorkWindowCount = 0;
     private int noAvailableSchoolWindowCount = 0;
@@ -116,6 +118,7 @@ public class HouseholdIndividualMandatoryTourDepartureAndDurationTime implements
         TableDataSet altsTable = workTourChoiceModel.getUEC().getAlternativeData();
         altStarts = altsTable.getColumnAsInt( CtrampApplication.START_FIELD_NAME );
         altEnds = altsTable.getColumnAsInt( CtrampApplication.END_FIELD_NAME );
+        altMasks = new TimeWindowMasks( altStarts, altEnds );
         altsTable = null;
 
         imtodDmuObject.setTodAlts(altStarts, altEnds);
@@ -370,7 +373,7 @@ public class HouseholdIndividualMandatoryTourDepartureAndDurationTime implements
 
             
             // set the choice availability and initialize sample array - choicemodelapplication will change sample[] according to availability[]
-            boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altStarts, altEnds );
+            boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altMasks );
             Arrays.fill(workTourDepartureTimeChoiceSample, 1);
 
             if ( departureTimeChoiceAvailability.length != workTourDepartureTimeChoiceSample.length ) {
@@ -721,7 +724,7 @@ public class HouseholdIndividualMandatoryTourDepartureAndDurationTime implements
 
             
             // set the choice availability and sample
-            boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altStarts, altEnds );
+            boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altMasks );
             Arrays.fill(schoolTourDepartureTimeChoiceSample, 1);
             
             if ( departureTimeChoiceAvailability.length != schoolTourDepartureTimeChoiceSample.length ) {
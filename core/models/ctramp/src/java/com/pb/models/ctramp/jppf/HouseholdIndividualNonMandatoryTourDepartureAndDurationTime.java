@@ -15,6 +15,7 @@ import com.pb.models.ctramp.ModeChoiceDMU;
 import com.pb.models.ctramp.ModelStructure;
 import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.TazDataIf;
+import com.pb.models.ctramp.TimeWindowMasks;
 import com.pb.models.ctramp.Tour;
 import com.pb.models.ctramp.TourDepartureTimeAndDurationDMU;
 
@@ -65,6 +66,7 @@ public class HouseholdIndividualNonMandatoryTourDepartureAndDurationTime impleme
 
     private int[] altStarts;
     private int[] altEnds;
+    private TimeWindowMasks altMasks;
     
 
     private boolean[] needToComputeLogsum;
@@ -116,6 +118,7 @@ public class HouseholdIndividualNonMandatoryTourDepartureAndDurationTime impleme
         TableDataSet altsTable = timeChoiceModel.getUEC().getAlternativeData();
         altStarts = altsTable.getColumnAsInt( CtrampApplication.START_FIELD_NAME );
         altEnds = altsTable.getColumnAsInt( CtrampApplication.END_FIELD_NAME );
+        altMasks = new TimeWindowMasks( altStarts, altEnds );
         altsTable = null;
 
         
@@ -273,7 +276,7 @@ public class HouseholdIndividualNonMandatoryTourDepartureAndDurationTime impleme
                     
 
                     // set the choice availability and sample
-                    boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altStarts, altEnds );
+                    boolean[] departureTimeChoiceAvailability = person.getAvailableTimeWindows( altMasks );
                     Arrays.fill(tourDepartureTimeChoiceSample, 1);
                     
                     
@@ -16,6 +16,7 @@ import com.pb.models.ctramp.ModeChoiceDMU;
 import com.pb.models.ctramp.ModelStructure;
 import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.TazDataIf;
+import com.pb.models.ctramp.TimeWindowMasks;
 import com.pb.models.ctramp.Tour;
 import com.pb.models.ctramp.TourDepartureTimeAndDurationDMU;
 
@@ -63,6 +64,7 @@ public class JointTourDepartureAndDurationTime implements Serializable {
 
     private int[] altStarts;
     private int[] altEnds;
+    private TimeWindowMasks altMasks;
     
     private ChoiceModelApplication timeChoiceModel;
     private ModeChoiceModel mcModel;
@@ -122,6 +124,7 @@ public class JointTourDepartureAndDurationTime implements Serializable {
         TableDataSet altsTable = timeChoiceModel.getUEC().getAlternativeData();
         altStarts = altsTable.getColumnAsInt( CtrampApplication.START_FIELD_NAME );
         altEnds = altsTable.getColumnAsInt( CtrampApplication.END_FIELD_NAME );
+        altMasks = new TimeWindowMasks( altStarts, altEnds );
         altsTable = null;
 
         
@@ -267,7 +270,7 @@ public class JointTourDepartureAndDurationTime implements Serializable {
 
 
                     // set the choice availability and sample
-                    boolean[] departureTimeChoiceAvailability = hh.getAvailableJointTourTimeWindows( t, altStarts, altEnds );
+                    boolean[] departureTimeChoiceAvailability = hh.getAvailableJointTourTimeWindows( t, altMasks );
                     Arrays.fill ( tourDepartureTimeChoiceSample, 1 );
                     
                     if ( departureTimeChoiceAvailability.length != tourDepartureTimeChoiceSample.length ) {
@@ -12,9 +12,12 @@ import java.util.Date;
 import java.util.HashMap;
 
 import com.pb.common.calculator.MatrixDataServerIf;
+import com.pb.common.util.Metrics;
+import com.pb.common.util.MetricsSnapshot;
 import com.pb.models.ctramp.CtrampDmuFactoryIf;
 import com.pb.models.ctramp.DestChoiceSize;
 import com.pb.models.ctramp.Household;
+import com.pb.models.ctramp.HouseholdDataManager;
 import com.pb.models.ctramp.HouseholdDataManagerIf;
 import com.pb.models.ctramp.ModelStructure;
 import com.pb.models.ctramp.TazDataIf;
@@ -43,12 +46,25 @@ public class LocationChoiceTaskJppf extends JPPFTask {
     private transient String modeChoiceUecFileName;
     private transient CtrampDmuFactoryIf dmuFactory;
     private transient String restartModelString;
+    private transient boolean[][] shadowPriceChangedAlts;
+    private transient boolean countMandatoryTours;
 
     private int iteration;
     private int startIndex;
     private int endIndex;
     private int taskIndex = -1;
 
+    // metrics recorded on the node while the task ran, returned to the client with the task
+    private MetricsSnapshot metrics;
+    private String nodeName;
+
+    // if the client asks for them, the mandatory tours chosen by the task's households by purpose, zone and subzone,
+    // as the flattened array index and the expanded count of each non-zero element, returned to the client with the task
+    private int[] mandatoryTourCells;
+    private double[] mandatoryTourCounts;
+
+    private static Metrics.Counter householdCount = Metrics.counter( "households" );
+
     
     
     public LocationChoiceTaskJppf( int taskIndex, int startIndex, int endIndex, int iteration ) {
@@ -89,6 +105,8 @@ public class LocationChoiceTaskJppf extends JPPFTask {
             this.modeChoiceUecFileName = (String) dataProvider.getValue("modeChoiceUecFileName");
             this.dmuFactory = (CtrampDmuFactoryIf) dataProvider.getValue("dmuFactory");
             this.restartModelString = (String) dataProvider.getValue("restartModelString");
+            this.shadowPriceChangedAlts = (boolean[][]) dataProvider.getValue("shadowPriceChangedAlts");
+            this.countMandatoryTours = Boolean.TRUE.equals( dataProvider.getValue("countMandatoryTours") );
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -105,6 +123,7 @@ public class LocationChoiceTaskJppf extends JPPFTask {
         
         // one of tasks needs to initialize the manager object by passing attributes needed to create a destination choice model object.
         modelManager.factorySetup( propertyMap, ms, modelStructure, tourCategory, tazDataManager, dcSizeObj, dcUecFileName, soaUecFileName, soaSampleSize, modeChoiceUecFileName, dmuFactory, restartModelString );
+        TaskMetrics.setup( propertyMap );
 
 
         
@@ -113,6 +132,9 @@ public class LocationChoiceTaskJppf extends JPPFTask {
 
         // reset the dc size object so scaled size values are used for iteration >= 1.
         dcModel.setDcSize ( dcSizeObj, iteration );
+
+        // for incremental shadow pricing, only choices whose sample includes a changed alternative are made again.
+        dcModel.setShadowPriceChangedAlternatives ( shadowPriceChangedAlts );
         
         long setup1 = 0;
         long setup2 = 0;
@@ -128,6 +150,8 @@ public class LocationChoiceTaskJppf extends JPPFTask {
         long cmUecTime = 0;
         long cmOtherTime = 0;
         long lsTotalTime = 0;
+        int numChoices = 0;
+        int numCarriedForward = 0;
         
         Household[] householdArray = null;
         
@@ -149,6 +173,8 @@ public class LocationChoiceTaskJppf extends JPPFTask {
                 cmUecTime += dcModel.getCmUecTime();
                 cmOtherTime += dcModel.getCmOtherTime();
                 lsTotalTime += dcModel.getLsTotalTime();
+                numChoices += dcModel.getNumChoices();
+                numCarriedForward += dcModel.getNumChoicesCarriedForward();
 //                long[][] counts = dcModel.getFilterCount();
 //                for ( int j=0; j < counts.length; j++ )
 //                    for ( int k=0; k < counts[j].length; k++ )
@@ -163,6 +189,11 @@ public class LocationChoiceTaskJppf extends JPPFTask {
 //                        coeffCount[j][k] += counts[j][k];
             }
         
+            householdCount.add( householdArray.length );
+
+            if ( countMandatoryTours )
+                countMandatoryTours( householdArray );
+
             setup3 = System.currentTimeMillis() - startTime;
 
             hhDataManager.setHhArray( householdArray, startIndex );
@@ -186,6 +217,8 @@ public class LocationChoiceTaskJppf extends JPPFTask {
         logger.info( "task=" + taskIndex + " finished, thread=" + threadName + ", " + startTime + ", " + System.currentTimeMillis() + "." );
         logger.info( "task=" + taskIndex + ", setup=" + setup1 + ", getHhs=" + (setup2 - setup1) + ", processHhs=" + (setup3 - setup2)  + ", putHhs=" + (setup4 - setup3) + ", total=" + total + "." );
         logger.info( "task=" + taskIndex + ", lsTime=" + (lsTime/1000000) + ", soaTime=" + (soaTime/1000000) + ", totTime=" + (totTime/1000000) + ", cmUecTime=" + (cmUecTime/1000000) + ", cmOtherTime=" + (cmOtherTime/1000000) + ", lsTotalTime=" + (lsTotalTime/1000000) + "." );
+        if ( shadowPriceChangedAlts != null )
+            logger.info( "task=" + taskIndex + ", choices=" + numChoices + ", carriedForward=" + numCarriedForward + "." );
 
 //        writeCounts("filter", filterCount);        
 //        writeCounts("expression", expressionCount);        
@@ -193,11 +226,73 @@ public class LocationChoiceTaskJppf extends JPPFTask {
 
         String resultString = "result for thread=" + threadName + ", task=" + taskIndex + ", startIndex=" + startIndex + "endIndex=" + endIndex + ", total=" + total + "secs for task.";
         setResult( resultString );
+
+        if ( Metrics.isEnabled() ) {
+            metrics = Metrics.snapshotSinceLastReport();
+            nodeName = TaskMetrics.getNodeName();
+        }
         
         modelManager.returnDcModelObject( dcModel, taskIndex, startIndex, endIndex );
         
     }
 
+    /**
+     * Count the mandatory tours chosen by the households in the task by purpose, destination zone and subzone, and
+     * keep the non-zero counts to be returned to the client.
+     */
+    private void countMandatoryTours( Household[] householdArray ) {
+
+        double[][][] mandatoryTours = HouseholdDataManager.createMandatoryToursByDestZoneSubZone( tazDataManager, modelStructure );
+        for ( int i=0; i < householdArray.length; i++ )
+            HouseholdDataManager.addMandatoryToursByDestZoneSubZone( householdArray[i], mandatoryTours );
+
+        int numCells = 0;
+        for ( int p=0; p < mandatoryTours.length; p++ )
+            for ( int z=0; z < mandatoryTours[p].length; z++ )
+                for ( int s=0; s < mandatoryTours[p][z].length; s++ )
+                    if ( mandatoryTours[p][z][s] != 0 )
+                        numCells++;
+
+        mandatoryTourCells = new int[numCells];
+        mandatoryTourCounts = new double[numCells];
+        int cell = 0;
+        int k = 0;
+        for ( int p=0; p < mandatoryTours.length; p++ ) {
+            for ( int z=0; z < mandatoryTours[p].length; z++ ) {
+                for ( int s=0; s < mandatoryTours[p][z].length; s++ ) {
+                    if ( mandatoryTours[p][z][s] != 0 ) {
+                        mandatoryTourCells[k] = cell;
+                        mandatoryTourCounts[k] = mandatoryTours[p][z][s];
+                        k++;
+                    }
+                    cell++;
+                }
+            }
+        }
+
+    }
+
+
+    /**
+     * Add the mandatory tours counted by the task to an array dimensioned by
+     * HouseholdDataManager.createMandatoryToursByDestZoneSubZone().
+     */
+    public void addMandatoryTours( double[][][] mandatoryTours ) {
+        if ( mandatoryTourCells == null )
+            throw new IllegalStateException( "task " + taskIndex + " did not count mandatory tours." );
+
+        int numSubzones = mandatoryTours[0][0].length;
+        int numZoneCells = mandatoryTours[0].length * numSubzones;
+        for ( int k=0; k < mandatoryTourCells.length; k++ ) {
+            int cell = mandatoryTourCells[k];
+            int p = cell / numZoneCells;
+            int z = ( cell % numZoneCells ) / numSubzones;
+            int s = cell % numSubzones;
+            mandatoryTours[p][z][s] += mandatoryTourCounts[k];
+        }
+    }
+
+
     private void writeCounts(String countType, long[][] count){
         
         FileWriter writer;
@@ -231,5 +326,16 @@ public class LocationChoiceTaskJppf extends JPPFTask {
     public String getId() {
         return Integer.toString(taskIndex);
     }
+
+    /**
+     * @return the metrics recorded on the task's node while it ran, or null if metrics are not enabled.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics;
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
     
 }
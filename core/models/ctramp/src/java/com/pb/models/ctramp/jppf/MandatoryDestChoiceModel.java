@@ -34,6 +34,7 @@ public class MandatoryDestChoiceModel implements Serializable {
     private static final String PROPERTIES_MANDATORY_RUN_WORK = "UsualWorkAndSchoolLocationChoice.RunFlag.Work";
     private static final String PROPERTIES_MANDATORY_RUN_UNIVERSITY = "UsualWorkAndSchoolLocationChoice.RunFlag.University";
     private static final String PROPERTIES_MANDATORY_RUN_SCHOOL = "UsualWorkAndSchoolLocationChoice.RunFlag.School";
+    private static final String PROPERTIES_SOA_SHARED_ALIAS_TABLES = "UsualWorkAndSchoolLocationChoice.SampleOfAlternatives.SharedAliasTables";
 
     private static final int DC_DATA_SHEET = 0;
 
@@ -65,6 +66,9 @@ public class MandatoryDestChoiceModel implements Serializable {
     private int modelIndex;
     private int shadowPricingIteration;
 
+    // if true, sample of alternatives probabilities are shared by all dcModel objects in the JVM
+    private boolean useSharedSoaTables;
+
     private long lsTime = 0;
     private long soaTime = 0;
     private long totTime = 0;
@@ -75,6 +79,12 @@ public class MandatoryDestChoiceModel implements Serializable {
     private long cmUecTime;
     private long cmOtherTime;
     private long lsTotalTime;
+
+    // alternatives whose shadow prices changed by more than the incremental shadow pricing threshold, by dc model purpose index.
+    // null if every choice is to be made.
+    private boolean[][] shadowPriceChangedAlts;
+    private int numChoices;
+    private int numChoicesCarriedForward;
     
     TNCAndTaxiWaitTimeCalculator tncTaxiWaitTimeCalculator = null;
     TazDataIf tazDataManager = null;
@@ -152,6 +162,9 @@ public class MandatoryDestChoiceModel implements Serializable {
         // create a sample of alternatives choice model object for use in selecting a sample
         // of all possible destination choice alternatives.
         dcSoaModel = new DestinationSampleOfAlternativesModel( soaUecFile, soaSampleSize, propertyMap, modelStructure, tourCategory, tazDataManager, dcSizeObj, dcSoaDmuObject );        
+
+        String sharedTablesValue = propertyMap.get( PROPERTIES_SOA_SHARED_ALIAS_TABLES );
+        useSharedSoaTables = sharedTablesValue != null && sharedTablesValue.equalsIgnoreCase("true");
     
     
         // get the number of purposes and declare the array dimension to be this size.
@@ -193,11 +206,28 @@ public class MandatoryDestChoiceModel implements Serializable {
             shadowPricingIteration++;
         
         }
+
+        // the shared sample of alternatives tables are computed with the size terms for this iteration
+        if ( useSharedSoaTables )
+            dcSoaModel.setSharedAliasTables( DestChoiceModelManager.getInstance().getSoaAliasTables( currentShadowPriceIteration,
+                    dcSoaModel.getNumberOfPurposeIndices(), tazDataManager.getNumberOfZones() ) );
         
     }
 
 
-    
+
+    /**
+     * Set the alternatives whose shadow prices changed enough in the last shadow price iteration to re-simulate choices
+     * whose sample of alternatives includes them.  Persons with a location from a previous iteration whose sample includes none
+     * of them, and whose previous location is not one of them, keep their previous location.
+     *
+     * @param changedAlts array indexed by dc model purpose index and dc alternative, or null to make every choice.
+     */
+    public void setShadowPriceChangedAlternatives ( boolean[][] changedAlts ) {
+        shadowPriceChangedAlts = changedAlts;
+    }
+
+
     public void applyWorkSchoolLocationChoice( Household hh ) {
         
         lsTime = 0;
@@ -207,6 +237,8 @@ public class MandatoryDestChoiceModel implements Serializable {
         cmUecTime = 0;
         cmOtherTime = 0;
         lsTotalTime = 0;
+        numChoices = 0;
+        numChoicesCarriedForward = 0;
 //        for (int i=0; i < filterCount.length; i++ ){
 //            Arrays.fill(filterCount[i], 0);
 //            Arrays.fill(expressionCount[i], 0);
@@ -308,6 +340,12 @@ public class MandatoryDestChoiceModel implements Serializable {
                     // get the work location alternative chosen from the sample
                     
                     double[] result =  selectLocationFromSampleOfAlternatives( dcDmuObject, dcSoaDmuObject, mcDmuObject, null, p, purposeName, purposeIndex, ++choiceNum );
+                    numChoices++;
+                    if ( result == null ) {
+                        // no alternative the choice depends on had a shadow price change, so the previous location is kept.
+                        numChoicesCarriedForward++;
+                        continue;
+                    }
                     chosen = (int) result[0];
                     dcLogsum = result[1];
                 }
@@ -348,6 +386,26 @@ public class MandatoryDestChoiceModel implements Serializable {
     }
 
 
+    /**
+     * @return the dc alternative of the location chosen for the purpose in the previous shadow price iteration, or 0 if none.
+     */
+    private int getPreviousLocationAlternative( Person person, String purposeName ) {
+        int zone = 0;
+        int subzone = 0;
+        if ( modelStructure.getDcModelPurposeIsWorkPurpose( purposeName ) ) {
+            zone = person.getPersonWorkLocationZone();
+            subzone = person.getPersonWorkLocationSubZone();
+        }
+        else {
+            zone = person.getPersonSchoolLocationZone();
+            subzone = person.getPersonSchoolLocationSubZone();
+        }
+        if ( zone <= 0 )
+            return 0;
+        return (zone-1)*numberOfSubzones + subzone + 1;
+    }
+
+
     /**
      * Select the chosen TAZ\Subzone from the sampled alternatives and return it along with the logsum.
      * @param dcDmuObject
@@ -358,7 +416,8 @@ public class MandatoryDestChoiceModel implements Serializable {
      * @param purposeName
      * @param purposeIndex
      * @param choiceNum
-     * @return An array whose first element is the chosen alternative and second element is the logsum.
+     * @return An array whose first element is the chosen alternative and second element is the logsum, or null if
+     * incremental shadow pricing found the previous choice can be kept.
      */
     private double[] selectLocationFromSampleOfAlternatives( DestChoiceDMU dcDmuObject, DcSoaDMU dcSoaDmuObject, ModeChoiceDMU mcDmuObject, Tour tour, Person person, String purposeName, int purposeIndex, int choiceNum ) {
 
@@ -378,6 +437,20 @@ public class MandatoryDestChoiceModel implements Serializable {
         int[] finalSample = dcSoaModel.getSampleOfAlternatives();
         float[] sampleCorrectionFactors = dcSoaModel.getSampleOfAlternativesCorrections();
 
+        if ( shadowPriceChangedAlts != null && ! household.getDebugChoiceModels() ) {
+            int previousAlt = getPreviousLocationAlternative( person, purposeName );
+            if ( previousAlt > 0 && ! shadowPriceChangedAlts[purposeIndex][previousAlt] ) {
+                boolean sampleChanged = false;
+                for (int i=1; i <= numUniqueAltsInSample; i++) {
+                    if ( shadowPriceChangedAlts[purposeIndex][finalSample[i]] ) {
+                        sampleChanged = true;
+                        break;
+                    }
+                }
+                if ( ! sampleChanged )
+                    return null;
+            }
+        }
         
         
 
@@ -623,6 +696,20 @@ public class MandatoryDestChoiceModel implements Serializable {
 
     }
     
+    /**
+     * @return number of location choices for the last household.
+     */
+    public int getNumChoices() {
+        return numChoices;
+    }
+
+    /**
+     * @return number of location choices for the last household that kept the location from the previous shadow price iteration.
+     */
+    public int getNumChoicesCarriedForward() {
+        return numChoicesCarriedForward;
+    }
+
     /**
      * @return total milliseconds accumulated computing MC Logsums for destination choice
      */
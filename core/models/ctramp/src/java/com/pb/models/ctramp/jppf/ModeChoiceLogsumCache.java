@@ -0,0 +1,215 @@
+package com.pb.models.ctramp.jppf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+import com.pb.common.util.Metrics;
+
+
+/**
+ * Tour mode choice logsums shared by all the ModeChoiceModel objects in a JVM.
+ *
+ * Logsums are stored by the segment key returned by ModeChoiceDMU.getLogsumCacheKey(): the tour mode choice model
+ * index, origin and destination, outbound and inbound periods, and the household and person segments the UEC
+ * distinguishes, such as income and auto sufficiency.  A ModeChoiceModel only uses the cache for a purpose if the
+ * DMU declares every variable referenced by that purpose's UEC, so variables the key does not account for bypass the
+ * cache rather than being ignored.
+ *
+ * Person specific values that would make every key different, the value of time and the sampled TNC and taxi wait
+ * times, are not part of the key and are never declared, so a UEC that uses them bypasses the cache and its logsums are
+ * always those of the person.
+ *
+ * The cache is bounded: it is split into segments, each holding at most its share of the maximum number of entries and
+ * evicting its least recently used entries.
+ */
+public class ModeChoiceLogsumCache {
+
+    private static transient Logger logger = Logger.getLogger(ModeChoiceLogsumCache.class);
+
+    public static final String PROPERTIES_LOGSUM_CACHE_ENABLED = "TourModeChoice.LogsumCache.Enabled";
+    public static final String PROPERTIES_LOGSUM_CACHE_MAX_ENTRIES = "TourModeChoice.LogsumCache.MaxEntries";
+
+    private static final int DEFAULT_MAX_ENTRIES = 2000000;
+    private static final int NUMBER_OF_SEGMENTS = 64;
+
+    private static final Metrics.Counter hitCount = Metrics.counter( "mcLogsumCache.hits" );
+    private static final Metrics.Counter missCount = Metrics.counter( "mcLogsumCache.misses" );
+    private static final Metrics.Counter bypassCount = Metrics.counter( "mcLogsumCache.bypassed" );
+    private static final Metrics.Counter evictionCount = Metrics.counter( "mcLogsumCache.evictions" );
+
+    private static ModeChoiceLogsumCache objInstance = null;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    private ModeChoiceLogsumCache( int maxEntries ) {
+        int segmentCapacity = Math.max( 1, maxEntries / NUMBER_OF_SEGMENTS );
+        segments = new Segment[NUMBER_OF_SEGMENTS];
+        for ( int i=0; i < segments.length; i++ )
+            segments[i] = new Segment( segmentCapacity );
+    }
+
+
+    /**
+     * @return the cache for this JVM, or null if the logsum cache is not enabled in the properties file.
+     */
+    public static synchronized ModeChoiceLogsumCache getInstance( HashMap<String, String> propertyMap ) {
+
+        if ( objInstance != null )
+            return objInstance;
+
+        String enabledString = propertyMap.get( PROPERTIES_LOGSUM_CACHE_ENABLED );
+        if ( enabledString == null || ! enabledString.trim().equalsIgnoreCase( "true" ) )
+            return null;
+
+        int maxEntries = DEFAULT_MAX_ENTRIES;
+        try {
+            String value = propertyMap.get( PROPERTIES_LOGSUM_CACHE_MAX_ENTRIES );
+            if ( value != null )
+                maxEntries = Integer.parseInt( value.trim() );
+        }
+        catch ( NumberFormatException e ) {
+            logger.error( String.format( "invalid value for %s in the properties file.", PROPERTIES_LOGSUM_CACHE_MAX_ENTRIES ), e );
+            throw new RuntimeException( e );
+        }
+
+        objInstance = new ModeChoiceLogsumCache( maxEntries );
+        logger.info( String.format( "tour mode choice logsum cache created, maxEntries=%d.", maxEntries ) );
+
+        return objInstance;
+    }
+
+
+    /**
+     * Log the cache statistics and discard the cache, so the next step run in this JVM starts with an empty one.
+     */
+    public static synchronized void clearInstance() {
+        if ( objInstance == null )
+            return;
+        objInstance.logStatistics();
+        objInstance = null;
+    }
+
+
+    /**
+     * @return the logsum stored for the key, or null if there is none.
+     */
+    public Double getLogsum( Key key ) {
+        Segment segment = segments[ (key.hash & 0x7fffffff) % segments.length ];
+        Double logsum;
+        synchronized ( segment ) {
+            logsum = segment.get( key );
+        }
+
+        if ( logsum == null ) {
+            misses.increment();
+            missCount.increment();
+        }
+        else {
+            hits.increment();
+            hitCount.increment();
+        }
+        return logsum;
+    }
+
+    public void putLogsum( Key key, double logsum ) {
+        Segment segment = segments[ (key.hash & 0x7fffffff) % segments.length ];
+        synchronized ( segment ) {
+            segment.put( key, logsum );
+        }
+    }
+
+    /**
+     * Count a logsum computed without using the cache.
+     */
+    public void countBypass() {
+        bypassed.increment();
+        bypassCount.increment();
+    }
+
+
+    public int size() {
+        int size = 0;
+        for ( Segment segment : segments ) {
+            synchronized ( segment ) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void logStatistics() {
+        long h = hits.sum();
+        long m = misses.sum();
+        logger.info( String.format( "tour mode choice logsum cache: entries=%d, hits=%d, misses=%d, hit rate=%.1f%%, bypassed=%d, evictions=%d.",
+            size(), h, m, ( h + m ) > 0 ? 100.0 * h / ( h + m ) : 0.0, bypassed.sum(), evictions.sum() ) );
+    }
+
+
+
+    /**
+     * Cache key made from the values returned by ModeChoiceDMU.getLogsumCacheKey().
+     */
+    public static final class Key {
+
+        private final long[] values;
+        private final int hash;
+
+        public Key( long[] values ) {
+            this.values = values;
+            this.hash = Arrays.hashCode( values );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if ( this == obj )
+                return true;
+            if ( ! ( obj instanceof Key ) )
+                return false;
+            Key other = (Key)obj;
+            return hash == other.hash && Arrays.equals( values, other.values );
+        }
+    }
+
+
+    /**
+     * Least recently used map holding one segment of the cache.  Callers synchronize on the segment.
+     */
+    private final class Segment extends LinkedHashMap<Key, Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment( int capacity ) {
+            super( 16, 0.75f, true );
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Key, Double> eldest ) {
+            if ( size() > capacity ) {
+                evictions.increment();
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -55,6 +55,11 @@ public class ModeChoiceModel implements Serializable {
     TNCAndTaxiWaitTimeCalculator tncTaxiWaitTimeCalculator = null;
     protected TazDataIf tazDataManager;
 
+    // null unless the tour mode choice logsum cache is enabled
+    private transient ModeChoiceLogsumCache logsumCache;
+    private transient HashMap<String, String> propertyMap;
+    private boolean[] logsumCacheModel;
+
 
     public ModeChoiceModel( HashMap<String, String> propertyMap, ModelStructure modelStructure, String tourCategory, CtrampDmuFactoryIf dmuFactory, TazDataIf tazDataManager ){
 
@@ -65,6 +70,7 @@ public class ModeChoiceModel implements Serializable {
         tncTaxiWaitTimeCalculator = new TNCAndTaxiWaitTimeCalculator();
         tncTaxiWaitTimeCalculator.createWaitTimeDistributions(propertyMap);
         this.tazDataManager = tazDataManager;
+        setupLogsumCache( propertyMap );
     }
 
     public ModeChoiceModel( HashMap<String, String> propertyMap, ModelStructure modelStructure, String tourCategory, ModeChoiceDMU mcDmuObject, TazDataIf tazDataManager ){
@@ -75,6 +81,7 @@ public class ModeChoiceModel implements Serializable {
         tncTaxiWaitTimeCalculator = new TNCAndTaxiWaitTimeCalculator();
         tncTaxiWaitTimeCalculator.createWaitTimeDistributions(propertyMap);
         this.tazDataManager = tazDataManager;
+        setupLogsumCache( propertyMap );
     }
 
 
@@ -156,51 +163,15 @@ public class ModeChoiceModel implements Serializable {
         int modelIndex = purposeModelIndexMap.get( purposeName );
 
         Household household = mcDmuObject.getHouseholdObject();
-        float SingleTNCWaitTimeOrig = 0;
-        float SingleTNCWaitTimeDest = 0;
-        float SharedTNCWaitTimeOrig = 0;
-        float SharedTNCWaitTimeDest = 0;
-        float TaxiWaitTimeOrig = 0;
-        float TaxiWaitTimeDest = 0;
-        int oTaz = mcDmuObject.dmuIndex.getOriginZone();
-        int dTaz = mcDmuObject.dmuIndex.getDestZone();
-        float popEmpDenOrig = tazDataManager.getPopEmpPerSqMi(oTaz);
-        float popEmpDenDest = tazDataManager.getPopEmpPerSqMi(dTaz);
-        
-        if(household!=null){
-            Random hhRandom = household.getHhRandom();
-            double rnum = hhRandom.nextDouble();
-            SingleTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.sampleFromSingleTNCWaitTimeDistribution(rnum, popEmpDenOrig);
-            SingleTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.sampleFromSingleTNCWaitTimeDistribution(rnum, popEmpDenDest);
-            SharedTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.sampleFromSharedTNCWaitTimeDistribution(rnum, popEmpDenOrig);
-            SharedTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.sampleFromSharedTNCWaitTimeDistribution(rnum, popEmpDenDest);
-            TaxiWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.sampleFromTaxiWaitTimeDistribution(rnum, popEmpDenOrig);
-            TaxiWaitTimeDest = (float) tncTaxiWaitTimeCalculator.sampleFromTaxiWaitTimeDistribution(rnum, popEmpDenDest);
-        }else{
-            SingleTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.getMeanSingleTNCWaitTime( popEmpDenOrig);
-            SingleTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.getMeanSingleTNCWaitTime( popEmpDenDest);
-            SharedTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.getMeanSharedTNCWaitTime( popEmpDenOrig);
-            SharedTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.getMeanSharedTNCWaitTime( popEmpDenDest);
-            TaxiWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.getMeanTaxiWaitTime( popEmpDenOrig);
-            TaxiWaitTimeDest = (float) tncTaxiWaitTimeCalculator.getMeanTaxiWaitTime(popEmpDenDest);
-        }
-
-        mcDmuObject.setOrigTaxiWaitTime(TaxiWaitTimeOrig);
-        mcDmuObject.setDestTaxiWaitTime(TaxiWaitTimeDest);
-        mcDmuObject.setOrigSingleTNCWaitTime(SingleTNCWaitTimeOrig);
-        mcDmuObject.setDestSingleTNCWaitTime(SingleTNCWaitTimeDest);
-        mcDmuObject.setOrigSharedTNCWaitTime(SharedTNCWaitTimeOrig);
-        mcDmuObject.setDestSharedTNCWaitTime(SharedTNCWaitTimeDest);
-        mcDmuObject.setOrigCounty(tazDataManager.getZoneCounty(oTaz));
-        
-        Tour thisTour = mcDmuObject.getTourObject();
-        if(thisTour!=null) {
-        	thisTour.setOrigTaxiWait(TaxiWaitTimeOrig);
-        	thisTour.setDestTaxiWait(TaxiWaitTimeDest);
-        	thisTour.setOrigTNCSingleWait(SingleTNCWaitTimeOrig);
-        	thisTour.setDestTNCSingleWait(SingleTNCWaitTimeDest);
-        	thisTour.setOrigTNCSharedWait(SharedTNCWaitTimeOrig);
-        	thisTour.setDestTNCSharedWait(SharedTNCWaitTimeDest);
+        setTncAndTaxiWaitTimes( mcDmuObject, household, true );
+
+        ModeChoiceLogsumCache.Key cacheKey = getLogsumCacheKey( mcDmuObject, modelIndex );
+        if ( cacheKey != null ) {
+            Double cachedLogsum = logsumCache.getLogsum( cacheKey );
+            if ( cachedLogsum != null ) {
+                mcLsTotalTime = System.nanoTime() - check1;
+                return cachedLogsum;
+            }
         }
 
         // log headers to traceLogger
@@ -226,6 +197,8 @@ public class ModeChoiceModel implements Serializable {
 //                coeffCount[j][k] = counts[j][k];
         
         double logsum = mcModel[modelIndex].getLogsum();
+        if ( cacheKey != null )
+            logsumCache.putLogsum( cacheKey, logsum );
 
         
         // write UEC calculation results to separate model specific log file
@@ -255,51 +228,15 @@ public class ModeChoiceModel implements Serializable {
         int modelIndex = purposeModelIndexMap.get( purposeName );
 
         Household household = mcDmuObject.getHouseholdObject();
-        float SingleTNCWaitTimeOrig = 0;
-        float SingleTNCWaitTimeDest = 0;
-        float SharedTNCWaitTimeOrig = 0;
-        float SharedTNCWaitTimeDest = 0;
-        float TaxiWaitTimeOrig = 0;
-        float TaxiWaitTimeDest = 0;
-        int oTaz = mcDmuObject.dmuIndex.getOriginZone();
-        int dTaz = mcDmuObject.dmuIndex.getDestZone();
-        float popEmpDenOrig = tazDataManager.getPopEmpPerSqMi(oTaz);
-        float popEmpDenDest = tazDataManager.getPopEmpPerSqMi(dTaz);
-        
-        if(household!=null){
-            Random hhRandom = household.getHhRandom();
-            double rnum = hhRandom.nextDouble();
-            SingleTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.sampleFromSingleTNCWaitTimeDistribution(rnum, popEmpDenOrig);
-            SingleTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.sampleFromSingleTNCWaitTimeDistribution(rnum, popEmpDenDest);
-            SharedTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.sampleFromSharedTNCWaitTimeDistribution(rnum, popEmpDenOrig);
-            SharedTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.sampleFromSharedTNCWaitTimeDistribution(rnum, popEmpDenDest);
-            TaxiWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.sampleFromTaxiWaitTimeDistribution(rnum, popEmpDenOrig);
-            TaxiWaitTimeDest = (float) tncTaxiWaitTimeCalculator.sampleFromTaxiWaitTimeDistribution(rnum, popEmpDenDest);
-        }else{
-            SingleTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.getMeanSingleTNCWaitTime( popEmpDenOrig);
-            SingleTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.getMeanSingleTNCWaitTime( popEmpDenDest);
-            SharedTNCWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.getMeanSharedTNCWaitTime( popEmpDenOrig);
-            SharedTNCWaitTimeDest = (float) tncTaxiWaitTimeCalculator.getMeanSharedTNCWaitTime( popEmpDenDest);
-            TaxiWaitTimeOrig = (float) tncTaxiWaitTimeCalculator.getMeanTaxiWaitTime( popEmpDenOrig);
-            TaxiWaitTimeDest = (float) tncTaxiWaitTimeCalculator.getMeanTaxiWaitTime(popEmpDenDest);
-        }
-
-        mcDmuObject.setOrigTaxiWaitTime(TaxiWaitTimeOrig);
-        mcDmuObject.setDestTaxiWaitTime(TaxiWaitTimeDest);
-        mcDmuObject.setOrigSingleTNCWaitTime(SingleTNCWaitTimeOrig);
-        mcDmuObject.setDestSingleTNCWaitTime(SingleTNCWaitTimeDest);
-        mcDmuObject.setOrigSharedTNCWaitTime(SharedTNCWaitTimeOrig);
-        mcDmuObject.setDestSharedTNCWaitTime(SharedTNCWaitTimeDest);        
-        mcDmuObject.setOrigCounty(tazDataManager.getZoneCounty(oTaz));
-
-        Tour thisTour = mcDmuObject.getTourObject();
-        if(thisTour!=null) {
-        	thisTour.setOrigTaxiWait(TaxiWaitTimeOrig);
-        	thisTour.setDestTaxiWait(TaxiWaitTimeDest);
-        	thisTour.setOrigTNCSingleWait(SingleTNCWaitTimeOrig);
-        	thisTour.setDestTNCSingleWait(SingleTNCWaitTimeDest);
-        	thisTour.setOrigTNCSharedWait(SharedTNCWaitTimeOrig);
-        	thisTour.setDestTNCSharedWait(SharedTNCWaitTimeDest);
+        setTncAndTaxiWaitTimes( mcDmuObject, household, true );
+
+        ModeChoiceLogsumCache.Key cacheKey = getLogsumCacheKey( mcDmuObject, modelIndex );
+        if ( cacheKey != null ) {
+            Double cachedLogsum = logsumCache.getLogsum( cacheKey );
+            if ( cachedLogsum != null ) {
+                mcLsTotalTime = System.nanoTime() - check1;
+                return cachedLogsum;
+            }
         }
 
         // log headers to traceLogger
@@ -325,6 +262,8 @@ public class ModeChoiceModel implements Serializable {
 //                coeffCount[j][k] = counts[j][k];
         
         double logsum = mcModel[modelIndex].getLogsum();
+        if ( cacheKey != null )
+            logsumCache.putLogsum( cacheKey, logsum );
 
         
         // write UEC calculation results to separate model specific log file
@@ -551,6 +490,93 @@ public class ModeChoiceModel implements Serializable {
         mcDmuObject.setTourStartHour( tour.getTourStartHour() );
         mcDmuObject.setTourEndHour( tour.getTourEndHour() );
         
+        setTncAndTaxiWaitTimes( mcDmuObject, household, false );
+
+        if (tourCategory.equalsIgnoreCase(ModelStructure.AT_WORK_CATEGORY)) {
+        	ArrayList<Tour> workTourList = person.getListOfWorkTours();
+            int workTourIndex = tour.getWorkTourIndexFromSubtourId( tour.getTourId() );
+            Tour workTour = workTourList.get( workTourIndex );            
+        	mcDmuObject.setWorkTourObject(workTour); 
+        }
+
+        // use the mcModel object already setup for computing logsums and get the mode choice, where the selected
+        // worklocation and subzone an departure time and duration are set for this work tour.
+        int chosenMode = getModeChoice ( mcDmuObject, tour.getTourPurpose() );
+        tour.setTourModeChoice( chosenMode );
+
+        if ( household.getDebugChoiceModels() ) {
+        	Logger modelLogger = null; 
+            if ( tourCategory.equalsIgnoreCase( ModelStructure.MANDATORY_CATEGORY ) )
+                modelLogger = tourMCManLogger;
+            else
+                modelLogger = tourMCNonManLogger;
+            
+            modelLogger.info("Chosen mode = " + chosenMode); 
+            String decisionMakerLabel = String.format ( "Final Mode Choice Person Object: HH=%d, PersonNum=%d, PersonType=%s", household.getHhId(), person.getPersonNum(), person.getPersonType() );
+            household.logPersonObject( decisionMakerLabel, modelLogger, person );
+        }
+        
+    }
+
+    /**
+     * Get the node's tour mode choice logsum cache if it is enabled, declare the logsum cache key for this model's DMU object,
+     * and determine for which tour mode choice models the declared key covers every DMU variable in the UEC.
+     */
+    private void setupLogsumCache( HashMap<String, String> propertyMap ) {
+
+        logsumCache = ModeChoiceLogsumCache.getInstance( propertyMap );
+        if ( logsumCache == null )
+            return;
+
+        this.propertyMap = propertyMap;
+        mcDmuObject.declareLogsumCacheKey( propertyMap );
+
+        logsumCacheModel = new boolean[mcModel.length];
+        for ( int m=0; m < mcModel.length; m++ ) {
+            if ( mcModel[m] == null )
+                continue;
+
+            ArrayList<String> notInKey = mcDmuObject.getVariablesNotInLogsumCacheKey( mcModel[m].getUEC().getObjectVariableNames() );
+            logsumCacheModel[m] = notInKey.isEmpty();
+            if ( ! logsumCacheModel[m] )
+                logger.info( String.format( "%s tour mode choice model sheet %d logsums will not be cached, DMU variables not in the logsum cache key: %s.", tourCategory, m, notInKey ) );
+        }
+
+    }
+
+
+    /**
+     * @return the logsum cache key for the DMU object, or null if the logsum should be computed without the cache.
+     */
+    private ModeChoiceLogsumCache.Key getLogsumCacheKey( ModeChoiceDMU mcDmuObject, int modelIndex ) {
+
+        if ( logsumCache == null )
+            return null;
+
+        // DMU objects passed in by other models need the same declaration as this model's DMU object
+        if ( ! mcDmuObject.isLogsumCacheKeyDeclared() )
+            mcDmuObject.declareLogsumCacheKey( propertyMap );
+
+        // debug households bypass the cache so that their UEC calculations are logged
+        long[] key = null;
+        if ( logsumCacheModel[modelIndex] && ! mcDmuObject.getHouseholdObject().getDebugChoiceModels() )
+            key = mcDmuObject.getLogsumCacheKey( modelIndex );
+
+        if ( key == null ) {
+            logsumCache.countBypass();
+            return null;
+        }
+
+        return new ModeChoiceLogsumCache.Key( key );
+    }
+
+
+    /**
+     * Sample the TNC and taxi wait times at the tour origin and destination, or use the mean wait times if there is no household,
+     * and set them in the DMU object.
+     */
+    private void setTncAndTaxiWaitTimes( ModeChoiceDMU mcDmuObject, Household household, boolean setTourWaitTimes ) {
+
         float SingleTNCWaitTimeOrig = 0;
         float SingleTNCWaitTimeDest = 0;
         float SharedTNCWaitTimeOrig = 0;
@@ -587,33 +613,22 @@ public class ModeChoiceModel implements Serializable {
         mcDmuObject.setOrigSharedTNCWaitTime(SharedTNCWaitTimeOrig);
         mcDmuObject.setDestSharedTNCWaitTime(SharedTNCWaitTimeDest);
         mcDmuObject.setOrigCounty(tazDataManager.getZoneCounty(oTaz));
-
-        if (tourCategory.equalsIgnoreCase(ModelStructure.AT_WORK_CATEGORY)) {
-        	ArrayList<Tour> workTourList = person.getListOfWorkTours();
-            int workTourIndex = tour.getWorkTourIndexFromSubtourId( tour.getTourId() );
-            Tour workTour = workTourList.get( workTourIndex );            
-        	mcDmuObject.setWorkTourObject(workTour); 
+        
+        if ( setTourWaitTimes ) {
+            Tour thisTour = mcDmuObject.getTourObject();
+            if(thisTour!=null) {
+            	thisTour.setOrigTaxiWait(TaxiWaitTimeOrig);
+            	thisTour.setDestTaxiWait(TaxiWaitTimeDest);
+            	thisTour.setOrigTNCSingleWait(SingleTNCWaitTimeOrig);
+            	thisTour.setDestTNCSingleWait(SingleTNCWaitTimeDest);
+            	thisTour.setOrigTNCSharedWait(SharedTNCWaitTimeOrig);
+            	thisTour.setDestTNCSharedWait(SharedTNCWaitTimeDest);
+            }
         }
 
-        // use the mcModel object already setup for computing logsums and get the mode choice, where the selected
-        // worklocation and subzone an departure time and duration are set for this work tour.
-        int chosenMode = getModeChoice ( mcDmuObject, tour.getTourPurpose() );
-        tour.setTourModeChoice( chosenMode );
-
-        if ( household.getDebugChoiceModels() ) {
-        	Logger modelLogger = null; 
-            if ( tourCategory.equalsIgnoreCase( ModelStructure.MANDATORY_CATEGORY ) )
-                modelLogger = tourMCManLogger;
-            else
-                modelLogger = tourMCNonManLogger;
-            
-            modelLogger.info("Chosen mode = " + chosenMode); 
-            String decisionMakerLabel = String.format ( "Final Mode Choice Person Object: HH=%d, PersonNum=%d, PersonType=%s", household.getHhId(), person.getPersonNum(), person.getPersonType() );
-            household.logPersonObject( decisionMakerLabel, modelLogger, person );
-        }
-        
     }
 
+
     public String[] getModeAltNames( int purposeIndex ) {
         int modelIndex = purposeModelIndexMap.get( tourPurposeList[purposeIndex] );
         return modeAltNames[modelIndex];
@@ -0,0 +1,181 @@
+package com.pb.models.ctramp.jppf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jppf.utils.JPPFConfiguration;
+
+
+/**
+ * A pool of model objects shared by the tasks running on a node.  A task takes an object from the pool, owns it
+ * while it runs, and gives it back when it is done.  Idle objects are kept in a lock free queue, and an object is
+ * only created when none is idle, by the task asking for it and without holding any lock, so tasks never wait
+ * for another task's object to be built.
+ *
+ * prewarm() builds objects in parallel before the first tasks ask for them, typically one for each of the
+ * node's processing threads.
+ */
+public class ModelObjectPool<T> {
+
+    /**
+     * Creates the model objects held by a pool.
+     */
+    public interface Factory<T> {
+        T create( int modelIndex );
+    }
+
+    private static final Logger logger = Logger.getLogger(ModelObjectPool.class);
+
+    private final String name;
+    private final Factory<T> factory;
+
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<T>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicLong constructionNanos = new AtomicLong();
+
+
+    public ModelObjectPool( String name, Factory<T> factory ) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+
+    /**
+     * @return the number of tasks the JPPF node running this code executes at once, from its processing.threads
+     * property, or the number of processors if it isn't set.
+     */
+    public static int getNodeProcessingThreads() {
+        int threads = JPPFConfiguration.getProperties().getInt( "processing.threads", Runtime.getRuntime().availableProcessors() );
+        return Math.max( threads, 1 );
+    }
+
+
+    /**
+     * Build model objects in parallel, one thread for each, until the pool has created size objects.
+     */
+    public void prewarm( int size ) {
+
+        int toCreate = size - created.get();
+        if ( toCreate <= 0 )
+            return;
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool( toCreate, new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread( Runnable r ) {
+                Thread t = new Thread( r, name + " pool builder " + (++count) );
+                t.setDaemon( true );
+                return t;
+            }
+        });
+
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>( toCreate );
+            for ( int i=0; i < toCreate; i++ ) {
+                futures.add( executor.submit( new Callable<T>() {
+                    public T call() {
+                        return create();
+                    }
+                }));
+            }
+            for ( Future<T> future : futures )
+                idle.add( future.get() );
+        }
+        catch ( InterruptedException e ) {
+            logger.error( String.format( "interrupted building %s model objects.", name ), e );
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException e ) {
+            logger.error( String.format( "exception building %s model objects.", name ), e.getCause() );
+            throw new RuntimeException( e.getCause() );
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        logger.info( String.format( "built %d %s model objects in parallel in %.1f seconds: %s", toCreate, name, (System.nanoTime() - start) / 1e9, getStatistics() ) );
+    }
+
+
+    /**
+     * @return an idle model object, or a new one if none is idle.  The caller owns it until it is given back.
+     */
+    public T take() {
+        T object = idle.poll();
+        if ( object == null )
+            object = create();
+        busy.incrementAndGet();
+        return object;
+    }
+
+
+    /**
+     * Give back a model object taken from the pool so that another task may use it.
+     */
+    public void give( T object ) {
+        busy.decrementAndGet();
+        idle.add( object );
+    }
+
+
+    /**
+     * Remove the idle model objects from the pool and start counting objects created from 0 again.
+     * @return the idle objects that were in the pool.
+     */
+    public List<T> drain() {
+        List<T> objects = new ArrayList<T>();
+        T object = null;
+        while ( ( object = idle.poll() ) != null )
+            objects.add( object );
+        created.set( 0 );
+        constructionNanos.set( 0 );
+        return objects;
+    }
+
+
+    private T create() {
+        int modelIndex = created.incrementAndGet();
+        long start = System.nanoTime();
+        T object = factory.create( modelIndex );
+        constructionNanos.addAndGet( System.nanoTime() - start );
+        return object;
+    }
+
+
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getBusyCount() {
+        return busy.get();
+    }
+
+    /**
+     * @return the total time spent building model objects, summed over the threads that built them.
+     */
+    public long getConstructionMillis() {
+        return constructionNanos.get() / 1000000;
+    }
+
+    public String getStatistics() {
+        int n = getCreatedCount();
+        return String.format( "%s pool: created=%d, idle=%d, busy=%d, construction=%d ms (%d ms each)",
+                name, n, getIdleCount(), getBusyCount(), getConstructionMillis(), n == 0 ? 0 : getConstructionMillis() / n );
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.pb.models.ctramp.jppf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Sample of alternatives probabilities for each dc model purpose and origin zone, shared by all the
+ * MandatoryDestChoiceModel objects in a JVM for one shadow price iteration.
+ *
+ * The tables are filled in as they are needed: the first thread to need the probabilities for a purpose and origin
+ * computes them with its own ChoiceModelApplication and stores them, and every thread in the JVM uses them after that.
+ * Like the single origin cache in DestinationSampleOfAlternativesModel, this assumes the sample of alternatives
+ * utilities depend only on the origin zone and the size terms, not on the household.
+ *
+ * The probabilities are held as Walker alias tables over the alternatives with positive probability, so each draw
+ * takes one random number and constant time.
+ */
+public class SoaAliasTables {
+
+    private final int iteration;
+
+    // table for each purpose and origin zone, at purposeIndex*(numberOfZones + 1) + origTaz
+    private final int zonesPerPurpose;
+    private final AtomicReferenceArray<AliasTable> tables;
+
+    private final AtomicInteger numberOfTables = new AtomicInteger();
+
+
+    public SoaAliasTables( int iteration, int numberOfPurposes, int numberOfZones ) {
+        this.iteration = iteration;
+        zonesPerPurpose = numberOfZones + 1;
+        tables = new AtomicReferenceArray<AliasTable>( numberOfPurposes * zonesPerPurpose );
+    }
+
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * @return the number of purpose and origin zone tables stored.
+     */
+    public int getNumberOfTables() {
+        return numberOfTables.get();
+    }
+
+
+    /**
+     * @return the table for the purpose and origin zone, or null if it has not been computed yet.
+     */
+    public AliasTable getTable( int purposeIndex, int origTaz ) {
+        return tables.get( purposeIndex*zonesPerPurpose + origTaz );
+    }
+
+    /**
+     * Store a table for a purpose and origin zone, unless another thread has stored one first.
+     * @return the table stored for the purpose and origin zone.
+     */
+    public AliasTable putTable( int purposeIndex, int origTaz, AliasTable table ) {
+        int index = purposeIndex*zonesPerPurpose + origTaz;
+        if ( tables.compareAndSet( index, null, table ) ) {
+            numberOfTables.incrementAndGet();
+            return table;
+        }
+        return tables.get( index );
+    }
+
+
+
+    /**
+     * Walker alias table for drawing alternatives from a fixed set of probabilities.
+     * Entries are the alternatives with positive probability, in alternative order.
+     */
+    public static final class AliasTable {
+
+        private final int[] alternatives;
+        private final double[] probabilities;
+        private final double[] thresholds;
+        private final int[] aliases;
+
+        /**
+         * @param altProbabilities probability of each alternative, alternative k at element k-1.
+         */
+        public AliasTable( double[] altProbabilities ) {
+
+            int n = 0;
+            double total = 0;
+            for ( int i=0; i < altProbabilities.length; i++ ) {
+                if ( altProbabilities[i] > 0 ) {
+                    n++;
+                    total += altProbabilities[i];
+                }
+            }
+
+            alternatives = new int[n];
+            probabilities = new double[n];
+            thresholds = new double[n];
+            aliases = new int[n];
+
+            double[] scaled = new double[n];
+            int k = 0;
+            for ( int i=0; i < altProbabilities.length; i++ ) {
+                if ( altProbabilities[i] > 0 ) {
+                    alternatives[k] = i + 1;
+                    probabilities[k] = altProbabilities[i];
+                    scaled[k] = altProbabilities[i] * n / total;
+                    k++;
+                }
+            }
+
+            // entries with less than the average probability get their remainder from an entry with more
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int numSmall = 0;
+            int numLarge = 0;
+            for ( int i=0; i < n; i++ ) {
+                if ( scaled[i] < 1.0 )
+                    small[numSmall++] = i;
+                else
+                    large[numLarge++] = i;
+            }
+
+            while ( numSmall > 0 && numLarge > 0 ) {
+                int s = small[--numSmall];
+                int l = large[--numLarge];
+                thresholds[s] = scaled[s];
+                aliases[s] = l;
+                scaled[l] = ( scaled[l] + scaled[s] ) - 1.0;
+                if ( scaled[l] < 1.0 )
+                    small[numSmall++] = l;
+                else
+                    large[numLarge++] = l;
+            }
+
+            // whatever is left is 1.0 apart from rounding
+            while ( numLarge > 0 ) {
+                int l = large[--numLarge];
+                thresholds[l] = 1.0;
+                aliases[l] = l;
+            }
+            while ( numSmall > 0 ) {
+                int s = small[--numSmall];
+                thresholds[s] = 1.0;
+                aliases[s] = s;
+            }
+
+        }
+
+
+        /**
+         * @return the number of alternatives with positive probability.
+         */
+        public int getNumberOfEntries() {
+            return alternatives.length;
+        }
+
+        /**
+         * @param rn random number in [0,1).
+         * @return the entry drawn.
+         */
+        public int draw( double rn ) {
+            double u = rn * alternatives.length;
+            int entry = (int)u;
+            if ( entry >= alternatives.length )
+                entry = alternatives.length - 1;
+            return ( u - entry ) < thresholds[entry] ? entry : aliases[entry];
+        }
+
+        /**
+         * @return the alternative number (1 based) of an entry.
+         */
+        public int getAlternative( int entry ) {
+            return alternatives[entry];
+        }
+
+        public double getProbability( int entry ) {
+            return probabilities[entry];
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.pb.models.ctramp.jppf;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.pb.common.http.MetricsHTTPD;
+import com.pb.common.util.Metrics;
+import com.pb.common.util.MetricsSnapshot;
+
+
+/**
+ * Sets up the Metrics counters and histograms in a JVM from the properties file, and collects the
+ * metrics returned by distributed tasks into per-node totals written at the end of a model step.
+ *
+ * Tasks call setup() when they start and return Metrics.snapshotSinceLastReport() with the name
+ * of their node.  The client adds them up by node with addTaskMetrics() and writes them with
+ * writeStepMetrics() as [Metrics.OutputFile]_[step].csv and .json.  If Metrics.Http.Port is set, each
+ * JVM serves its own live metrics on that port, and the client also serves the last step's totals.
+ */
+public class TaskMetrics {
+
+    public static final String PROPERTIES_METRICS_ENABLED = "Metrics.Enabled";
+    public static final String PROPERTIES_METRICS_OUTPUT_FILE = "Metrics.OutputFile";
+    public static final String PROPERTIES_METRICS_HTTP_PORT = "Metrics.Http.Port";
+
+    private static Logger logger = Logger.getLogger(TaskMetrics.class);
+
+    private static boolean setupDone = false;
+    private static MetricsHTTPD httpd = null;
+
+
+    /**
+     * Enable Metrics in this JVM if Metrics.Enabled is true, and start the http server if a port is set.
+     * Only the first call in a JVM has any effect.
+     */
+    public static synchronized void setup( HashMap<String, String> propertyMap ) {
+
+        if ( setupDone )
+            return;
+        setupDone = true;
+
+        if ( ! isEnabled( propertyMap ) )
+            return;
+
+        Metrics.setEnabled( true );
+
+        String portString = propertyMap.get( PROPERTIES_METRICS_HTTP_PORT );
+        if ( portString != null && portString.trim().length() > 0 ) {
+            int port = Integer.parseInt( portString.trim() );
+            try {
+                httpd = new MetricsHTTPD( port, getNodeName() );
+                logger.info( "serving metrics on port " + port + " as /metrics.json, /metrics.csv, /published.json and /published.csv." );
+            }
+            catch (IOException e) {
+                // another JVM on the same host may be serving its metrics on the port - this JVM's metrics are still collected.
+                logger.warn( "could not serve metrics on port " + port + ": " + e.getMessage() );
+            }
+        }
+
+    }
+
+
+    public static boolean isEnabled( HashMap<String, String> propertyMap ) {
+        String value = propertyMap.get( PROPERTIES_METRICS_ENABLED );
+        return value != null && Boolean.parseBoolean( value.trim() );
+    }
+
+
+    /**
+     * @return the host name, used as the node name for metrics.
+     */
+    public static String getNodeName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+
+    /**
+     * Add the metrics returned by a task to the total for its node.
+     */
+    public static void addTaskMetrics( TreeMap<String, MetricsSnapshot> snapshotsByNode, String nodeName, MetricsSnapshot metrics ) {
+        if ( metrics == null )
+            return;
+        MetricsSnapshot nodeTotal = snapshotsByNode.get( nodeName );
+        if ( nodeTotal == null ) {
+            nodeTotal = new MetricsSnapshot();
+            snapshotsByNode.put( nodeName, nodeTotal );
+        }
+        nodeTotal.add( metrics );
+    }
+
+
+    /**
+     * Write the metrics by node for a model step, log the totals, and publish them on the http server if there is one.
+     */
+    public static void writeStepMetrics( HashMap<String, String> propertyMap, String stepName, TreeMap<String, MetricsSnapshot> snapshotsByNode ) {
+
+        if ( ! isEnabled( propertyMap ) )
+            return;
+
+        MetricsSnapshot total = new MetricsSnapshot();
+        for ( Map.Entry<String, MetricsSnapshot> entry : snapshotsByNode.entrySet() )
+            total.add( entry.getValue() );
+        logger.info( String.format( "%s metrics: nodes=%d, households=%d, tours=%d, uec solves=%d, matrix lookups=%d, soa samples=%d",
+                stepName, snapshotsByNode.size(), total.getCounter("households"), total.getCounter("tours"), total.getHistogramCount("uec.solve"),
+                total.getCounter("uec.matrix.lookups"), total.getCounter("soa.samples") ) );
+
+        if ( httpd != null )
+            httpd.publish( snapshotsByNode );
+
+        String fileName = propertyMap.get( PROPERTIES_METRICS_OUTPUT_FILE );
+        if ( fileName == null )
+            return;
+
+        String projectDirectory = propertyMap.get( CtrampApplication.PROPERTIES_PROJECT_DIRECTORY );
+        String fileBaseName = ( projectDirectory == null ? "" : projectDirectory ) + fileName + "_" + stepName;
+        try {
+            MetricsSnapshot.writeFiles( snapshotsByNode, fileBaseName );
+        }
+        catch (IOException e) {
+            logger.error( "IOException writing metrics files " + fileBaseName + ".csv and .json.", e );
+            throw new RuntimeException( e );
+        }
+
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.TreeMap;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.File;
@@ -21,11 +22,13 @@ import org.jppf.task.storage.DataProvider;
 import org.jppf.task.storage.MemoryMapDataProvider;
 
 import com.pb.common.calculator.MatrixDataServerIf;
+import com.pb.common.util.MetricsSnapshot;
 import com.pb.common.util.ObjectUtil;
 import com.pb.common.util.ResourceUtil;
 import com.pb.models.ctramp.CtrampDmuFactoryIf;
 import com.pb.models.ctramp.DestChoiceSize;
 import com.pb.models.ctramp.Household;
+import com.pb.models.ctramp.HouseholdDataManager;
 import com.pb.models.ctramp.HouseholdDataManagerIf;
 import com.pb.models.ctramp.ModelStructure;
 import com.pb.models.ctramp.Person;
@@ -39,6 +42,8 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
 
     private static final String PROPERTIES_DC_SOA_SAMPLE_SIZE        		= "UsualWorkAndSchoolLocationChoice.SampleOfAlternatives.SampleSize";
     private static final String PROPERTIES_SHADOW_PRICE_FLAG_GRADE_SCHOOL 	= "UsualWorkAndSchoolLocationChoice.ShadowPricingFlag.GradeSChool";
+    private static final String PROPERTIES_SHADOW_PRICE_INCREMENTAL_THRESHOLD = "UsualWorkAndSchoolLocationChoice.ShadowPricing.IncrementalThreshold";
+    private static final String PROPERTIES_SHADOW_PRICE_COUNT_IN_TASKS = "UsualWorkAndSchoolLocationChoice.ShadowPricing.CountToursInTasks";
     private static final int	DEFAULT_AGE_FOR_GRADE_SCHOOL				= 10; // value used to retrieve grade-school purpose name 
     																			  // TODO: ideally, should get this from modelStructure
     
@@ -88,6 +93,14 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
     private int soaSampleSize;
 
     private String restartModelString;
+
+    // if >= 0, shadow price iterations after the first only re-simulate persons whose sample of alternatives
+    // includes an alternative whose shadow price changed by more than this relative amount.
+    private double incrementalThreshold = -1;
+
+    // if true, the location choice tasks count the chosen destinations for shadow pricing and return them with their
+    // results, instead of the household data manager counting them from every household after each iteration.
+    private boolean countToursInTasks = false;
     
     private JPPFClient jppfClient = null;
 
@@ -139,6 +152,21 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
             
 
         
+        try {
+            incrementalThreshold = Double.parseDouble( resourceBundle.getString( PROPERTIES_SHADOW_PRICE_INCREMENTAL_THRESHOLD ) );
+        }
+        catch ( MissingResourceException e ){
+            incrementalThreshold = -1;
+        }
+        if ( incrementalThreshold >= 0 ) logger.info("UWSL incremental shadow pricing threshold=" + incrementalThreshold);
+
+        try {
+            countToursInTasks = Boolean.parseBoolean( resourceBundle.getString( PROPERTIES_SHADOW_PRICE_COUNT_IN_TASKS ) );
+        }
+        catch ( MissingResourceException e ){
+            countToursInTasks = false;
+        }
+
         try {
             wsLocResultsFileName = resourceBundle.getString( PROPERTIES_RESULTS_WORK_SCHOOL_LOCATION_CHOICE );
         }
@@ -209,6 +237,7 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
        
         
         HashMap<String, String> propertyMap = ResourceUtil.changeResourceBundleIntoHashMap(resourceBundle);
+        TaskMetrics.setup( propertyMap );
         
         
 
@@ -242,10 +271,16 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
         
         long initTime = System.currentTimeMillis();
 
+        // alternatives whose shadow prices changed in the previous iteration, by dc model purpose index.
+        // null means every person's location is chosen.
+        boolean[][] shadowPriceChangedAlts = null;
         
         // shadow pricing iterations
         for( int iter=0; iter < dcSizeObj.getMaxShadowPriceIterations(); iter++ ) {
            
+            // chosen destinations by purpose, dest zone and subzone, summed from the task results if they count them
+            double[][][] taskModeledDestChoiceLocationsByDestZone = countToursInTasks ? HouseholdDataManager.createMandatoryToursByDestZoneSubZone( tazDataManager, modelStructure ) : null;
+
             logger.info( "start of shadow pricing iter " + iter + ", free memory = " + Runtime.getRuntime().freeMemory() + ", total memory = " + Runtime.getRuntime().totalMemory() );
 
             //logger.info( String.format( "Size of Household[] in bytes = %d.", householdDataManager.getBytesUsedByHouseholdArray() ) );
@@ -269,6 +304,8 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
                 dataProvider.setValue("modeChoiceUecFileName", modeChoiceUecFileName);
                 dataProvider.setValue("dmuFactory", dmuFactory);
                 dataProvider.setValue("restartModelString", restartModelString);
+                dataProvider.setValue("shadowPriceChangedAlts", shadowPriceChangedAlts);
+                dataProvider.setValue("countMandatoryTours", countToursInTasks);
                 
                 job.setDataProvider(dataProvider);
                 
@@ -297,12 +334,17 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
 
                 logger.info( "after getting results, free memory = " + Runtime.getRuntime().freeMemory() + ", total memory = " + Runtime.getRuntime().totalMemory() );
 
+                TreeMap<String, MetricsSnapshot> metricsByNode = new TreeMap<String, MetricsSnapshot>();
                 for (JPPFTask task : results) {
                     if (task.getException() != null) throw task.getException();
 
                     try {                       
                         String stringResult = (String)task.getResult();
                         logger.info( stringResult );
+                        LocationChoiceTaskJppf lcTask = (LocationChoiceTaskJppf)task;
+                        TaskMetrics.addTaskMetrics( metricsByNode, lcTask.getNodeName(), lcTask.getMetrics() );
+                        if ( countToursInTasks )
+                            lcTask.addMandatoryTours( taskModeledDestChoiceLocationsByDestZone );
                     }
                     catch (Exception e) {
                         logger.error( "", e );
@@ -311,6 +353,8 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
 
                 }
 
+                TaskMetrics.writeStepMetrics( propertyMap, "usualWorkSchoolLocation_" + currentIter, metricsByNode );
+
             }
             catch (Exception e)
             {
@@ -322,7 +366,7 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
             
             
             // sum the chosen destinations by purpose, dest zone and subzone for shadow pricing adjustment
-            double[][][] finalModeledDestChoiceLocationsByDestZone = householdDataManager.getMandatoryToursByDestZoneSubZone();
+            double[][][] finalModeledDestChoiceLocationsByDestZone = countToursInTasks ? taskModeledDestChoiceLocationsByDestZone : householdDataManager.getMandatoryToursByDestZoneSubZone();
 
             double[] numChosenDests = new double[tourPurposeList.length];
             for( int i=0; i < tourPurposeList.length; i++) {
@@ -352,7 +396,12 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
             
             // apply the shadow price adjustments
             dcSizeObj.reportMaxDiff(currentIter, finalModeledDestChoiceLocationsByDestZone, tourPurposeList);
+            double[][][] previousShadowPrices = ( incrementalThreshold >= 0 ) ? dcSizeObj.getShadowPrices() : null;
             dcSizeObj.updateShadowPrices(finalModeledDestChoiceLocationsByDestZone, shadowPricePurposeList);
+            if ( incrementalThreshold >= 0 ) {
+                shadowPriceChangedAlts = dcSizeObj.getShadowPriceChangedAlternatives(previousShadowPrices, tourPurposeList, incrementalThreshold);
+                logChangedAlternatives( tourPurposeList, shadowPriceChangedAlts );
+            }
             dcSizeObj.updateSizeVariables(tourPurposeList, start, end);
             dcSizeObj.updateShadowPricingInfo(currentIter, originLocationsByHomeZone, finalModeledDestChoiceLocationsByDestZone, tourPurposeList, start, end);
            
@@ -403,6 +452,20 @@ public class UsualWorkSchoolLocationChoiceModel implements Serializable {
 
 
 
+    // log the number of alternatives by purpose that persons will be re-simulated for in incremental shadow pricing
+    private void logChangedAlternatives( String[] tourPurposeList, boolean[][] shadowPriceChangedAlts ) {
+        logger.info( String.format("Alternatives with shadow price changes > %.4f for the next iteration:", incrementalThreshold) );
+        for ( String purposeString : tourPurposeList ) {
+            boolean[] changed = shadowPriceChangedAlts[modelStructure.getDcModelPurposeIndex(purposeString)];
+            int count = 0;
+            for ( int a=1; a < changed.length; a++ )
+                if ( changed[a] )
+                    count++;
+            logger.info( String.format("\t%-15s = %d of %d", purposeString, count, changed.length-1) );
+        }
+    }
+
+
     // method removes from tourPurposeList any purposes for which shadow pricing is switched off in the properties file
     private String[] getShadowPriceTourPurposes(String[] tourPurposeList) {
     	
@@ -0,0 +1,270 @@
+package com.pb.models.ctramp.tests;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Random;
+
+import com.pb.common.calculator.DataEntry;
+import com.pb.common.calculator.IndexValues;
+import com.pb.common.calculator.MatrixDataManager;
+import com.pb.common.calculator.MatrixDataServerIf;
+import com.pb.common.calculator.VariableTable;
+import com.pb.common.matrix.Matrix;
+import com.pb.common.matrix.MatrixType;
+import com.pb.common.newmodel.UtilityExpressionCalculator;
+
+/**
+ * Compares the interpreted and compiled (UEC.CompiledExpressions) evaluation of the MTC tour mode choice UEC.
+ *
+ * Both UECs are solved for the same synthetic cases: skims are random matrices served in place of the
+ * matrix files named on the data sheet, and the DMU returns a random value for each @ variable.  The utilities
+ * and expression answers of the two are checked to be identical, then the time to solve each sheet is reported
+ * for both.
+ *
+ * usage: CompiledUECBenchmark modeChoiceUecFile propertiesFile [cases] [zones]
+ *   e.g. CompiledUECBenchmark model-files/model/ModeChoice.xls model-files/runtime/mtcTourBased.properties
+ */
+public class CompiledUECBenchmark {
+
+    private static final int DATA_SHEET = 0;
+
+    public static void main(String[] args) throws IOException {
+
+        if ( args.length < 2 ) {
+            System.out.println( "usage: CompiledUECBenchmark modeChoiceUecFile propertiesFile [cases] [zones]" );
+            return;
+        }
+
+        File uecFile = new File( args[0] );
+        HashMap<String,String> propertyMap = readProperties( args[1] );
+        int cases = args.length > 2 ? Integer.parseInt( args[2] ) : 20000;
+        int zones = args.length > 3 ? Integer.parseInt( args[3] ) : 100;
+
+        MatrixDataManager.getInstance().setMatrixDataServerObject( new RandomMatrixServer( zones ) );
+
+        int sheet = 1;
+        while ( true ) {
+
+            HashMap<String,String> interpretedMap = new HashMap<String,String>( propertyMap );
+            interpretedMap.put( UtilityExpressionCalculator.PROPERTIES_COMPILED_EXPRESSIONS, "false" );
+            HashMap<String,String> compiledMap = new HashMap<String,String>( propertyMap );
+            compiledMap.put( UtilityExpressionCalculator.PROPERTIES_COMPILED_EXPRESSIONS, "true" );
+
+            RandomDmu dmu = new RandomDmu();
+            UtilityExpressionCalculator interpreted = null;
+            UtilityExpressionCalculator compiled = null;
+            try {
+                interpreted = new UtilityExpressionCalculator( uecFile, sheet, DATA_SHEET, interpretedMap, dmu );
+                compiled = new UtilityExpressionCalculator( uecFile, sheet, DATA_SHEET, compiledMap, dmu );
+            }
+            catch ( RuntimeException e ) {
+                // past the last model sheet
+                if ( sheet == 1 )
+                    throw e;
+                break;
+            }
+
+            compareSheet( sheet, interpreted, compiled, dmu, cases, zones );
+            sheet++;
+        }
+
+        System.out.println( "CompiledUECBenchmark passed" );
+    }
+
+
+    private static void compareSheet( int sheet, UtilityExpressionCalculator interpreted, UtilityExpressionCalculator compiled,
+            RandomDmu dmu, int cases, int zones ) {
+
+        int numAlts = interpreted.getNumberOfAlternatives();
+        int[] availability = new int[numAlts+1];
+        Arrays.fill( availability, 1 );
+        IndexValues index = new IndexValues();
+
+        // same answers, case by case
+        for ( int i=0; i < cases; i++ ) {
+            setCase( i, index, dmu, zones );
+            double[] expected = interpreted.solve( index, dmu, availability );
+            double[] actual = compiled.solve( index, dmu, availability );
+            for ( int a=0; a < numAlts; a++ ) {
+                if ( Double.doubleToLongBits( expected[a] ) != Double.doubleToLongBits( actual[a] ) )
+                    throw new RuntimeException( String.format( "failed: sheet %d, case %d, alternative %d, interpreted=%s, compiled=%s",
+                            sheet, i, a+1, expected[a], actual[a] ) );
+            }
+            double[][] expectedAnswers = interpreted.getAnswersArray();
+            double[][] actualAnswers = compiled.getAnswersArray();
+            for ( int e=0; e < expectedAnswers.length; e++ ) {
+                for ( int a=0; a < numAlts; a++ ) {
+                    if ( Double.doubleToLongBits( expectedAnswers[e][a] ) != Double.doubleToLongBits( actualAnswers[e][a] ) )
+                        throw new RuntimeException( String.format( "failed: sheet %d, case %d, expression %d, alternative %d, interpreted=%s, compiled=%s",
+                                sheet, i, e+1, a+1, expectedAnswers[e][a], actualAnswers[e][a] ) );
+                }
+            }
+        }
+
+        // warm up, then time each
+        long interpretedNanos = 0;
+        long compiledNanos = 0;
+        double sum = 0;
+        for ( int round=0; round < 3; round++ ) {
+            long start = System.nanoTime();
+            for ( int i=0; i < cases; i++ ) {
+                setCase( i, index, dmu, zones );
+                sum += interpreted.solve( index, dmu, availability )[0];
+            }
+            interpretedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for ( int i=0; i < cases; i++ ) {
+                setCase( i, index, dmu, zones );
+                sum += compiled.solve( index, dmu, availability )[0];
+            }
+            compiledNanos = System.nanoTime() - start;
+        }
+
+        System.out.println( String.format( "sheet %d, %d alternatives, %d cases: interpreted %.2f us/case, compiled %.2f us/case, %.1fx (%s)",
+                sheet, numAlts, cases, interpretedNanos / 1000.0 / cases, compiledNanos / 1000.0 / cases,
+                (double)interpretedNanos / compiledNanos, sum > 0 ? "+" : "-" ) );
+    }
+
+
+    private static void setCase( int i, IndexValues index, RandomDmu dmu, int zones ) {
+        Random random = new Random( i );
+        index.setOriginZone( 1 + random.nextInt( zones ) );
+        index.setDestZone( 1 + random.nextInt( zones ) );
+        index.setZoneIndex( index.getDestZone() );
+        index.setHHIndex( i + 1 );
+        dmu.setValues( random );
+    }
+
+
+    private static HashMap<String,String> readProperties( String fileName ) throws IOException {
+        Properties properties = new Properties();
+        FileInputStream in = new FileInputStream( fileName );
+        properties.load( in );
+        in.close();
+        HashMap<String,String> propertyMap = new HashMap<String,String>();
+        for ( String key : properties.stringPropertyNames() ) {
+            // values filled in by RuntimeConfiguration.py for a model run only need to be numbers here
+            String value = properties.getProperty( key ).trim();
+            propertyMap.put( key, value.startsWith( "set_by_" ) ? "1" : value );
+        }
+        return propertyMap;
+    }
+
+
+    /**
+     * A DMU that returns a value drawn for each case for every @ variable the UEC asks for.
+     */
+    private static class RandomDmu implements VariableTable {
+
+        private final HashMap<String,Integer> methodIndexMap = new HashMap<String,Integer>();
+        private double[] values = new double[0];
+
+        void setValues( Random random ) {
+            if ( values.length < methodIndexMap.size() )
+                values = new double[methodIndexMap.size()];
+            // mix of indicator, small count and continuous values
+            for ( int i=0; i < values.length; i++ ) {
+                switch ( i % 3 ) {
+                    case 0: values[i] = random.nextInt( 2 ); break;
+                    case 1: values[i] = random.nextInt( 4 ); break;
+                    default: values[i] = random.nextDouble() * 10; break;
+                }
+            }
+        }
+
+        public int getIndexValue( String variableName ) {
+            Integer index = methodIndexMap.get( variableName );
+            if ( index == null ) {
+                index = methodIndexMap.size();
+                methodIndexMap.put( variableName, index );
+            }
+            return index;
+        }
+
+        public double getValueForIndex( int variableIndex, int arrayIndex ) {
+            return values[variableIndex];
+        }
+
+        public int getAssignmentIndexValue( String variableName ) {
+            throw new UnsupportedOperationException();
+        }
+
+        public double getValueForIndex( int variableIndex ) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void setValue( String variableName, double variableValue ) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void setValue( int variableIndex, double variableValue ) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
+    /**
+     * Serves a random matrix for each skim named on the UEC data sheet.
+     */
+    private static class RandomMatrixServer implements MatrixDataServerIf {
+
+        private final int zones;
+
+        RandomMatrixServer( int zones ) {
+            this.zones = zones;
+        }
+
+        public Matrix getMatrix( DataEntry matrixEntry ) {
+            Random random = new Random( matrixEntry.name.hashCode() );
+            float[][] values = new float[zones][zones];
+            for ( int i=0; i < zones; i++ )
+                for ( int j=0; j < zones; j++ )
+                    values[i][j] = random.nextInt( 5 ) == 0 ? 0 : random.nextFloat() * 60;
+            return new Matrix( matrixEntry.name, "", values );
+        }
+
+        public int[][] getMatrixExternalNumbers( DataEntry matrixEntry ) {
+            Matrix m = getMatrix( matrixEntry );
+            return new int[][] { m.getExternalRowNumbers(), m.getExternalColumnNumbers() };
+        }
+
+        public float[][][] getMatrixRows( DataEntry[] matrixEntries, int[] externalRows ) {
+            throw new UnsupportedOperationException();
+        }
+
+        public float[][][] getMatrixColumns( DataEntry[] matrixEntries, int[] externalColumns ) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void start32BitMatrixIoServer( MatrixType mType ) {
+        }
+
+        public void stop32BitMatrixIoServer() {
+        }
+
+        public String testRemote( String remoteObjectName ) {
+            return "";
+        }
+
+        public String testRemote() {
+            return "";
+        }
+
+        public void clear() {
+        }
+
+        public String getCacheStatistics() {
+            return "";
+        }
+
+        public void writeMatrixFile( String fileName, Matrix[] m ) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.pb.models.ctramp.tests;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.pb.common.model.Alternative;
+import com.pb.common.model.ConcreteAlternative;
+import com.pb.common.model.LogitModel;
+import com.pb.common.model.ModelException;
+import com.pb.models.ctramp.Definitions;
+import com.pb.models.ctramp.jppf.CdapPatternKernel;
+
+/**
+ * Checks the CdapPatternKernel against the LogitModel implementation of the coordinated daily activity pattern
+ * choice in HouseholdCoordinatedDailyActivityPatternModel for 1 to 5 person households.
+ *
+ * Random one person, two person, three person and all member utilities, some of them -999 so patterns aren't
+ * available, are added to a LogitModel with an alternative for each pattern, the way getPatternChoiceFromLogitModel()
+ * adds them, and set in the kernel.  The pattern names, utilities, probabilities and the patterns chosen for a set of
+ * random numbers are checked to be the same.
+ *
+ * usage: TestCdapPatternKernel [households]
+ */
+public class TestCdapPatternKernel {
+
+    private static final int MAX_MODEL_HH_SIZE = 5;
+
+    private static final String[] activityNameArray = { Definitions.MANDATORY_PATTERN, Definitions.NONMANDATORY_PATTERN, Definitions.HOME_PATTERN };
+
+    private static final int NUM_DRAWS = 50;
+
+
+    public static void main(String[] args) throws ModelException {
+
+        int households = args.length > 0 ? Integer.parseInt( args[0] ) : 2000;
+
+        CdapPatternKernel kernel = new CdapPatternKernel( MAX_MODEL_HH_SIZE, activityNameArray );
+
+        for ( int hhSize=1; hhSize <= MAX_MODEL_HH_SIZE; hhSize++ ) {
+            LogitModel logitModel = createLogitModel( hhSize );
+            for ( int h=0; h < households; h++ )
+                compareHousehold( hhSize, h, logitModel, kernel );
+            System.out.println( String.format( "%d person households: %d households, %d patterns checked", hhSize, households, CdapPatternKernel.getNumberOfPatterns( hhSize ) ) );
+        }
+
+        System.out.println( "TestCdapPatternKernel passed" );
+    }
+
+
+    private static void compareHousehold( int hhSize, int h, LogitModel logitModel, CdapPatternKernel kernel ) throws ModelException {
+
+        Random random = new Random( hhSize * 1000003L + h );
+
+        logitModel.clear();
+        ArrayList<Alternative> alternativeList = new ArrayList<Alternative>();
+        for ( Object alt : logitModel.getAlternatives() )
+            alternativeList.add( (Alternative)alt );
+        for ( Alternative alt : alternativeList )
+            alt.setUtility( 0.0 );
+
+        kernel.setHouseholdSize( hhSize );
+
+        // same loops as getPatternChoiceFromLogitModel()
+        for ( int i=0; i < hhSize; i++ ) {
+
+            double[] onePersonUtilities = getRandomUtilities( random );
+            kernel.setOnePersonUtilities( i, onePersonUtilities );
+            for ( Alternative alt : alternativeList ) {
+                String altName = alt.getName();
+                for ( int a=0; a < activityNameArray.length; a++ )
+                    if ( altName.substring( i, i+1 ).equalsIgnoreCase( activityNameArray[a] ) )
+                        alt.setUtility( alt.getUtility() + onePersonUtilities[a] );
+            }
+
+            for ( int j=i+1; j < hhSize; j++ ) {
+
+                double[] twoPersonUtilities = getRandomUtilities( random );
+                kernel.setTwoPersonUtilities( i, j, twoPersonUtilities );
+                for ( Alternative alt : alternativeList ) {
+                    String altName = alt.getName();
+                    for ( int a=0; a < activityNameArray.length; a++ )
+                        if ( altName.substring( i, i+1 ).equalsIgnoreCase( activityNameArray[a] )
+                                && altName.substring( j, j+1 ).equalsIgnoreCase( activityNameArray[a] ) )
+                            alt.setUtility( alt.getUtility() + twoPersonUtilities[a] );
+                }
+
+                for ( int k=j+1; k < hhSize; k++ ) {
+
+                    double[] threePersonUtilities = getRandomUtilities( random );
+                    kernel.setThreePersonUtilities( i, j, k, threePersonUtilities );
+                    for ( Alternative alt : alternativeList ) {
+                        String altName = alt.getName();
+                        for ( int a=0; a < activityNameArray.length; a++ )
+                            if ( altName.substring( i, i+1 ).equalsIgnoreCase( activityNameArray[a] )
+                                    && altName.substring( j, j+1 ).equalsIgnoreCase( activityNameArray[a] )
+                                    && altName.substring( k, k+1 ).equalsIgnoreCase( activityNameArray[a] ) )
+                                alt.setUtility( alt.getUtility() + threePersonUtilities[a] );
+                    }
+                }
+            }
+        }
+
+        double[] allMemberUtilities = getRandomUtilities( random );
+        kernel.setAllMemberUtilities( allMemberUtilities );
+        for ( Alternative alt : alternativeList ) {
+            String altName = alt.getName();
+            for ( int a=0; a < activityNameArray.length; a++ ) {
+                boolean samePattern = true;
+                for ( int k=0; k < hhSize; k++ ) {
+                    if ( ! altName.substring( k, k+1 ).equalsIgnoreCase( activityNameArray[a] ) ) {
+                        samePattern = false;
+                        break;
+                    }
+                }
+                if ( samePattern )
+                    alt.setUtility( alt.getUtility() + allMemberUtilities[a] );
+            }
+        }
+
+        logitModel.computeAvailabilities();
+        logitModel.getUtility();
+        logitModel.calculateProbabilities();
+        double[] expectedProbabilities = logitModel.getProbabilities();
+
+        // the kernel computes the utilities and probabilities when it chooses
+        double[] draws = new double[NUM_DRAWS];
+        for ( int d=0; d < NUM_DRAWS; d++ )
+            draws[d] = random.nextDouble();
+        kernel.choosePattern( draws[0] );
+
+        double[] utilities = kernel.getUtilities();
+        double[] probabilities = kernel.getProbabilities();
+        for ( int p=0; p < alternativeList.size(); p++ ) {
+            Alternative alt = alternativeList.get( p );
+            if ( ! alt.getName().equals( kernel.getPatternName( p ) ) )
+                fail( hhSize, h, String.format( "pattern %d, LogitModel=%s, kernel=%s", p, alt.getName(), kernel.getPatternName( p ) ) );
+            if ( Double.doubleToLongBits( alt.getUtility() ) != Double.doubleToLongBits( utilities[p] ) )
+                fail( hhSize, h, String.format( "pattern %s utility, LogitModel=%s, kernel=%s", alt.getName(), alt.getUtility(), utilities[p] ) );
+            if ( Double.doubleToLongBits( expectedProbabilities[p] ) != Double.doubleToLongBits( probabilities[p] ) )
+                fail( hhSize, h, String.format( "pattern %s probability, LogitModel=%s, kernel=%s", alt.getName(), expectedProbabilities[p], probabilities[p] ) );
+        }
+
+        for ( int d=0; d < NUM_DRAWS; d++ ) {
+            String expected = ((ConcreteAlternative)logitModel.chooseElementalAlternative( draws[d] )).getName();
+            int chosen = kernel.choosePattern( draws[d] );
+            String actual = chosen < 0 ? "none" : kernel.getPatternName( chosen );
+            if ( ! expected.equals( actual ) )
+                fail( hhSize, h, String.format( "random number %s, LogitModel chose %s, kernel chose %s", draws[d], expected, actual ) );
+        }
+    }
+
+
+    // utilities of each activity, with an occasional -999 making the patterns that include it unavailable
+    private static double[] getRandomUtilities( Random random ) {
+        double[] utilities = new double[activityNameArray.length];
+        for ( int a=0; a < utilities.length; a++ )
+            utilities[a] = random.nextInt( 20 ) == 0 ? -999 : random.nextDouble() * 6 - 3;
+        // keep at least one pattern available
+        utilities[random.nextInt( utilities.length )] = random.nextDouble() * 6 - 3;
+        return utilities;
+    }
+
+
+    // same alternatives as HouseholdCoordinatedDailyActivityPatternModel.createLogitModels()
+    private static LogitModel createLogitModel( int hhSize ) {
+
+        LogitModel logitModel = new LogitModel( hhSize + " Person HH" );
+
+        int numberOfAlternatives = CdapPatternKernel.getNumberOfPatterns( hhSize );
+        int[] counterForEachPerson = new int[hhSize];
+        for ( int alt=0; alt < numberOfAlternatives; alt++ ) {
+            String alternativeName = "";
+            for ( int j=0; j < hhSize; j++ )
+                alternativeName += activityNameArray[counterForEachPerson[j]];
+            logitModel.addAlternative( new ConcreteAlternative( alternativeName, alt ) );
+            for ( int j=0; j < hhSize; j++ ) {
+                counterForEachPerson[j]++;
+                if ( counterForEachPerson[j] == activityNameArray.length )
+                    counterForEachPerson[j] = 0;
+                else
+                    break;
+            }
+        }
+
+        return logitModel;
+    }
+
+
+    private static void fail( int hhSize, int h, String message ) {
+        throw new RuntimeException( String.format( "failed: %d person household %d, %s", hhSize, h, message ) );
+    }
+
+}
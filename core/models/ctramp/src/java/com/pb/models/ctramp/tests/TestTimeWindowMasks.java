@@ -0,0 +1,117 @@
+package com.pb.models.ctramp.tests;
+
+import java.util.Random;
+
+import com.pb.models.ctramp.Person;
+import com.pb.models.ctramp.TimeWindowMasks;
+import com.pb.models.ctramp.jppf.CtrampApplication;
+
+/**
+ * Checks the availability of the time of day alternatives found with TimeWindowMasks against
+ * Person.isWindowAvailable() for random schedules.
+ *
+ * The alternatives are every start and end hour from START_HOUR to LAST_HOUR with start <= end.  Each schedule is
+ * either a set of random tours scheduled with Person.scheduleWindow() where they're available, the way the tour
+ * models build a person's window, or random window codes 0 to 4 for each hour.  The or'ed words of two persons are
+ * also checked to give the alternatives available to both, as for a joint tour.
+ *
+ * usage: TestTimeWindowMasks [schedules]
+ */
+public class TestTimeWindowMasks {
+
+    public static void main(String[] args) {
+
+        int schedules = args.length > 0 ? Integer.parseInt( args[0] ) : 100000;
+
+        int numHours = CtrampApplication.LAST_HOUR - CtrampApplication.START_HOUR + 1;
+        int numAlts = numHours * ( numHours + 1 ) / 2;
+        int[] altStarts = new int[numAlts];
+        int[] altEnds = new int[numAlts];
+        int alt = 0;
+        for ( int start=CtrampApplication.START_HOUR; start <= CtrampApplication.LAST_HOUR; start++ ) {
+            for ( int end=start; end <= CtrampApplication.LAST_HOUR; end++ ) {
+                altStarts[alt] = start;
+                altEnds[alt] = end;
+                alt++;
+            }
+        }
+
+        TimeWindowMasks masks = new TimeWindowMasks( altStarts, altEnds );
+        if ( masks.getNumberOfAlternatives() != numAlts )
+            throw new RuntimeException( String.format( "failed: %d alternatives, masks have %d", numAlts, masks.getNumberOfAlternatives() ) );
+
+        Random random = new Random( 1 );
+        Person personA = new Person( null, 1 );
+        Person personB = new Person( null, 2 );
+        long[] wordsA = new long[TimeWindowMasks.NUM_WORDS];
+        long[] wordsB = new long[TimeWindowMasks.NUM_WORDS];
+        long[] jointWords = new long[TimeWindowMasks.NUM_WORDS];
+
+        for ( int s=0; s < schedules; s++ ) {
+
+            setRandomSchedule( personA, random, s % 2 == 0 );
+            setRandomSchedule( personB, random, s % 2 == 0 );
+
+            boolean[] availableA = personA.getAvailableTimeWindows( masks );
+            boolean[] availableB = personB.getAvailableTimeWindows( masks );
+            for ( int i=0; i < numAlts; i++ ) {
+                checkAlternative( s, "person A", personA, altStarts[i], altEnds[i], availableA[i+1] );
+                checkAlternative( s, "person B", personB, altStarts[i], altEnds[i], availableB[i+1] );
+            }
+
+            TimeWindowMasks.setWindowWords( personA.getTimeWindows(), wordsA );
+            TimeWindowMasks.setWindowWords( personB.getTimeWindows(), wordsB );
+            for ( int w=0; w < TimeWindowMasks.NUM_WORDS; w++ )
+                jointWords[w] = wordsA[w] | wordsB[w];
+            boolean[] availableJoint = masks.getAvailability( jointWords );
+            for ( int i=0; i < numAlts; i++ ) {
+                boolean expected = personA.isWindowAvailable( altStarts[i], altEnds[i] ) && personB.isWindowAvailable( altStarts[i], altEnds[i] );
+                if ( availableJoint[i+1] != expected )
+                    throw new RuntimeException( String.format( "failed: schedule %d, joint start=%d, end=%d, isWindowAvailable=%s, masks=%s, windows A=%s, B=%s",
+                            s, altStarts[i], altEnds[i], expected, availableJoint[i+1], getWindowString( personA ), getWindowString( personB ) ) );
+            }
+        }
+
+        System.out.println( String.format( "%d schedules, %d alternatives checked", schedules, numAlts ) );
+        System.out.println( "TestTimeWindowMasks passed" );
+    }
+
+
+    // either schedule random tours where they're available, or set random window codes
+    private static void setRandomSchedule( Person person, Random random, boolean scheduleTours ) {
+
+        person.resetTimeWindow( CtrampApplication.START_HOUR, CtrampApplication.LAST_HOUR );
+
+        if ( scheduleTours ) {
+            int numTours = random.nextInt( 6 );
+            for ( int t=0; t < numTours; t++ ) {
+                int start = CtrampApplication.START_HOUR + random.nextInt( CtrampApplication.LAST_HOUR - CtrampApplication.START_HOUR + 1 );
+                int end = start + random.nextInt( CtrampApplication.LAST_HOUR - start + 1 );
+                if ( person.isWindowAvailable( start, end ) )
+                    person.scheduleWindow( start, end );
+            }
+        }
+        else {
+            byte[] windows = person.getTimeWindows();
+            for ( int h=0; h < windows.length; h++ )
+                windows[h] = (byte)random.nextInt( 5 );
+        }
+    }
+
+
+    private static void checkAlternative( int s, String label, Person person, int start, int end, boolean available ) {
+        boolean expected = person.isWindowAvailable( start, end );
+        if ( available != expected )
+            throw new RuntimeException( String.format( "failed: schedule %d, %s start=%d, end=%d, isWindowAvailable=%s, masks=%s, windows=%s",
+                    s, label, start, end, expected, available, getWindowString( person ) ) );
+    }
+
+
+    private static String getWindowString( Person person ) {
+        StringBuilder windowString = new StringBuilder();
+        for ( byte code : person.getTimeWindows() )
+            windowString.append( code );
+        return windowString.toString();
+    }
+
+}
@@ -55,7 +55,7 @@ public class MtcHouseholdDataManager extends HouseholdDataManager {
     // this method gets called by MtcTourBasedModel, if the HouseholdDataManagerIf instance is an MtcHouseholdDataManager object.
     public void mapTablesToHouseholdObjects( String inputHouseholdFileName, String inputPersonFileName, ModelStructure modelStructure, TazDataIf tazDataManager ) {
         setupHouseholdDataManager( modelStructure, tazDataManager, inputHouseholdFileName, inputPersonFileName );
-        logger.info("HH Array has "+fullHhArray.length+ " elements");
+        logger.info("HH Array has "+getNumHouseholds()+ " elements");
     }
     
     
@@ -126,6 +126,7 @@ public class MtcHouseholdDataManager extends HouseholdDataManager {
                 // get required values from table record and store in Household object
                 id = (int)hhTable.getValueAt( r, hhTable.getColumnPosition( HH_ID_FIELD_NAME ) );
                 hh.setHhId ( id, inputRandomSeed );
+                hh.setCounterBasedRandom( counterBasedRandom );
 
                 // set the household in the hhIndexArray in random order
                 //int index = sortedIndices[r-1];
@@ -420,6 +421,8 @@ public class MtcHouseholdDataManager extends HouseholdDataManager {
      */
     public void createSamplePopulationFiles ( String hhFileName, String persFileName, String newHhFileName, String newPersFileName, int numHhs ) {
 
+    	Household[] fullHhArray = getHhArray();
+
     	int maximumHhId = 0;
     	for( int i=0; i< fullHhArray.length; i++ ){
     		int id = fullHhArray[i].getHhId();
@@ -9,6 +9,11 @@ import com.pb.models.ctramp.TazDataIf;
 
 public class MtcModeChoiceDMU extends ModeChoiceDMU {
 
+    public static final String PROPERTIES_MEANS_BASED_FARE_POVERTY_THRESHOLD = "Means_Based_Fare_PctOfPoverty_Threshold";
+
+
+    // means based fare poverty threshold, for the logsum cache key
+    double povertyThreshold;
 
     int[] zoneTableRow;
     int[] areaType;
@@ -123,6 +128,75 @@ public class MtcModeChoiceDMU extends ModeChoiceDMU {
     	return person.getPAnalyst();
     }
 
+    /**
+     * Declare the logsum cache key for the variables used in ModeChoice.xls.  The age, household size and income
+     * segments in getLogsumCacheKey() follow the thresholds used in the UEC expressions, so they need to be kept in step
+     * with the UEC.  The value of time and the TNC and taxi wait times are the person's own values and are not
+     * declared, so a UEC that uses them computes its logsums without the cache.
+     */
+    public void declareLogsumCacheKey( HashMap<String, String> propertyMap ) {
+        super.declareLogsumCacheKey( propertyMap );
+
+        String propertyName = PROPERTIES_MEANS_BASED_FARE_POVERTY_THRESHOLD;
+        try {
+            povertyThreshold = Double.parseDouble( propertyMap.get( propertyName ).trim() );
+        }
+        catch ( RuntimeException e ) {
+            logger.error( String.format( "could not read %s from the properties file, needed for the tour mode choice logsum cache.", propertyName ), e );
+            throw new RuntimeException( e );
+        }
+
+        addLogsumCacheVariables( "age", "hhIncomeInDollars", "hhIncomePctOfPoverty", "autos", "workers", "hhSize", "freeParking", "useOwnedAV",
+            "timeOutbound", "timeInbound", "tourDuration", "tourCategoryJoint", "numberOfParticipantsInJointTour", "tourCategorySubtour",
+            "workTourModeIsSOV", "workTourModeIsBike", "zonalShortWalkAccessOrig", "zonalLongWalkAccessOrig", "zonalShortWalkAccessDest",
+            "zonalLongWalkAccessDest", "origCordon", "origCordonCost" );
+
+        // zonal variables, determined by the origin and destination zones in the key
+        addLogsumCacheVariables( "areaType", "topology", "densityIndex", "originDensityIndex", "origCounty" );
+    }
+
+
+    /**
+     * @return the logsum cache key: the model index, origin and destination zones and walk access subzones, the outbound
+     * and inbound skim periods, the household income segment, poverty status, auto sufficiency and size (1, 2, 3+), the
+     * person's age segment (0-10, 11-15, 16-17, 18-19, 20+) and the tour attributes used in ModeChoice.xls.
+     */
+    public long[] getLogsumCacheKey( int modelIndex ) {
+
+        int age = person.getAge();
+        int ageSegment = age <= 10 ? 0 : age < 16 ? 1 : age < 18 ? 2 : age < 20 ? 3 : 4;
+
+        // tour duration only enters the UEC through the daily parking cost for persons who pay for parking
+        int freeParking = getFreeParking();
+        int joint = getTourCategoryJoint();
+        int subtour = getTourCategorySubtour();
+
+        return new long[] {
+            modelIndex,
+            dmuIndex.getOriginZone(),
+            dmuIndex.getDestZone(),
+            tour.getTourOrigWalkSubzone(),
+            tour.getTourDestWalkSubzone(),
+            getSkimPeriod( tour.getTourStartHour() ),
+            getSkimPeriod( tour.getTourEndHour() ),
+            MtcModelStructure.getIncomeSegmentStatic( getHhIncomeInDollars() ),
+            getHhIncomePctOfPoverty() <= povertyThreshold ? 1 : 0,
+            getAutoSufficiency(),
+            Math.min( getHhSize(), 3 ),
+            ageSegment,
+            freeParking,
+            freeParking == 2 ? (long)getTourDuration() : 0,
+            getUseOwnedAV(),
+            joint,
+            joint == 1 ? getNumberOfParticipantsInJointTour() : 0,
+            subtour,
+            subtour == 1 ? getWorkTourModeIsSOV() : 0,
+            subtour == 1 ? getWorkTourModeIsBike() : 0,
+            getOrigCordon(),
+            getOrigCordonCost()
+        };
+    }
+
     // private methods
 
     private float[] getZonalPeakHourlyParkingCost(TazDataIf tazDataManager){
@@ -9,8 +9,10 @@ import java.util.HashMap;
 import org.apache.log4j.Logger;
 
 import com.pb.common.datafile.OLD_CSVFileReader;
+import com.pb.common.datafile.ParallelCSVFileReader;
 import com.pb.common.datafile.TableDataSet;
 import com.pb.models.ctramp.Household;
+import com.pb.models.ctramp.HouseholdDataManager;
 import com.pb.models.ctramp.ModelStructure;
 import com.pb.models.ctramp.Person;
 import com.pb.models.ctramp.Tour;
@@ -688,8 +690,17 @@ public class MtcModelOutputReader {
 	    
 	    try
 	    {
-	    	OLD_CSVFileReader csvFile = new OLD_CSVFileReader();
-	    	tableDataSet = csvFile.readFile(new File(inputFile));
+	    	String threadsString = rbMap.get(HouseholdDataManager.CSV_READER_THREADS_NAME);
+	    	int threads = threadsString == null || threadsString.trim().length() == 0 ? 0 : Integer.parseInt(threadsString.trim());
+	    	if (threads > 0) {
+	    		ParallelCSVFileReader csvFile = new ParallelCSVFileReader();
+	    		csvFile.setThreads(threads);
+	    		tableDataSet = csvFile.readFile(new File(inputFile));
+	    	}
+	    	else {
+	    		OLD_CSVFileReader csvFile = new OLD_CSVFileReader();
+	    		tableDataSet = csvFile.readFile(new File(inputFile));
+	    	}
 	    } catch (IOException e)
 	    {
 	    	throw new RuntimeException(e);
@@ -362,7 +362,7 @@ public class MtcTripModeChoiceDMU extends TripModeChoiceDMU {
             case 25: return getHourlyPeakParkingCostAtOrigin();
             case 26: return getHourlyPeakParkingCostAtDestination();
             case 27: return getHourlyOffPeakParkingCostAtOrigin();
-            case 28: return getHourlyPeakParkingCostAtDestination();
+            case 28: return getHourlyOffPeakParkingCostAtDestination();
             case 29: return getTourDuration(); 
             case 30: return getTripTimeOfDay();
             case 31: return getTripIsInbound(); 